@@ -0,0 +1,28 @@
+package edu.umflix.usermanager.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the UserManager benchmarks with the GC profiler, so allocation per operation is reported next to
+ * throughput, and writes the results as JSON to the file given as first argument (default jmh-result.json).
+ * Usage: java -cp target/benchmarks.jar edu.umflix.usermanager.bench.BenchmarkRunner [result file] [include regex]
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String resultFile = args.length > 0 ? args[0] : "jmh-result.json";
+        String include = args.length > 1 ? args[1] : UserManagerBenchmark.class.getSimpleName();
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile)
+                .build();
+        new Runner(options).run();
+    }
+}
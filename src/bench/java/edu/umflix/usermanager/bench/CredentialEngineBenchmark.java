@@ -0,0 +1,62 @@
+package edu.umflix.usermanager.bench;
+
+import edu.umflix.usermanager.credentials.CredentialEngine;
+import edu.umflix.usermanager.credentials.Pbkdf2Hasher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the {@link CredentialEngine} at different PBKDF2 costs: hashing a new password, verifying a
+ * login and rejecting a wrong password, next to the plain text comparison it replaces. Run it with -t to see
+ * how the bounded pool caps the throughput once there are more callers than workers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class CredentialEngineBenchmark {
+
+    @Param({"10000", "50000", "210000"})
+    int iterations;
+
+    @Param({Pbkdf2Hasher.SHA256, Pbkdf2Hasher.SHA512})
+    String algorithm;
+
+    CredentialEngine engine;
+    String credential;
+
+    @Setup
+    public void prepare() {
+        engine = new CredentialEngine(new Pbkdf2Hasher(algorithm, iterations), Runtime.getRuntime().availableProcessors(),
+                1024, 10, TimeUnit.SECONDS);
+        credential = engine.hash("Password1");
+    }
+
+    @TearDown
+    public void shutdown() {
+        engine.stop();
+    }
+
+    @Benchmark
+    public String hash() {
+        return engine.hash("Password1");
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return engine.verify("Password1", credential);
+    }
+
+    @Benchmark
+    public boolean verifyWrongPassword() {
+        return engine.verify("Password2", credential);
+    }
+
+    @Benchmark
+    public boolean plainText() {
+        return engine.verify("Password1", "Password1");
+    }
+}
@@ -0,0 +1,112 @@
+package edu.umflix.usermanager.bench;
+
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.User;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.UserLookup;
+import edu.umflix.usermanager.exceptions.EmailAlreadyTakenException;
+import edu.umflix.usermanager.impl.DaoUserLookup;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the exception driven email check register used to do with the {@link UserLookup} path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmailAvailabilityBenchmark {
+
+    @Param({"true", "false"})
+    boolean taken;
+
+    FastUserDao userDao;
+    UserLookup nativeLookup;
+    UserLookup fallbackLookup;
+    String email;
+
+    @Setup
+    public void prepare() {
+        userDao = new FastUserDao();
+        User user = new User();
+        user.setEmail("taken@umflix.edu");
+        userDao.createUser(user);
+        nativeLookup = new DaoUserLookup(userDao);
+        fallbackLookup = new DaoUserLookup(new PlainUserDao(userDao));
+        email = taken ? "taken@umflix.edu" : "free@umflix.edu";
+    }
+
+    @Benchmark
+    public boolean exceptionDriven() {
+        try {
+            userDao.getUser(email);
+            return true;
+        } catch (UserNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public boolean lookupNative() {
+        return nativeLookup.exists(email);
+    }
+
+    @Benchmark
+    public boolean lookupFallback() {
+        return fallbackLookup.exists(email);
+    }
+
+    @Benchmark
+    public Object throwStacklessTaken() {
+        try {
+            throw new EmailAlreadyTakenException();
+        } catch (EmailAlreadyTakenException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object throwDaoNotFound() {
+        try {
+            throw new UserNotFoundException();
+        } catch (UserNotFoundException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Hides the native existence check of the wrapped dao.
+     */
+    static class PlainUserDao implements UserDao {
+
+        private final UserDao delegate;
+
+        PlainUserDao(UserDao delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public User getUser(String email) throws UserNotFoundException {
+            return delegate.getUser(email);
+        }
+
+        @Override
+        public void createUser(User user) {
+            delegate.createUser(user);
+        }
+
+        @Override
+        public void deleteUser(String email) throws UserNotFoundException {
+            delegate.deleteUser(email);
+        }
+
+        @Override
+        public void updateUser(User user) throws UserNotFoundException {
+            delegate.updateUser(user);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package edu.umflix.usermanager.bench;
+
+import edu.umflix.authenticationhandler.AuthenticationHandler;
+import edu.umflix.authenticationhandler.exceptions.InvalidTokenException;
+import edu.umflix.authenticationhandler.exceptions.InvalidUserException;
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.User;
+import edu.umflix.persistence.UserDao;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link AuthenticationHandler} that checks passwords against a {@link UserDao} and keeps one token per user in memory
+ */
+public class FastAuthenticationHandler implements AuthenticationHandler {
+
+    private final UserDao userDao;
+    private final ConcurrentHashMap<String, String> tokensByEmail = new ConcurrentHashMap<String, String>();
+    private final ConcurrentHashMap<String, User> usersByToken = new ConcurrentHashMap<String, User>();
+
+    public FastAuthenticationHandler(UserDao userDao) {
+        this.userDao = userDao;
+    }
+
+    @Override
+    public String authenticate(User user) throws InvalidUserException {
+        User stored;
+        try {
+            stored = userDao.getUser(user.getEmail());
+        } catch (UserNotFoundException e) {
+            throw new InvalidUserException();
+        }
+        if (stored.getPassword() == null || !stored.getPassword().equals(user.getPassword())) {
+            throw new InvalidUserException();
+        }
+        String token = tokensByEmail.get(stored.getEmail());
+        if (token == null) {
+            token = "token-" + stored.getEmail();
+            tokensByEmail.put(stored.getEmail(), token);
+        }
+        usersByToken.put(token, stored);
+        return token;
+    }
+
+    @Override
+    public boolean validateToken(String token) throws InvalidTokenException {
+        return usersByToken.containsKey(token);
+    }
+
+    @Override
+    public User getUserOfToken(String token) throws InvalidTokenException {
+        User user = usersByToken.get(token);
+        if (user == null) {
+            throw new InvalidTokenException();
+        }
+        return user;
+    }
+}
@@ -0,0 +1,28 @@
+package edu.umflix.usermanager.bench;
+
+import edu.umflix.exceptions.RoleNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.persistence.RoleDao;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Map backed {@link RoleDao} used as a zero latency backend by the benchmarks
+ */
+public class FastRoleDao implements RoleDao {
+
+    private final ConcurrentHashMap<Long, Role> roles = new ConcurrentHashMap<Long, Role>();
+
+    @Override
+    public Role getRoleById(Long id) throws RoleNotFoundException {
+        Role role = id == null ? null : roles.get(id);
+        if (role == null) {
+            throw new RoleNotFoundException();
+        }
+        return role;
+    }
+
+    public void addRole(Role role) {
+        roles.put(role.getId(), role);
+    }
+}
@@ -0,0 +1,77 @@
+package edu.umflix.usermanager.bench;
+
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.User;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.BulkUserWriter;
+import edu.umflix.usermanager.UserLookup;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Map backed {@link UserDao} used as a zero latency backend by the benchmarks. Unlike InMemoryUserDao it does
+ * no argument checks and overwrites duplicates, so only the UserManager code is measured
+ */
+public class FastUserDao implements UserDao, UserLookup, BulkUserWriter {
+
+    private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<String, User>();
+
+    @Override
+    public User getUser(String email) throws UserNotFoundException {
+        User user = users.get(email);
+        if (user == null) {
+            throw new UserNotFoundException();
+        }
+        return user;
+    }
+
+    @Override
+    public void createUser(User user) {
+        users.put(user.getEmail(), user);
+    }
+
+    @Override
+    public void deleteUser(String email) throws UserNotFoundException {
+        if (users.remove(email) == null) {
+            throw new UserNotFoundException();
+        }
+    }
+
+    @Override
+    public void updateUser(User user) throws UserNotFoundException {
+        if (users.replace(user.getEmail(), user) == null) {
+            throw new UserNotFoundException();
+        }
+    }
+
+    @Override
+    public boolean exists(String email) {
+        return users.containsKey(email);
+    }
+
+    @Override
+    public Set<String> existing(Collection<String> emails) {
+        Set<String> existing = new HashSet<String>();
+        for (String email : emails) {
+            if (users.containsKey(email)) {
+                existing.add(email);
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public void createUsers(List<User> users) {
+        for (User user : users) {
+            createUser(user);
+        }
+    }
+
+    public void clear() {
+        users.clear();
+    }
+}
@@ -0,0 +1,176 @@
+package edu.umflix.usermanager.bench;
+
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.usermanager.http.HttpUserManagerServer;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.ws.Endpoint;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of login and update through the JSON/HTTP front end and through the JAX-WS SOAP endpoint,
+ * both on loopback, both backed by the same in memory UserManager. Clients use keep alive connections, so
+ * the difference is mostly the cost of the envelopes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@Threads(4)
+public class HttpFrontEndBenchmark {
+
+    static final int USERS = 1024;
+    static final String SOAP_NAMESPACE = "http://um.org/wsdl";
+
+    HttpUserManagerServer httpServer;
+    Endpoint soapEndpoint;
+    URL httpLogin;
+    URL httpUpdate;
+    URL soap;
+    User[] users;
+    String[] tokens;
+
+    @Setup(Level.Trial)
+    public void prepare() throws Exception {
+        Role userRole = UserManagerBenchmark.role(3);
+        FastRoleDao roleDao = new FastRoleDao();
+        roleDao.addRole(userRole);
+        roleDao.addRole(UserManagerBenchmark.role(1));
+        FastUserDao userDao = new FastUserDao();
+        SoapUserManager userManager = new SoapUserManager(userDao, roleDao, new FastAuthenticationHandler(userDao));
+
+        users = new User[USERS];
+        tokens = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            users[i] = UserManagerBenchmark.user("user" + i + "@umflix.edu", "password" + i, userRole);
+            userManager.register(users[i]);
+            tokens[i] = userManager.login(users[i]);
+        }
+
+        httpServer = new HttpUserManagerServer(userManager, new InetSocketAddress("localhost", 0));
+        httpServer.start();
+        String http = "http://localhost:" + httpServer.getAddress().getPort() + HttpUserManagerServer.CONTEXT;
+        httpLogin = new URL(http + "login");
+        httpUpdate = new URL(http + "update");
+
+        String soapAddress = "http://localhost:" + freePort() + "/usermanager";
+        soapEndpoint = Endpoint.publish(soapAddress, userManager);
+        soap = new URL(soapAddress);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        httpServer.stop(0);
+        soapEndpoint.stop();
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private int anyUser() {
+        return ThreadLocalRandom.current().nextInt(USERS);
+    }
+
+    @Benchmark
+    public String httpLogin() throws IOException {
+        User user = users[anyUser()];
+        return post(httpLogin, "application/json", null,
+                "{\"email\":\"" + user.getEmail() + "\",\"password\":\"" + user.getPassword() + "\"}", 200);
+    }
+
+    @Benchmark
+    public String soapLogin() throws IOException {
+        User user = users[anyUser()];
+        return post(soap, "text/xml; charset=utf-8", null,
+                envelope("login", "<arg0><email>" + user.getEmail() + "</email><password>" + user.getPassword() + "</password></arg0>"), 200);
+    }
+
+    @Benchmark
+    public String httpLoginWrongPassword() throws IOException {
+        User user = users[anyUser()];
+        return post(httpLogin, "application/json", null,
+                "{\"email\":\"" + user.getEmail() + "\",\"password\":\"wrongPassword\"}", 401);
+    }
+
+    @Benchmark
+    public String soapLoginWrongPassword() throws IOException {
+        User user = users[anyUser()];
+        return post(soap, "text/xml; charset=utf-8", null,
+                envelope("login", "<arg0><email>" + user.getEmail() + "</email><password>wrongPassword</password></arg0>"), 500);
+    }
+
+    @Benchmark
+    public String httpUpdateOwnPassword() throws IOException {
+        int i = anyUser();
+        User user = users[i];
+        return post(httpUpdate, "application/json", tokens[i],
+                "{\"email\":\"" + user.getEmail() + "\",\"password\":\"" + user.getPassword()
+                        + "\",\"newPassword\":\"" + user.getPassword() + "\"}", 204);
+    }
+
+    @Benchmark
+    public String soapUpdateOwnPassword() throws IOException {
+        int i = anyUser();
+        User user = users[i];
+        return post(soap, "text/xml; charset=utf-8", null,
+                envelope("update", "<arg0>" + tokens[i] + "</arg0><arg1><email>" + user.getEmail() + "</email><password>"
+                        + user.getPassword() + "</password></arg1><arg2>" + user.getPassword() + "</arg2>"), 200);
+    }
+
+    private static String envelope(String operation, String arguments) {
+        return "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\"><S:Body><ns2:" + operation
+                + " xmlns:ns2=\"" + SOAP_NAMESPACE + "\">" + arguments + "</ns2:" + operation + "></S:Body></S:Envelope>";
+    }
+
+    /**
+     * Posts the body and reads the whole response, so the connection goes back to the keep alive pool
+     */
+    private static String post(URL url, String contentType, String token, String body, int expectedStatus) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", contentType);
+        if (token != null) {
+            connection.setRequestProperty("Authorization", "Bearer " + token);
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        OutputStream out = connection.getOutputStream();
+        out.write(bytes);
+        out.close();
+        int status = connection.getResponseCode();
+        if (status != expectedStatus) {
+            throw new IllegalStateException(url + " answered " + status + ", expected " + expectedStatus);
+        }
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in == null) {
+            return "";
+        }
+        ByteArrayOutputStream response = new ByteArrayOutputStream(256);
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            response.write(buffer, 0, read);
+        }
+        in.close();
+        return new String(response.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,56 @@
+package edu.umflix.usermanager.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Latency injected by the slow stand-ins of the load driver: a fixed part plus a uniform random jitter
+ */
+public class Latency {
+
+    public static final Latency NONE = new Latency(0, 0);
+
+    private final long fixedNanos;
+    private final long jitterNanos;
+
+    public Latency(long fixedMicros, long jitterMicros) {
+        this.fixedNanos = TimeUnit.MICROSECONDS.toNanos(fixedMicros);
+        this.jitterNanos = TimeUnit.MICROSECONDS.toNanos(jitterMicros);
+    }
+
+    /**
+     * Parses "fixed" or "fixed+jitter", in microseconds
+     */
+    public static Latency parse(String value) {
+        int plus = value.indexOf('+');
+        if (plus < 0) {
+            return new Latency(Long.parseLong(value.trim()), 0);
+        }
+        return new Latency(Long.parseLong(value.substring(0, plus).trim()), Long.parseLong(value.substring(plus + 1).trim()));
+    }
+
+    public boolean isNone() {
+        return fixedNanos == 0 && jitterNanos == 0;
+    }
+
+    /**
+     * Parks the calling thread for one latency sample
+     */
+    public void pause() {
+        long nanos = fixedNanos + (jitterNanos == 0 ? 0 : ThreadLocalRandom.current().nextLong(jitterNanos + 1));
+        if (nanos == 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + nanos;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return TimeUnit.NANOSECONDS.toMicros(fixedNanos) + "+" + TimeUnit.NANOSECONDS.toMicros(jitterNanos) + "us";
+    }
+}
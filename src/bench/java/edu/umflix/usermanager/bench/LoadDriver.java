@@ -0,0 +1,399 @@
+package edu.umflix.usermanager.bench;
+
+import edu.umflix.authenticationhandler.AuthenticationHandler;
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.persistence.RoleDao;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.UserManager;
+import edu.umflix.usermanager.impl.EmbeddedUserManager;
+import edu.umflix.usermanager.metrics.LatencyHistogram;
+import edu.umflix.usermanager.persistence.InMemoryUserDao;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays a mix of UserManager operations from many threads for a while and reports the throughput,
+ * the latency percentiles and the errors of every operation. Runs offline against in process stand-ins
+ * of the DAOs and the AuthenticationHandler, optionally slowed down to look like remote services.
+ * <p>
+ * Usage: java -cp target/benchmarks.jar edu.umflix.usermanager.bench.LoadDriver [option=value...]
+ * <ul>
+ *     <li>threads: number of client threads, default twice the processors</li>
+ *     <li>warmup, duration: seconds of warmup (not reported) and of measurement, default 5 and 30</li>
+ *     <li>users: number of registered users the operations pick from, default 10000</li>
+ *     <li>mix: weights of the operations, default login=90,update=7,register=2,delete=1</li>
+ *     <li>skew: Zipf exponent of the user picked by login and update, 0 is uniform, default 0.99</li>
+ *     <li>backend: fast (maps, every capability) or memory (InMemoryUserDao), default fast</li>
+ *     <li>daoLatency, authLatency: latency added to every DAO and AuthenticationHandler call, in
+ *     microseconds as fixed or fixed+jitter, default 0. A non zero daoLatency hides the capabilities of the DAO</li>
+ *     <li>out: file the results are written to as sorted key=value lines, default load-result.txt</li>
+ * </ul>
+ * Deletes remove users registered by the run, so the picked population stays the same.
+ */
+public class LoadDriver {
+
+    public enum Operation {
+        LOGIN, UPDATE, REGISTER, DELETE
+    }
+
+    private static final String DEFAULT_MIX = "login=90,update=7,register=2,delete=1";
+
+    private final Map<String, String> settings;
+    private final UserManager userManager;
+    private final int threads;
+    private final int users;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final ZipfKeys keys;
+    private final Role userRole;
+
+    private User[] population;
+    private String[] tokens;
+    private String adminToken;
+    private final ConcurrentLinkedQueue<User> registered = new ConcurrentLinkedQueue<User>();
+    private final AtomicLong registrations = new AtomicLong();
+
+    /**
+     * @param settings the options of the run, see the class documentation
+     * @param userManager the UserManager to drive, it must know the roles 1 (admin) and 3 (user)
+     */
+    public LoadDriver(Map<String, String> settings, UserManager userManager) {
+        this.settings = new TreeMap<String, String>(settings);
+        this.userManager = userManager;
+        this.threads = Integer.parseInt(setting("threads", String.valueOf(Runtime.getRuntime().availableProcessors() * 2)));
+        this.users = Integer.parseInt(setting("users", "10000"));
+        this.keys = new ZipfKeys(users, Double.parseDouble(setting("skew", "0.99")));
+        this.userRole = UserManagerBenchmark.role(3);
+
+        List<Operation> mixOperations = new ArrayList<Operation>();
+        List<Integer> mixWeights = new ArrayList<Integer>();
+        int total = 0;
+        for (String entry : setting("mix", DEFAULT_MIX).split(",")) {
+            String[] parts = entry.split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("invalid mix entry " + entry);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                total += weight;
+                mixOperations.add(Operation.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)));
+                mixWeights.add(total);
+            }
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("the mix has no operation");
+        }
+        this.operations = mixOperations.toArray(new Operation[0]);
+        this.cumulativeWeights = new int[mixWeights.size()];
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            cumulativeWeights[i] = mixWeights.get(i);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> settings = new TreeMap<String, String>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 1) {
+                throw new IllegalArgumentException("expected option=value, got " + arg);
+            }
+            settings.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        LoadDriver driver = new LoadDriver(settings, userManager(settings));
+        driver.seed();
+        driver.run(Long.parseLong(driver.setting("warmup", "5")));
+        Results results = driver.run(Long.parseLong(driver.setting("duration", "30")));
+        File out = new File(driver.setting("out", "load-result.txt"));
+        results.print(System.out);
+        results.write(out);
+        System.out.println("results written to " + out.getAbsolutePath());
+    }
+
+    /**
+     * Builds the UserManager of the backend and latencies named in the settings
+     */
+    public static UserManager userManager(Map<String, String> settings) {
+        FastRoleDao roleDao = new FastRoleDao();
+        roleDao.addRole(UserManagerBenchmark.role(1));
+        roleDao.addRole(UserManagerBenchmark.role(3));
+        String backend = settings.containsKey("backend") ? settings.get("backend") : "fast";
+        UserDao userDao;
+        if ("fast".equals(backend)) {
+            userDao = new FastUserDao();
+        } else if ("memory".equals(backend)) {
+            userDao = new InMemoryUserDao(roleDao);
+        } else {
+            throw new IllegalArgumentException("unknown backend " + backend);
+        }
+        AuthenticationHandler authenticationHandler = new FastAuthenticationHandler(userDao);
+        Latency daoLatency = Latency.parse(settings.containsKey("daoLatency") ? settings.get("daoLatency") : "0");
+        Latency authLatency = Latency.parse(settings.containsKey("authLatency") ? settings.get("authLatency") : "0");
+        if (!daoLatency.isNone()) {
+            userDao = new SlowUserDao(userDao, daoLatency);
+        }
+        if (!authLatency.isNone()) {
+            authenticationHandler = new SlowAuthenticationHandler(authenticationHandler, authLatency);
+        }
+        return new EmbeddedUserManager(userDao, roleDao, authenticationHandler);
+    }
+
+    private String setting(String name, String defaultValue) {
+        String value = settings.get(name);
+        if (value == null) {
+            settings.put(name, defaultValue);
+            return defaultValue;
+        }
+        return value;
+    }
+
+    /**
+     * Registers the population and logs every user in
+     */
+    public void seed() throws Exception {
+        population = new User[users];
+        tokens = new String[users];
+        for (int i = 0; i < users; i++) {
+            population[i] = UserManagerBenchmark.user("user" + i + "@umflix.edu", "password" + i, userRole);
+            userManager.register(population[i]);
+            tokens[i] = userManager.login(population[i]);
+        }
+        User admin = UserManagerBenchmark.user("admin@umflix.edu", "adminPassword", UserManagerBenchmark.role(1));
+        userManager.register(admin);
+        adminToken = userManager.login(admin);
+    }
+
+    /**
+     * Runs the mix from every thread for the given time
+     * @param seconds how long to run
+     * @return what happened during the run
+     */
+    public Results run(long seconds) throws InterruptedException {
+        final Results results = new Results(settings, threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long[] deadline = new long[1];
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (System.nanoTime() - deadline[0] < 0) {
+                            Operation operation = nextOperation();
+                            long begin = System.nanoTime();
+                            Throwable error = execute(operation);
+                            results.record(operation, System.nanoTime() - begin, error);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-" + t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        long began = System.nanoTime();
+        deadline[0] = began + TimeUnit.SECONDS.toNanos(seconds);
+        start.countDown();
+        done.await();
+        results.elapsedNanos = System.nanoTime() - began;
+        return results;
+    }
+
+    private Operation nextOperation() {
+        int roll = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (roll < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    /**
+     * @return the exception thrown by the operation, null if it succeeded
+     */
+    private Throwable execute(Operation operation) {
+        try {
+            switch (operation) {
+                case LOGIN: {
+                    userManager.login(population[keys.next()]);
+                    break;
+                }
+                case UPDATE: {
+                    int key = keys.next();
+                    userManager.update(tokens[key], population[key], population[key].getPassword());
+                    break;
+                }
+                case REGISTER: {
+                    User user = UserManagerBenchmark.user("load" + registrations.incrementAndGet() + "@umflix.edu", "password", userRole);
+                    userManager.register(user);
+                    registered.add(user);
+                    break;
+                }
+                case DELETE: {
+                    User user = registered.poll();
+                    if (user == null) {
+                        return NothingToDelete.INSTANCE;
+                    }
+                    userManager.delete(adminToken, user);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("unknown operation " + operation);
+            }
+            return null;
+        } catch (Exception e) {
+            return e;
+        } catch (Error e) {
+            return e;
+        }
+    }
+
+    /**
+     * Reported when a delete finds no user registered by the run
+     */
+    static final class NothingToDelete extends Exception {
+        static final NothingToDelete INSTANCE = new NothingToDelete();
+
+        private NothingToDelete() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Latencies and errors of one run
+     */
+    public static class Results {
+
+        private final Map<String, String> settings;
+        private final int threads;
+        private final EnumMap<Operation, LatencyHistogram> latencies = new EnumMap<Operation, LatencyHistogram>(Operation.class);
+        private final EnumMap<Operation, ConcurrentMap<String, LongAdder>> errors = new EnumMap<Operation, ConcurrentMap<String, LongAdder>>(Operation.class);
+        private volatile long elapsedNanos;
+
+        Results(Map<String, String> settings, int threads) {
+            this.settings = settings;
+            this.threads = threads;
+            for (Operation operation : Operation.values()) {
+                latencies.put(operation, new LatencyHistogram());
+                errors.put(operation, new ConcurrentHashMap<String, LongAdder>());
+            }
+        }
+
+        void record(Operation operation, long nanos, Throwable error) {
+            latencies.get(operation).record(nanos);
+            if (error != null) {
+                ConcurrentMap<String, LongAdder> byType = errors.get(operation);
+                String type = error.getClass().getSimpleName();
+                LongAdder count = byType.get(type);
+                if (count == null) {
+                    LongAdder created = new LongAdder();
+                    count = byType.putIfAbsent(type, created);
+                    if (count == null) {
+                        count = created;
+                    }
+                }
+                count.increment();
+            }
+        }
+
+        private double perSecond(long count) {
+            return elapsedNanos == 0 ? 0 : count * 1e9 / elapsedNanos;
+        }
+
+        private static double micros(long nanos) {
+            return nanos / 1000.0;
+        }
+
+        /**
+         * @return every result as sorted key=value pairs, so two runs can be compared with diff
+         */
+        public SortedMap<String, String> toMap() {
+            SortedMap<String, String> values = new TreeMap<String, String>();
+            for (Map.Entry<String, String> setting : settings.entrySet()) {
+                values.put("config." + setting.getKey(), setting.getValue());
+            }
+            values.put("config.threads", String.valueOf(threads));
+            long total = 0;
+            long totalErrors = 0;
+            for (Operation operation : Operation.values()) {
+                LatencyHistogram histogram = latencies.get(operation);
+                String prefix = operation.name().toLowerCase(Locale.ROOT) + ".";
+                long count = histogram.getCount();
+                total += count;
+                values.put(prefix + "ops", String.valueOf(count));
+                values.put(prefix + "opsPerSecond", format(perSecond(count)));
+                values.put(prefix + "p50Micros", format(micros(histogram.getPercentile(50))));
+                values.put(prefix + "p99Micros", format(micros(histogram.getPercentile(99))));
+                values.put(prefix + "p999Micros", format(micros(histogram.getPercentile(99.9))));
+                values.put(prefix + "maxMicros", format(micros(histogram.getMax())));
+                for (Map.Entry<String, LongAdder> error : errors.get(operation).entrySet()) {
+                    values.put(prefix + "errors." + error.getKey(), String.valueOf(error.getValue().sum()));
+                    totalErrors += error.getValue().sum();
+                }
+            }
+            values.put("total.ops", String.valueOf(total));
+            values.put("total.opsPerSecond", format(perSecond(total)));
+            values.put("total.errors", String.valueOf(totalErrors));
+            values.put("total.seconds", format(elapsedNanos / 1e9));
+            return values;
+        }
+
+        private static String format(double value) {
+            return String.format(Locale.ROOT, "%.1f", value);
+        }
+
+        /**
+         * Prints a table of the results
+         */
+        public void print(PrintStream out) {
+            out.printf(Locale.ROOT, "%-9s %10s %12s %10s %10s %10s %10s  %s%n",
+                    "operation", "ops", "ops/s", "p50 us", "p99 us", "p999 us", "max us", "errors");
+            long total = 0;
+            for (Operation operation : Operation.values()) {
+                LatencyHistogram histogram = latencies.get(operation);
+                total += histogram.getCount();
+                StringBuilder errorList = new StringBuilder();
+                for (Map.Entry<String, LongAdder> error : new TreeMap<String, LongAdder>(errors.get(operation)).entrySet()) {
+                    errorList.append(error.getKey()).append('=').append(error.getValue().sum()).append(' ');
+                }
+                out.printf(Locale.ROOT, "%-9s %10d %12.1f %10.1f %10.1f %10.1f %10.1f  %s%n",
+                        operation.name().toLowerCase(Locale.ROOT), histogram.getCount(), perSecond(histogram.getCount()),
+                        micros(histogram.getPercentile(50)), micros(histogram.getPercentile(99)),
+                        micros(histogram.getPercentile(99.9)), micros(histogram.getMax()), errorList.toString().trim());
+            }
+            out.printf(Locale.ROOT, "%-9s %10d %12.1f%n", "total", total, perSecond(total));
+        }
+
+        /**
+         * Writes the results to a file as sorted key=value lines
+         */
+        public void write(File file) throws IOException {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+            try {
+                for (Map.Entry<String, String> value : toMap().entrySet()) {
+                    writer.write(value.getKey());
+                    writer.write('=');
+                    writer.write(value.getValue());
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package edu.umflix.usermanager.bench;
+
+import edu.umflix.authenticationhandler.AuthenticationHandler;
+import edu.umflix.authenticationhandler.exceptions.InvalidTokenException;
+import edu.umflix.authenticationhandler.exceptions.InvalidUserException;
+import edu.umflix.model.User;
+
+/**
+ * {@link AuthenticationHandler} that adds a latency to every call of another one, to stand in for a remote
+ * authentication service
+ */
+public class SlowAuthenticationHandler implements AuthenticationHandler {
+
+    private final AuthenticationHandler authenticationHandler;
+    private final Latency latency;
+
+    public SlowAuthenticationHandler(AuthenticationHandler authenticationHandler, Latency latency) {
+        this.authenticationHandler = authenticationHandler;
+        this.latency = latency;
+    }
+
+    @Override
+    public String authenticate(User user) throws InvalidUserException {
+        latency.pause();
+        return authenticationHandler.authenticate(user);
+    }
+
+    @Override
+    public boolean validateToken(String token) throws InvalidTokenException {
+        latency.pause();
+        return authenticationHandler.validateToken(token);
+    }
+
+    @Override
+    public User getUserOfToken(String token) throws InvalidTokenException {
+        latency.pause();
+        return authenticationHandler.getUserOfToken(token);
+    }
+}
@@ -0,0 +1,44 @@
+package edu.umflix.usermanager.bench;
+
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.User;
+import edu.umflix.persistence.UserDao;
+
+/**
+ * {@link UserDao} that adds a latency to every call of another one, to stand in for a remote database.
+ * It only implements UserDao, so the UserManager takes the paths it would take with a plain DAO.
+ */
+public class SlowUserDao implements UserDao {
+
+    private final UserDao userDao;
+    private final Latency latency;
+
+    public SlowUserDao(UserDao userDao, Latency latency) {
+        this.userDao = userDao;
+        this.latency = latency;
+    }
+
+    @Override
+    public User getUser(String email) throws UserNotFoundException {
+        latency.pause();
+        return userDao.getUser(email);
+    }
+
+    @Override
+    public void createUser(User user) {
+        latency.pause();
+        userDao.createUser(user);
+    }
+
+    @Override
+    public void deleteUser(String email) throws UserNotFoundException {
+        latency.pause();
+        userDao.deleteUser(email);
+    }
+
+    @Override
+    public void updateUser(User user) throws UserNotFoundException {
+        latency.pause();
+        userDao.updateUser(user);
+    }
+}
@@ -0,0 +1,22 @@
+package edu.umflix.usermanager.bench;
+
+import edu.umflix.authenticationhandler.AuthenticationHandler;
+import edu.umflix.persistence.RoleDao;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.impl.EmbeddedUserManager;
+
+import javax.jws.WebService;
+
+/**
+ * {@link EmbeddedUserManager} published with the same service description as the deployed UserManagerImpl,
+ * so the SOAP path can be measured with javax.xml.ws.Endpoint outside of a container
+ */
+@WebService(portName = "UserManagerPort",
+        serviceName = "UserManagerWebService",
+        targetNamespace = "http://um.org/wsdl")
+public class SoapUserManager extends EmbeddedUserManager {
+
+    public SoapUserManager(UserDao userDao, RoleDao roleDao, AuthenticationHandler authenticationHandler) {
+        super(userDao, roleDao, authenticationHandler);
+    }
+}
@@ -0,0 +1,168 @@
+package edu.umflix.usermanager.bench;
+
+import edu.umflix.authenticationhandler.exceptions.InvalidTokenException;
+import edu.umflix.authenticationhandler.exceptions.InvalidUserException;
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.usermanager.UserManager;
+import edu.umflix.usermanager.exceptions.*;
+import edu.umflix.usermanager.impl.EmbeddedUserManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of every UserManager operation, on the success and on the failure paths, against zero latency
+ * in memory backends. Runs single threaded, see {@link UserManagerConcurrentBenchmark} for the contended version.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class UserManagerBenchmark {
+
+    static final int USERS = 1024;
+
+    Role userRole;
+    Role adminRole;
+    FastUserDao userDao;
+    UserManager userManager;
+    User[] users;
+    String[] tokens;
+    String adminToken;
+    final AtomicLong registrations = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void prepare() throws Exception {
+        userRole = role(3);
+        adminRole = role(1);
+        FastRoleDao roleDao = new FastRoleDao();
+        roleDao.addRole(userRole);
+        roleDao.addRole(adminRole);
+        userDao = new FastUserDao();
+        FastAuthenticationHandler authenticationHandler = new FastAuthenticationHandler(userDao);
+        userManager = new EmbeddedUserManager(userDao, roleDao, authenticationHandler);
+
+        users = new User[USERS];
+        tokens = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            users[i] = user("user" + i + "@umflix.edu", "password" + i, userRole);
+            userManager.register(users[i]);
+            tokens[i] = userManager.login(users[i]);
+        }
+        User admin = user("admin@umflix.edu", "adminPassword", adminRole);
+        userManager.register(admin);
+        adminToken = userManager.login(admin);
+    }
+
+    static Role role(long id) {
+        Role role = new Role();
+        role.setId(Long.valueOf(id));
+        return role;
+    }
+
+    static User user(String email, String password, Role role) {
+        User user = new User();
+        user.setEmail(email);
+        user.setName(email);
+        user.setPassword(password);
+        user.setRole(role);
+        return user;
+    }
+
+    private int anyUser() {
+        return ThreadLocalRandom.current().nextInt(USERS);
+    }
+
+    @Benchmark
+    public User register() throws Exception {
+        User user = user("new" + registrations.incrementAndGet() + "@umflix.edu", "password", userRole);
+        userManager.register(user);
+        return user;
+    }
+
+    @Benchmark
+    public Object registerDuplicateEmail() throws Exception {
+        try {
+            userManager.register(users[anyUser()]);
+            throw new IllegalStateException("duplicate email registered");
+        } catch (EmailAlreadyTakenException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public String login() throws Exception {
+        return userManager.login(users[anyUser()]);
+    }
+
+    @Benchmark
+    public Object loginWrongPassword() {
+        User stored = users[anyUser()];
+        try {
+            return userManager.login(user(stored.getEmail(), "wrongPassword", null));
+        } catch (InvalidUserException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object deleteAsAdmin() throws Exception {
+        User user = users[anyUser()];
+        try {
+            userManager.delete(adminToken, user);
+        } catch (InvalidUserException e) {
+            //another thread deleted it first
+        }
+        userDao.createUser(user);
+        return user;
+    }
+
+    @Benchmark
+    public Object deletePermissionDenied() throws Exception {
+        int i = anyUser();
+        try {
+            userManager.delete(tokens[i], users[(i + 1) % USERS]);
+            throw new IllegalStateException("user deleted another user");
+        } catch (PermissionDeniedException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object updateOwnPassword() throws Exception {
+        int i = anyUser();
+        try {
+            userManager.update(tokens[i], users[i], users[i].getPassword());
+        } catch (InvalidUserException e) {
+            //deleted by deleteAsAdmin in another thread
+        }
+        return users[i];
+    }
+
+    @Benchmark
+    public Object updatePermissionDenied() throws Exception {
+        int i = anyUser();
+        try {
+            userManager.update(tokens[i], users[(i + 1) % USERS], "newPassword");
+            throw new IllegalStateException("user updated another user");
+        } catch (PermissionDeniedException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object invalidToken() throws Exception {
+        try {
+            userManager.update("unknownToken", users[anyUser()], "newPassword");
+            throw new IllegalStateException("unknown token accepted");
+        } catch (InvalidTokenException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package edu.umflix.usermanager.bench;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * The {@link UserManagerBenchmark} operations with as many threads as available processors sharing the backends
+ */
+@Threads(Threads.MAX)
+public class UserManagerConcurrentBenchmark extends UserManagerBenchmark {
+}
@@ -0,0 +1,93 @@
+package edu.umflix.usermanager.bench;
+
+import edu.umflix.usermanager.UserValidator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the email and password checks of {@link UserValidator} over a million generated inputs per
+ * invocation, a quarter of them malformed, next to a precompiled regular expression baseline
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidationBenchmark {
+
+    static final int INPUTS = 1000000;
+
+    private static final Pattern EMAIL_PATTERN = Pattern.compile(
+            "\\s*[A-Za-z0-9!#$%&'*+/=?^_`{|}~-]+(\\.[A-Za-z0-9!#$%&'*+/=?^_`{|}~-]+)*@[A-Za-z0-9]([A-Za-z0-9-]*[A-Za-z0-9])?(\\.[A-Za-z0-9]([A-Za-z0-9-]*[A-Za-z0-9])?)*\\s*");
+
+    UserValidator userValidator;
+    String[] emails;
+    String[] passwords;
+
+    @Setup
+    public void prepare() {
+        userValidator = new UserValidator(8, 128, true, true);
+        Random random = new Random(42);
+        String[] malformed = {"user", "@umflix.edu", "user@", "us..er@umflix.edu", "user@umflix..edu", "user@-umflix.edu", "us er@umflix.edu"};
+        emails = new String[INPUTS];
+        passwords = new String[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            boolean valid = random.nextInt(4) != 0;
+            emails[i] = valid ? "user." + random.nextInt(1000000) + "@mail" + random.nextInt(100) + ".umflix.edu"
+                    : malformed[random.nextInt(malformed.length)];
+            passwords[i] = valid ? "Password" + random.nextInt(1000000) : random.nextBoolean() ? "" : "short";
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INPUTS)
+    public int validatorEmails() {
+        int valid = 0;
+        for (String email : emails) {
+            if (userValidator.isValidEmail(email)) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INPUTS)
+    public int regexEmails() {
+        int valid = 0;
+        for (String email : emails) {
+            if (email.length() <= UserValidator.MAX_EMAIL_LENGTH && EMAIL_PATTERN.matcher(email).matches()) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INPUTS)
+    public int validatorPasswords() {
+        int valid = 0;
+        for (String password : passwords) {
+            if (userValidator.isValidPassword(password)) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INPUTS)
+    public int normalizeEmails() {
+        int normalized = 0;
+        for (String email : emails) {
+            if (UserValidator.normalizeEmail(email) == email) {
+                normalized++;
+            }
+        }
+        return normalized;
+    }
+}
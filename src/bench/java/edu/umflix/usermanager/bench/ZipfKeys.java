@@ -0,0 +1,37 @@
+package edu.umflix.usermanager.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks keys 0..n-1 following a Zipf distribution: key k is chosen with a probability proportional to
+ * 1/(k+1)^skew. A skew of 0 is uniform, around 1 a few keys take most of the traffic.
+ */
+public class ZipfKeys {
+
+    private final double[] cumulative;
+
+    public ZipfKeys(int keys, double skew) {
+        if (keys < 1) {
+            throw new IllegalArgumentException("keys must be positive");
+        }
+        if (skew < 0) {
+            throw new IllegalArgumentException("skew can not be negative");
+        }
+        cumulative = new double[keys];
+        double total = 0;
+        for (int k = 0; k < keys; k++) {
+            total += 1 / Math.pow(k + 1, skew);
+            cumulative[k] = total;
+        }
+        for (int k = 0; k < keys; k++) {
+            cumulative[k] /= total;
+        }
+    }
+
+    public int next() {
+        int index = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+        int key = index >= 0 ? index : -index - 1;
+        return Math.min(key, cumulative.length - 1);
+    }
+}
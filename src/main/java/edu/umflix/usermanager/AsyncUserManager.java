@@ -0,0 +1,49 @@
+package edu.umflix.usermanager;
+
+import edu.umflix.model.User;
+
+import javax.ejb.Local;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking version of {@link UserManager}. Every operation runs on an executor and returns a future
+ * that completes exceptionally with the same exception {@link UserManager} would have thrown.
+ */
+@Local
+public interface AsyncUserManager {
+
+    /**
+     * Registers a new user into the system
+     * @param user the user to register
+     * @return future that fails with InvalidEmailException, InvalidPasswordException, InvalidRoleException or EmailAlreadyTakenException
+     * @see UserManager#register(User)
+     */
+    public CompletableFuture<Void> register(User user);
+
+    /**
+     * Logs a user into the system
+     * @param user the user to log
+     * @return future with the token of the session, fails with InvalidUserException
+     * @see UserManager#login(User)
+     */
+    public CompletableFuture<String> login(User user);
+
+    /**
+     * Deletes a user from the system
+     * @param token the token of the session
+     * @param user the user that needs to be deleted
+     * @return future that fails with InvalidUserException, PermissionDeniedException or InvalidTokenException
+     * @see UserManager#delete(String, User)
+     */
+    public CompletableFuture<Void> delete(String token, User user);
+
+    /**
+     * Updates the password of a user
+     * @param token the token of the session
+     * @param user the user that needs it's password updated
+     * @param newPassword the new password
+     * @return future that fails with InvalidUserException, PermissionDeniedException, InvalidPasswordException or InvalidTokenException
+     * @see UserManager#update(String, User, String)
+     */
+    public CompletableFuture<Void> update(String token, User user, String newPassword);
+}
@@ -0,0 +1,17 @@
+package edu.umflix.usermanager;
+
+import edu.umflix.model.User;
+
+import java.util.List;
+
+/**
+ * Implemented by user stores that can persist several users in one round trip.
+ */
+public interface BulkUserWriter {
+
+    /**
+     * Creates all the given users
+     * @param users the users to create, their emails are known to be free
+     */
+    public void createUsers(List<User> users);
+}
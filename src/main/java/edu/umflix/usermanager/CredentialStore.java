@@ -0,0 +1,33 @@
+package edu.umflix.usermanager;
+
+import edu.umflix.exceptions.UserNotFoundException;
+
+/**
+ * Implemented by user stores that version their users and can change a password in one conditional
+ * round trip. Every change of a stored user increments its version, so a change that expects a version
+ * only applies if nobody else changed the user since it was read.
+ */
+public interface CredentialStore {
+
+    /**
+     * Expected version that matches whatever version is stored
+     */
+    public static final long ANY_VERSION = -1;
+
+    /**
+     * @param email the email of the user
+     * @return the current version of the user
+     * @throws UserNotFoundException thrown if there is no user with that email
+     */
+    public long getVersion(String email) throws UserNotFoundException;
+
+    /**
+     * Sets the password of a user if its version is the expected one, atomically
+     * @param email the email of the user
+     * @param newPassword the new password
+     * @param expectedVersion the version the user must have, or ANY_VERSION
+     * @return the applied update with the new version, or the conflict with the stored version
+     * @throws UserNotFoundException thrown if there is no user with that email
+     */
+    public CredentialUpdate updatePassword(String email, String newPassword, long expectedVersion) throws UserNotFoundException;
+}
@@ -0,0 +1,48 @@
+package edu.umflix.usermanager;
+
+/**
+ * Outcome of a conditional password update of a {@link CredentialStore}
+ */
+public class CredentialUpdate {
+
+    private final boolean applied;
+    private final long version;
+
+    private CredentialUpdate(boolean applied, long version) {
+        this.applied = applied;
+        this.version = version;
+    }
+
+    /**
+     * @param version the version of the user after the update
+     */
+    public static CredentialUpdate applied(long version) {
+        return new CredentialUpdate(true, version);
+    }
+
+    /**
+     * @param storedVersion the version the user had instead of the expected one
+     */
+    public static CredentialUpdate conflict(long storedVersion) {
+        return new CredentialUpdate(false, storedVersion);
+    }
+
+    /**
+     * @return false if the user had another version than the expected one and nothing was changed
+     */
+    public boolean isApplied() {
+        return applied;
+    }
+
+    /**
+     * @return the version of the user after the update, or its current version on a conflict
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return (applied ? "applied, version " : "conflict, stored version ") + version;
+    }
+}
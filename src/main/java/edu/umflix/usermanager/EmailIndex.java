@@ -0,0 +1,315 @@
+package edu.umflix.usermanager;
+
+import edu.umflix.model.User;
+import edu.umflix.usermanager.invalidation.Invalidation;
+import edu.umflix.usermanager.invalidation.InvalidationListener;
+import edu.umflix.usermanager.metrics.Jmx;
+import org.apache.log4j.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.management.ObjectName;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sorted index of the normalized emails of the stored users, which user listings and email prefix searches
+ * are served from. Pages are found by seeking the skip list to the email of the cursor, so a page costs the
+ * same however deep it is.
+ * <p>
+ * The index is loaded from a {@link PagedUserSource} on first use and then kept up to date by the
+ * registrations and deletions of this node. Users changed on other nodes arrive through the invalidation bus
+ * and are checked against the store, in one call, before the next page. The number of such pending emails is
+ * bounded by usermanager.index.maxPending, past it the index is reloaded. Exposed over JMX as
+ * edu.umflix.usermanager:type=EmailIndex.
+ * <p>
+ * A store that can not list its users gives a partial index: it starts empty and only holds the users
+ * registered on this node, or changed on any node, since it was started. Its pages say they are not complete.
+ * It is never reloaded, a reload checks the emails it holds against the store again.
+ */
+@Singleton(name = "EmailIndex")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class EmailIndex implements EmailIndexMBean, InvalidationListener {
+
+    private static final Logger logger = Logger.getLogger(EmailIndex.class);
+
+    public static final String OBJECT_NAME = "edu.umflix.usermanager:type=EmailIndex";
+
+    private static final int LOAD_PAGE_SIZE = Integer.getInteger("usermanager.index.loadPage", 1000);
+    private static final int MAX_PENDING = Integer.getInteger("usermanager.index.maxPending", 10000);
+
+    /**
+     * Heap of an entry besides the characters of its email: the skip list node, the String and the header of
+     * its byte array, and a third of an index node, which is how many levels a node gets on average
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 24 + 24 + 16 + 8;
+
+    private final Object loadLock = new Object();
+    private final Object changesLock = new Object();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicLong loads = new AtomicLong();
+
+    private volatile Emails emails = new Emails();
+    private volatile boolean loaded;
+    private volatile boolean complete;
+    private volatile boolean loading;
+    private volatile UserLookup lookup;
+    //Registrations and deletions that happen while the store is scanned, replayed on the loaded emails
+    private Map<String, Boolean> changedWhileLoading;
+    private ObjectName registeredName;
+
+    @PostConstruct
+    public void start() {
+        registeredName = Jmx.register(this, OBJECT_NAME);
+    }
+
+    @PreDestroy
+    public void stop() {
+        Jmx.unregister(registeredName);
+        registeredName = null;
+    }
+
+    /**
+     * Loads the index from the store, unless it is loaded already
+     * @param source the store to list the users of, null if it can not list them, which gives a partial index.
+     * A partial index must be loaded before the first registration it should cover
+     * @param lookup checks the emails changed on other nodes
+     */
+    public void ensureLoaded(PagedUserSource source, UserLookup lookup) {
+        if (loaded) {
+            return;
+        }
+        synchronized (loadLock) {
+            if (!loaded) {
+                load(source, lookup);
+            }
+        }
+    }
+
+    private void load(PagedUserSource source, UserLookup lookup) {
+        long started = System.nanoTime();
+        synchronized (changesLock) {
+            changedWhileLoading = new HashMap<String, Boolean>();
+            loading = true;
+        }
+        try {
+            pending.clear();
+            Emails loadedEmails = new Emails();
+            //A partial index starts empty, there is nothing to list
+            if (source != null) {
+                String after = null;
+                List<User> page;
+                while (!(page = source.page(after, LOAD_PAGE_SIZE)).isEmpty()) {
+                    for (User user : page) {
+                        loadedEmails.apply(UserValidator.normalizeEmail(user.getEmail()), true);
+                    }
+                    after = page.get(page.size() - 1).getEmail();
+                }
+            }
+            synchronized (changesLock) {
+                for (Map.Entry<String, Boolean> change : changedWhileLoading.entrySet()) {
+                    loadedEmails.apply(change.getKey(), change.getValue());
+                }
+                this.lookup = lookup;
+                emails = loadedEmails;
+                complete = source != null;
+                loads.incrementAndGet();
+                loaded = true;
+            }
+            if (logger.isInfoEnabled()) {
+                logger.info((source == null ? "partial email index started with " : "email index loaded with ")
+                        + loadedEmails.size.sum() + " users in " + (System.nanoTime() - started) / 1000000 + " ms");
+            }
+        } finally {
+            synchronized (changesLock) {
+                changedWhileLoading = null;
+                loading = false;
+            }
+        }
+    }
+
+    /**
+     * Adds the email of a user that was just stored
+     */
+    public void add(String email) {
+        change(UserValidator.normalizeEmail(email), true);
+    }
+
+    /**
+     * Removes the email of a user that was just deleted
+     */
+    public void remove(String email) {
+        change(UserValidator.normalizeEmail(email), false);
+    }
+
+    private void change(String email, boolean present) {
+        if (email == null) {
+            return;
+        }
+        //Before the first load there is nothing to keep up to date, the load reads the store after this change
+        if (loading) {
+            synchronized (changesLock) {
+                if (changedWhileLoading != null) {
+                    changedWhileLoading.put(email, present);
+                }
+            }
+        }
+        if (loaded) {
+            emails.apply(email, present);
+        }
+    }
+
+    /**
+     * Returns the emails after the cursor, in order
+     * @param prefix only emails that start with it, null for every email
+     * @param cursor the next cursor of the previous page, null for the first page
+     * @param limit the maximum number of emails in the page
+     * @return the page
+     * @throws IllegalStateException thrown if the index was never loaded
+     * @throws IllegalArgumentException thrown if the cursor is not valid
+     */
+    public UserPage page(String prefix, String cursor, int limit) {
+        //Until a reload is done the pages come from the emails loaded before
+        if (loads.get() == 0) {
+            throw new IllegalStateException("email index is not loaded");
+        }
+        resolvePending();
+        String after = UserPage.emailOf(cursor);
+        prefix = prefix == null || prefix.trim().isEmpty() ? null : UserValidator.normalizeEmail(prefix);
+        NavigableSet<String> set = emails.set;
+        NavigableSet<String> tail;
+        if (after != null && (prefix == null || after.compareTo(prefix) >= 0)) {
+            tail = set.tailSet(after, false);
+        } else {
+            tail = prefix == null ? set : set.tailSet(prefix, true);
+        }
+        List<String> page = new ArrayList<String>(Math.min(limit, 64));
+        boolean more = false;
+        for (String email : tail) {
+            if (prefix != null && !email.startsWith(prefix)) {
+                break;
+            }
+            if (page.size() == limit) {
+                more = true;
+                break;
+            }
+            page.add(email);
+        }
+        return new UserPage(page, more ? UserPage.cursorAfter(page.get(page.size() - 1)) : null, complete);
+    }
+
+    //Checks the emails changed on other nodes against the store
+    private void resolvePending() {
+        UserLookup lookup = this.lookup;
+        if (pending.isEmpty() || lookup == null) {
+            return;
+        }
+        List<String> changed = new ArrayList<String>();
+        for (Iterator<String> iterator = pending.iterator(); iterator.hasNext(); ) {
+            changed.add(iterator.next());
+            iterator.remove();
+        }
+        Set<String> existing = lookup.existing(changed);
+        for (String email : changed) {
+            change(email, existing.contains(email));
+        }
+    }
+
+    @Override
+    public void onInvalidations(List<Invalidation> batch) {
+        if (!loaded) {
+            return;
+        }
+        for (Invalidation invalidation : batch) {
+            switch (invalidation.getType()) {
+                case USER:
+                    String email = UserValidator.normalizeEmail(invalidation.getKey());
+                    if (email != null) {
+                        pending.add(email);
+                    }
+                    break;
+                case ALL:
+                    reload();
+                    return;
+                default:
+                    break;
+            }
+        }
+        if (complete && pending.size() > MAX_PENDING) {
+            reload();
+        }
+    }
+
+    @Override
+    public void reload() {
+        if (loaded && !complete) {
+            //The store can not be listed again, the known emails are checked against it before the next page
+            pending.addAll(emails.set);
+            return;
+        }
+        loaded = false;
+        pending.clear();
+    }
+
+    /**
+     * @return true if the email is in the index
+     */
+    public boolean contains(String email) {
+        return emails.set.contains(UserValidator.normalizeEmail(email));
+    }
+
+    @Override
+    public long getSize() {
+        return loaded ? emails.size.sum() : 0;
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        Emails current = emails;
+        long size = current.size.sum();
+        //Compact strings take a byte per character of an ASCII email, arrays are padded to 8 bytes
+        return size * (ENTRY_OVERHEAD_BYTES + 4) + current.chars.sum();
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.get();
+    }
+
+    @Override
+    public int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * The emails with their count and length kept along, the size of a skip list is not constant time
+     */
+    private static final class Emails {
+        private final ConcurrentSkipListSet<String> set = new ConcurrentSkipListSet<String>();
+        private final LongAdder size = new LongAdder();
+        private final LongAdder chars = new LongAdder();
+
+        private void apply(String email, boolean present) {
+            if (present ? set.add(email) : set.remove(email)) {
+                size.add(present ? 1 : -1);
+                chars.add(present ? email.length() : -email.length());
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package edu.umflix.usermanager;
+
+/**
+ * JMX view of the {@link EmailIndex}
+ */
+public interface EmailIndexMBean {
+
+    public long getSize();
+
+    /**
+     * @return estimated bytes of heap held by the index, emails included
+     */
+    public long getMemoryBytes();
+
+    public boolean isLoaded();
+
+    /**
+     * @return false if the store can not list its users and the index only holds the users seen since it started
+     */
+    public boolean isComplete();
+
+    public long getLoads();
+
+    /**
+     * @return emails changed on another node that are checked against the store before the next page
+     */
+    public int getPending();
+
+    /**
+     * Reloads the index from the store before the next page
+     */
+    public void reload();
+}
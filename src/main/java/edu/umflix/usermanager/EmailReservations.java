@@ -0,0 +1,119 @@
+package edu.umflix.usermanager;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Emails being registered right now in this process. A registration reserves its normalized email before
+ * checking that it is free and releases it once the user is created, so two registrations of the same email
+ * are serialized and the second one finds the email taken, while registrations of different emails never
+ * wait on each other. There is no lock: a reservation is an entry in a concurrent map, and waiters block on
+ * the latch of the entry until it is released.
+ */
+@Singleton(name = "EmailReservations")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class EmailReservations {
+
+    private final ConcurrentMap<String, Reservation> reservations = new ConcurrentHashMap<String, Reservation>();
+    private final LongAdder waits = new LongAdder();
+
+    /**
+     * A held reservation, release it in a finally block
+     */
+    public final class Reservation {
+        private final String email;
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        private Reservation(String email) {
+            this.email = email;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public void release() {
+            if (reservations.remove(email, this)) {
+                released.countDown();
+            }
+        }
+    }
+
+    /**
+     * Reserves an email, waiting while another caller holds it
+     * @param email the normalized email
+     * @return the reservation
+     */
+    public Reservation reserve(String email) {
+        if (email == null) {
+            throw new IllegalArgumentException("null email in EmailReservations");
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                Reservation reservation = new Reservation(email);
+                Reservation holder = reservations.putIfAbsent(email, reservation);
+                if (holder == null) {
+                    return reservation;
+                }
+                waits.increment();
+                try {
+                    holder.released.await();
+                } catch (InterruptedException e) {
+                    //the holder only runs a few store calls, finish waiting and keep the interrupt
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Reserves several emails. They are reserved in sorted order, so two callers reserving overlapping
+     * emails can not wait on each other in a cycle
+     * @param emails the normalized emails
+     * @return the reservations, release them with {@link #releaseAll(Collection)}
+     */
+    public List<Reservation> reserveAll(Collection<String> emails) {
+        List<String> sorted = new ArrayList<String>(new TreeSet<String>(emails));
+        List<Reservation> held = new ArrayList<Reservation>(sorted.size());
+        try {
+            for (String email : sorted) {
+                held.add(reserve(email));
+            }
+            return held;
+        } catch (RuntimeException e) {
+            releaseAll(held);
+            throw e;
+        }
+    }
+
+    public void releaseAll(Collection<Reservation> held) {
+        for (Reservation reservation : held) {
+            reservation.release();
+        }
+    }
+
+    /**
+     * @return the number of emails reserved right now
+     */
+    public int getReserved() {
+        return reservations.size();
+    }
+
+    /**
+     * @return how many times a caller had to wait for another to release an email
+     */
+    public long getWaits() {
+        return waits.sum();
+    }
+}
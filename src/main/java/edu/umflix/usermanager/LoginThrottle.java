@@ -0,0 +1,182 @@
+package edu.umflix.usermanager;
+
+import edu.umflix.usermanager.metrics.Jmx;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.ObjectName;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the login attempts per email with token buckets. Each email may burst a number of attempts and
+ * then gets a steady rate of attempts per second. Buckets are lock free: a bucket is the single time at
+ * which it will be full again (the generic cell rate algorithm), updated with compare and set.
+ * A bucket that is full again is idle and equivalent to no bucket, so idle buckets are evicted when more
+ * than the maximum number of emails are tracked.
+ * Limits are read from the usermanager.login.rate, usermanager.login.burst and usermanager.login.maxTracked
+ * system properties, can be changed over JMX as edu.umflix.usermanager:type=LoginThrottle.
+ */
+@Singleton(name = "LoginThrottle")
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class LoginThrottle implements LoginThrottleMBean {
+
+    public static final String OBJECT_NAME = "edu.umflix.usermanager:type=LoginThrottle";
+
+    private static final double DEFAULT_RATE = Double.parseDouble(System.getProperty("usermanager.login.rate", "1"));
+    private static final int DEFAULT_BURST = Integer.getInteger("usermanager.login.burst", 10);
+    private static final int DEFAULT_MAX_TRACKED = Integer.getInteger("usermanager.login.maxTracked", 100000);
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<String, AtomicLong>();
+    private final int maxTracked;
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime() - SWEEP_INTERVAL_NANOS);
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder untracked = new LongAdder();
+
+    private volatile long intervalNanos;
+    private volatile int burst;
+    private ObjectName registeredName;
+
+    public LoginThrottle() {
+        this(DEFAULT_RATE, DEFAULT_BURST, DEFAULT_MAX_TRACKED);
+    }
+
+    public LoginThrottle(double attemptsPerSecond, int burst, int maxTracked) {
+        if (maxTracked < 1) {
+            throw new IllegalArgumentException("maxTracked must be positive in LoginThrottle");
+        }
+        setAttemptsPerSecond(attemptsPerSecond);
+        setBurst(burst);
+        this.maxTracked = maxTracked;
+    }
+
+    /**
+     * Takes one attempt from the bucket of an email
+     * @param email the email trying to log in
+     * @return true if the attempt is allowed
+     */
+    public boolean tryAcquire(String email) {
+        if (email == null) {
+            allowed.increment();
+            return true;
+        }
+        long now = System.nanoTime();
+        AtomicLong bucket = buckets.get(email);
+        if (bucket == null) {
+            if (buckets.size() >= maxTracked && !sweep(now)) {
+                untracked.increment();
+                allowed.increment();
+                return true;
+            }
+            AtomicLong created = new AtomicLong(now);
+            bucket = buckets.putIfAbsent(email, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        long interval = intervalNanos;
+        long capacity = interval * burst;
+        while (true) {
+            long fullAt = bucket.get();
+            long next = Math.max(fullAt, now) + interval;
+            if (next - now > capacity) {
+                rejected.increment();
+                return false;
+            }
+            if (bucket.compareAndSet(fullAt, next)) {
+                allowed.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Evicts the idle buckets, at most once per sweep interval
+     * @return true if there is room for a new bucket
+     */
+    private boolean sweep(long now) {
+        long last = lastSweep.get();
+        if (now - last >= SWEEP_INTERVAL_NANOS && lastSweep.compareAndSet(last, now)) {
+            Iterator<AtomicLong> iterator = buckets.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().get() <= now) {
+                    iterator.remove();
+                }
+            }
+        }
+        return buckets.size() < maxTracked;
+    }
+
+    @PostConstruct
+    public void registerMBean() {
+        registeredName = Jmx.register(this, OBJECT_NAME);
+    }
+
+    @PreDestroy
+    public void unregisterMBean() {
+        Jmx.unregister(registeredName);
+        registeredName = null;
+    }
+
+    @Override
+    public double getAttemptsPerSecond() {
+        return TimeUnit.SECONDS.toNanos(1) / (double) intervalNanos;
+    }
+
+    @Override
+    public void setAttemptsPerSecond(double attemptsPerSecond) {
+        if (!(attemptsPerSecond > 0)) {
+            throw new IllegalArgumentException("attemptsPerSecond must be positive in LoginThrottle");
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / attemptsPerSecond));
+    }
+
+    @Override
+    public int getBurst() {
+        return burst;
+    }
+
+    @Override
+    public void setBurst(int burst) {
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be positive in LoginThrottle");
+        }
+        this.burst = burst;
+    }
+
+    @Override
+    public int getMaxTrackedEmails() {
+        return maxTracked;
+    }
+
+    @Override
+    public int getTrackedEmails() {
+        return buckets.size();
+    }
+
+    @Override
+    public long getAllowed() {
+        return allowed.sum();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getUntracked() {
+        return untracked.sum();
+    }
+}
@@ -0,0 +1,28 @@
+package edu.umflix.usermanager;
+
+/**
+ * JMX view and configuration of the {@link LoginThrottle}
+ */
+public interface LoginThrottleMBean {
+
+    public double getAttemptsPerSecond();
+
+    public void setAttemptsPerSecond(double attemptsPerSecond);
+
+    public int getBurst();
+
+    public void setBurst(int burst);
+
+    public int getMaxTrackedEmails();
+
+    public int getTrackedEmails();
+
+    public long getAllowed();
+
+    public long getRejected();
+
+    /**
+     * @return attempts allowed without a bucket because every tracked email was active
+     */
+    public long getUntracked();
+}
@@ -0,0 +1,46 @@
+package edu.umflix.usermanager;
+
+import edu.umflix.authenticationhandler.AuthenticationHandler;
+import edu.umflix.authenticationhandler.exceptions.InvalidTokenException;
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.User;
+import edu.umflix.persistence.UserDao;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+
+/**
+ * Shares the in flight token resolutions and user loads between all the UserManager instances, so a storm
+ * of requests for the same token or email reaches the backend once.
+ */
+@Singleton(name = "LookupCoalescer")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class LookupCoalescer {
+
+    private final SingleFlight<String, User> tokens = new SingleFlight<String, User>();
+    private final SingleFlight<String, User> users = new SingleFlight<String, User>();
+
+    /**
+     * @see AuthenticationHandler#getUserOfToken(String)
+     */
+    public User getUserOfToken(final String token, final AuthenticationHandler authenticationHandler) throws InvalidTokenException {
+        return tokens.execute(token, () -> authenticationHandler.getUserOfToken(token), InvalidTokenException.class);
+    }
+
+    /**
+     * Every caller of a shared load gets the same user, so it must only be read, never modified and written back
+     * @see UserDao#getUser(String)
+     */
+    public User getUser(final String email, final UserDao userDao) throws UserNotFoundException {
+        return users.execute(email, () -> userDao.getUser(email), UserNotFoundException.class);
+    }
+
+    public SingleFlight<String, User> getTokens() {
+        return tokens;
+    }
+
+    public SingleFlight<String, User> getUsers() {
+        return users;
+    }
+}
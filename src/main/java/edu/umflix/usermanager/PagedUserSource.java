@@ -0,0 +1,21 @@
+package edu.umflix.usermanager;
+
+import edu.umflix.model.User;
+
+import java.util.List;
+
+/**
+ * Implemented by user stores that can list their users in email order, a page at a time.
+ * Pages are addressed by the last email of the previous page, so reading a page does not depend on how
+ * deep it is.
+ */
+public interface PagedUserSource {
+
+    /**
+     * Returns the users whose email comes after the given one
+     * @param afterEmail the last email of the previous page, null for the first page
+     * @param limit the maximum number of users to return
+     * @return the users in email order, an empty list when there are no more
+     */
+    public List<User> page(String afterEmail, int limit);
+}
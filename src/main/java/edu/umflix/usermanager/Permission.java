@@ -0,0 +1,19 @@
+package edu.umflix.usermanager;
+
+/**
+ * Actions a role may be granted by the {@link PermissionPolicy}
+ */
+public enum Permission {
+    DELETE_SELF,
+    DELETE_ANY,
+    UPDATE_SELF,
+    UPDATE_ANY,
+    LIST_USERS;
+
+    /**
+     * @return the bit of this permission in a compiled permission set
+     */
+    public int bit() {
+        return 1 << ordinal();
+    }
+}
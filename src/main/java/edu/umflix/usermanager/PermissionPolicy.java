@@ -0,0 +1,348 @@
+package edu.umflix.usermanager;
+
+import edu.umflix.model.Role;
+import edu.umflix.usermanager.metrics.Jmx;
+import org.apache.log4j.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides what the role of an actor allows it to do. The policy maps role ids to permissions and is compiled
+ * once into one bitset per role, so a check is an array lookup and a mask without any I/O.
+ * <p>
+ * The policy is read from the properties file named by the usermanager.permissions.file system property:
+ * <pre>
+ * # admin
+ * role.1=DELETE_SELF,DELETE_ANY,UPDATE_SELF,UPDATE_ANY,LIST_USERS
+ * # support staff resets passwords
+ * role.4=UPDATE_SELF,UPDATE_ANY
+ * # every other role
+ * default=DELETE_SELF,UPDATE_SELF
+ * </pre>
+ * Without a file the built in policy grants everything to the admin role and the self permissions to the rest,
+ * which is what the UserManager always allowed. The file is checked for changes every
+ * usermanager.permissions.reloadPeriod milliseconds and swapped in atomically, an invalid file is logged and
+ * the previous policy kept. Exposed over JMX as edu.umflix.usermanager:type=PermissionPolicy.
+ */
+@Singleton(name = "PermissionPolicy")
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class PermissionPolicy implements PermissionPolicyMBean {
+
+    private static final Logger logger = Logger.getLogger(PermissionPolicy.class);
+
+    public static final String OBJECT_NAME = "edu.umflix.usermanager:type=PermissionPolicy";
+    public static final String ROLE_PREFIX = "role.";
+    public static final String DEFAULT_KEY = "default";
+
+    private static final String DEFAULT_FILE = System.getProperty("usermanager.permissions.file");
+    private static final long RELOAD_PERIOD_MILLIS = Long.getLong("usermanager.permissions.reloadPeriod", 5000);
+
+    /**
+     * Role ids below this are looked up in an array, the rest in a map
+     */
+    private static final int DENSE_IDS = 1024;
+
+    private final File file;
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failedReloads = new AtomicLong();
+
+    private volatile Compiled compiled;
+    private volatile long loadedModified;
+    private ScheduledExecutorService watcher;
+    private ObjectName registeredName;
+
+    public PermissionPolicy() {
+        this(DEFAULT_FILE == null ? null : new File(DEFAULT_FILE));
+    }
+
+    /**
+     * @param file the policy file, null for the built in policy
+     * @throws IllegalArgumentException thrown if the file can not be read or is invalid
+     */
+    public PermissionPolicy(File file) {
+        this.file = file;
+        if (file == null) {
+            compiled = compile(defaultPolicy());
+        } else {
+            loadedModified = file.lastModified();
+            try {
+                compiled = compile(read(file));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("permission policy " + file + " can not be read", e);
+            }
+        }
+    }
+
+    /**
+     * @param policy the policy, in the format of the policy file
+     * @throws IllegalArgumentException thrown if the policy is invalid
+     */
+    public PermissionPolicy(Properties policy) {
+        this.file = null;
+        this.compiled = compile(policy);
+    }
+
+    /**
+     * @return the built in policy: everything for the admin role, the self permissions for the rest
+     */
+    public static Properties defaultPolicy() {
+        Properties policy = new Properties();
+        policy.setProperty(ROLE_PREFIX + RoleDirectory.ADMIN_ROLE_ID, "DELETE_SELF,DELETE_ANY,UPDATE_SELF,UPDATE_ANY,LIST_USERS");
+        policy.setProperty(DEFAULT_KEY, "DELETE_SELF,UPDATE_SELF");
+        return policy;
+    }
+
+    /**
+     * Tells if a role has a permission
+     * @param role the role of the actor, may be null
+     * @param permission the permission to check
+     * @return true if the role was granted the permission
+     */
+    public boolean permits(Role role, Permission permission) {
+        return (compiled.permissionsOf(role) & permission.bit()) != 0;
+    }
+
+    /**
+     * Tells if an actor may delete a user
+     * @param actorRole the role of the actor
+     * @param self true if the actor is the user to delete
+     * @return true if the deletion is allowed
+     */
+    public boolean canDelete(Role actorRole, boolean self) {
+        return allows(actorRole, self, Permission.DELETE_SELF, Permission.DELETE_ANY);
+    }
+
+    /**
+     * Tells if an actor may update the password of a user
+     * @param actorRole the role of the actor
+     * @param self true if the actor is the user to update
+     * @return true if the update is allowed
+     */
+    public boolean canUpdate(Role actorRole, boolean self) {
+        return allows(actorRole, self, Permission.UPDATE_SELF, Permission.UPDATE_ANY);
+    }
+
+    private boolean allows(Role actorRole, boolean self, Permission selfPermission, Permission anyPermission) {
+        int required = self ? selfPermission.bit() | anyPermission.bit() : anyPermission.bit();
+        return (compiled.permissionsOf(actorRole) & required) != 0;
+    }
+
+    /**
+     * Compiles a policy and puts it in use
+     * @param policy the policy, in the format of the policy file
+     * @throws IllegalArgumentException thrown if the policy is invalid, the current one is kept
+     */
+    public void load(Properties policy) {
+        compiled = compile(policy);
+        reloads.incrementAndGet();
+    }
+
+    @Override
+    public boolean reload() {
+        if (file == null) {
+            return false;
+        }
+        long modified = file.lastModified();
+        try {
+            load(read(file));
+            loadedModified = modified;
+            if (logger.isInfoEnabled()) {
+                logger.info("permission policy reloaded from " + file);
+            }
+            return true;
+        } catch (IOException e) {
+            failedReloads.incrementAndGet();
+            logger.error("permission policy " + file + " can not be read, keeping the current one", e);
+        } catch (IllegalArgumentException e) {
+            failedReloads.incrementAndGet();
+            logger.error("permission policy " + file + " is invalid, keeping the current one", e);
+        }
+        //Do not retry the same broken file on every check
+        loadedModified = modified;
+        return false;
+    }
+
+    @PostConstruct
+    public void start() {
+        registeredName = Jmx.register(this, OBJECT_NAME);
+        if (file != null && RELOAD_PERIOD_MILLIS > 0) {
+            watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "permission-policy-watcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            watcher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    if (file.lastModified() != loadedModified) {
+                        reload();
+                    }
+                }
+            }, RELOAD_PERIOD_MILLIS, RELOAD_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+        Jmx.unregister(registeredName);
+        registeredName = null;
+    }
+
+    @Override
+    public String getPolicyFile() {
+        return file == null ? null : file.getPath();
+    }
+
+    @Override
+    public String getPolicy() {
+        return compiled.source;
+    }
+
+    @Override
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    @Override
+    public long getFailedReloads() {
+        return failedReloads.get();
+    }
+
+    private static Properties read(File file) throws IOException {
+        Properties policy = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            policy.load(in);
+        } finally {
+            in.close();
+        }
+        return policy;
+    }
+
+    static Compiled compile(Properties policy) {
+        int defaultPermissions = 0;
+        int maxDenseId = -1;
+        Map<Long, Integer> byId = new TreeMap<Long, Integer>();
+        for (String key : policy.stringPropertyNames()) {
+            int permissions = parsePermissions(key, policy.getProperty(key));
+            if (DEFAULT_KEY.equals(key)) {
+                defaultPermissions = permissions;
+                continue;
+            }
+            if (!key.startsWith(ROLE_PREFIX)) {
+                throw new IllegalArgumentException("unknown key " + key + " in permission policy");
+            }
+            long id;
+            try {
+                id = Long.parseLong(key.substring(ROLE_PREFIX.length()).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid role id in key " + key + " of permission policy");
+            }
+            byId.put(id, permissions);
+            if (id >= 0 && id < DENSE_IDS) {
+                maxDenseId = Math.max(maxDenseId, (int) id);
+            }
+        }
+        int[] dense = new int[maxDenseId + 1];
+        Arrays.fill(dense, defaultPermissions);
+        Map<Long, Integer> sparse = new HashMap<Long, Integer>();
+        StringBuilder source = new StringBuilder();
+        for (Map.Entry<Long, Integer> entry : byId.entrySet()) {
+            long id = entry.getKey();
+            if (id >= 0 && id < DENSE_IDS) {
+                dense[(int) id] = entry.getValue();
+            } else {
+                sparse.put(id, entry.getValue());
+            }
+            source.append(ROLE_PREFIX).append(id).append('=').append(describe(entry.getValue())).append('\n');
+        }
+        source.append(DEFAULT_KEY).append('=').append(describe(defaultPermissions));
+        return new Compiled(dense, sparse, defaultPermissions, source.toString());
+    }
+
+    private static int parsePermissions(String key, String value) {
+        int permissions = 0;
+        for (String name : value.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            try {
+                permissions |= Permission.valueOf(name).bit();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("unknown permission " + name + " for " + key + " in permission policy");
+            }
+        }
+        return permissions;
+    }
+
+    private static String describe(int permissions) {
+        StringBuilder names = new StringBuilder();
+        for (Permission permission : Permission.values()) {
+            if ((permissions & permission.bit()) != 0) {
+                if (names.length() > 0) {
+                    names.append(',');
+                }
+                names.append(permission.name());
+            }
+        }
+        return names.toString();
+    }
+
+    /**
+     * An immutable compiled policy, replaced as a whole on reload
+     */
+    static final class Compiled {
+        private final int[] dense;
+        private final Map<Long, Integer> sparse;
+        private final int defaultPermissions;
+        private final String source;
+
+        private Compiled(int[] dense, Map<Long, Integer> sparse, int defaultPermissions, String source) {
+            this.dense = dense;
+            this.sparse = sparse;
+            this.defaultPermissions = defaultPermissions;
+            this.source = source;
+        }
+
+        int permissionsOf(Role role) {
+            Long id = role == null ? null : role.getId();
+            if (id == null) {
+                return defaultPermissions;
+            }
+            long value = id.longValue();
+            if (value >= 0 && value < dense.length) {
+                return dense[(int) value];
+            }
+            if (sparse.isEmpty()) {
+                return defaultPermissions;
+            }
+            Integer permissions = sparse.get(id);
+            return permissions == null ? defaultPermissions : permissions.intValue();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package edu.umflix.usermanager;
+
+/**
+ * JMX view and control of the {@link PermissionPolicy}
+ */
+public interface PermissionPolicyMBean {
+
+    /**
+     * Reads and compiles the policy file again, the current policy is kept if it is invalid
+     * @return true if the new policy is in use
+     */
+    public boolean reload();
+
+    /**
+     * @return the policy file, null when the built in policy is used
+     */
+    public String getPolicyFile();
+
+    /**
+     * @return the policy in use, in the format of the policy file
+     */
+    public String getPolicy();
+
+    public long getReloads();
+
+    public long getFailedReloads();
+}
@@ -0,0 +1,51 @@
+package edu.umflix.usermanager;
+
+import edu.umflix.model.User;
+
+/**
+ * Outcome of registering one user of a batch
+ */
+public class RegistrationResult {
+
+    public enum Status {
+        REGISTERED,
+        INVALID_USER,
+        INVALID_EMAIL,
+        INVALID_PASSWORD,
+        INVALID_ROLE,
+        EMAIL_TAKEN,
+        DUPLICATED_IN_BATCH,
+        FAILED
+    }
+
+    private final User user;
+    private final Status status;
+
+    public RegistrationResult(User user, Status status) {
+        this.user = user;
+        this.status = status;
+    }
+
+    /**
+     * @return the user this result belongs to
+     */
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * @return why the user was or was not registered
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isRegistered() {
+        return status == Status.REGISTERED;
+    }
+
+    @Override
+    public String toString() {
+        return (user == null ? "null" : user.getEmail()) + ": " + status;
+    }
+}
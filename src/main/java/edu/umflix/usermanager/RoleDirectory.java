@@ -0,0 +1,137 @@
+package edu.umflix.usermanager;
+
+import edu.umflix.exceptions.RoleNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.persistence.RoleDao;
+import edu.umflix.usermanager.invalidation.Invalidation;
+import edu.umflix.usermanager.invalidation.InvalidationListener;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In memory directory of the stored roles. Roles are loaded from the {@link RoleDao} the first time
+ * they are requested and served from memory until their time to live expires or they are invalidated.
+ * The TTL can be set in milliseconds with the usermanager.roles.ttl system property. Roles reported by the
+ * invalidation bus are dropped as well.
+ */
+@Singleton(name = "RoleDirectory")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class RoleDirectory implements InvalidationListener {
+
+    public static final Long ADMIN_ROLE_ID = Long.valueOf(1);
+
+    private static final long DEFAULT_TTL_MILLIS = Long.getLong("usermanager.roles.ttl", TimeUnit.MINUTES.toMillis(5));
+
+    @EJB(beanName = "RoleDao")
+    protected RoleDao roleDao;
+
+    private final long ttlNanos;
+    private final ConcurrentMap<Long, Entry> roles = new ConcurrentHashMap<Long, Entry>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public RoleDirectory() {
+        this(null, DEFAULT_TTL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public RoleDirectory(RoleDao roleDao) {
+        this(roleDao, DEFAULT_TTL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public RoleDirectory(RoleDao roleDao, long ttl, TimeUnit unit) {
+        this.roleDao = roleDao;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * Returns the stored role with the given id
+     * @param id the id of the role
+     * @return the stored role
+     * @throws RoleNotFoundException thrown if there is no role with that id
+     */
+    public Role getRole(Long id) throws RoleNotFoundException {
+        if (id == null) {
+            misses.incrementAndGet();
+            return roleDao.getRoleById(null);
+        }
+        long now = System.nanoTime();
+        Entry entry = roles.get(id);
+        if (entry != null && now - entry.loadedAt < ttlNanos) {
+            hits.incrementAndGet();
+            return entry.role;
+        }
+        misses.incrementAndGet();
+        Role role = roleDao.getRoleById(id);
+        roles.put(id, new Entry(role, now));
+        return role;
+    }
+
+    /**
+     * Tells if the given role is the admin role
+     * @param role the role to check, may be null
+     * @return true if the role is the stored admin role
+     * @throws RoleNotFoundException thrown if the admin role is not stored
+     */
+    public boolean isAdmin(Role role) throws RoleNotFoundException {
+        return role != null && role.equals(getRole(ADMIN_ROLE_ID));
+    }
+
+    /**
+     * Drops the cached role with the given id, it will be loaded again on the next lookup
+     * @param id the id of the role
+     */
+    public void invalidate(Long id) {
+        if (id != null) {
+            roles.remove(id);
+        }
+    }
+
+    /**
+     * Drops every cached role
+     */
+    public void invalidateAll() {
+        roles.clear();
+    }
+
+    @Override
+    public void onInvalidations(List<Invalidation> batch) {
+        for (Invalidation invalidation : batch) {
+            switch (invalidation.getType()) {
+                case ROLE:
+                    invalidate(Long.valueOf(invalidation.getKey()));
+                    break;
+                case ALL:
+                    invalidateAll();
+                    return;
+                default:
+                    break;
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static final class Entry {
+        private final Role role;
+        private final long loadedAt;
+
+        private Entry(Role role, long loadedAt) {
+            this.role = role;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package edu.umflix.usermanager;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent calls for the same key: while a call for a key is in flight, other callers for that
+ * key wait for it and get its result or its exception instead of calling the backend themselves.
+ * Nothing is cached, once the call completes the next caller starts a new one.
+ * @param <K> type of the keys
+ * @param <V> type of the results
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * A backend call
+     * @param <V> type of the result
+     * @param <E> checked exception thrown by the call
+     */
+    public interface Call<V, E extends Exception> {
+        public V call() throws E;
+    }
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Runs the call, or waits for the one already in flight for the key
+     * @param key the key of the call, a null key is never coalesced
+     * @param call the backend call
+     * @param exceptionType the checked exception thrown by the call
+     * @return the result of the call
+     * @throws E thrown by the call that ran
+     */
+    public <E extends Exception> V execute(K key, Call<V, E> call, Class<E> exceptionType) throws E {
+        calls.increment();
+        if (key == null) {
+            return call.call();
+        }
+        CompletableFuture<V> flight = new CompletableFuture<V>();
+        CompletableFuture<V> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            coalesced.increment();
+            return await(leader, exceptionType);
+        }
+        try {
+            V result = call.call();
+            flight.complete(result);
+            return result;
+        } catch (Throwable e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private <E extends Exception> V await(CompletableFuture<V> leader, Class<E> exceptionType) throws E {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return leader.get();
+                } catch (InterruptedException e) {
+                    //the caller did not ask to wait interruptibly, keep waiting and restore the flag
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (exceptionType.isInstance(cause)) {
+                        throw exceptionType.cast(cause);
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException("coalesced call failed", cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the number of calls made through this flight
+     */
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    /**
+     * @return the number of calls that waited for another call instead of reaching the backend
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+}
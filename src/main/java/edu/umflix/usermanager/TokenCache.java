@@ -0,0 +1,255 @@
+package edu.umflix.usermanager;
+
+import edu.umflix.model.User;
+import edu.umflix.usermanager.invalidation.Invalidation;
+import edu.umflix.usermanager.invalidation.InvalidationListener;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the users that tokens resolve to. Entries expire a fixed time after they are written, and
+ * when the cache is full the oldest ones are evicted first. The limits can be set with the
+ * usermanager.tokens.maxSize and usermanager.tokens.ttl (milliseconds) system properties. The tokens of a user
+ * are dropped when the invalidation bus reports that the user changed on any node. The tokens are indexed by the
+ * normalized email of their user, so dropping the tokens of a user does not scan the cache.
+ */
+@Singleton(name = "TokenCache")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class TokenCache implements InvalidationListener {
+
+    private static final int DEFAULT_MAX_SIZE = Integer.getInteger("usermanager.tokens.maxSize", 10000);
+    private static final long DEFAULT_TTL_MILLIS = Long.getLong("usermanager.tokens.ttl", TimeUnit.SECONDS.toMillis(30));
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentMap<String, Set<String>> tokensByEmail = new ConcurrentHashMap<String, Set<String>>();
+    private final Queue<Entry> writeOrder = new ConcurrentLinkedQueue<Entry>();
+    //Entries that left the cache but may still be queued in writeOrder, they are purged once they outnumber maxSize
+    private final AtomicInteger deadEntries = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public TokenCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public TokenCache(int maxSize, long ttl, TimeUnit unit) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive in TokenCache");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * Returns the cached user of a token
+     * @param token the token of the session
+     * @return the user of the token, or null if it is not cached or expired
+     */
+    public User get(String token) {
+        if (token == null) {
+            return null;
+        }
+        Entry entry = entries.get(token);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (isExpired(entry, System.nanoTime())) {
+            if (entries.remove(token, entry)) {
+                unlink(entry);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.user;
+    }
+
+    /**
+     * Caches the user a token resolves to
+     * @param token the token of the session
+     * @param user the user of the token
+     */
+    public void put(String token, User user) {
+        if (token == null || user == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        Entry entry = new Entry(token, UserValidator.normalizeEmail(user.getEmail()), user, now);
+        Entry replaced = entries.put(token, entry);
+        if (replaced != null) {
+            unlink(replaced);
+        }
+        index(entry);
+        writeOrder.add(entry);
+        //Entries are queued in write order, so the expired, the oldest and the dropped ones are at the head
+        Entry oldest;
+        while ((oldest = writeOrder.peek()) != null
+                && (entries.get(oldest.token) != oldest || isExpired(oldest, now) || entries.size() > maxSize)) {
+            if (writeOrder.remove(oldest) && entries.remove(oldest.token, oldest)) {
+                unindex(oldest);
+                evictions.incrementAndGet();
+            }
+        }
+        purgeDeadEntries();
+    }
+
+    /**
+     * Drops a cached token
+     * @param token the token of the session
+     */
+    public void evict(String token) {
+        if (token == null) {
+            return;
+        }
+        Entry entry = entries.remove(token);
+        if (entry != null) {
+            unlink(entry);
+        }
+    }
+
+    /**
+     * Drops every cached token of a user, used when the user changes or is deleted
+     * @param email the email of the user
+     */
+    public void evictUser(String email) {
+        if (email == null) {
+            return;
+        }
+        String normalized = UserValidator.normalizeEmail(email);
+        Set<String> tokens = tokensByEmail.remove(normalized);
+        if (tokens == null) {
+            return;
+        }
+        for (String token : tokens) {
+            Entry entry = entries.get(token);
+            //The token may have been written again for another user since it was indexed
+            if (entry != null && normalized.equals(entry.email) && entries.remove(token, entry)) {
+                deadEntries.incrementAndGet();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops every cached token
+     */
+    public void invalidateAll() {
+        entries.clear();
+        tokensByEmail.clear();
+        writeOrder.clear();
+        deadEntries.set(0);
+    }
+
+    @Override
+    public void onInvalidations(List<Invalidation> batch) {
+        for (Invalidation invalidation : batch) {
+            switch (invalidation.getType()) {
+                case USER:
+                    evictUser(invalidation.getKey());
+                    break;
+                case ALL:
+                    invalidateAll();
+                    return;
+                default:
+                    break;
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private void index(Entry entry) {
+        if (entry.email == null) {
+            return;
+        }
+        //compute runs atomically per email, so a token is never added to a set that is being dropped
+        tokensByEmail.compute(entry.email, (email, tokens) -> {
+            Set<String> indexed = tokens == null ? Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()) : tokens;
+            indexed.add(entry.token);
+            return indexed;
+        });
+    }
+
+    private void unindex(Entry entry) {
+        if (entry.email == null) {
+            return;
+        }
+        tokensByEmail.computeIfPresent(entry.email, (email, tokens) -> {
+            //The token stays indexed when it was written again for the same user
+            Entry current = entries.get(entry.token);
+            if (current == null || !email.equals(current.email)) {
+                tokens.remove(entry.token);
+            }
+            return tokens.isEmpty() ? null : tokens;
+        });
+    }
+
+    //Drops an entry that left the cache from the email index, it stays queued in writeOrder until purged
+    private void unlink(Entry entry) {
+        unindex(entry);
+        deadEntries.incrementAndGet();
+    }
+
+    private void purgeDeadEntries() {
+        if (deadEntries.get() <= maxSize) {
+            return;
+        }
+        deadEntries.set(0);
+        Iterator<Entry> iterator = writeOrder.iterator();
+        while (iterator.hasNext()) {
+            Entry queued = iterator.next();
+            if (entries.get(queued.token) != queued) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.writtenAt >= ttlNanos;
+    }
+
+    private static final class Entry {
+        private final String token;
+        private final String email;
+        private final User user;
+        private final long writtenAt;
+
+        private Entry(String token, String email, User user, long writtenAt) {
+            this.token = token;
+            this.email = email;
+            this.user = user;
+            this.writtenAt = writtenAt;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package edu.umflix.usermanager;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Answers existence questions about stored users without loading them.
+ * User stores that can check existence natively should implement this interface.
+ */
+public interface UserLookup {
+
+    /**
+     * Tells if there is a stored user with the given email
+     * @param email the email of the user
+     * @return true if the email is taken
+     */
+    public boolean exists(String email);
+
+    /**
+     * Finds which of the given emails are taken
+     * @param emails the emails to check
+     * @return the subset of emails that belong to a stored user
+     */
+    public Set<String> existing(Collection<String> emails);
+}
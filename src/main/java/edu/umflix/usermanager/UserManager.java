@@ -7,6 +7,8 @@ import edu.umflix.model.User;
 import edu.umflix.usermanager.exceptions.*;
 
 import javax.ejb.Local;
+import java.util.Collection;
+import java.util.List;
 
 @Local
 public interface UserManager {
@@ -21,6 +23,25 @@ public interface UserManager {
      */
     public void register(User user) throws InvalidEmailException, InvalidPasswordException, InvalidRoleException, EmailAlreadyTakenException;
 
+    /**
+     * Registers a batch of users. Every user is checked like in {@link #register(User)}, but roles are
+     * resolved once per batch, emails are checked against the store in one pass and users are created in chunks
+     * @param users the users to register
+     * @return one result per user, in the iteration order of the collection
+     */
+    public List<RegistrationResult> registerAll(Collection<User> users);
+
+    /**
+     * Registers a batch of users exported from another node, see {@link edu.umflix.usermanager.transfer.UserImporter}.
+     * Checked like in {@link #registerAll(Collection)}, except that passwords which are credentials of the
+     * credential engine are stored as they are. They must be well formed and within the cost limits of their
+     * hasher, otherwise the user is refused as INVALID_PASSWORD. Plain text passwords are checked and hashed.
+     * Only for trusted exports, the password policy can not be checked on a credential
+     * @param users the users to import
+     * @return one result per user, in the iteration order of the collection
+     */
+    public List<RegistrationResult> importAll(Collection<User> users);
+
     /**
      * Logs a user into the system
      * @param user the user to log
@@ -46,10 +67,37 @@ public interface UserManager {
      * @param newPassword the new password
      * @throws InvalidUserException thrown if the user is not registered into the system
      * @throws PermissionDeniedException thrown if the user that corresponds to the token is not allowed to do this action
-     * @throws InvalidPasswordException thrown if the newPassword is not a valid one
+     * @throws InvalidPasswordException thrown if the newPassword is not a valid one, or a PasswordChangedException
+     * if the password of the user changed while it was updated
      * @throws InvalidTokenException thrown if the token is not a valid one
      */
     public void update(String token, User user, String newPassword) throws InvalidUserException, PermissionDeniedException, InvalidPasswordException, InvalidTokenException;
 
+    /**
+     * Lists the registered users in email order, a page at a time. Needs the LIST_USERS permission.
+     * When the store can not list its users, see {@link PagedUserSource}, the pages only hold the users registered
+     * on this node, or changed on any node, since it started, and {@link UserPage#isComplete()} is false
+     * @param token the token of the session
+     * @param cursor the next cursor of the previous page, null for the first page
+     * @param limit the maximum number of users in the page
+     * @return the emails of the page and the cursor of the next one
+     * @throws PermissionDeniedException thrown if the user that corresponds to the token is not allowed to list users
+     * @throws InvalidTokenException thrown if the token is not a valid one
+     */
+    public UserPage listUsers(String token, String cursor, int limit) throws PermissionDeniedException, InvalidTokenException;
+
+    /**
+     * Lists the registered users whose email starts with a prefix, like {@link #listUsers(String, String, int)},
+     * with the same limit on stores that can not list their users
+     * @param token the token of the session
+     * @param prefix the start of the emails, compared without case
+     * @param cursor the next cursor of the previous page, null for the first page
+     * @param limit the maximum number of users in the page
+     * @return the emails of the page and the cursor of the next one
+     * @throws PermissionDeniedException thrown if the user that corresponds to the token is not allowed to list users
+     * @throws InvalidTokenException thrown if the token is not a valid one
+     */
+    public UserPage searchByEmailPrefix(String token, String prefix, String cursor, int limit) throws PermissionDeniedException, InvalidTokenException;
+
 
 }
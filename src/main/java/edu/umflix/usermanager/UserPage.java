@@ -0,0 +1,76 @@
+package edu.umflix.usermanager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * One page of a user listing, in email order. The cursor of the next page holds the last email of this one,
+ * so the next page starts right after it whatever was registered or deleted in between.
+ */
+public class UserPage {
+
+    private final List<String> emails;
+    private final String nextCursor;
+    private final boolean complete;
+
+    public UserPage(List<String> emails, String nextCursor) {
+        this(emails, nextCursor, true);
+    }
+
+    public UserPage(List<String> emails, String nextCursor, boolean complete) {
+        this.emails = emails;
+        this.nextCursor = nextCursor;
+        this.complete = complete;
+    }
+
+    /**
+     * @return the emails of the page
+     */
+    public List<String> getEmails() {
+        return emails;
+    }
+
+    /**
+     * @return the cursor to ask for the next page with, null if this is the last one
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean isLast() {
+        return nextCursor == null;
+    }
+
+    /**
+     * @return false if the listing only covers the users registered or changed since the node started, because
+     * the store can not list its users
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the cursor of the page that starts after the given email
+     */
+    public static String cursorAfter(String email) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(email.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param cursor a cursor returned in a page, null for the first page
+     * @return the email the page starts after, null for the first page
+     * @throws IllegalArgumentException thrown if the cursor was not returned in a page
+     */
+    public static String emailOf(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return emails + (nextCursor == null ? "" : " next " + nextCursor) + (complete ? "" : " partial");
+    }
+}
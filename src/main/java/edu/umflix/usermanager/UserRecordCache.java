@@ -0,0 +1,256 @@
+package edu.umflix.usermanager;
+
+import edu.umflix.model.User;
+import edu.umflix.usermanager.invalidation.Invalidation;
+import edu.umflix.usermanager.invalidation.InvalidationListener;
+import edu.umflix.usermanager.metrics.Jmx;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.management.ObjectName;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of stored users by normalized email, filled by the
+ * {@link edu.umflix.usermanager.persistence.CachingUserDao}. Emails that are not stored are cached too, with a
+ * shorter time to live. Users are copied on the way in and out, so changing a returned user never changes
+ * the cache. The limits can be set with the usermanager.users.maxSize, usermanager.users.ttl and
+ * usermanager.users.negativeTtl (milliseconds) system properties. Entries are dropped when the invalidation
+ * bus reports that a user changed on any node. Exposed over JMX as edu.umflix.usermanager:type=UserRecordCache.
+ */
+@Singleton(name = "UserRecordCache")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class UserRecordCache implements UserRecordCacheMBean, InvalidationListener {
+
+    public static final String OBJECT_NAME = "edu.umflix.usermanager:type=UserRecordCache";
+
+    private static final int DEFAULT_MAX_SIZE = Integer.getInteger("usermanager.users.maxSize", 10000);
+    private static final long DEFAULT_TTL_MILLIS = Long.getLong("usermanager.users.ttl", TimeUnit.SECONDS.toMillis(30));
+    private static final long DEFAULT_NEGATIVE_TTL_MILLIS = Long.getLong("usermanager.users.negativeTtl", TimeUnit.SECONDS.toMillis(1));
+
+    /**
+     * Result of a lookup of an email that is cached as not stored
+     */
+    public static final User NOT_FOUND = new User();
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final Queue<Entry> writeOrder = new ConcurrentLinkedQueue<Entry>();
+    //Incremented by every invalidation, a load that saw it change may hold a stale user and is not cached
+    private final AtomicLong stamp = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private ObjectName registeredName;
+
+    public UserRecordCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS, DEFAULT_NEGATIVE_TTL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public UserRecordCache(int maxSize, long ttl, long negativeTtl, TimeUnit unit) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive in UserRecordCache");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.negativeTtlNanos = unit.toNanos(negativeTtl);
+    }
+
+    @PostConstruct
+    public void start() {
+        registeredName = Jmx.register(this, OBJECT_NAME);
+    }
+
+    @PreDestroy
+    public void stop() {
+        Jmx.unregister(registeredName);
+        registeredName = null;
+    }
+
+    /**
+     * Returns a copy of the cached user of an email
+     * @param email the email of the user
+     * @return a copy of the user, {@link #NOT_FOUND} if the email is cached as not stored, or null if it
+     * is not cached
+     */
+    public User get(String email) {
+        if (email == null) {
+            return null;
+        }
+        String key = UserValidator.normalizeEmail(email);
+        Entry entry = entries.get(key);
+        if (entry == null || isExpired(entry, System.nanoTime())) {
+            if (entry != null) {
+                entries.remove(key, entry);
+            }
+            misses.increment();
+            return null;
+        }
+        if (entry.user == null) {
+            negativeHits.increment();
+            return NOT_FOUND;
+        }
+        hits.increment();
+        return copy(entry.user);
+    }
+
+    /**
+     * @return the value to pass to {@link #put(String, User, long)} for a user loaded after this call
+     */
+    public long stamp() {
+        return stamp.get();
+    }
+
+    /**
+     * Caches a copy of a loaded user, unless something was invalidated since it was loaded
+     * @param email the email of the user
+     * @param user the stored user, or null if the email is not stored
+     * @param stamp the {@link #stamp()} read before loading the user
+     */
+    public void put(String email, User user, long stamp) {
+        if (email == null || this.stamp.get() != stamp) {
+            return;
+        }
+        String key = UserValidator.normalizeEmail(email);
+        long now = System.nanoTime();
+        Entry entry = new Entry(key, user == null ? null : copy(user), now + (user == null ? negativeTtlNanos : ttlNanos));
+        entries.put(key, entry);
+        //An invalidation between the check and the put may have missed the entry
+        if (this.stamp.get() != stamp) {
+            entries.remove(key, entry);
+            return;
+        }
+        writeOrder.add(entry);
+        Entry oldest;
+        while ((oldest = writeOrder.peek()) != null && (isExpired(oldest, now) || entries.size() > maxSize)) {
+            if (writeOrder.remove(oldest) && entries.remove(oldest.email, oldest)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Drops the cached user of an email, called after the user is created, changed or deleted
+     * @param email the email of the user
+     */
+    public void invalidate(String email) {
+        if (email == null) {
+            return;
+        }
+        stamp.incrementAndGet();
+        if (entries.remove(UserValidator.normalizeEmail(email)) != null) {
+            invalidations.increment();
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        stamp.incrementAndGet();
+        entries.clear();
+        writeOrder.clear();
+    }
+
+    @Override
+    public void onInvalidations(List<Invalidation> batch) {
+        for (Invalidation invalidation : batch) {
+            switch (invalidation.getType()) {
+                case USER:
+                    invalidate(invalidation.getKey());
+                    break;
+                case ALL:
+                    invalidateAll();
+                    return;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Copies the fields of a user. The role is shared, roles are not changed through users
+     */
+    public static User copy(User user) {
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setEmail(user.getEmail());
+        copy.setName(user.getName());
+        copy.setPassword(user.getPassword());
+        copy.setRole(user.getRole());
+        return copy;
+    }
+
+    @Override
+    public int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hit = hits.sum() + negativeHits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.expires >= 0;
+    }
+
+    /**
+     * A cached user, or a cached not found when user is null
+     */
+    private static final class Entry {
+        private final String email;
+        private final User user;
+        private final long expires;
+
+        private Entry(String email, User user, long expires) {
+            this.email = email;
+            this.user = user;
+            this.expires = expires;
+        }
+    }
+}
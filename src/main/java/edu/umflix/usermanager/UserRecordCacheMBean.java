@@ -0,0 +1,31 @@
+package edu.umflix.usermanager;
+
+/**
+ * JMX view of the {@link UserRecordCache}
+ */
+public interface UserRecordCacheMBean {
+
+    public int getSize();
+
+    public int getMaxSize();
+
+    public long getHits();
+
+    /**
+     * @return lookups answered with a cached not found
+     */
+    public long getNegativeHits();
+
+    public long getMisses();
+
+    /**
+     * @return hits, positive and negative, over all lookups
+     */
+    public double getHitRatio();
+
+    public long getEvictions();
+
+    public long getInvalidations();
+
+    public void invalidateAll();
+}
@@ -0,0 +1,203 @@
+package edu.umflix.usermanager;
+
+import edu.umflix.usermanager.exceptions.InvalidEmailException;
+import edu.umflix.usermanager.exceptions.InvalidPasswordException;
+
+import java.util.Locale;
+
+/**
+ * Checks emails and passwords before anything reaches the persistence layer. The checks are single passes
+ * over the characters with precomputed tables, they do not allocate.
+ * Emails are compared in their normalized form: without surrounding whitespace and in lower case.
+ * The default password policy is read from the usermanager.password.minLength, usermanager.password.maxLength,
+ * usermanager.password.requireLetter and usermanager.password.requireDigit system properties.
+ */
+public class UserValidator {
+
+    public static final int MAX_EMAIL_LENGTH = 254;
+    private static final int MAX_LOCAL_PART_LENGTH = 64;
+    private static final int MAX_LABEL_LENGTH = 63;
+
+    private static final boolean[] LOCAL_PART_CHARS = new boolean[128];
+    private static final boolean[] LABEL_CHARS = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            LOCAL_PART_CHARS[c] = LABEL_CHARS[c] = true;
+            LOCAL_PART_CHARS[Character.toUpperCase(c)] = LABEL_CHARS[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            LOCAL_PART_CHARS[c] = LABEL_CHARS[c] = true;
+        }
+        for (char c : "!#$%&'*+/=?^_`{|}~.-".toCharArray()) {
+            LOCAL_PART_CHARS[c] = true;
+        }
+        LABEL_CHARS['-'] = true;
+    }
+
+    private static final UserValidator DEFAULT = new UserValidator(
+            Integer.getInteger("usermanager.password.minLength", 1),
+            Integer.getInteger("usermanager.password.maxLength", 256),
+            Boolean.getBoolean("usermanager.password.requireLetter"),
+            Boolean.getBoolean("usermanager.password.requireDigit"));
+
+    private final int minPasswordLength;
+    private final int maxPasswordLength;
+    private final boolean requireLetter;
+    private final boolean requireDigit;
+
+    public UserValidator(int minPasswordLength, int maxPasswordLength, boolean requireLetter, boolean requireDigit) {
+        if (minPasswordLength < 1 || maxPasswordLength < minPasswordLength) {
+            throw new IllegalArgumentException("invalid password length limits in UserValidator");
+        }
+        this.minPasswordLength = minPasswordLength;
+        this.maxPasswordLength = maxPasswordLength;
+        this.requireLetter = requireLetter;
+        this.requireDigit = requireDigit;
+    }
+
+    /**
+     * @return the validator configured with the system properties
+     */
+    public static UserValidator defaultValidator() {
+        return DEFAULT;
+    }
+
+    /**
+     * Checks the syntax of an email, ignoring surrounding whitespace: a local part of up to 64 characters
+     * without leading, trailing or consecutive dots, an @, and a domain of dot separated labels of letters,
+     * digits and inner hyphens
+     * @param email the email, may be null
+     * @return true if the email is valid
+     */
+    public boolean isValidEmail(CharSequence email) {
+        if (email == null) {
+            return false;
+        }
+        int start = 0;
+        int end = email.length();
+        while (start < end && email.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && email.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (end - start > MAX_EMAIL_LENGTH) {
+            return false;
+        }
+        int at = -1;
+        char previous = '.';
+        for (int i = start; i < end; i++) {
+            char c = email.charAt(i);
+            if (c == '@') {
+                if (at >= 0) {
+                    return false;
+                }
+                at = i;
+                if (previous == '.' || at - start > MAX_LOCAL_PART_LENGTH) {
+                    return false;
+                }
+                previous = '.';
+                continue;
+            }
+            if (at < 0) {
+                if (c >= 128 || !LOCAL_PART_CHARS[c] || (c == '.' && previous == '.')) {
+                    return false;
+                }
+                previous = c;
+            }
+        }
+        return at > start && isValidDomain(email, at + 1, end);
+    }
+
+    private static boolean isValidDomain(CharSequence email, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        int labelStart = start;
+        for (int i = start; i <= end; i++) {
+            char c = i == end ? '.' : email.charAt(i);
+            if (c == '.') {
+                int labelLength = i - labelStart;
+                if (labelLength == 0 || labelLength > MAX_LABEL_LENGTH
+                        || email.charAt(labelStart) == '-' || email.charAt(i - 1) == '-') {
+                    return false;
+                }
+                labelStart = i + 1;
+            } else if (c >= 128 || !LABEL_CHARS[c]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the normalized form of an email, without surrounding whitespace and in lower case
+     * @param email the email, may be null
+     * @return the normalized email, the same instance if it is already normalized
+     */
+    public static String normalizeEmail(String email) {
+        if (email == null) {
+            return null;
+        }
+        int start = 0;
+        int end = email.length();
+        while (start < end && email.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && email.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        boolean lowerCase = true;
+        for (int i = start; i < end && lowerCase; i++) {
+            char c = email.charAt(i);
+            lowerCase = c < 'A' || (c > 'Z' && c < 128) || (c >= 128 && Character.toLowerCase(c) == c);
+        }
+        if (lowerCase && start == 0 && end == email.length()) {
+            return email;
+        }
+        String trimmed = email.substring(start, end);
+        return lowerCase ? trimmed : trimmed.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Checks a password against the policy
+     * @param password the password, may be null
+     * @return true if the password is valid
+     */
+    public boolean isValidPassword(CharSequence password) {
+        if (password == null || password.length() < minPasswordLength || password.length() > maxPasswordLength) {
+            return false;
+        }
+        boolean hasLetter = false;
+        boolean hasDigit = false;
+        boolean blank = true;
+        for (int i = 0; i < password.length(); i++) {
+            char c = password.charAt(i);
+            blank &= Character.isWhitespace(c);
+            hasLetter |= Character.isLetter(c);
+            hasDigit |= Character.isDigit(c);
+        }
+        return !blank && (hasLetter || !requireLetter) && (hasDigit || !requireDigit);
+    }
+
+    /**
+     * @throws InvalidEmailException thrown if the email is not valid
+     * @see #isValidEmail(CharSequence)
+     */
+    public void checkEmail(String email) throws InvalidEmailException {
+        if (!isValidEmail(email)) {
+            throw new InvalidEmailException();
+        }
+    }
+
+    /**
+     * @throws InvalidPasswordException thrown if the password is not valid
+     * @see #isValidPassword(CharSequence)
+     */
+    public void checkPassword(String password) throws InvalidPasswordException {
+        if (!isValidPassword(password)) {
+            throw new InvalidPasswordException();
+        }
+    }
+}
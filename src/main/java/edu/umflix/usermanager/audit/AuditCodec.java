@@ -0,0 +1,171 @@
+package edu.umflix.usermanager.audit;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Binary layout of the audit segments. A segment starts with a header:
+ * <pre>
+ * int magic, int version, long first event time, long last event time
+ * </pre>
+ * followed by records, each of them:
+ * <pre>
+ * int length of the rest of the record
+ * byte type, long time, then actor, subject and outcome as a short length and UTF-8 bytes (length -1 for null)
+ * int CRC32 of the bytes between the length and the CRC
+ * </pre>
+ * Unwritten space is zero, so a length of 0 ends the segment. A record whose CRC does not match was torn by
+ * a crash and ends the segment as well.
+ */
+final class AuditCodec {
+
+    static final int MAGIC = 0x554d414c;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int FIRST_TIME_OFFSET = 8;
+    static final int LAST_TIME_OFFSET = 16;
+
+    /**
+     * Longer strings are cut, an audit record is never the place for unbounded input
+     */
+    static final int MAX_STRING_BYTES = 512;
+    static final int MAX_RECORD_SIZE = 4 + 1 + 8 + 3 * (2 + MAX_STRING_BYTES) + 4;
+
+    private static final AuditEvent.Type[] TYPES = AuditEvent.Type.values();
+
+    private AuditCodec() {
+    }
+
+    /**
+     * Encodes an event at the position of the buffer, which must have {@link #MAX_RECORD_SIZE} bytes left
+     */
+    static void encode(AuditEvent event, ByteBuffer buffer, CRC32 crc) {
+        int start = buffer.position();
+        buffer.position(start + 4);
+        buffer.put((byte) event.getType().ordinal());
+        buffer.putLong(event.getTime());
+        putString(buffer, event.getActor());
+        putString(buffer, event.getSubject());
+        putString(buffer, event.getOutcome());
+        int end = buffer.position();
+        crc.reset();
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + 4);
+        body.limit(end);
+        crc.update(body);
+        buffer.putInt(start, end - start);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * @return the size of the record at the position of the buffer, or -1 if there is no valid record there
+     */
+    static int validRecord(ByteBuffer buffer, CRC32 crc) {
+        int start = buffer.position();
+        if (buffer.remaining() < 4) {
+            return -1;
+        }
+        int length = buffer.getInt(start);
+        if (length < 4 + 1 + 8 + 6 || length > MAX_RECORD_SIZE || buffer.remaining() < 4 + length) {
+            return -1;
+        }
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + 4);
+        body.limit(start + length);
+        crc.reset();
+        crc.update(body);
+        if ((int) crc.getValue() != buffer.getInt(start + length)) {
+            return -1;
+        }
+        return 4 + length;
+    }
+
+    static long time(ByteBuffer buffer, int record) {
+        return buffer.getLong(record + 5);
+    }
+
+    static AuditEvent.Type type(ByteBuffer buffer, int record) {
+        int ordinal = buffer.get(record + 4);
+        if (ordinal < 0 || ordinal >= TYPES.length) {
+            throw new IllegalArgumentException("unknown audit event type " + ordinal);
+        }
+        return TYPES[ordinal];
+    }
+
+    /**
+     * @return the offset of the actor string of a record, the subject and outcome follow it
+     */
+    static int actorOffset(int record) {
+        return record + 13;
+    }
+
+    /**
+     * @return the offset of the string after the one at the given offset
+     */
+    static int next(ByteBuffer buffer, int offset) {
+        short length = buffer.getShort(offset);
+        return offset + 2 + Math.max(0, length);
+    }
+
+    /**
+     * Compares a string of a record with UTF-8 bytes without decoding it
+     */
+    static boolean matches(ByteBuffer buffer, int offset, byte[] expected) {
+        short length = buffer.getShort(offset);
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + 2 + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static AuditEvent decode(ByteBuffer buffer, int record) {
+        int actor = actorOffset(record);
+        int subject = next(buffer, actor);
+        int outcome = next(buffer, subject);
+        return new AuditEvent(time(buffer, record), type(buffer, record), getString(buffer, actor),
+                getString(buffer, subject), getString(buffer, outcome));
+    }
+
+    static byte[] bytes(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_STRING_BYTES) {
+            return bytes;
+        }
+        //Cut at a character boundary
+        int length = MAX_STRING_BYTES;
+        while (length > 0 && (bytes[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        byte[] cut = new byte[length];
+        System.arraycopy(bytes, 0, cut, 0, length);
+        return cut;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = bytes(value);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer, int offset) {
+        short length = buffer.getShort(offset);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,71 @@
+package edu.umflix.usermanager.audit;
+
+import java.time.Instant;
+
+/**
+ * One account mutation asked of the UserManager, whether it was done or refused
+ */
+public final class AuditEvent {
+
+    public enum Type {
+        REGISTER, DELETE, UPDATE
+    }
+
+    /**
+     * Outcome of the mutations that were done
+     */
+    public static final String OK = "OK";
+
+    private final long time;
+    private final Type type;
+    private final String actor;
+    private final String subject;
+    private final String outcome;
+
+    /**
+     * @param time when the mutation was asked, in milliseconds since the epoch
+     * @param type the mutation
+     * @param actor the email of the user of the token, null for registrations or when it is not known
+     * @param subject the email of the user that was to be changed
+     * @param outcome {@link #OK} or the simple name of the exception that refused the mutation
+     */
+    public AuditEvent(long time, Type type, String actor, String subject, String outcome) {
+        if (type == null || outcome == null) {
+            throw new IllegalArgumentException("null type or outcome in AuditEvent");
+        }
+        this.time = time;
+        this.type = type;
+        this.actor = actor;
+        this.subject = subject;
+        this.outcome = outcome;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getActor() {
+        return actor;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+
+    public boolean isOk() {
+        return OK.equals(outcome);
+    }
+
+    @Override
+    public String toString() {
+        return Instant.ofEpochMilli(time) + " " + type + " subject=" + subject + " actor=" + actor + " outcome=" + outcome;
+    }
+}
@@ -0,0 +1,346 @@
+package edu.umflix.usermanager.audit;
+
+import edu.umflix.usermanager.metrics.Jmx;
+import org.apache.log4j.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Append only audit trail of the account mutations. {@link #record(AuditEvent)} only offers the event to a
+ * bounded queue and never blocks; a full queue drops the event and counts it. A daemon thread writes the
+ * queued events in batches, in the binary format of {@link AuditCodec}, to memory mapped segment files of
+ * usermanager.audit.segmentSize bytes in the usermanager.audit.dir directory, starting a new segment when one
+ * is full. Written segments are forced to disk every usermanager.audit.forceMillis milliseconds and when they
+ * are rotated, so a crash loses at most that much. Segments are read with {@link AuditReader}. Nothing is
+ * opened until {@link #start()}, events recorded before wait in the queue. Exposed over JMX as
+ * edu.umflix.usermanager:type=AuditLog.
+ */
+@Singleton(name = "AuditLog")
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class AuditLog implements AuditLogMBean {
+
+    private static final Logger logger = Logger.getLogger(AuditLog.class);
+
+    public static final String OBJECT_NAME = "edu.umflix.usermanager:type=AuditLog";
+    public static final String SEGMENT_PREFIX = "audit-";
+    public static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String DEFAULT_DIRECTORY = System.getProperty("usermanager.audit.dir", "audit");
+    private static final int DEFAULT_SEGMENT_SIZE = Integer.getInteger("usermanager.audit.segmentSize", 64 * 1024 * 1024);
+    private static final long DEFAULT_FORCE_MILLIS = Long.getLong("usermanager.audit.forceMillis", 1000);
+    private static final int DEFAULT_CAPACITY = Integer.getInteger("usermanager.audit.capacity", 65536);
+    private static final int MAX_BATCH = 1024;
+    //The writer is not interrupted to stop it, an interrupt closes the channel a segment is being mapped with
+    private static final long CLOSE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final File directory;
+    private final int segmentSize;
+    private final long forceNanos;
+    private final BlockingQueue<AuditEvent> queue;
+    private final CRC32 crc = new CRC32();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder segmentsCreated = new LongAdder();
+    private final LongAdder forces = new LongAdder();
+    private Thread writer;
+    private volatile boolean closed;
+
+    //Only used by the writer thread once it is started
+    private long sequence;
+    private volatile File segmentFile;
+    private MappedByteBuffer segment;
+    private boolean dirty;
+    //Events of the batch being written that reached the segment
+    private int batchWritten;
+    private ObjectName registeredName;
+
+    public AuditLog() {
+        this(new File(DEFAULT_DIRECTORY), DEFAULT_SEGMENT_SIZE, DEFAULT_FORCE_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param directory where the segments are, created if missing when the log is started
+     * @param segmentSize bytes of every segment
+     * @param forcePeriod how often written events are forced to disk
+     * @param unit unit of the period
+     * @param capacity events that can wait to be written
+     */
+    public AuditLog(File directory, int segmentSize, long forcePeriod, TimeUnit unit, int capacity) {
+        if (directory == null || segmentSize < AuditCodec.HEADER_SIZE + AuditCodec.MAX_RECORD_SIZE || capacity < 1) {
+            throw new IllegalArgumentException("no directory, segment too small or no capacity in AuditLog");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.forceNanos = unit.toNanos(forcePeriod);
+        this.queue = new ArrayBlockingQueue<AuditEvent>(capacity);
+    }
+
+    /**
+     * Opens the log, appending to the last segment of the directory if it has room, and starts writing
+     * @throws IllegalStateException thrown if the directory or the last segment can not be opened
+     */
+    @PostConstruct
+    public synchronized void start() {
+        if (writer != null) {
+            return;
+        }
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("audit directory " + directory + " can not be created");
+            }
+            openLastSegment();
+        } catch (IOException e) {
+            throw new IllegalStateException("audit log in " + directory + " can not be opened", e);
+        }
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+        registeredName = Jmx.register(this, OBJECT_NAME);
+    }
+
+    /**
+     * Writes what is queued, forces it to disk and stops the log
+     */
+    @PreDestroy
+    public synchronized void close() {
+        closed = true;
+        if (writer == null) {
+            //Never started, what was queued can not be written
+            dropped.add(queue.size());
+            queue.clear();
+            return;
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Jmx.unregister(registeredName);
+        registeredName = null;
+    }
+
+    /**
+     * Queues an event to be written, without waiting
+     * @param event the event
+     * @return false if the queue was full or the log closed and the event was dropped
+     */
+    public boolean record(AuditEvent event) {
+        if (closed || !queue.offer(event)) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public File getDirectoryFile() {
+        return directory;
+    }
+
+    /**
+     * @return the segment files of a directory, oldest first
+     */
+    public static File[] segments(File directory) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        //The sequence is zero padded, names sort in creation order
+        Arrays.sort(files);
+        return files;
+    }
+
+    private void writeLoop() {
+        List<AuditEvent> batch = new ArrayList<AuditEvent>(MAX_BATCH);
+        long lastForce = System.nanoTime();
+        while (true) {
+            try {
+                AuditEvent first = closed ? queue.poll() : queue.poll(Math.min(forceNanos, CLOSE_CHECK_NANOS), TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    write(batch);
+                    batch.clear();
+                    batchWritten = 0;
+                }
+                if (dirty && (first == null || System.nanoTime() - lastForce >= forceNanos)) {
+                    force();
+                    lastForce = System.nanoTime();
+                }
+                if (closed && first == null) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                closed = true;
+            } catch (IOException e) {
+                logger.error("audit events lost, segment " + segmentFile + " can not be written", e);
+                //The events of the batch written before the failure are in the segment
+                dropped.add(batch.size() - batchWritten);
+                batch.clear();
+            } catch (RuntimeException e) {
+                logger.error("audit events lost", e);
+                dropped.add(batch.size() - batchWritten);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<AuditEvent> batch) throws IOException {
+        batchWritten = 0;
+        for (AuditEvent event : batch) {
+            if (segment.remaining() < AuditCodec.MAX_RECORD_SIZE) {
+                rotate();
+            }
+            AuditCodec.encode(event, segment, crc);
+            //Producers stamp events before queueing them, so the times of a segment are almost but not always
+            //sorted, the header keeps the earliest and the latest for the reader to skip segments
+            long first = segment.getLong(AuditCodec.FIRST_TIME_OFFSET);
+            if (first == 0 || event.getTime() < first) {
+                segment.putLong(AuditCodec.FIRST_TIME_OFFSET, event.getTime());
+            }
+            if (event.getTime() > segment.getLong(AuditCodec.LAST_TIME_OFFSET)) {
+                segment.putLong(AuditCodec.LAST_TIME_OFFSET, event.getTime());
+            }
+            batchWritten++;
+            written.increment();
+            dirty = true;
+        }
+    }
+
+    private void force() {
+        segment.force();
+        forces.increment();
+        dirty = false;
+    }
+
+    private void rotate() throws IOException {
+        if (dirty) {
+            force();
+        }
+        newSegment(sequence + 1);
+    }
+
+    private void openLastSegment() throws IOException {
+        File[] segments = segments(directory);
+        if (segments.length == 0) {
+            newSegment(0);
+            return;
+        }
+        File last = segments[segments.length - 1];
+        sequence = sequenceOf(last);
+        MappedByteBuffer mapped = map(last, (int) Math.max(last.length(), AuditCodec.HEADER_SIZE), false);
+        if (mapped.getInt(0) != AuditCodec.MAGIC) {
+            throw new IOException(last + " is not an audit segment");
+        }
+        //Continue after the last valid record, a torn one is overwritten
+        mapped.position(AuditCodec.HEADER_SIZE);
+        int size;
+        while ((size = AuditCodec.validRecord(mapped, crc)) > 0) {
+            mapped.position(mapped.position() + size);
+        }
+        segment = mapped;
+        segmentFile = last;
+        if (segment.remaining() < AuditCodec.MAX_RECORD_SIZE) {
+            newSegment(sequence + 1);
+        }
+    }
+
+    private void newSegment(long number) throws IOException {
+        File file = new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        MappedByteBuffer mapped = map(file, segmentSize, true);
+        mapped.putInt(0, AuditCodec.MAGIC);
+        mapped.putInt(4, AuditCodec.VERSION);
+        mapped.position(AuditCodec.HEADER_SIZE);
+        sequence = number;
+        segment = mapped;
+        segmentFile = file;
+        segmentsCreated.increment();
+        if (logger.isInfoEnabled()) {
+            logger.info("audit segment " + file + " started");
+        }
+    }
+
+    private static MappedByteBuffer map(File file, int size, boolean create) throws IOException {
+        if (create && file.length() > 0) {
+            throw new IOException("audit segment " + file + " already exists");
+        }
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            //The mapping stays valid once the channel is closed
+            return access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            access.close();
+        }
+    }
+
+    static long sequenceOf(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    @Override
+    public String getDirectory() {
+        return directory.getPath();
+    }
+
+    @Override
+    public String getCurrentSegment() {
+        File file = segmentFile;
+        return file == null ? null : file.getName();
+    }
+
+    @Override
+    public int getQueued() {
+        return queue.size();
+    }
+
+    @Override
+    public long getWritten() {
+        return written.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getSegmentsCreated() {
+        return segmentsCreated.sum();
+    }
+
+    @Override
+    public long getForces() {
+        return forces.sum();
+    }
+}
@@ -0,0 +1,27 @@
+package edu.umflix.usermanager.audit;
+
+/**
+ * JMX view of the {@link AuditLog}
+ */
+public interface AuditLogMBean {
+
+    public String getDirectory();
+
+    public String getCurrentSegment();
+
+    /**
+     * @return events waiting to be written
+     */
+    public int getQueued();
+
+    public long getWritten();
+
+    /**
+     * @return events lost because the queue was full
+     */
+    public long getDropped();
+
+    public long getSegmentsCreated();
+
+    public long getForces();
+}
@@ -0,0 +1,166 @@
+package edu.umflix.usermanager.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Scans the segments written by {@link AuditLog}, which may still be written to. Segments whose time range
+ * does not overlap the requested one are skipped by their header alone, and emails are compared with the
+ * bytes of the records, so only the matching events are decoded.
+ * <p>
+ * Usage: java -cp usermanager.jar edu.umflix.usermanager.audit.AuditReader directory [email=user@umflix.com]
+ * [from=2024-01-01T00:00:00Z] [to=1704067200000] [type=DELETE]
+ */
+public class AuditReader {
+
+    /**
+     * Receives the matching events, in the order they were written
+     */
+    public interface Visitor {
+        public void visit(AuditEvent event);
+    }
+
+    private final File directory;
+    private final CRC32 crc = new CRC32();
+    private long segmentsRead;
+    private long segmentsSkipped;
+
+    public AuditReader(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param email events with this email as actor or subject, null for any
+     * @param from first time included, in milliseconds since the epoch
+     * @param to first time excluded
+     * @param type events of this type, null for any
+     * @param visitor receives the matching events
+     * @return the number of matching events
+     * @throws IOException thrown if a segment can not be read
+     */
+    public long scan(String email, long from, long to, AuditEvent.Type type, Visitor visitor) throws IOException {
+        byte[] emailBytes = email == null ? null : AuditCodec.bytes(email);
+        long matched = 0;
+        for (File file : AuditLog.segments(directory)) {
+            MappedByteBuffer segment = map(file);
+            if (segment.capacity() < AuditCodec.HEADER_SIZE || segment.getInt(0) != AuditCodec.MAGIC) {
+                throw new IOException(file + " is not an audit segment");
+            }
+            long first = segment.getLong(AuditCodec.FIRST_TIME_OFFSET);
+            long last = segment.getLong(AuditCodec.LAST_TIME_OFFSET);
+            if (first == 0 || last < from || first >= to) {
+                segmentsSkipped++;
+                continue;
+            }
+            segmentsRead++;
+            segment.position(AuditCodec.HEADER_SIZE);
+            int size;
+            while ((size = AuditCodec.validRecord(segment, crc)) > 0) {
+                int record = segment.position();
+                segment.position(record + size);
+                long time = AuditCodec.time(segment, record);
+                if (time < from || time >= to || (type != null && AuditCodec.type(segment, record) != type)) {
+                    continue;
+                }
+                if (emailBytes != null) {
+                    int actor = AuditCodec.actorOffset(record);
+                    if (!AuditCodec.matches(segment, actor, emailBytes)
+                            && !AuditCodec.matches(segment, AuditCodec.next(segment, actor), emailBytes)) {
+                        continue;
+                    }
+                }
+                matched++;
+                visitor.visit(AuditCodec.decode(segment, record));
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * @return the matching events, see {@link #scan(String, long, long, AuditEvent.Type, Visitor)}
+     */
+    public List<AuditEvent> read(String email, long from, long to) throws IOException {
+        final List<AuditEvent> events = new ArrayList<AuditEvent>();
+        scan(email, from, to, null, new Visitor() {
+            @Override
+            public void visit(AuditEvent event) {
+                events.add(event);
+            }
+        });
+        return events;
+    }
+
+    public long getSegmentsRead() {
+        return segmentsRead;
+    }
+
+    public long getSegmentsSkipped() {
+        return segmentsSkipped;
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+        try {
+            return access.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, access.length());
+        } finally {
+            access.close();
+        }
+    }
+
+    static long parseTime(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return Instant.parse(value).toEpochMilli();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: AuditReader directory [email=...] [from=time] [to=time] [type=REGISTER|DELETE|UPDATE]");
+            System.err.println("times are ISO-8601 instants or milliseconds since the epoch");
+            System.exit(2);
+        }
+        String email = null;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        AuditEvent.Type type = null;
+        for (int i = 1; i < args.length; i++) {
+            int equals = args[i].indexOf('=');
+            String key = equals < 0 ? args[i] : args[i].substring(0, equals);
+            String value = equals < 0 ? "" : args[i].substring(equals + 1);
+            if (key.equals("email")) {
+                email = value;
+            } else if (key.equals("from")) {
+                from = parseTime(value);
+            } else if (key.equals("to")) {
+                to = parseTime(value);
+            } else if (key.equals("type")) {
+                type = AuditEvent.Type.valueOf(value.toUpperCase());
+            } else {
+                System.err.println("unknown option " + args[i]);
+                System.exit(2);
+            }
+        }
+        final PrintStream out = System.out;
+        AuditReader reader = new AuditReader(new File(args[0]));
+        long started = System.nanoTime();
+        long matched = reader.scan(email, from, to, type, new Visitor() {
+            @Override
+            public void visit(AuditEvent event) {
+                out.println(event);
+            }
+        });
+        out.flush();
+        System.err.println(matched + " events, " + reader.getSegmentsRead() + " segments read, " + reader.getSegmentsSkipped()
+                + " skipped in " + (System.nanoTime() - started) / 1000000 + " ms");
+    }
+}
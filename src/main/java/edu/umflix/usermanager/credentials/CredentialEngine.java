@@ -0,0 +1,344 @@
+package edu.umflix.usermanager.credentials;
+
+import edu.umflix.usermanager.metrics.Jmx;
+import org.apache.log4j.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.ObjectName;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hashes and verifies passwords on its own bounded pool of workers, so the CPU spent on adaptive hashing
+ * never takes more than usermanager.credentials.threads cores away from the request threads. At most
+ * usermanager.credentials.queue requests wait for a worker; a caller that finds the queue full waits up to
+ * usermanager.credentials.maxWait milliseconds for room and then gets a {@link CredentialEngineBusyException}.
+ * <p>
+ * New credentials are hashed with the current {@link PasswordHasher}, PBKDF2-SHA256 with
+ * usermanager.credentials.iterations by default. Credentials of any registered hasher can be verified, and
+ * stored values that belong to no hasher are taken as plain text passwords from before hashing, compared in
+ * constant time and reported as needing a rehash. Exposed over JMX as
+ * edu.umflix.usermanager:type=CredentialEngine.
+ */
+@Singleton(name = "CredentialEngine")
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class CredentialEngine implements CredentialEngineMBean {
+
+    private static final Logger logger = Logger.getLogger(CredentialEngine.class);
+
+    public static final String OBJECT_NAME = "edu.umflix.usermanager:type=CredentialEngine";
+
+    private static final int DEFAULT_ITERATIONS = Integer.getInteger("usermanager.credentials.iterations", 210000);
+    private static final int DEFAULT_THREADS = Integer.getInteger("usermanager.credentials.threads", Runtime.getRuntime().availableProcessors());
+    private static final int DEFAULT_QUEUE = Integer.getInteger("usermanager.credentials.queue", 256);
+    private static final long DEFAULT_MAX_WAIT_MILLIS = Long.getLong("usermanager.credentials.maxWait", 1000);
+
+    private final Map<String, PasswordHasher> hashers = new ConcurrentHashMap<String, PasswordHasher>();
+    private final ThreadPoolExecutor workers;
+    //One permit per worker and queue slot, callers wait for one before submitting
+    private final Semaphore slots;
+    private final int threads;
+    private final long maxWaitNanos;
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder verifications = new LongAdder();
+    private final LongAdder rehashes = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile PasswordHasher current;
+    private ObjectName registeredName;
+
+    public CredentialEngine() {
+        this(new Pbkdf2Hasher(Pbkdf2Hasher.SHA256, DEFAULT_ITERATIONS), DEFAULT_THREADS, DEFAULT_QUEUE,
+                DEFAULT_MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param hasher the hasher of new credentials
+     * @param threads the workers, the most hashes that run at the same time
+     * @param queue the most hashes waiting for a worker
+     * @param maxWait the longest a caller waits for room in the queue
+     * @param unit unit of maxWait
+     */
+    public CredentialEngine(PasswordHasher hasher, int threads, int queue, long maxWait, TimeUnit unit) {
+        if (hasher == null || threads < 1 || queue < 0) {
+            throw new IllegalArgumentException("no hasher, workers or queue in CredentialEngine");
+        }
+        this.threads = threads;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.slots = new Semaphore(threads + queue);
+        final AtomicInteger created = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                queue == 0 ? new SynchronousQueue<Runnable>() : new ArrayBlockingQueue<Runnable>(queue), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "credential-worker-" + created.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        setHasher(hasher);
+    }
+
+    @PostConstruct
+    public void start() {
+        registeredName = Jmx.register(this, OBJECT_NAME);
+    }
+
+    @PreDestroy
+    public void stop() {
+        workers.shutdown();
+        Jmx.unregister(registeredName);
+        registeredName = null;
+    }
+
+    /**
+     * Makes a hasher the one of new credentials, credentials of the previous one keep verifying
+     */
+    public void setHasher(PasswordHasher hasher) {
+        register(hasher);
+        current = hasher;
+        if (logger.isInfoEnabled()) {
+            logger.info("new credentials are hashed with " + hasher.getId()
+                    + (hasher instanceof Pbkdf2Hasher ? " and " + ((Pbkdf2Hasher) hasher).getIterations() + " iterations" : ""));
+        }
+    }
+
+    /**
+     * Allows verifying the credentials of another algorithm
+     */
+    public void register(PasswordHasher hasher) {
+        if (hasher == null || hasher.getId().indexOf('$') >= 0) {
+            throw new IllegalArgumentException("null hasher or invalid id in CredentialEngine");
+        }
+        hashers.put(hasher.getId(), hasher);
+    }
+
+    /**
+     * Hashes a password with the current hasher on a worker
+     * @param password the password in plain text
+     * @return the credential to store
+     * @throws CredentialEngineBusyException thrown if no worker got free in time
+     */
+    public String hash(final String password) {
+        final PasswordHasher hasher = current;
+        String credential = await(submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return hasher.hash(password);
+            }
+        }));
+        hashes.increment();
+        return credential;
+    }
+
+    /**
+     * Hashes several passwords, spread over the workers
+     * @param passwords the passwords in plain text
+     * @return the credentials in the same order
+     * @throws CredentialEngineBusyException thrown if no worker got free in time
+     */
+    public List<String> hashAll(List<String> passwords) {
+        final PasswordHasher hasher = current;
+        List<Future<String>> futures = new ArrayList<Future<String>>(passwords.size());
+        try {
+            for (final String password : passwords) {
+                futures.add(submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return hasher.hash(password);
+                    }
+                }));
+            }
+        } catch (CredentialEngineBusyException e) {
+            for (Future<String> future : futures) {
+                future.cancel(false);
+            }
+            throw e;
+        }
+        List<String> credentials = new ArrayList<String>(passwords.size());
+        for (Future<String> future : futures) {
+            credentials.add(await(future));
+        }
+        hashes.add(passwords.size());
+        return credentials;
+    }
+
+    /**
+     * Checks a password against a stored credential, in constant time
+     * @param password the password in plain text
+     * @param credential the stored credential, or a plain text password stored before hashing
+     * @return true if the password matches
+     * @throws CredentialEngineBusyException thrown if no worker got free in time
+     */
+    public boolean verify(final String password, final String credential) {
+        if (password == null || credential == null) {
+            return false;
+        }
+        verifications.increment();
+        final PasswordHasher hasher = hasherOf(credential);
+        if (hasher == null) {
+            //Plain text, nothing to compute
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), credential.getBytes(StandardCharsets.UTF_8));
+        }
+        return await(submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return hasher.verify(password, credential);
+            }
+        }));
+    }
+
+    /**
+     * @param credential a stored credential
+     * @return true if it is in plain text or was not hashed by the current hasher with its current cost
+     */
+    public boolean needsRehash(String credential) {
+        if (credential == null) {
+            return false;
+        }
+        PasswordHasher hasher = hasherOf(credential);
+        PasswordHasher newest = current;
+        return hasher == null || !hasher.getId().equals(newest.getId()) || newest.needsRehash(credential);
+    }
+
+    /**
+     * Counts a credential replaced after {@link #needsRehash(String)}
+     */
+    public void rehashed() {
+        rehashes.increment();
+    }
+
+    /**
+     * @return true if the stored value is a credential of a registered hasher rather than plain text
+     */
+    public boolean isHashed(String credential) {
+        return credential != null && hasherOf(credential) != null;
+    }
+
+    /**
+     * @return true if the value is a credential of a registered hasher that is well formed and within its cost
+     * limits, as required from credentials that are imported rather than hashed here
+     */
+    public boolean isAccepted(String credential) {
+        PasswordHasher hasher = credential == null ? null : hasherOf(credential);
+        return hasher != null && hasher.accepts(credential);
+    }
+
+    private PasswordHasher hasherOf(String credential) {
+        int separator = credential.indexOf('$');
+        return separator <= 0 ? null : hashers.get(credential.substring(0, separator));
+    }
+
+    private <T> Future<T> submit(Callable<T> task) {
+        try {
+            if (!slots.tryAcquire() && !slots.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                rejected.increment();
+                throw new CredentialEngineBusyException("credential workers busy for longer than " + maxWaitNanos / 1000000 + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CredentialEngineBusyException("interrupted waiting for a credential worker");
+        }
+        FutureTask<T> future = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                slots.release();
+            }
+        };
+        try {
+            workers.execute(future);
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            rejected.increment();
+            throw new CredentialEngineBusyException("credential engine stopped");
+        }
+        return future;
+    }
+
+    private static <T> T await(Future<T> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    //The work is already paid for, finish waiting for it
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                } catch (CancellationException e) {
+                    throw new CredentialEngineBusyException("credential work cancelled");
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return current.getId();
+    }
+
+    @Override
+    public int getIterations() {
+        PasswordHasher hasher = current;
+        return hasher instanceof Pbkdf2Hasher ? ((Pbkdf2Hasher) hasher).getIterations() : -1;
+    }
+
+    @Override
+    public void setIterations(int iterations) {
+        PasswordHasher hasher = current;
+        if (!(hasher instanceof Pbkdf2Hasher)) {
+            throw new IllegalStateException("the cost of " + hasher.getId() + " is not set in iterations");
+        }
+        setHasher(new Pbkdf2Hasher(hasher.getId(), iterations, ((Pbkdf2Hasher) hasher).getMaxIterations()));
+    }
+
+    @Override
+    public int getThreads() {
+        return threads;
+    }
+
+    @Override
+    public int getPending() {
+        return workers.getActiveCount() + workers.getQueue().size();
+    }
+
+    @Override
+    public long getHashes() {
+        return hashes.sum();
+    }
+
+    @Override
+    public long getVerifications() {
+        return verifications.sum();
+    }
+
+    @Override
+    public long getRehashes() {
+        return rehashes.sum();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
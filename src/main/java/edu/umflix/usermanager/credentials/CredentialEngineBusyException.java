@@ -0,0 +1,12 @@
+package edu.umflix.usermanager.credentials;
+
+/**
+ * Thrown when the workers of the {@link CredentialEngine} are busy for longer than the caller may wait.
+ * Like the exceptions of the UserManager it has no stack trace, it is thrown when the node is overloaded.
+ */
+public class CredentialEngineBusyException extends RuntimeException {
+
+    public CredentialEngineBusyException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -0,0 +1,34 @@
+package edu.umflix.usermanager.credentials;
+
+/**
+ * JMX view and configuration of the {@link CredentialEngine}
+ */
+public interface CredentialEngineMBean {
+
+    public String getAlgorithm();
+
+    public int getIterations();
+
+    /**
+     * Changes the cost of new credentials, existing ones are rehashed when their users log in
+     */
+    public void setIterations(int iterations);
+
+    public int getThreads();
+
+    /**
+     * @return hashes and verifications running or queued
+     */
+    public int getPending();
+
+    public long getHashes();
+
+    public long getVerifications();
+
+    public long getRehashes();
+
+    /**
+     * @return requests turned down because the workers stayed busy for longer than the maximum wait
+     */
+    public long getRejected();
+}
@@ -0,0 +1,40 @@
+package edu.umflix.usermanager.credentials;
+
+/**
+ * An algorithm that turns passwords into stored credentials. Credentials start with the id of the algorithm
+ * followed by '$', so the {@link CredentialEngine} can tell which algorithm verifies each of them.
+ */
+public interface PasswordHasher {
+
+    /**
+     * @return the prefix of the credentials of this algorithm, without the '$'
+     */
+    public String getId();
+
+    /**
+     * Hashes a password with a new salt and the cost of this hasher
+     * @param password the password in plain text
+     * @return the credential to store
+     */
+    public String hash(String password);
+
+    /**
+     * Checks a password against a credential of this algorithm, taking the same time whatever the outcome
+     * @param password the password in plain text
+     * @param credential a credential produced by this algorithm, with any cost
+     * @return true if the password is the one that was hashed
+     */
+    public boolean verify(String password, String credential);
+
+    /**
+     * @param credential a value that starts with the id of this algorithm
+     * @return true if it is well formed and its cost is within the limits of this hasher, so verifying it is safe
+     */
+    public boolean accepts(String credential);
+
+    /**
+     * @param credential a credential produced by this algorithm
+     * @return true if it was produced with a cost other than the current one
+     */
+    public boolean needsRehash(String credential);
+}
@@ -0,0 +1,156 @@
+package edu.umflix.usermanager.credentials;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * PBKDF2 with HMAC-SHA256 or HMAC-SHA512. Credentials look like pbkdf2-sha256$iterations$salt$hash, with
+ * the salt and hash in unpadded base64, so a credential keeps verifying after the iterations are changed.
+ * Credentials with more than usermanager.credentials.maxIterations iterations are refused without being
+ * computed, so a stored or imported credential can not make a single verification run for minutes.
+ */
+public class Pbkdf2Hasher implements PasswordHasher {
+
+    public static final String SHA256 = "pbkdf2-sha256";
+    public static final String SHA512 = "pbkdf2-sha512";
+
+    public static final int DEFAULT_MAX_ITERATIONS = Integer.getInteger("usermanager.credentials.maxIterations", 5000000);
+
+    private static final int SALT_BYTES = 16;
+    private static final SecureRandom random = new SecureRandom();
+
+    private final String id;
+    private final String algorithm;
+    private final int iterations;
+    private final int maxIterations;
+    private final int hashBytes;
+    //SecretKeyFactory is not thread safe, each worker keeps its own
+    private final ThreadLocal<SecretKeyFactory> factories = new ThreadLocal<SecretKeyFactory>();
+
+    /**
+     * @param id {@link #SHA256} or {@link #SHA512}
+     * @param iterations the cost, each verification takes time proportional to it
+     */
+    public Pbkdf2Hasher(String id, int iterations) {
+        this(id, iterations, DEFAULT_MAX_ITERATIONS);
+    }
+
+    /**
+     * @param id {@link #SHA256} or {@link #SHA512}
+     * @param iterations the cost, each verification takes time proportional to it
+     * @param maxIterations the highest cost of the credentials that are verified
+     */
+    public Pbkdf2Hasher(String id, int iterations, int maxIterations) {
+        if (SHA256.equals(id)) {
+            this.algorithm = "PBKDF2WithHmacSHA256";
+            this.hashBytes = 32;
+        } else if (SHA512.equals(id)) {
+            this.algorithm = "PBKDF2WithHmacSHA512";
+            this.hashBytes = 64;
+        } else {
+            throw new IllegalArgumentException("unknown PBKDF2 variant " + id);
+        }
+        if (iterations < 1 || iterations > maxIterations) {
+            throw new IllegalArgumentException("iterations must be between 1 and " + maxIterations + " in Pbkdf2Hasher");
+        }
+        this.id = id;
+        this.iterations = iterations;
+        this.maxIterations = maxIterations;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    @Override
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = derive(password, salt, iterations, hashBytes);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return id + '$' + iterations + '$' + encoder.encodeToString(salt) + '$' + encoder.encodeToString(hash);
+    }
+
+    @Override
+    public boolean verify(String password, String credential) {
+        String[] parts = parse(credential);
+        if (parts == null) {
+            return false;
+        }
+        Base64.Decoder decoder = Base64.getDecoder();
+        byte[] expected;
+        byte[] salt;
+        int cost;
+        try {
+            cost = Integer.parseInt(parts[1]);
+            salt = decoder.decode(parts[2]);
+            expected = decoder.decode(parts[3]);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        //The cost and length come from the credential, out of range they are refused rather than computed
+        if (cost < 1 || cost > maxIterations || expected.length != hashBytes) {
+            return false;
+        }
+        return MessageDigest.isEqual(expected, derive(password, salt, cost, expected.length));
+    }
+
+    @Override
+    public boolean accepts(String credential) {
+        String[] parts = parse(credential);
+        if (parts == null) {
+            return false;
+        }
+        Base64.Decoder decoder = Base64.getDecoder();
+        try {
+            int cost = Integer.parseInt(parts[1]);
+            return cost >= 1 && cost <= maxIterations && decoder.decode(parts[2]).length > 0
+                    && decoder.decode(parts[3]).length == hashBytes;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean needsRehash(String credential) {
+        String[] parts = parse(credential);
+        return parts == null || !parts[1].equals(Integer.toString(iterations));
+    }
+
+    private String[] parse(String credential) {
+        if (credential == null || !credential.startsWith(id + '$')) {
+            return null;
+        }
+        String[] parts = credential.split("\\$", -1);
+        return parts.length == 4 ? parts : null;
+    }
+
+    private byte[] derive(String password, byte[] salt, int cost, int length) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, cost, length * 8);
+        try {
+            SecretKeyFactory factory = factories.get();
+            if (factory == null) {
+                factory = SecretKeyFactory.getInstance(algorithm);
+                factories.set(factory);
+            }
+            return factory.generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(algorithm + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
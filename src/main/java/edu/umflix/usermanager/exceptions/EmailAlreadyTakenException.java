@@ -3,5 +3,5 @@ package edu.umflix.usermanager.exceptions;
 /**
  *
  */
-public class EmailAlreadyTakenException extends Exception {
+public class EmailAlreadyTakenException extends UserManagerException {
 }
@@ -3,5 +3,5 @@ package edu.umflix.usermanager.exceptions;
 /**
  *
  */
-public class InvalidEmailException extends Exception {
+public class InvalidEmailException extends UserManagerException {
 }
@@ -3,5 +3,5 @@ package edu.umflix.usermanager.exceptions;
 /**
  *
  */
-public class InvalidPasswordException extends Exception {
+public class InvalidPasswordException extends UserManagerException {
 }
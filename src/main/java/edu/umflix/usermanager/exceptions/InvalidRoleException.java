@@ -3,5 +3,5 @@ package edu.umflix.usermanager.exceptions;
 /**
  *
  */
-public class InvalidRoleException extends Exception {
+public class InvalidRoleException extends UserManagerException {
 }
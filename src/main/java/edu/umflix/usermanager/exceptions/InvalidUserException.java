@@ -3,5 +3,5 @@ package edu.umflix.usermanager.exceptions;
 /**
  *
  */
-public class InvalidUserException extends Exception {
+public class InvalidUserException extends UserManagerException {
 }
@@ -0,0 +1,8 @@
+package edu.umflix.usermanager.exceptions;
+
+/**
+ * Thrown by an update when the password of the user changed between the check of the given password and
+ * the write of the new one. The update was not applied, it can be retried with the current password.
+ */
+public class PasswordChangedException extends InvalidPasswordException {
+}
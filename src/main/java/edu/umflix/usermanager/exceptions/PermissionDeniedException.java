@@ -3,5 +3,5 @@ package edu.umflix.usermanager.exceptions;
 /**
  *
  */
-public class PermissionDeniedException extends Exception {
+public class PermissionDeniedException extends UserManagerException {
 }
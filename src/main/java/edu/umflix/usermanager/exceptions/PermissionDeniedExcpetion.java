@@ -3,5 +3,5 @@ package edu.umflix.usermanager.exceptions;
 /**
  *
  */
-public class PermissionDeniedExcpetion extends Exception {
+public class PermissionDeniedExcpetion extends UserManagerException {
 }
@@ -0,0 +1,13 @@
+package edu.umflix.usermanager.exceptions;
+
+/**
+ * Base class of the exceptions thrown by the UserManager. They report expected outcomes of an
+ * operation, so they do not fill in a stack trace nor record suppressed exceptions, which makes
+ * them cheap to throw and safe to preallocate and rethrow.
+ */
+public abstract class UserManagerException extends Exception {
+
+    protected UserManagerException() {
+        super(null, null, false, false);
+    }
+}
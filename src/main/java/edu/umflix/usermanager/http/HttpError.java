@@ -0,0 +1,71 @@
+package edu.umflix.usermanager.http;
+
+import edu.umflix.usermanager.credentials.CredentialEngineBusyException;
+import edu.umflix.usermanager.exceptions.*;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Maps the exceptions thrown by the UserManager to the status code and error code of the HTTP responses.
+ * Every exception type gets the same mapping whatever the operation that threw it.
+ */
+public enum HttpError {
+    BAD_REQUEST(HttpURLConnection.HTTP_BAD_REQUEST),
+    INVALID_EMAIL(HttpURLConnection.HTTP_BAD_REQUEST),
+    INVALID_PASSWORD(HttpURLConnection.HTTP_BAD_REQUEST),
+    INVALID_ROLE(HttpURLConnection.HTTP_BAD_REQUEST),
+    EMAIL_TAKEN(HttpURLConnection.HTTP_CONFLICT),
+    INVALID_USER(HttpURLConnection.HTTP_UNAUTHORIZED),
+    INVALID_TOKEN(HttpURLConnection.HTTP_UNAUTHORIZED),
+    PERMISSION_DENIED(HttpURLConnection.HTTP_FORBIDDEN),
+    NOT_FOUND(HttpURLConnection.HTTP_NOT_FOUND),
+    METHOD_NOT_ALLOWED(HttpURLConnection.HTTP_BAD_METHOD),
+    TOO_LARGE(HttpURLConnection.HTTP_ENTITY_TOO_LARGE),
+    BUSY(HttpURLConnection.HTTP_UNAVAILABLE),
+    INTERNAL(HttpURLConnection.HTTP_INTERNAL_ERROR);
+
+    private final int status;
+
+    HttpError(int status) {
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @param e the exception thrown by the UserManager
+     * @return the error to answer with
+     */
+    public static HttpError of(Throwable e) {
+        if (e instanceof InvalidEmailException) {
+            return INVALID_EMAIL;
+        }
+        if (e instanceof InvalidPasswordException) {
+            return INVALID_PASSWORD;
+        }
+        if (e instanceof InvalidRoleException) {
+            return INVALID_ROLE;
+        }
+        if (e instanceof EmailAlreadyTakenException) {
+            return EMAIL_TAKEN;
+        }
+        if (e instanceof InvalidUserException || e instanceof edu.umflix.authenticationhandler.exceptions.InvalidUserException) {
+            return INVALID_USER;
+        }
+        if (e instanceof edu.umflix.authenticationhandler.exceptions.InvalidTokenException) {
+            return INVALID_TOKEN;
+        }
+        if (e instanceof PermissionDeniedException || e instanceof PermissionDeniedExcpetion) {
+            return PERMISSION_DENIED;
+        }
+        if (e instanceof IllegalArgumentException) {
+            return BAD_REQUEST;
+        }
+        if (e instanceof CredentialEngineBusyException) {
+            return BUSY;
+        }
+        return INTERNAL;
+    }
+}
@@ -0,0 +1,220 @@
+package edu.umflix.usermanager.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import edu.umflix.model.User;
+import edu.umflix.usermanager.UserManager;
+import edu.umflix.usermanager.UserPage;
+import edu.umflix.usermanager.impl.VirtualThreadExecutors;
+import edu.umflix.usermanager.transfer.UserJson;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * JSON over HTTP front end for a {@link UserManager}, on the HTTP server of the JDK. Every request is
+ * handled on its own virtual thread when the JVM supports them. All operations are POSTs of a JSON object:
+ * <ul>
+ *     <li>/users/register: the user, {"email","name","password","roleId"}, answers 201</li>
+ *     <li>/users/login: {"email","password"}, answers 200 and {"token"}</li>
+ *     <li>/users/delete: the user to delete, {"email","password"}, answers 204</li>
+ *     <li>/users/update: the user, {"email","password","newPassword"}, answers 204</li>
+ *     <li>/users/list: {"cursor","limit","prefix"}, all optional, answers 200 and {"emails","nextCursor"}</li>
+ * </ul>
+ * Delete, update and list take the session token in an "Authorization: Bearer" header. Failures answer with the
+ * status of their {@link HttpError} and {"error": code}.
+ * <p>
+ * The JDK server writes the headers and the body of a response apart, so without TCP_NODELAY every small
+ * response waits for the delayed ACK of the client. Start the JVM with -Dsun.net.httpserver.nodelay=true; the
+ * property applies to every server of the JVM, so it is left to the deployment.
+ */
+public class HttpUserManagerServer {
+
+    private static final Logger logger = Logger.getLogger(HttpUserManagerServer.class);
+
+    public static final String CONTEXT = "/users/";
+    public static final String NEW_PASSWORD = "newPassword";
+    public static final String CURSOR = "cursor";
+    public static final String LIMIT = "limit";
+    public static final String PREFIX = "prefix";
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    private static final int MAX_BODY_BYTES = Integer.getInteger("usermanager.http.maxBody", 64 * 1024);
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final String BEARER = "Bearer ";
+
+    private final UserManager userManager;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Binds the server, it does not accept requests until started
+     * @param userManager the UserManager the requests are handed to
+     * @param address where to listen, port 0 picks a free one
+     * @throws IOException thrown if the address can not be bound
+     */
+    public HttpUserManagerServer(UserManager userManager, InetSocketAddress address) throws IOException {
+        if (userManager == null) {
+            throw new IllegalArgumentException("null userManager in HttpUserManagerServer");
+        }
+        this.userManager = userManager;
+        this.server = HttpServer.create(address, 0);
+        this.executor = VirtualThreadExecutors.newExecutor("usermanager-http");
+        server.setExecutor(executor);
+        server.createContext(CONTEXT, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                HttpUserManagerServer.this.handle(exchange);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+        if (logger.isInfoEnabled()) {
+            logger.info("HTTP front end listening on " + getAddress());
+        }
+    }
+
+    /**
+     * Stops accepting requests and waits up to the given delay for the running ones
+     * @param delaySeconds the maximum time to wait
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendError(exchange, HttpError.METHOD_NOT_ALLOWED);
+                return;
+            }
+            String operation = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+            Map<String, Object> body;
+            try {
+                byte[] bytes = readBody(exchange.getRequestBody());
+                if (bytes == null) {
+                    sendError(exchange, HttpError.TOO_LARGE);
+                    return;
+                }
+                body = UserJson.parseObject(new String(bytes, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, HttpError.BAD_REQUEST);
+                return;
+            }
+            try {
+                dispatch(exchange, operation, body);
+            } catch (Exception e) {
+                HttpError error = HttpError.of(e);
+                if (error == HttpError.INTERNAL) {
+                    logger.error("request to " + operation + " failed", e);
+                }
+                sendError(exchange, error);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void dispatch(HttpExchange exchange, String operation, Map<String, Object> body) throws Exception {
+        if ("register".equals(operation)) {
+            userManager.register(UserJson.toUser(body));
+            send(exchange, HttpURLConnection.HTTP_CREATED, "{}");
+        } else if ("login".equals(operation)) {
+            String token = userManager.login(UserJson.toUser(body));
+            StringBuilder response = new StringBuilder(token == null ? 16 : token.length() + 16);
+            response.append('{');
+            UserJson.field("token", token, response).append('}');
+            send(exchange, HttpURLConnection.HTTP_OK, response.toString());
+        } else if ("delete".equals(operation)) {
+            userManager.delete(token(exchange), UserJson.toUser(body));
+            send(exchange, HttpURLConnection.HTTP_NO_CONTENT, null);
+        } else if ("update".equals(operation)) {
+            User user = UserJson.toUser(body);
+            userManager.update(token(exchange), user, UserJson.string(body, NEW_PASSWORD));
+            send(exchange, HttpURLConnection.HTTP_NO_CONTENT, null);
+        } else if ("list".equals(operation)) {
+            String prefix = UserJson.string(body, PREFIX);
+            String cursor = UserJson.string(body, CURSOR);
+            Long limit = UserJson.number(body, LIMIT);
+            int pageSize = limit == null ? DEFAULT_PAGE_SIZE : (int) Math.max(Math.min(limit, Integer.MAX_VALUE), 0);
+            UserPage page = prefix == null ? userManager.listUsers(token(exchange), cursor, pageSize)
+                    : userManager.searchByEmailPrefix(token(exchange), prefix, cursor, pageSize);
+            send(exchange, HttpURLConnection.HTTP_OK, write(page));
+        } else {
+            sendError(exchange, HttpError.NOT_FOUND);
+        }
+    }
+
+    private static String write(UserPage page) {
+        StringBuilder response = new StringBuilder(32 + page.getEmails().size() * 32);
+        response.append("{\"emails\":[");
+        for (int i = 0; i < page.getEmails().size(); i++) {
+            if (i > 0) {
+                response.append(',');
+            }
+            UserJson.appendString(page.getEmails().get(i), response);
+        }
+        response.append("],");
+        UserJson.field("nextCursor", page.getNextCursor(), response).append(',');
+        UserJson.appendString("complete", response).append(':').append(page.isComplete()).append('}');
+        return response.toString();
+    }
+
+    private static String token(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith(BEARER)) {
+            return null;
+        }
+        return authorization.substring(BEARER.length()).trim();
+    }
+
+    /**
+     * @return the body, null if it is larger than MAX_BODY_BYTES
+     */
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (body.size() + read > MAX_BODY_BYTES) {
+                return null;
+            }
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    private static void sendError(HttpExchange exchange, HttpError error) throws IOException {
+        send(exchange, error.getStatus(), "{\"error\":\"" + error.name() + "\"}");
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        if (json == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+    }
+}
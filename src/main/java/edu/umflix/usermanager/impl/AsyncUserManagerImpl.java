@@ -0,0 +1,105 @@
+package edu.umflix.usermanager.impl;
+
+import edu.umflix.model.User;
+import edu.umflix.usermanager.AsyncUserManager;
+import edu.umflix.usermanager.UserManager;
+
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs the operations of a {@link UserManager} on an executor. By default a virtual thread is started per
+ * operation, so a slow database does not hold the callers threads.
+ */
+@Singleton(name = "AsyncUserManager")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class AsyncUserManagerImpl implements AsyncUserManager {
+
+    @EJB(beanName = "UserManager")
+    protected UserManager userManager;
+
+    private final Executor executor;
+    private final boolean ownsExecutor;
+
+    public AsyncUserManagerImpl() {
+        this(null);
+    }
+
+    public AsyncUserManagerImpl(UserManager userManager) {
+        this.userManager = userManager;
+        this.executor = VirtualThreadExecutors.newExecutor("async-user-manager");
+        this.ownsExecutor = true;
+    }
+
+    public AsyncUserManagerImpl(UserManager userManager, Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor null in AsyncUserManagerImpl");
+        }
+        this.userManager = userManager;
+        this.executor = executor;
+        this.ownsExecutor = false;
+    }
+
+    @Override
+    public CompletableFuture<Void> register(final User user) {
+        return submit(() -> {
+            userManager.register(user);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> login(final User user) {
+        return submit(() -> userManager.login(user));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(final String token, final User user) {
+        return submit(() -> {
+            userManager.delete(token, user);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> update(final String token, final User user, final String newPassword) {
+        return submit(() -> {
+            userManager.update(token, user, newPassword);
+            return null;
+        });
+    }
+
+    /**
+     * Stops the default executor, operations already submitted are completed
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(final Callable<T> operation) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(operation.call());
+                } catch (Throwable e) {
+                    //Complete with the original exception so callers see the same one UserManager throws
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
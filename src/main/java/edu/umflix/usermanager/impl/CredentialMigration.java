@@ -0,0 +1,750 @@
+package edu.umflix.usermanager.impl;
+
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.User;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.CredentialStore;
+import edu.umflix.usermanager.EmailIndex;
+import edu.umflix.usermanager.EmailReservations;
+import edu.umflix.usermanager.PagedUserSource;
+import edu.umflix.usermanager.UserPage;
+import edu.umflix.usermanager.UserValidator;
+import edu.umflix.usermanager.credentials.CredentialEngine;
+import edu.umflix.usermanager.credentials.CredentialEngineBusyException;
+import edu.umflix.usermanager.invalidation.Invalidation;
+import edu.umflix.usermanager.invalidation.InvalidationBus;
+import edu.umflix.usermanager.metrics.Jmx;
+import org.apache.log4j.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.ObjectName;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background job that hashes the passwords still stored in plain text, so they do not wait for their users
+ * to log in. Users are read in email order a page of usermanager.migration.batchSize at a time, and the
+ * passwords of a page are hashed on half of the workers of the {@link CredentialEngine}, leaving the rest to
+ * the logins.
+ * <p>
+ * A store that is not a {@link PagedUserSource} is gone over through the {@link EmailIndex}, which for such a
+ * store only holds the users registered or changed since the node started. The other users are rehashed by
+ * the UserManager when they log in.
+ * <p>
+ * The job paces itself: the rate grows by usermanager.migration.rateStep users per second after every page
+ * whose store calls took less than usermanager.migration.targetLatency milliseconds on average, and halves
+ * after a slower page or a failure, between usermanager.migration.minRate and usermanager.migration.maxRate.
+ * A credential is only written if the user was not changed since it was read: through the version of a
+ * {@link CredentialStore}, or holding the email in the {@link EmailReservations} that updates of the
+ * UserManager hold too. A concurrent update always wins.
+ * <p>
+ * Users whose write fails are tried again once the last page is gone over. If some still fail the job pauses
+ * instead of finishing, and starting it again retries them.
+ * <p>
+ * After every page the position and counters are saved to the usermanager.migration.checkpoint file, and a
+ * job that was running when the node stopped resumes from there when it starts again. Exposed over JMX as
+ * edu.umflix.usermanager:type=CredentialMigration, which is also where it is started.
+ */
+@Singleton(name = "CredentialMigration")
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class CredentialMigration implements CredentialMigrationMBean {
+
+    private static final Logger logger = Logger.getLogger(CredentialMigration.class);
+
+    public static final String OBJECT_NAME = "edu.umflix.usermanager:type=CredentialMigration";
+
+    public enum State {
+        IDLE, RUNNING, PAUSED, DONE
+    }
+
+    private static final String DEFAULT_CHECKPOINT = System.getProperty("usermanager.migration.checkpoint", "credential-migration.checkpoint");
+    private static final int DEFAULT_BATCH_SIZE = Integer.getInteger("usermanager.migration.batchSize", 100);
+    private static final long DEFAULT_TARGET_LATENCY_MILLIS = Long.getLong("usermanager.migration.targetLatency", 20);
+    private static final double DEFAULT_MIN_RATE = Double.parseDouble(System.getProperty("usermanager.migration.minRate", "5"));
+    private static final double DEFAULT_MAX_RATE = Double.parseDouble(System.getProperty("usermanager.migration.maxRate", "500"));
+    private static final double DEFAULT_RATE_STEP = Double.parseDouble(System.getProperty("usermanager.migration.rateStep", "10"));
+
+    //How long to wait before hashing again when the credential workers are busy
+    private static final long BUSY_BACKOFF_MILLIS = 1000;
+
+    @EJB(beanName = "UserDao")
+    protected UserDao userDao;
+
+    @EJB(beanName = "CredentialEngine")
+    protected CredentialEngine credentialEngine;
+
+    @EJB(beanName = "EmailReservations")
+    protected EmailReservations emailReservations;
+
+    @EJB(beanName = "InvalidationBus")
+    protected InvalidationBus invalidationBus;
+
+    @EJB(beanName = "EmailIndex")
+    protected EmailIndex emailIndex;
+
+    private final File checkpoint;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile long targetLatencyMillis = DEFAULT_TARGET_LATENCY_MILLIS;
+    private volatile double minRate = DEFAULT_MIN_RATE;
+    private volatile double maxRate = DEFAULT_MAX_RATE;
+    private volatile double rateStep = DEFAULT_RATE_STEP;
+
+    private volatile State state = State.IDLE;
+    private Thread worker;
+    private CountDownLatch stopSignal;
+    //Written by the worker only
+    private volatile String lastEmail;
+    private volatile long scanned;
+    private volatile long migrated;
+    private volatile long skipped;
+    private volatile long conflicts;
+    //Users whose write failed, tried again at the end
+    private final Set<String> failedEmails = new ConcurrentSkipListSet<String>();
+    private volatile double rate;
+    private volatile double storeLatencyMillis;
+    private long storeCalls;
+    private long storeNanos;
+    private int storeFailures;
+    private long nextSlot;
+    private ObjectName registeredName;
+
+    public CredentialMigration() {
+        this.checkpoint = new File(DEFAULT_CHECKPOINT);
+    }
+
+    /**
+     * @param userDao the store of the users, if it is not a {@link PagedUserSource} an email index must be set
+     * @param credentialEngine hashes the passwords
+     * @param emailReservations the reservations the UserManager of the same store holds, may only be null if the
+     * store is a {@link CredentialStore}
+     * @param checkpoint the file the position of the job is saved to
+     */
+    public CredentialMigration(UserDao userDao, CredentialEngine credentialEngine, EmailReservations emailReservations, File checkpoint) {
+        if (userDao == null || credentialEngine == null || checkpoint == null) {
+            throw new IllegalArgumentException("null dependency in CredentialMigration");
+        }
+        if (emailReservations == null && !(userDao instanceof CredentialStore)) {
+            throw new IllegalArgumentException("email reservations are needed to migrate the credentials of " + userDao);
+        }
+        this.userDao = userDao;
+        this.credentialEngine = credentialEngine;
+        this.emailReservations = emailReservations;
+        this.checkpoint = checkpoint;
+    }
+
+    @PostConstruct
+    public void init() {
+        registeredName = Jmx.register(this, OBJECT_NAME);
+        try {
+            if (readCheckpoint() == State.RUNNING) {
+                if (logger.isInfoEnabled()) {
+                    logger.info("resuming the credential migration after " + lastEmail);
+                }
+                start();
+            }
+        } catch (IOException e) {
+            logger.error("checkpoint " + checkpoint + " of the credential migration can not be read", e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        //Keeps the RUNNING state in the checkpoint, so the job resumes when the node starts again
+        stopWorker();
+        Jmx.unregister(registeredName);
+        registeredName = null;
+    }
+
+    @Override
+    public synchronized boolean start() {
+        if (state == State.RUNNING || state == State.DONE) {
+            return false;
+        }
+        if (!(userDao instanceof PagedUserSource) && emailIndex == null) {
+            logger.error("credential migration needs a store that lists its users or an email index, " + userDao + " has neither");
+            return false;
+        }
+        //Without versions nor reservations a concurrent update of the UserManager could be written over
+        if (emailReservations == null && !(userDao instanceof CredentialStore)) {
+            logger.error("credential migration needs the email reservations to write the users of " + userDao);
+            return false;
+        }
+        if (state == State.IDLE) {
+            try {
+                if (readCheckpoint() == State.DONE) {
+                    state = State.DONE;
+                    return false;
+                }
+            } catch (IOException e) {
+                logger.error("checkpoint " + checkpoint + " of the credential migration can not be read", e);
+                return false;
+            }
+        }
+        rate = minRate;
+        state = State.RUNNING;
+        final CountDownLatch signal = new CountDownLatch(1);
+        stopSignal = signal;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                migrate(signal);
+            }
+        }, "credential-migration");
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    @Override
+    public void pause() {
+        if (stopWorker() && state == State.RUNNING) {
+            state = State.PAUSED;
+            saveCheckpoint();
+        }
+    }
+
+    //Returns true if a worker was running
+    private boolean stopWorker() {
+        Thread running;
+        synchronized (this) {
+            running = worker;
+            if (running == null) {
+                return false;
+            }
+            stopSignal.countDown();
+            worker = null;
+        }
+        //Paused from the worker itself, through a listener of the job, it stops once it returns
+        if (running == Thread.currentThread()) {
+            return true;
+        }
+        try {
+            running.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void reset() {
+        if (state == State.RUNNING) {
+            throw new IllegalStateException("pause the credential migration before resetting it");
+        }
+        checkpoint.delete();
+        state = State.IDLE;
+        lastEmail = null;
+        scanned = migrated = skipped = conflicts = 0;
+        failedEmails.clear();
+    }
+
+    /**
+     * Waits for the job to go over every user
+     * @return true if it is done, false if the time ran out or it was paused
+     */
+    public boolean awaitDone(long timeout, TimeUnit unit) throws InterruptedException {
+        Thread running;
+        synchronized (this) {
+            running = worker;
+        }
+        if (running != null) {
+            running.join(Math.max(1, unit.toMillis(timeout)));
+        }
+        return state == State.DONE;
+    }
+
+    private void migrate(CountDownLatch stop) {
+        nextSlot = System.nanoTime();
+        try {
+            while (stop.getCount() > 0) {
+                long pageStart = System.nanoTime();
+                List<User> page;
+                try {
+                    page = readPage();
+                    storeCall(pageStart, false);
+                } catch (RuntimeException e) {
+                    storeCall(pageStart, true);
+                    logger.warn("credential migration could not read the users after " + lastEmail, e);
+                    adjustRate();
+                    if (stop.await(BUSY_BACKOFF_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                    continue;
+                }
+                if (page.isEmpty()) {
+                    finish(stop);
+                    return;
+                }
+                if (!migratePage(page, stop)) {
+                    return;
+                }
+                adjustRate();
+                saveCheckpoint();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.error("credential migration stopped after " + lastEmail, e);
+            state = State.PAUSED;
+            saveCheckpoint();
+        } finally {
+            if (stop.getCount() == 0 && state != State.DONE) {
+                //Stopped from outside, the position of the last user is kept
+                saveCheckpoint();
+            }
+        }
+    }
+
+    //The users after the last one, from the store when it lists them and from the email index otherwise
+    private List<User> readPage() {
+        if (userDao instanceof PagedUserSource) {
+            return ((PagedUserSource) userDao).page(lastEmail, batchSize);
+        }
+        emailIndex.ensureLoaded(null, new DaoUserLookup(userDao));
+        String after = lastEmail;
+        while (true) {
+            UserPage emails = emailIndex.page(null, after == null ? null : UserPage.cursorAfter(UserValidator.normalizeEmail(after)), batchSize);
+            List<User> page = new ArrayList<User>(emails.getEmails().size());
+            for (String email : emails.getEmails()) {
+                try {
+                    User user = userDao.getUser(email);
+                    if (user != null) {
+                        page.add(user);
+                    }
+                } catch (UserNotFoundException e) {
+                    //Deleted since it was indexed
+                }
+            }
+            //A page whose users were all deleted does not end the job
+            if (!page.isEmpty() || emails.isLast()) {
+                return page;
+            }
+            after = emails.getEmails().get(emails.getEmails().size() - 1);
+        }
+    }
+
+    //Done once every user was gone over, unless the writes of some of them still fail
+    private void finish(CountDownLatch stop) throws InterruptedException {
+        if (!failedEmails.isEmpty() && !retryFailed(stop)) {
+            return;
+        }
+        if (failedEmails.isEmpty()) {
+            state = State.DONE;
+            saveCheckpoint();
+            if (logger.isInfoEnabled()) {
+                logger.info("credential migration done, " + migrated + " of " + scanned + " users migrated");
+            }
+        } else {
+            state = State.PAUSED;
+            saveCheckpoint();
+            logger.error("credential migration paused, the credentials of " + failedEmails.size()
+                    + " users could not be written, start it again to retry them");
+        }
+    }
+
+    //Reads the users whose write failed and migrates them again, returns false if the job was stopped meanwhile
+    private boolean retryFailed(CountDownLatch stop) throws InterruptedException {
+        for (String email : new ArrayList<String>(failedEmails)) {
+            if (!pace(stop)) {
+                return false;
+            }
+            long start = System.nanoTime();
+            User user;
+            try {
+                user = userDao.getUser(email);
+                storeCall(start, false);
+            } catch (UserNotFoundException e) {
+                storeCall(start, false);
+                failedEmails.remove(email);
+                conflicts++;
+                continue;
+            } catch (RuntimeException e) {
+                storeCall(start, true);
+                logger.warn("credential migration could not read " + email + " again", e);
+                continue;
+            }
+            String password = user.getPassword();
+            if (password == null || credentialEngine.isHashed(password)) {
+                //Changed since the write failed
+                failedEmails.remove(email);
+                conflicts++;
+                continue;
+            }
+            List<String> credentials = hashAll(Collections.singletonList(password), stop);
+            if (credentials == null) {
+                return false;
+            }
+            migrateUser(email, password, credentials.get(0));
+        }
+        return true;
+    }
+
+    //Returns false if the job was stopped in the middle of the page
+    private boolean migratePage(List<User> page, CountDownLatch stop) throws InterruptedException {
+        int parallelism = Math.max(1, credentialEngine.getThreads() / 2);
+        List<User> slice = new ArrayList<User>(parallelism);
+        //Users with a hashed password before each one of the slice, counted once the job gets past them
+        List<Integer> skippedBefore = new ArrayList<Integer>(parallelism);
+        int skippedSinceLast = 0;
+        for (User user : page) {
+            if (user.getPassword() == null || credentialEngine.isHashed(user.getPassword())) {
+                skippedSinceLast++;
+                continue;
+            }
+            slice.add(user);
+            skippedBefore.add(skippedSinceLast);
+            skippedSinceLast = 0;
+            if (slice.size() == parallelism && !migrateSlice(slice, skippedBefore, stop)) {
+                return false;
+            }
+        }
+        if (!slice.isEmpty() && !migrateSlice(slice, skippedBefore, stop)) {
+            return false;
+        }
+        skipped += skippedSinceLast;
+        scanned += skippedSinceLast;
+        lastEmail = page.get(page.size() - 1).getEmail();
+        return true;
+    }
+
+    private boolean migrateSlice(List<User> slice, List<Integer> skippedBefore, CountDownLatch stop) throws InterruptedException {
+        List<String> passwords = new ArrayList<String>(slice.size());
+        for (User user : slice) {
+            passwords.add(user.getPassword());
+        }
+        List<String> credentials = hashAll(passwords, stop);
+        if (credentials == null) {
+            return false;
+        }
+        for (int i = 0; i < slice.size(); i++) {
+            if (!pace(stop)) {
+                return false;
+            }
+            User user = slice.get(i);
+            migrateUser(user.getEmail(), user.getPassword(), credentials.get(i));
+            skipped += skippedBefore.get(i);
+            scanned += skippedBefore.get(i) + 1;
+            lastEmail = user.getEmail();
+        }
+        slice.clear();
+        skippedBefore.clear();
+        return true;
+    }
+
+    //Returns null if the job was stopped while the workers were busy
+    private List<String> hashAll(List<String> passwords, CountDownLatch stop) throws InterruptedException {
+        while (true) {
+            try {
+                return credentialEngine.hashAll(passwords);
+            } catch (CredentialEngineBusyException e) {
+                //The logins need the workers more
+                rate = Math.max(minRate, rate / 2);
+                if (stop.await(BUSY_BACKOFF_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces a plain text password with its credential, unless the user changed since it was read. Users
+     * whose write fails are kept to be tried again
+     */
+    private void migrateUser(String email, String password, String credential) {
+        long start = System.nanoTime();
+        try {
+            boolean applied;
+            if (userDao instanceof CredentialStore) {
+                CredentialStore store = (CredentialStore) userDao;
+                long version = store.getVersion(email);
+                applied = password.equals(userDao.getUser(email).getPassword())
+                        && store.updatePassword(email, credential, version).isApplied();
+            } else {
+                applied = migrateReserved(email, password, credential);
+            }
+            storeCall(start, false);
+            failedEmails.remove(email);
+            if (applied) {
+                migrated++;
+                if (invalidationBus != null) {
+                    invalidationBus.publish(Invalidation.user(email));
+                }
+            } else {
+                conflicts++;
+            }
+        } catch (UserNotFoundException e) {
+            //Deleted meanwhile
+            storeCall(start, false);
+            failedEmails.remove(email);
+            conflicts++;
+        } catch (RuntimeException e) {
+            storeCall(start, true);
+            failedEmails.add(email);
+            logger.warn("credential migration of " + email + " failed", e);
+        }
+    }
+
+    //Reads and writes the whole user holding its email, so an update of the UserManager waits for it
+    private boolean migrateReserved(String email, String password, String credential) throws UserNotFoundException {
+        EmailReservations.Reservation reservation = emailReservations == null ? null : emailReservations.reserve(email);
+        try {
+            User user = userDao.getUser(email);
+            if (!password.equals(user.getPassword())) {
+                return false;
+            }
+            user.setPassword(credential);
+            userDao.updateUser(user);
+            return true;
+        } finally {
+            if (reservation != null) {
+                reservation.release();
+            }
+        }
+    }
+
+    //Waits for the next slot of the current rate, returns false if the job was stopped meanwhile
+    private boolean pace(CountDownLatch stop) throws InterruptedException {
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long now = System.nanoTime();
+        //A slow store does not earn a burst afterwards
+        nextSlot = Math.max(nextSlot + interval, now);
+        long wait = nextSlot - now;
+        return wait <= 0 ? stop.getCount() > 0 : !stop.await(wait, TimeUnit.NANOSECONDS);
+    }
+
+    private void storeCall(long start, boolean failure) {
+        storeNanos += System.nanoTime() - start;
+        storeCalls++;
+        if (failure) {
+            storeFailures++;
+        }
+    }
+
+    //Additive increase while the store keeps up, multiplicative decrease when it does not
+    private void adjustRate() {
+        double latency = storeCalls == 0 ? 0 : storeNanos / (double) storeCalls / TimeUnit.MILLISECONDS.toNanos(1);
+        storeLatencyMillis = latency;
+        if (storeFailures > 0 || latency > targetLatencyMillis) {
+            rate = Math.max(minRate, rate / 2);
+        } else {
+            rate = Math.min(maxRate, rate + rateStep);
+        }
+        storeCalls = 0;
+        storeNanos = 0;
+        storeFailures = 0;
+    }
+
+    private State readCheckpoint() throws IOException {
+        if (!checkpoint.exists()) {
+            return State.IDLE;
+        }
+        Properties saved = new Properties();
+        Reader reader = new InputStreamReader(new FileInputStream(checkpoint), StandardCharsets.UTF_8);
+        try {
+            saved.load(reader);
+        } finally {
+            reader.close();
+        }
+        try {
+            lastEmail = saved.getProperty("lastEmail");
+            scanned = Long.parseLong(saved.getProperty("scanned", "0"));
+            migrated = Long.parseLong(saved.getProperty("migrated", "0"));
+            skipped = Long.parseLong(saved.getProperty("skipped", "0"));
+            conflicts = Long.parseLong(saved.getProperty("conflicts", "0"));
+            failedEmails.clear();
+            int failed = Integer.parseInt(saved.getProperty("failed", "0"));
+            for (int i = 0; i < failed; i++) {
+                String email = saved.getProperty("failed." + i);
+                if (email == null) {
+                    throw new IllegalArgumentException("failed email " + i + " missing");
+                }
+                failedEmails.add(email);
+            }
+            return State.valueOf(saved.getProperty("state", State.IDLE.name()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("invalid checkpoint " + checkpoint, e);
+        }
+    }
+
+    /**
+     * Written to a temporary file first and then moved over the checkpoint, so a crash never leaves a partial one
+     */
+    private void saveCheckpoint() {
+        Properties saved = new Properties();
+        if (lastEmail != null) {
+            saved.setProperty("lastEmail", lastEmail);
+        }
+        saved.setProperty("scanned", Long.toString(scanned));
+        saved.setProperty("migrated", Long.toString(migrated));
+        saved.setProperty("skipped", Long.toString(skipped));
+        saved.setProperty("conflicts", Long.toString(conflicts));
+        //Copied first, the set can change while it is written
+        List<String> failed = new ArrayList<String>(failedEmails);
+        saved.setProperty("failed", Integer.toString(failed.size()));
+        for (int i = 0; i < failed.size(); i++) {
+            saved.setProperty("failed." + i, failed.get(i));
+        }
+        saved.setProperty("state", state.name());
+        try {
+            File parent = checkpoint.getAbsoluteFile().getParentFile();
+            File temporary = File.createTempFile(checkpoint.getName(), ".tmp", parent);
+            try {
+                Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8);
+                try {
+                    saved.store(writer, "credential migration");
+                } finally {
+                    writer.close();
+                }
+                Files.move(temporary.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                temporary.delete();
+            }
+        } catch (IOException e) {
+            //The users after the last saved checkpoint are gone over again, the hashed ones are skipped
+            logger.error("checkpoint " + checkpoint + " of the credential migration can not be written", e);
+        }
+    }
+
+    /**
+     * @param invalidationBus drops the cached copies of the migrated users, on every node
+     */
+    public void setInvalidationBus(InvalidationBus invalidationBus) {
+        this.invalidationBus = invalidationBus;
+    }
+
+    /**
+     * @param emailIndex tells how many users there are, for the progress and the ETA, and lists the users of a
+     * store that can not page them
+     */
+    public void setEmailIndex(EmailIndex emailIndex) {
+        this.emailIndex = emailIndex;
+    }
+
+    /**
+     * @param batchSize users read from the store at a time
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive in CredentialMigration");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param minRate the lowest rate, in users per second, the job starts at it
+     * @param maxRate the highest rate
+     * @param rateStep what the rate grows by after a page the store kept up with
+     */
+    public void setRates(double minRate, double maxRate, double rateStep) {
+        if (minRate <= 0 || maxRate < minRate || rateStep < 0) {
+            throw new IllegalArgumentException("invalid rates in CredentialMigration");
+        }
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.rateStep = rateStep;
+    }
+
+    @Override
+    public String getState() {
+        return state.name();
+    }
+
+    @Override
+    public String getLastEmail() {
+        return lastEmail;
+    }
+
+    @Override
+    public long getScanned() {
+        return scanned;
+    }
+
+    @Override
+    public long getMigrated() {
+        return migrated;
+    }
+
+    @Override
+    public long getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public long getConflicts() {
+        return conflicts;
+    }
+
+    @Override
+    public long getFailed() {
+        return failedEmails.size();
+    }
+
+    @Override
+    public double getRate() {
+        return state == State.RUNNING ? rate : 0;
+    }
+
+    @Override
+    public double getStoreLatencyMillis() {
+        return storeLatencyMillis;
+    }
+
+    @Override
+    public long getTargetLatencyMillis() {
+        return targetLatencyMillis;
+    }
+
+    @Override
+    public void setTargetLatencyMillis(long targetLatencyMillis) {
+        if (targetLatencyMillis < 1) {
+            throw new IllegalArgumentException("targetLatencyMillis must be positive in CredentialMigration");
+        }
+        this.targetLatencyMillis = targetLatencyMillis;
+    }
+
+    /**
+     * The number of users is the size of the {@link EmailIndex} once it is loaded
+     */
+    @Override
+    public double getProgress() {
+        if (state == State.DONE) {
+            return 1;
+        }
+        long total = totalUsers();
+        return total < 0 ? -1 : total == 0 ? 1 : Math.min(1, scanned / (double) total);
+    }
+
+    @Override
+    public long getEtaSeconds() {
+        if (state == State.DONE) {
+            return 0;
+        }
+        long total = totalUsers();
+        double current = rate;
+        if (total < 0 || state != State.RUNNING || current <= 0) {
+            return -1;
+        }
+        return (long) Math.ceil(Math.max(0, total - scanned) / current);
+    }
+
+    private long totalUsers() {
+        return emailIndex == null || !emailIndex.isLoaded() ? -1 : emailIndex.getSize();
+    }
+}
@@ -0,0 +1,76 @@
+package edu.umflix.usermanager.impl;
+
+/**
+ * JMX view and control of the {@link CredentialMigration}
+ */
+public interface CredentialMigrationMBean {
+
+    /**
+     * Starts the migration, or resumes it from its checkpoint, retrying the users whose write failed
+     * @return false if it is running already or finished
+     */
+    public boolean start();
+
+    /**
+     * Stops the migration after the current user, it resumes from there on the next start
+     */
+    public void pause();
+
+    /**
+     * Forgets the checkpoint, the next start goes over every user again
+     */
+    public void reset();
+
+    /**
+     * @return IDLE, RUNNING, PAUSED or DONE
+     */
+    public String getState();
+
+    /**
+     * @return the email of the last user gone over
+     */
+    public String getLastEmail();
+
+    public long getScanned();
+
+    public long getMigrated();
+
+    /**
+     * @return users whose credential was hashed already
+     */
+    public long getSkipped();
+
+    /**
+     * @return users changed by someone else while they were migrated, left as they were changed
+     */
+    public long getConflicts();
+
+    /**
+     * @return users whose credential could not be written, they are tried again before the job is done
+     */
+    public long getFailed();
+
+    /**
+     * @return users per second the migration goes at now
+     */
+    public double getRate();
+
+    /**
+     * @return mean latency of the store calls of the last batch
+     */
+    public double getStoreLatencyMillis();
+
+    public long getTargetLatencyMillis();
+
+    public void setTargetLatencyMillis(long targetLatencyMillis);
+
+    /**
+     * @return the share of the users gone over, from 0 to 1, or -1 while the number of users is unknown
+     */
+    public double getProgress();
+
+    /**
+     * @return seconds left at the current rate, or -1 while the number of users is unknown
+     */
+    public long getEtaSeconds();
+}
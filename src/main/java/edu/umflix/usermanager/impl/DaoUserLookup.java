@@ -0,0 +1,53 @@
+package edu.umflix.usermanager.impl;
+
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.UserLookup;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * {@link UserLookup} over a {@link UserDao}. If the dao can check existence itself it is used directly,
+ * otherwise the check falls back to loading the user.
+ */
+public class DaoUserLookup implements UserLookup {
+
+    private final UserDao userDao;
+    private final UserLookup nativeLookup;
+
+    public DaoUserLookup(UserDao userDao) {
+        if (userDao == null) {
+            throw new IllegalArgumentException("userDao null in DaoUserLookup");
+        }
+        this.userDao = userDao;
+        this.nativeLookup = userDao instanceof UserLookup ? (UserLookup) userDao : null;
+    }
+
+    @Override
+    public boolean exists(String email) {
+        if (nativeLookup != null) {
+            return nativeLookup.exists(email);
+        }
+        try {
+            return userDao.getUser(email) != null;
+        } catch (UserNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Set<String> existing(Collection<String> emails) {
+        if (nativeLookup != null) {
+            return nativeLookup.existing(emails);
+        }
+        Set<String> existing = new HashSet<String>();
+        for (String email : emails) {
+            if (exists(email)) {
+                existing.add(email);
+            }
+        }
+        return existing;
+    }
+}
@@ -0,0 +1,92 @@
+package edu.umflix.usermanager.impl;
+
+import edu.umflix.authenticationhandler.AuthenticationHandler;
+import edu.umflix.persistence.RoleDao;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.EmailIndex;
+import edu.umflix.usermanager.EmailReservations;
+import edu.umflix.usermanager.PermissionPolicy;
+import edu.umflix.usermanager.RoleDirectory;
+import edu.umflix.usermanager.TokenCache;
+import edu.umflix.usermanager.audit.AuditLog;
+import edu.umflix.usermanager.credentials.CredentialEngine;
+import edu.umflix.usermanager.invalidation.InvalidationBus;
+import edu.umflix.usermanager.invalidation.LoopbackInvalidationBus;
+import edu.umflix.usermanager.metrics.UserManagerMetrics;
+import edu.umflix.usermanager.persistence.CachingUserDao;
+
+import java.io.File;
+
+/**
+ * {@link UserManagerImpl} wired by hand, to run it outside of a container. Combined with the in memory
+ * daos of edu.umflix.usermanager.persistence it needs no external service. Wrap the user dao with
+ * {@link CachingUserDao#wrap} to cache the users, its cache is subscribed to the invalidation bus.
+ */
+public class EmbeddedUserManager extends UserManagerImpl {
+
+    public EmbeddedUserManager(UserDao userDao, RoleDao roleDao, AuthenticationHandler authenticationHandler) {
+        this(userDao, roleDao, authenticationHandler, new LoopbackInvalidationBus());
+    }
+
+    /**
+     * @param invalidationBus bus shared with other nodes, the caches of this manager subscribe to it
+     */
+    public EmbeddedUserManager(UserDao userDao, RoleDao roleDao, AuthenticationHandler authenticationHandler,
+                               InvalidationBus invalidationBus) {
+        if (userDao == null || roleDao == null || authenticationHandler == null || invalidationBus == null) {
+            throw new IllegalArgumentException("null dependency in EmbeddedUserManager");
+        }
+        super.userDao = userDao;
+        super.roleDirectory = new RoleDirectory(roleDao);
+        super.authenticationHandler = authenticationHandler;
+        super.tokenCache = new TokenCache();
+        super.metrics = new UserManagerMetrics();
+        super.permissionPolicy = new PermissionPolicy();
+        super.emailReservations = new EmailReservations();
+        super.emailIndex = new EmailIndex();
+        super.invalidationBus = invalidationBus;
+        invalidationBus.subscribe(tokenCache);
+        invalidationBus.subscribe(roleDirectory);
+        invalidationBus.subscribe(emailIndex);
+        if (userDao instanceof CachingUserDao) {
+            invalidationBus.subscribe(((CachingUserDao) userDao).getCache());
+        }
+        init();
+    }
+
+    /**
+     * Hashes the passwords from now on, users stored in plain text before are rehashed when they log in
+     * @param credentialEngine the engine, null to store passwords as given
+     */
+    public void setCredentialEngine(CredentialEngine credentialEngine) {
+        super.credentialEngine = credentialEngine;
+    }
+
+    /**
+     * @param auditLog the log of the account mutations, null to keep none
+     */
+    public void setAuditLog(AuditLog auditLog) {
+        super.auditLog = auditLog;
+    }
+
+    /**
+     * Creates the job that hashes the passwords stored in plain text, sharing the store, credential engine
+     * and email reservations of this manager so it never writes over one of its updates
+     * @param checkpoint the file the position of the job is saved to
+     * @return the job, not started
+     * @throws IllegalStateException thrown if no credential engine was set
+     */
+    public CredentialMigration newCredentialMigration(File checkpoint) {
+        if (credentialEngine == null) {
+            throw new IllegalStateException("set a credential engine before migrating credentials");
+        }
+        CredentialMigration migration = new CredentialMigration(userDao, credentialEngine, emailReservations, checkpoint);
+        migration.setInvalidationBus(invalidationBus);
+        migration.setEmailIndex(emailIndex);
+        return migration;
+    }
+
+    public InvalidationBus getInvalidationBus() {
+        return invalidationBus;
+    }
+}
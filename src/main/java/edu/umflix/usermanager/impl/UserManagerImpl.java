@@ -7,15 +7,44 @@ import edu.umflix.exceptions.RoleNotFoundException;
 import edu.umflix.exceptions.UserNotFoundException;
 import edu.umflix.model.Role;
 import edu.umflix.model.User;
-import edu.umflix.persistence.RoleDao;
 import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.BulkUserWriter;
+import edu.umflix.usermanager.CredentialStore;
+import edu.umflix.usermanager.EmailIndex;
+import edu.umflix.usermanager.EmailReservations;
+import edu.umflix.usermanager.LoginThrottle;
+import edu.umflix.usermanager.LookupCoalescer;
+import edu.umflix.usermanager.PagedUserSource;
+import edu.umflix.usermanager.Permission;
+import edu.umflix.usermanager.PermissionPolicy;
+import edu.umflix.usermanager.RegistrationResult;
+import edu.umflix.usermanager.RegistrationResult.Status;
+import edu.umflix.usermanager.RoleDirectory;
+import edu.umflix.usermanager.TokenCache;
+import edu.umflix.usermanager.UserLookup;
 import edu.umflix.usermanager.UserManager;
+import edu.umflix.usermanager.UserPage;
+import edu.umflix.usermanager.UserRecordCache;
+import edu.umflix.usermanager.UserValidator;
+import edu.umflix.usermanager.audit.AuditEvent;
+import edu.umflix.usermanager.audit.AuditLog;
+import edu.umflix.usermanager.credentials.CredentialEngine;
 import edu.umflix.usermanager.exceptions.*;
+import edu.umflix.usermanager.invalidation.Invalidation;
+import edu.umflix.usermanager.invalidation.InvalidationBus;
+import edu.umflix.usermanager.metrics.UserManagerMetrics;
+import edu.umflix.usermanager.persistence.CachingUserDao;
+import edu.umflix.usermanager.metrics.UserManagerMetrics.Dependency;
+import edu.umflix.usermanager.metrics.UserManagerMetrics.Operation;
+import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
+import javax.annotation.PostConstruct;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.jws.WebMethod;
 import javax.jws.WebService;
+import java.util.*;
 
 @Stateless(name = "UserManager")
 @WebService(portName = "UserManagerPort",
@@ -23,19 +52,84 @@ import javax.jws.WebService;
         targetNamespace = "http://um.org/wsdl")
 public class UserManagerImpl implements UserManager{
 
-    private static Logger logger = Logger.getLogger(UserManagerImpl.class);
+    private static final Logger logger = Logger.getLogger(UserManagerImpl.class);
+
+    private static final int REGISTER_CHUNK_SIZE = Integer.getInteger("usermanager.register.chunkSize", 500);
+    private static final int MAX_PAGE_SIZE = Integer.getInteger("usermanager.list.maxPageSize", 1000);
 
     @EJB(beanName = "UserDao")
     protected UserDao userDao;
 
-    @EJB(beanName = "RoleDao")
-    protected RoleDao roleDao;
+    @EJB(beanName = "RoleDirectory")
+    protected RoleDirectory roleDirectory;
 
     @EJB(beanName = "AuthenticationHandler")
     protected AuthenticationHandler authenticationHandler;
 
+    @EJB(beanName = "TokenCache")
+    protected TokenCache tokenCache;
+
+    @EJB(beanName = "UserManagerMetrics")
+    protected UserManagerMetrics metrics;
+
+    @EJB(beanName = "LoginThrottle")
+    protected LoginThrottle loginThrottle;
+
+    @EJB(beanName = "LookupCoalescer")
+    protected LookupCoalescer lookupCoalescer;
+
+    @EJB(beanName = "PermissionPolicy")
+    protected PermissionPolicy permissionPolicy;
+
+    @EJB(beanName = "EmailReservations")
+    protected EmailReservations emailReservations;
+
+    @EJB(beanName = "InvalidationBus")
+    protected InvalidationBus invalidationBus;
+
+    @EJB(beanName = "UserRecordCache")
+    protected UserRecordCache userRecordCache;
+
+    @EJB(beanName = "CredentialEngine")
+    protected CredentialEngine credentialEngine;
+
+    @EJB(beanName = "AuditLog")
+    protected AuditLog auditLog;
+
+    @EJB(beanName = "EmailIndex")
+    protected EmailIndex emailIndex;
+
+    protected UserValidator userValidator = UserValidator.defaultValidator();
+
+    private UserLookup userLookup;
+
+    @PostConstruct
+    public void init() {
+        //Reads of the dao go through the user cache, and its writes drop the cached users
+        if(userRecordCache!=null && !(userDao instanceof CachingUserDao)){
+            userDao = CachingUserDao.wrap(userDao, userRecordCache);
+        }
+        //A store that can not list its users gives a partial index, it has to track the registrations from the start
+        if(emailIndex!=null && !(userDao instanceof PagedUserSource)){
+            emailIndex.ensureLoaded(null, userLookup());
+        }
+    }
+
     @Override
     public void register(User user) throws InvalidEmailException, InvalidPasswordException, InvalidRoleException, EmailAlreadyTakenException {
+        long start = metrics.start();
+        try {
+            doRegister(user);
+            metrics.success(Operation.REGISTER, start);
+            audit(AuditEvent.Type.REGISTER, null, UserValidator.normalizeEmail(user.getEmail()), AuditEvent.OK);
+        } catch (Throwable e) {
+            metrics.failure(Operation.REGISTER, e, start);
+            audit(AuditEvent.Type.REGISTER, null, user==null ? null : UserValidator.normalizeEmail(user.getEmail()), e.getClass().getSimpleName());
+            throw e;
+        }
+    }
+
+    private void doRegister(User user) throws InvalidEmailException, InvalidPasswordException, InvalidRoleException, EmailAlreadyTakenException {
         if(user==null){
           logger.warn("registered ran with user null");
             throw new IllegalArgumentException("user null in register");
@@ -48,13 +142,25 @@ public class UserManagerImpl implements UserManager{
             logger.warn("registered ran with password null");
             throw new InvalidPasswordException();
         }
+        if(!userValidator.isValidEmail(user.getEmail())){
+            logger.warn("registered ran with invalid email");
+            throw new InvalidEmailException();
+        }
+        if(!userValidator.isValidPassword(user.getPassword())){
+            logger.warn("registered ran with invalid password");
+            throw new InvalidPasswordException();
+        }
         if(user.getRole()==null){
             logger.warn("registered ran with role null");
             throw new InvalidRoleException();
         }
+        //Emails are stored normalized, so the same address can not be registered twice with different case
+        String email = UserValidator.normalizeEmail(user.getEmail());
         try {
             //Check that the role is existent and the same with the persisted
-            Role storedRole = roleDao.getRoleById(user.getRole().getId());
+            long roleStart = metrics.start();
+            Role storedRole = roleDirectory.getRole(user.getRole().getId());
+            metrics.dependency(Dependency.ROLE_DAO, roleStart);
             if(!user.getRole().equals(storedRole)){
                 logger.warn("registered ran with user that has a different role from stored");
                 throw new InvalidRoleException();
@@ -63,29 +169,462 @@ public class UserManagerImpl implements UserManager{
             logger.warn("registered ran with not existent role");
             throw new InvalidRoleException();
         }
-        //Check the email is not taken
+        //The user of the caller is left as given, a copy is stored when its email or password change.
+        //Hashed before holding the email, it is the slow part
+        User stored = withEmail(user, email);
+        if(credentialEngine!=null){
+            stored = stored==user ? UserRecordCache.copy(user) : stored;
+            stored.setPassword(credential(user.getPassword()));
+        }
+        //Hold the email while it is checked and created, so a concurrent registration of it waits and then finds it taken
+        EmailReservations.Reservation reservation = emailReservations==null ? null : emailReservations.reserve(email);
         try {
-            userDao.getUser(user.getEmail());
-            throw new EmailAlreadyTakenException();
-        } catch (UserNotFoundException e) {
-            userDao.createUser(user);
-            logger.info("registered user "+user.getEmail());
+            //Check the email is not taken
+            long lookupStart = metrics.start();
+            boolean taken = userLookup().exists(email);
+            metrics.dependency(Dependency.USER_DAO, lookupStart);
+            if(taken){
+                throw new EmailAlreadyTakenException();
+            }
+            long createStart = metrics.start();
+            userDao.createUser(stored);
+            metrics.dependency(Dependency.USER_DAO, createStart);
+            indexEmail(email, true);
+            //Other nodes may have cached that the email was free
+            publishInvalidation(email);
+        } finally {
+            if(reservation!=null){
+                reservation.release();
+            }
+        }
+        if(logger.isInfoEnabled()){
+            logger.info("registered user "+email);
+        }
+    }
+
+    //Batches are only offered locally, RegistrationResult can not be bound by the SOAP endpoint
+    @Override
+    @WebMethod(exclude = true)
+    public List<RegistrationResult> registerAll(Collection<User> users) {
+        return registerBatch(users, false);
+    }
+
+    //Never offered over SOAP, credentials are only imported from exports of a trusted node
+    @Override
+    @WebMethod(exclude = true)
+    public List<RegistrationResult> importAll(Collection<User> users) {
+        return registerBatch(users, true);
+    }
+
+    private List<RegistrationResult> registerBatch(Collection<User> users, boolean imported) {
+        long start = metrics.start();
+        try {
+            List<RegistrationResult> results = doRegisterAll(users, imported);
+            metrics.success(Operation.REGISTER_ALL, start);
+            if(auditLog!=null){
+                long now = System.currentTimeMillis();
+                for(RegistrationResult result : results){
+                    User registered = result.getUser();
+                    auditLog.record(new AuditEvent(now, AuditEvent.Type.REGISTER, null, registered==null ? null : UserValidator.normalizeEmail(registered.getEmail()),
+                            result.getStatus()==Status.REGISTERED ? AuditEvent.OK : result.getStatus().name()));
+                }
+            }
+            return results;
+        } catch (Throwable e) {
+            metrics.failure(Operation.REGISTER_ALL, e, start);
+            throw e;
+        }
+    }
+
+    /**
+     * @param imported true if the passwords that are credentials already are stored as they are, false if every
+     * password is checked and hashed
+     */
+    private List<RegistrationResult> doRegisterAll(Collection<User> users, boolean imported) {
+        if(users==null){
+            logger.warn("registerAll ran with users null");
+            throw new IllegalArgumentException("users null in registerAll");
+        }
+        //The users of the caller are answered back as given, batch gets the normalized and hashed copies
+        User[] given = users.toArray(new User[users.size()]);
+        User[] batch = given.clone();
+        Status[] statuses = new Status[batch.length];
+        //Validate the whole batch, resolving every distinct role once
+        Map<Long, Role> storedRoles = new HashMap<Long, Role>();
+        Set<Long> missingRoles = new HashSet<Long>();
+        Set<String> batchEmails = new HashSet<String>();
+        List<String> candidateEmails = new ArrayList<String>(batch.length);
+        for(int i=0;i<batch.length;i++){
+            User user = batch[i];
+            if(user==null){
+                statuses[i] = Status.INVALID_USER;
+            }else if(!userValidator.isValidEmail(user.getEmail())){
+                statuses[i] = Status.INVALID_EMAIL;
+            }else if(isImportedCredential(user, imported) ? !credentialEngine.isAccepted(user.getPassword()) : !userValidator.isValidPassword(user.getPassword())){
+                statuses[i] = Status.INVALID_PASSWORD;
+            }else if(user.getRole()==null || !user.getRole().equals(storedRole(user.getRole().getId(), storedRoles, missingRoles))){
+                statuses[i] = Status.INVALID_ROLE;
+            }else{
+                String email = UserValidator.normalizeEmail(user.getEmail());
+                batch[i] = withEmail(user, email);
+                if(!batchEmails.add(email)){
+                    statuses[i] = Status.DUPLICATED_IN_BATCH;
+                }else{
+                    candidateEmails.add(email);
+                }
+            }
+        }
+        List<EmailReservations.Reservation> reservations = emailReservations==null || candidateEmails.isEmpty()
+                ? Collections.<EmailReservations.Reservation>emptyList() : emailReservations.reserveAll(candidateEmails);
+        try {
+            createCandidates(batch, statuses, candidateEmails, imported);
+        } finally {
+            if(!reservations.isEmpty()){
+                emailReservations.releaseAll(reservations);
+            }
+        }
+
+        List<RegistrationResult> results = new ArrayList<RegistrationResult>(batch.length);
+        int registered = 0;
+        for(int i=0;i<batch.length;i++){
+            if(statuses[i]==Status.REGISTERED){
+                registered++;
+                indexEmail(batch[i].getEmail(), true);
+                publishInvalidation(batch[i].getEmail());
+            }
+            results.add(new RegistrationResult(given[i], statuses[i]));
+        }
+        if(logger.isInfoEnabled()){
+            logger.info("registered "+registered+" of "+batch.length+" users in batch");
+        }
+        return results;
+    }
+
+    private void createCandidates(User[] batch, Status[] statuses, List<String> candidateEmails, boolean imported) {
+        //Check every candidate email against the store in one pass
+        long lookupStart = metrics.start();
+        Set<String> takenEmails = candidateEmails.isEmpty() ? Collections.<String>emptySet() : userLookup().existing(candidateEmails);
+        metrics.dependency(Dependency.USER_DAO, lookupStart);
+        if(credentialEngine!=null){
+            hashCandidates(batch, statuses, takenEmails, imported);
+        }
+        List<User> chunk = new ArrayList<User>(Math.min(REGISTER_CHUNK_SIZE, candidateEmails.size()));
+        List<Integer> chunkIndexes = new ArrayList<Integer>(Math.min(REGISTER_CHUNK_SIZE, candidateEmails.size()));
+        for(int i=0;i<batch.length;i++){
+            if(statuses[i]!=null){
+                continue;
+            }
+            if(takenEmails.contains(batch[i].getEmail())){
+                statuses[i] = Status.EMAIL_TAKEN;
+                continue;
+            }
+            chunk.add(batch[i]);
+            chunkIndexes.add(i);
+            if(chunk.size()==REGISTER_CHUNK_SIZE){
+                createChunk(chunk, chunkIndexes, statuses);
+            }
+        }
+        createChunk(chunk, chunkIndexes, statuses);
+    }
+
+    //Hashes the passwords of the users that will be created, spread over the workers of the engine. Credentials
+    //hashed already, as the ones of an export, are kept. The hashes go into copies, the users of the caller are
+    //left as given
+    private void hashCandidates(User[] batch, Status[] statuses, Set<String> takenEmails, boolean imported) {
+        List<Integer> candidates = new ArrayList<Integer>();
+        List<String> passwords = new ArrayList<String>();
+        for(int i=0;i<batch.length;i++){
+            if(statuses[i]==null && !takenEmails.contains(batch[i].getEmail()) && !isImportedCredential(batch[i], imported)){
+                candidates.add(i);
+                passwords.add(batch[i].getPassword());
+            }
+        }
+        if(candidates.isEmpty()){
+            return;
+        }
+        long hashStart = metrics.start();
+        List<String> credentials = credentialEngine.hashAll(passwords);
+        metrics.dependency(Dependency.CREDENTIAL_ENGINE, hashStart);
+        for(int i=0;i<candidates.size();i++){
+            int index = candidates.get(i);
+            User hashed = UserRecordCache.copy(batch[index]);
+            hashed.setPassword(credentials.get(i));
+            batch[index] = hashed;
+        }
+    }
+
+    //True if the password of an imported user is a credential to store as it is rather than a password to hash
+    private boolean isImportedCredential(User user, boolean imported) {
+        return imported && credentialEngine!=null && credentialEngine.isHashed(user.getPassword());
+    }
+
+    private Role storedRole(Long roleId, Map<Long, Role> storedRoles, Set<Long> missingRoles) {
+        Role role = storedRoles.get(roleId);
+        if(role==null && !missingRoles.contains(roleId)){
+            try {
+                long roleStart = metrics.start();
+                role = roleDirectory.getRole(roleId);
+                metrics.dependency(Dependency.ROLE_DAO, roleStart);
+                storedRoles.put(roleId, role);
+            } catch (RoleNotFoundException e) {
+                missingRoles.add(roleId);
+            }
+        }
+        return role;
+    }
+
+    private void createChunk(List<User> chunk, List<Integer> chunkIndexes, Status[] statuses) {
+        if(chunk.isEmpty()){
+            return;
+        }
+        try {
+            if(userDao instanceof BulkUserWriter){
+                long createStart = metrics.start();
+                ((BulkUserWriter) userDao).createUsers(chunk);
+                metrics.dependency(Dependency.USER_DAO, createStart);
+                for(Integer index : chunkIndexes){
+                    statuses[index] = Status.REGISTERED;
+                }
+            }else{
+                createOneByOne(chunk, chunkIndexes, statuses);
+            }
+        } catch (RuntimeException e) {
+            //The chunk failed as a whole, find out which users are the ones that fail
+            if(logger.isEnabledFor(Level.WARN)){
+                logger.warn("bulk creation of "+chunk.size()+" users failed, retrying one by one", e);
+            }
+            createOneByOne(chunk, chunkIndexes, statuses);
+        }
+        chunk.clear();
+        chunkIndexes.clear();
+    }
+
+    private void createOneByOne(List<User> chunk, List<Integer> chunkIndexes, Status[] statuses) {
+        for(int i=0;i<chunk.size();i++){
+            int index = chunkIndexes.get(i);
+            if(statuses[index]!=null){
+                continue;
+            }
+            try {
+                long createStart = metrics.start();
+                userDao.createUser(chunk.get(i));
+                metrics.dependency(Dependency.USER_DAO, createStart);
+                statuses[index] = Status.REGISTERED;
+            } catch (RuntimeException e) {
+                if(logger.isEnabledFor(Level.WARN)){
+                    logger.warn("creation of user "+chunk.get(i).getEmail()+" failed in batch", e);
+                }
+                statuses[index] = Status.FAILED;
+            }
         }
     }
 
     @Override
     public String login(User user) throws InvalidUserException {
+        long start = metrics.start();
+        try {
+            String token = doLogin(user);
+            metrics.success(Operation.LOGIN, start);
+            return token;
+        } catch (Throwable e) {
+            metrics.failure(Operation.LOGIN, e, start);
+            throw e;
+        }
+    }
+
+    private String doLogin(User user) throws InvalidUserException {
         if(user==null){
             logger.warn("login ran with user null");
             throw new InvalidUserException();
         }
-        String token = authenticationHandler.authenticate(user);
-        logger.info("user "+user.getEmail()+" logged in");
+        //Users are stored by their normalized email, the case or padding of a login does not matter
+        String email = UserValidator.normalizeEmail(user.getEmail());
+        //Throttled by the normalized email, changing its case or padding it does not give new attempts
+        if(loginThrottle!=null && !loginThrottle.tryAcquire(email)){
+            logger.debug("login ran too often for the same email");
+            throw new InvalidUserException();
+        }
+        String storedEmail = storedEmail(user, email);
+        User authenticated = credentialEngine==null ? withEmail(user, storedEmail) : verifyCredential(user, storedEmail);
+        long authenticationStart = metrics.start();
+        String token = authenticationHandler.authenticate(authenticated);
+        metrics.dependency(Dependency.AUTHENTICATION_HANDLER, authenticationStart);
+        if(logger.isInfoEnabled()){
+            logger.info("user "+email+" logged in");
+        }
         return token;
     }
 
+    /**
+     * Checks the password of a login against the stored credential and rehashes the credential when it is
+     * in plain text or its cost changed
+     * @return the user to authenticate, with the stored credential in place of the password
+     */
+    private User verifyCredential(User user, String email) throws InvalidUserException {
+        if(email==null || user.getPassword()==null){
+            throw new InvalidUserException();
+        }
+        User stored;
+        long version = CredentialStore.ANY_VERSION;
+        try {
+            long lookupStart = metrics.start();
+            //Caching and sharded daos are CredentialStore only when the daos under them keep versions
+            if(userDao instanceof CredentialStore){
+                //Read first, so a rehash never overwrites a password changed meanwhile
+                version = ((CredentialStore) userDao).getVersion(email);
+            }
+            stored = userDao.getUser(email);
+            metrics.dependency(Dependency.USER_DAO, lookupStart);
+        } catch (UserNotFoundException e) {
+            throw new InvalidUserException();
+        }
+        long verifyStart = metrics.start();
+        boolean valid = credentialEngine.verify(user.getPassword(), stored.getPassword());
+        metrics.dependency(Dependency.CREDENTIAL_ENGINE, verifyStart);
+        if(!valid){
+            throw new InvalidUserException();
+        }
+        String credential = stored.getPassword();
+        //Without versions the rehash is only safe while the email is reserved, as update and the migration do
+        if((version!=CredentialStore.ANY_VERSION || emailReservations!=null) && credentialEngine.needsRehash(credential)){
+            credential = rehash(email, user.getPassword(), credential, version);
+        }
+        User authenticated = new User();
+        authenticated.setId(stored.getId());
+        authenticated.setEmail(stored.getEmail());
+        authenticated.setName(stored.getName());
+        authenticated.setRole(stored.getRole());
+        authenticated.setPassword(credential);
+        return authenticated;
+    }
+
+    private String rehash(String email, String password, String credential, long version) {
+        try {
+            long hashStart = metrics.start();
+            String rehashed = credentialEngine.hash(password);
+            metrics.dependency(Dependency.CREDENTIAL_ENGINE, hashStart);
+            long updateStart = metrics.start();
+            boolean applied = version!=CredentialStore.ANY_VERSION
+                    ? ((CredentialStore) userDao).updatePassword(email, rehashed, version).isApplied()
+                    : writeBackCredential(email, credential, rehashed);
+            metrics.dependency(Dependency.USER_DAO, updateStart);
+            if(!applied){
+                //Changed since it was read, the new password wins and is hashed already
+                return credential;
+            }
+            credentialEngine.rehashed();
+            publishInvalidation(email);
+            if(logger.isDebugEnabled()){
+                logger.debug("rehashed the credential of "+email);
+            }
+            return rehashed;
+        } catch (UserNotFoundException e) {
+            return credential;
+        } catch (RuntimeException e) {
+            //The login is valid with the old credential, it is rehashed on the next one
+            if(logger.isEnabledFor(Level.WARN)){
+                logger.warn("rehash of the credential of "+email+" failed", e);
+            }
+            return credential;
+        }
+    }
+
+    /**
+     * Replaces the credential of a user of a dao without versions, holding the reservation of its email so
+     * neither an update nor the credential migration of this node writes the user in between
+     * @return false if the credential changed since it was verified
+     */
+    private boolean writeBackCredential(String email, String credential, String rehashed) throws UserNotFoundException {
+        EmailReservations.Reservation reservation = emailReservations.reserve(email);
+        try {
+            User stored = userDao.getUser(email);
+            if(!credential.equals(stored.getPassword())){
+                return false;
+            }
+            User rehashedUser = UserRecordCache.copy(stored);
+            rehashedUser.setPassword(rehashed);
+            userDao.updateUser(rehashedUser);
+            return true;
+        } finally {
+            reservation.release();
+        }
+    }
+
+    //True if the password given for a user is the one of the user of the token
+    private boolean isUserOfToken(User userOfToken, User user) {
+        String email = UserValidator.normalizeEmail(userOfToken.getEmail());
+        if(email==null || !email.equals(UserValidator.normalizeEmail(user.getEmail()))){
+            return false;
+        }
+        if(credentialEngine==null){
+            return userOfToken.getPassword().equals(user.getPassword());
+        }
+        long verifyStart = metrics.start();
+        boolean valid = credentialEngine.verify(user.getPassword(), userOfToken.getPassword());
+        metrics.dependency(Dependency.CREDENTIAL_ENGINE, verifyStart);
+        return valid;
+    }
+
+    //The value stored for a password, hashed when there is a credential engine
+    private String credential(String password) {
+        if(credentialEngine==null){
+            return password;
+        }
+        long hashStart = metrics.start();
+        String credential = credentialEngine.hash(password);
+        metrics.dependency(Dependency.CREDENTIAL_ENGINE, hashStart);
+        return credential;
+    }
+
+    /**
+     * Users registered before emails were normalized are stored by the email exactly as it was given. When nothing
+     * is stored by the normalized email, the email of the user as given is looked up too, so those accounts can
+     * still log in, be updated and be deleted by it
+     * @return the email the user is stored by, the normalized one if neither is stored
+     */
+    private String storedEmail(User user, String email) {
+        String given = user.getEmail();
+        if(email==null || email.equals(given)){
+            return email;
+        }
+        long lookupStart = metrics.start();
+        boolean legacy = !userLookup().exists(email) && userLookup().exists(given);
+        metrics.dependency(Dependency.USER_DAO, lookupStart);
+        if(legacy && logger.isDebugEnabled()){
+            logger.debug("user "+given+" is stored by an email that is not normalized");
+        }
+        return legacy ? given : email;
+    }
+
+    //A copy of the user with the given email, or the user itself when it has that email already
+    private static User withEmail(User user, String email) {
+        if(email==null || email.equals(user.getEmail())){
+            return user;
+        }
+        User copy = UserRecordCache.copy(user);
+        copy.setEmail(email);
+        return copy;
+    }
+
     @Override
     public void delete(String token, User user) throws InvalidUserException, PermissionDeniedException, InvalidTokenException {
+        long start = metrics.start();
+        try {
+            String actor = doDelete(token, user);
+            metrics.success(Operation.DELETE, start);
+            audit(AuditEvent.Type.DELETE, actor, UserValidator.normalizeEmail(user.getEmail()), AuditEvent.OK);
+        } catch (Throwable e) {
+            metrics.failure(Operation.DELETE, e, start);
+            //Refusals by the permission policy are audited with their actor where they are decided
+            if(!(e instanceof PermissionDeniedException)){
+                audit(AuditEvent.Type.DELETE, null, user==null ? null : UserValidator.normalizeEmail(user.getEmail()), e.getClass().getSimpleName());
+            }
+            throw e;
+        }
+    }
+
+    //Returns the email of the user of the token
+    private String doDelete(String token, User user) throws InvalidUserException, PermissionDeniedException, InvalidTokenException {
         if(token==null){
             logger.warn("delete ran with token null");
             throw new InvalidTokenException();
@@ -94,21 +633,26 @@ public class UserManagerImpl implements UserManager{
             logger.warn("delete ran with user null");
             throw new InvalidUserException();
         }
-        User userOfToken = authenticationHandler.getUserOfToken(token);
+        String email = storedEmail(user, UserValidator.normalizeEmail(user.getEmail()));
+        User userOfToken = userOfToken(token);
         try {
             if(userOfToken==null || userOfToken.getRole()==null){
                 logger.debug("userOfToken or his role is null in delete");
                 throw new IllegalArgumentException("userOfToken or his role is null in delete");
             }
-            boolean tokenIsAdmin = userOfToken.getRole().equals(roleDao.getRoleById(Long.valueOf(1)));
-            boolean tokenBelongsToDeletedUser = userOfToken.getPassword().equals(user.getPassword()) && userOfToken.getEmail().equals(user.getEmail());
-            if(tokenIsAdmin || tokenBelongsToDeletedUser){
-                 userDao.deleteUser(user.getEmail());
+            boolean tokenBelongsToDeletedUser = isUserOfToken(userOfToken, user);
+            if(permissionPolicy.canDelete(userOfToken.getRole(), tokenBelongsToDeletedUser)){
+                 long deleteStart = metrics.start();
+                 userDao.deleteUser(email);
+                 metrics.dependency(Dependency.USER_DAO, deleteStart);
+                 tokenCache.evictUser(email);
+                 indexEmail(email, false);
+                 publishInvalidation(email);
+                 return userOfToken.getEmail();
             }else{
+                audit(AuditEvent.Type.DELETE, userOfToken.getEmail(), email, PermissionDeniedException.class.getSimpleName());
                 throw new PermissionDeniedException();
             }
-        } catch (RoleNotFoundException e) {
-            throw new IllegalArgumentException("role Admin not found in delete");
         } catch (UserNotFoundException e) {
             throw new InvalidUserException();
         }
@@ -116,6 +660,23 @@ public class UserManagerImpl implements UserManager{
 
     @Override
     public void update(String token, User user, String newPassword) throws InvalidUserException, PermissionDeniedException, InvalidPasswordException, InvalidTokenException {
+        long start = metrics.start();
+        try {
+            String actor = doUpdate(token, user, newPassword);
+            metrics.success(Operation.UPDATE, start);
+            audit(AuditEvent.Type.UPDATE, actor, UserValidator.normalizeEmail(user.getEmail()), AuditEvent.OK);
+        } catch (Throwable e) {
+            metrics.failure(Operation.UPDATE, e, start);
+            //Refusals by the permission policy are audited with their actor where they are decided
+            if(!(e instanceof PermissionDeniedException)){
+                audit(AuditEvent.Type.UPDATE, null, user==null ? null : UserValidator.normalizeEmail(user.getEmail()), e.getClass().getSimpleName());
+            }
+            throw e;
+        }
+    }
+
+    //Returns the email of the user of the token
+    private String doUpdate(String token, User user, String newPassword) throws InvalidUserException, PermissionDeniedException, InvalidPasswordException, InvalidTokenException {
         if(token==null){
             logger.trace("update ran with token null");
             throw new InvalidTokenException();
@@ -128,27 +689,158 @@ public class UserManagerImpl implements UserManager{
             logger.trace("update ran with newPassword null");
             throw new InvalidPasswordException();
         }
-        User userOfToken = authenticationHandler.getUserOfToken(token);
+        if(!userValidator.isValidPassword(newPassword)){
+            logger.trace("update ran with invalid newPassword");
+            throw new InvalidPasswordException();
+        }
+        String email = storedEmail(user, UserValidator.normalizeEmail(user.getEmail()));
+        User userOfToken = userOfToken(token);
         try {
             if(userOfToken==null || userOfToken.getRole()==null){
                 logger.debug("userOfToken or his role is null in update");
                 throw new IllegalArgumentException("userOfToken or his role is null in update");
             }
-            boolean tokenIsAdmin = userOfToken.getRole().equals(roleDao.getRoleById(Long.valueOf(1)));
-            boolean tokenBelongsToUpdatedUser = userOfToken.getPassword().equals(user.getPassword()) && userOfToken.getEmail().equals(user.getEmail());
-            if(tokenIsAdmin || tokenBelongsToUpdatedUser){
-                User updatedUser = userDao.getUser(user.getEmail());
-                updatedUser.setPassword(newPassword);
-                userDao.updateUser(updatedUser);
+            //Read before the password is checked, so the update only applies if nobody changed the user since
+            long version = CredentialStore.ANY_VERSION;
+            if(userDao instanceof CredentialStore){
+                long versionStart = metrics.start();
+                version = ((CredentialStore) userDao).getVersion(email);
+                metrics.dependency(Dependency.USER_DAO, versionStart);
+            }
+            boolean tokenBelongsToUpdatedUser = isUserOfToken(userOfToken, user);
+            if(permissionPolicy.canUpdate(userOfToken.getRole(), tokenBelongsToUpdatedUser)){
+                String credential = credential(newPassword);
+                long updateStart = metrics.start();
+                if(userDao instanceof CredentialStore){
+                    //One atomic round trip instead of reading the user and writing all of it back
+                    boolean applied = ((CredentialStore) userDao).updatePassword(email, credential, version).isApplied();
+                    if(!applied){
+                        metrics.dependency(Dependency.USER_DAO, updateStart);
+                        logger.debug("password changed meanwhile in update");
+                        throw new PasswordChangedException();
+                    }
+                }else{
+                    //Held while the user is read and written back, so the credential migration can not write over it
+                    EmailReservations.Reservation reservation = emailReservations==null ? null : emailReservations.reserve(email);
+                    try {
+                        //Not coalesced, a shared load would hand the same user to every concurrent update to modify
+                        User updatedUser = userDao.getUser(email);
+                        updatedUser.setPassword(credential);
+                        userDao.updateUser(updatedUser);
+                    } finally {
+                        if(reservation!=null){
+                            reservation.release();
+                        }
+                    }
+                }
+                metrics.dependency(Dependency.USER_DAO, updateStart);
+                //Cached tokens of the user hold the old password
+                tokenCache.evictUser(email);
+                publishInvalidation(email);
+                return userOfToken.getEmail();
             }else{
+                audit(AuditEvent.Type.UPDATE, userOfToken.getEmail(), email, PermissionDeniedException.class.getSimpleName());
                 throw new PermissionDeniedException();
             }
-        } catch (RoleNotFoundException e) {
-            throw new IllegalArgumentException("role Admin not found in delete");
         } catch (UserNotFoundException e) {
             throw new InvalidUserException();
         }
     }
 
+    //Listings are offered locally and over HTTP, UserPage can not be bound by the SOAP endpoint
+    @Override
+    @WebMethod(exclude = true)
+    public UserPage listUsers(String token, String cursor, int limit) throws PermissionDeniedException, InvalidTokenException {
+        long start = metrics.start();
+        try {
+            UserPage page = doList(token, null, cursor, limit);
+            metrics.success(Operation.LIST_USERS, start);
+            return page;
+        } catch (Throwable e) {
+            metrics.failure(Operation.LIST_USERS, e, start);
+            throw e;
+        }
+    }
 
+    @Override
+    @WebMethod(exclude = true)
+    public UserPage searchByEmailPrefix(String token, String prefix, String cursor, int limit) throws PermissionDeniedException, InvalidTokenException {
+        long start = metrics.start();
+        try {
+            if(prefix==null){
+                logger.warn("searchByEmailPrefix ran with prefix null");
+                throw new IllegalArgumentException("prefix null in searchByEmailPrefix");
+            }
+            UserPage page = doList(token, prefix, cursor, limit);
+            metrics.success(Operation.SEARCH_USERS, start);
+            return page;
+        } catch (Throwable e) {
+            metrics.failure(Operation.SEARCH_USERS, e, start);
+            throw e;
+        }
+    }
+
+    private UserPage doList(String token, String prefix, String cursor, int limit) throws PermissionDeniedException, InvalidTokenException {
+        if(token==null){
+            logger.warn("list ran with token null");
+            throw new InvalidTokenException();
+        }
+        if(limit<1 || limit>MAX_PAGE_SIZE){
+            if(logger.isEnabledFor(Level.WARN)){
+                logger.warn("list ran with limit "+limit);
+            }
+            throw new IllegalArgumentException("limit must be between 1 and "+MAX_PAGE_SIZE+" in list");
+        }
+        User userOfToken = userOfToken(token);
+        if(userOfToken==null || !permissionPolicy.permits(userOfToken.getRole(), Permission.LIST_USERS)){
+            throw new PermissionDeniedException();
+        }
+        if(emailIndex==null){
+            throw new UnsupportedOperationException("users of "+userDao+" can not be listed without an email index");
+        }
+        //Loaded from the store on the first listing only, then kept up to date by register and delete
+        emailIndex.ensureLoaded(userDao instanceof PagedUserSource ? (PagedUserSource) userDao : null, userLookup());
+        return emailIndex.page(prefix, cursor, limit);
+    }
+
+    private User userOfToken(String token) throws InvalidTokenException {
+        User userOfToken = tokenCache.get(token);
+        if(userOfToken==null){
+            long authenticationStart = metrics.start();
+            userOfToken = lookupCoalescer==null ? authenticationHandler.getUserOfToken(token) : lookupCoalescer.getUserOfToken(token, authenticationHandler);
+            metrics.dependency(Dependency.AUTHENTICATION_HANDLER, authenticationStart);
+            tokenCache.put(token, userOfToken);
+        }
+        return userOfToken;
+    }
+
+    private void audit(AuditEvent.Type type, String actor, String subject, String outcome) {
+        if(auditLog!=null){
+            auditLog.record(new AuditEvent(System.currentTimeMillis(), type, actor, subject, outcome));
+        }
+    }
+
+    private void indexEmail(String email, boolean present) {
+        if(emailIndex!=null){
+            if(present){
+                emailIndex.add(email);
+            }else{
+                emailIndex.remove(email);
+            }
+        }
+    }
+
+    //Only queues the invalidation, the caches of this node were already updated and the rest catch up asynchronously
+    private void publishInvalidation(String email) {
+        if(invalidationBus!=null){
+            invalidationBus.publish(Invalidation.user(email));
+        }
+    }
+
+    protected UserLookup userLookup() {
+        if(userLookup==null){
+            userLookup = new DaoUserLookup(userDao);
+        }
+        return userLookup;
+    }
 }
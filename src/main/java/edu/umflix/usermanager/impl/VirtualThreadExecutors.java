@@ -0,0 +1,38 @@
+package edu.umflix.usermanager.impl;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors that start a virtual thread per task when the running JVM supports them (Java 21+),
+ * and fall back to a cached pool of daemon platform threads otherwise.
+ */
+public final class VirtualThreadExecutors {
+
+    private VirtualThreadExecutors() {
+    }
+
+    /**
+     * @param name prefix of the thread names used by the fallback pool
+     * @return a new thread per task executor
+     */
+    public static ExecutorService newExecutor(final String name) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            final AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package edu.umflix.usermanager.invalidation;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Base of the buses: publish only puts the invalidation in a bounded queue, and a daemon thread drains the
+ * queue in batches of up to maxBatch, at least every flush interval, and hands them to {@link #send(List)}.
+ * Repeated invalidations of a batch are sent once. If the queue overflows the dropped invalidations are
+ * replaced by one {@link Invalidation#all()}, so caches may lose entries but never keep stale ones.
+ */
+public abstract class BatchingInvalidationBus implements InvalidationBus {
+
+    private static final Logger logger = Logger.getLogger(BatchingInvalidationBus.class);
+
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("usermanager.invalidation.capacity", 65536);
+    public static final int DEFAULT_MAX_BATCH = Integer.getInteger("usermanager.invalidation.maxBatch", 256);
+    public static final long DEFAULT_FLUSH_MILLIS = Long.getLong("usermanager.invalidation.flushMillis", 10);
+
+    private final BlockingQueue<Invalidation> queue;
+    private final int maxBatch;
+    private final long flushNanos;
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<InvalidationListener>();
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    protected BatchingInvalidationBus(String name, int capacity, int maxBatch, long flushInterval, TimeUnit unit) {
+        if (capacity < 1 || maxBatch < 1) {
+            throw new IllegalArgumentException("capacity and maxBatch must be positive in " + name);
+        }
+        this.queue = new LinkedBlockingQueue<Invalidation>(capacity);
+        this.maxBatch = maxBatch;
+        this.flushNanos = unit.toNanos(flushInterval);
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, name);
+        flusher.setDaemon(true);
+    }
+
+    /**
+     * Starts the delivery thread, called by the constructors of the subclasses once they are ready
+     */
+    protected void start() {
+        flusher.start();
+    }
+
+    @Override
+    public void publish(Invalidation invalidation) {
+        if (invalidation == null || closed) {
+            return;
+        }
+        published.increment();
+        if (!queue.offer(invalidation)) {
+            dropped.increment();
+            overflowed.set(true);
+        }
+    }
+
+    @Override
+    public void subscribe(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void unsubscribe(InvalidationListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        flusher.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Sends a batch to every node
+     * @param batch the distinct invalidations, in publication order
+     */
+    protected abstract void send(List<Invalidation> batch) throws Exception;
+
+    /**
+     * Hands a batch to the listeners of this node, used by the subclasses when a batch arrives
+     */
+    protected void deliver(List<Invalidation> batch) {
+        for (InvalidationListener listener : listeners) {
+            try {
+                listener.onInvalidations(batch);
+            } catch (RuntimeException e) {
+                logger.error("invalidation listener " + listener + " failed", e);
+            }
+        }
+    }
+
+    private void flushLoop() {
+        List<Invalidation> drained = new ArrayList<Invalidation>(maxBatch);
+        while (true) {
+            try {
+                Invalidation first = closed ? queue.poll() : queue.poll(flushNanos, TimeUnit.NANOSECONDS);
+                if (first == null && !overflowed.get()) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                if (first != null) {
+                    drained.add(first);
+                    queue.drainTo(drained, maxBatch - 1);
+                }
+                flush(drained);
+            } catch (InterruptedException e) {
+                //closing, deliver what is left without waiting
+                closed = true;
+            } catch (RuntimeException e) {
+                logger.error("invalidation batch lost", e);
+            }
+            drained.clear();
+        }
+    }
+
+    private void flush(List<Invalidation> drained) {
+        Set<Invalidation> distinct = new LinkedHashSet<Invalidation>(drained);
+        if (overflowed.getAndSet(false)) {
+            distinct.add(Invalidation.all());
+        }
+        List<Invalidation> batch = new ArrayList<Invalidation>(distinct.contains(Invalidation.all())
+                ? Collections.singleton(Invalidation.all()) : distinct);
+        batches.increment();
+        try {
+            send(batch);
+        } catch (Exception e) {
+            //the other nodes may keep stale entries until their TTL, nothing better can be done here
+            logger.error("invalidation batch of " + batch.size() + " could not be sent", e);
+        }
+    }
+
+    public long getPublished() {
+        return published.sum();
+    }
+
+    /**
+     * @return invalidations dropped because the queue was full, each overflow sends an ALL invalidation
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+}
@@ -0,0 +1,211 @@
+package edu.umflix.usermanager.invalidation;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bus between nodes that sends every batch as UDP datagrams to a fixed list of peers, and delivers the
+ * batches of the peers that arrive on its own port. Batches are delivered to the listeners of this node
+ * directly. A datagram is a text header with the node id followed by one invalidation per line, batches
+ * that do not fit in {@link #MAX_DATAGRAM} bytes are split. Datagrams can be lost, so caches fed by this bus
+ * must still expire their entries.
+ * <p>
+ * Peers send from the address they receive on, so only datagrams whose source is one of the peers are
+ * delivered, the others are dropped and counted as rejected. The source of a datagram is not authenticated,
+ * so the bind address should be on the network the nodes share and not reachable from outside it.
+ */
+public class DatagramInvalidationBus extends BatchingInvalidationBus {
+
+    private static final Logger logger = Logger.getLogger(DatagramInvalidationBus.class);
+
+    /**
+     * Fits in the usual 1500 bytes MTU with the IP and UDP headers
+     */
+    public static final int MAX_DATAGRAM = 1400;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final DatagramSocket socket;
+    private final List<InetSocketAddress> peers;
+    private final Set<InetSocketAddress> senders;
+    private final Thread receiver;
+    private final LongAdder received = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param bind address to receive the invalidations of the peers on and to send from, port 0 picks a free
+     * one. A wildcard address receives on every interface of the host
+     * @param peers addresses of the other nodes, the only ones whose datagrams are delivered
+     * @throws SocketException thrown if the address can not be bound
+     */
+    public DatagramInvalidationBus(InetSocketAddress bind, List<InetSocketAddress> peers) throws SocketException {
+        this(bind, peers, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH, DEFAULT_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public DatagramInvalidationBus(InetSocketAddress bind, List<InetSocketAddress> peers, int capacity, int maxBatch,
+                                   long flushInterval, TimeUnit unit) throws SocketException {
+        super("invalidation-sender", capacity, maxBatch, flushInterval, unit);
+        this.socket = new DatagramSocket(bind);
+        this.peers = new ArrayList<InetSocketAddress>(peers);
+        this.senders = new HashSet<InetSocketAddress>(peers);
+        this.receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receiveLoop();
+            }
+        }, "invalidation-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        start();
+    }
+
+    /**
+     * @return the address the bus receives on, to give to the other nodes
+     */
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    /**
+     * @return the datagrams received from the peers
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * @return the datagrams dropped because they did not come from a peer
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    protected void send(List<Invalidation> batch) throws IOException {
+        deliver(batch);
+        if (peers.isEmpty()) {
+            return;
+        }
+        for (byte[] datagram : encode(nodeId, batch)) {
+            for (InetSocketAddress peer : peers) {
+                socket.send(new DatagramPacket(datagram, datagram.length, peer));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        socket.close();
+        try {
+            receiver.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[MAX_DATAGRAM];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+                if (!senders.contains(packet.getSocketAddress())) {
+                    rejected.increment();
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("invalidation datagram from " + packet.getSocketAddress() + " dropped, it is not a peer");
+                    }
+                    continue;
+                }
+                String text = new String(packet.getData(), packet.getOffset(), packet.getLength(), StandardCharsets.UTF_8);
+                List<Invalidation> batch = decode(nodeId, text);
+                if (batch != null) {
+                    received.increment();
+                    deliver(batch);
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    logger.warn("invalidation datagram could not be received", e);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("corrupt invalidation datagram from " + packet.getSocketAddress(), e);
+            }
+        }
+    }
+
+    static List<byte[]> encode(String nodeId, List<Invalidation> batch) {
+        List<byte[]> datagrams = new ArrayList<byte[]>();
+        byte[] header = (nodeId + '\n').getBytes(StandardCharsets.UTF_8);
+        StringBuilder lines = new StringBuilder(MAX_DATAGRAM);
+        int size = header.length;
+        for (Invalidation invalidation : batch) {
+            String line = invalidation.getType().name().charAt(0) + invalidation.getKey() + '\n';
+            int length = line.getBytes(StandardCharsets.UTF_8).length;
+            if (header.length + length > MAX_DATAGRAM) {
+                //a key too long to send, the peers must drop everything instead
+                line = "A\n";
+                length = 2;
+            }
+            if (size + length > MAX_DATAGRAM) {
+                datagrams.add(datagram(header, lines));
+                lines.setLength(0);
+                size = header.length;
+            }
+            lines.append(line);
+            size += length;
+        }
+        if (lines.length() > 0) {
+            datagrams.add(datagram(header, lines));
+        }
+        return datagrams;
+    }
+
+    /**
+     * @return the invalidations of the datagram, null if it was sent by this node
+     */
+    static List<Invalidation> decode(String nodeId, String text) {
+        String[] lines = text.split("\n");
+        if (lines[0].equals(nodeId)) {
+            return null;
+        }
+        List<Invalidation> batch = new ArrayList<Invalidation>(lines.length - 1);
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            switch (line.charAt(0)) {
+                case 'U':
+                    batch.add(Invalidation.of(Invalidation.Type.USER, line.substring(1)));
+                    break;
+                case 'R':
+                    batch.add(Invalidation.of(Invalidation.Type.ROLE, line.substring(1)));
+                    break;
+                case 'A':
+                    batch.add(Invalidation.all());
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown invalidation " + line);
+            }
+        }
+        return batch;
+    }
+
+    private static byte[] datagram(byte[] header, StringBuilder lines) {
+        byte[] body = lines.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] datagram = new byte[header.length + body.length];
+        System.arraycopy(header, 0, datagram, 0, header.length);
+        System.arraycopy(body, 0, datagram, header.length, body.length);
+        return datagram;
+    }
+}
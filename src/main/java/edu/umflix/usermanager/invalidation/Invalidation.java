@@ -0,0 +1,84 @@
+package edu.umflix.usermanager.invalidation;
+
+/**
+ * Tells the caches of every node that something they may hold changed
+ */
+public final class Invalidation {
+
+    public enum Type {
+        /**
+         * The user with the email in the key changed, was deleted or was created
+         */
+        USER,
+        /**
+         * The role with the id in the key changed
+         */
+        ROLE,
+        /**
+         * Anything may have changed, used when invalidations were lost
+         */
+        ALL
+    }
+
+    private static final Invalidation ALL = new Invalidation(Type.ALL, "");
+
+    private final Type type;
+    private final String key;
+
+    private Invalidation(Type type, String key) {
+        this.type = type;
+        this.key = key;
+    }
+
+    public static Invalidation user(String email) {
+        if (email == null) {
+            throw new IllegalArgumentException("null email in Invalidation");
+        }
+        return new Invalidation(Type.USER, email);
+    }
+
+    public static Invalidation role(Long id) {
+        if (id == null) {
+            throw new IllegalArgumentException("null role id in Invalidation");
+        }
+        return new Invalidation(Type.ROLE, id.toString());
+    }
+
+    public static Invalidation all() {
+        return ALL;
+    }
+
+    static Invalidation of(Type type, String key) {
+        return type == Type.ALL ? ALL : new Invalidation(type, key);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the email of a USER invalidation, the role id of a ROLE one, empty for ALL
+     */
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Invalidation)) {
+            return false;
+        }
+        Invalidation invalidation = (Invalidation) other;
+        return type == invalidation.type && key.equals(invalidation.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return type.hashCode() * 31 + key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + key;
+    }
+}
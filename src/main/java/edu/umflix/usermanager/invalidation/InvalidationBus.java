@@ -0,0 +1,23 @@
+package edu.umflix.usermanager.invalidation;
+
+/**
+ * Carries invalidations from the node that changed something to the caches of every node.
+ * Publishing never blocks nor fails, invalidations are queued and delivered asynchronously in batches.
+ */
+public interface InvalidationBus {
+
+    /**
+     * Queues an invalidation for every subscriber, including the ones of this node
+     * @param invalidation what changed
+     */
+    public void publish(Invalidation invalidation);
+
+    public void subscribe(InvalidationListener listener);
+
+    public void unsubscribe(InvalidationListener listener);
+
+    /**
+     * Delivers what is queued and stops the bus
+     */
+    public void close();
+}
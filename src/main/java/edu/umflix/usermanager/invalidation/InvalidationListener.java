@@ -0,0 +1,15 @@
+package edu.umflix.usermanager.invalidation;
+
+import java.util.List;
+
+/**
+ * A local cache that drops its entries when the {@link InvalidationBus} reports a change
+ */
+public interface InvalidationListener {
+
+    /**
+     * Called on the delivery thread of the bus, it must not block
+     * @param batch the invalidations, in publication order
+     */
+    public void onInvalidations(List<Invalidation> batch);
+}
@@ -0,0 +1,39 @@
+package edu.umflix.usermanager.invalidation;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bus of a single node: batches are delivered to the listeners of this process only.
+ * Several loopback buses can be linked with {@link #forwardTo(LoopbackInvalidationBus)} to simulate nodes
+ * in one process.
+ */
+public class LoopbackInvalidationBus extends BatchingInvalidationBus {
+
+    private final List<LoopbackInvalidationBus> peers = new CopyOnWriteArrayList<LoopbackInvalidationBus>();
+
+    public LoopbackInvalidationBus() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_BATCH, DEFAULT_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public LoopbackInvalidationBus(int capacity, int maxBatch, long flushInterval, TimeUnit unit) {
+        super("invalidation-loopback", capacity, maxBatch, flushInterval, unit);
+        start();
+    }
+
+    /**
+     * Also delivers the batches published on this bus to the listeners of another one
+     */
+    public void forwardTo(LoopbackInvalidationBus peer) {
+        peers.add(peer);
+    }
+
+    @Override
+    protected void send(List<Invalidation> batch) {
+        deliver(batch);
+        for (LoopbackInvalidationBus peer : peers) {
+            peer.deliver(batch);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package edu.umflix.usermanager.invalidation;
+
+import edu.umflix.usermanager.EmailIndex;
+import edu.umflix.usermanager.RoleDirectory;
+import edu.umflix.usermanager.TokenCache;
+import edu.umflix.usermanager.UserRecordCache;
+import edu.umflix.usermanager.metrics.Jmx;
+import org.apache.log4j.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.ObjectName;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The invalidation bus of this node, which the UserManager publishes to and the {@link TokenCache},
+ * {@link RoleDirectory}, {@link UserRecordCache} and {@link EmailIndex} of the node subscribe to. With the
+ * usermanager.invalidation.peers system property set to a comma separated list of host:port the invalidations
+ * are sent to those nodes over UDP and received on usermanager.invalidation.port, without it they stay in this node. Only
+ * datagrams from the peers are delivered. They are received on every interface unless usermanager.invalidation.bind
+ * names the address of the interface the nodes share. Exposed over JMX as
+ * edu.umflix.usermanager:type=InvalidationBus.
+ */
+@Singleton(name = "InvalidationBus")
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class NodeInvalidationBus implements InvalidationBus, NodeInvalidationBusMBean {
+
+    private static final Logger logger = Logger.getLogger(NodeInvalidationBus.class);
+
+    public static final String OBJECT_NAME = "edu.umflix.usermanager:type=InvalidationBus";
+
+    private static final String DEFAULT_PEERS = System.getProperty("usermanager.invalidation.peers", "");
+    private static final int DEFAULT_PORT = Integer.getInteger("usermanager.invalidation.port", 7600);
+    private static final String DEFAULT_BIND = System.getProperty("usermanager.invalidation.bind", "");
+
+    @EJB(beanName = "TokenCache")
+    protected TokenCache tokenCache;
+
+    @EJB(beanName = "RoleDirectory")
+    protected RoleDirectory roleDirectory;
+
+    @EJB(beanName = "UserRecordCache")
+    protected UserRecordCache userRecordCache;
+
+    @EJB(beanName = "EmailIndex")
+    protected EmailIndex emailIndex;
+
+    private final String peers;
+    private final BatchingInvalidationBus bus;
+    private ObjectName registeredName;
+
+    public NodeInvalidationBus() {
+        this(DEFAULT_PEERS, DEFAULT_BIND, DEFAULT_PORT);
+    }
+
+    /**
+     * @param peers comma separated host:port of the other nodes, empty to keep the invalidations local
+     * @param port port to receive the invalidations of the peers on, on every interface
+     * @throws IllegalArgumentException thrown if a peer is invalid or the port can not be bound
+     */
+    public NodeInvalidationBus(String peers, int port) {
+        this(peers, "", port);
+    }
+
+    /**
+     * @param peers comma separated host:port of the other nodes, empty to keep the invalidations local
+     * @param bind host of the interface to receive the invalidations of the peers on, empty for every interface
+     * @param port port to receive the invalidations of the peers on
+     * @throws IllegalArgumentException thrown if a peer is invalid or the address can not be bound
+     */
+    public NodeInvalidationBus(String peers, String bind, int port) {
+        List<InetSocketAddress> addresses = parsePeers(peers);
+        this.peers = addresses.isEmpty() ? "" : peers.trim();
+        if (addresses.isEmpty()) {
+            bus = new LoopbackInvalidationBus();
+        } else {
+            try {
+                InetSocketAddress address = bind == null || bind.trim().isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(bind.trim(), port);
+                bus = new DatagramInvalidationBus(address, addresses);
+            } catch (SocketException e) {
+                throw new IllegalArgumentException("invalidation address " + bind + ":" + port + " can not be bound", e);
+            }
+        }
+    }
+
+    /**
+     * Parses a comma separated list of host:port
+     */
+    public static List<InetSocketAddress> parsePeers(String peers) {
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+        if (peers == null) {
+            return addresses;
+        }
+        for (String peer : peers.split(",")) {
+            peer = peer.trim();
+            if (peer.isEmpty()) {
+                continue;
+            }
+            int colon = peer.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("invalidation peer " + peer + " is not host:port");
+            }
+            try {
+                addresses.add(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalidation peer " + peer + " is not host:port");
+            }
+        }
+        return addresses;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (tokenCache != null) {
+            subscribe(tokenCache);
+        }
+        if (roleDirectory != null) {
+            subscribe(roleDirectory);
+        }
+        if (userRecordCache != null) {
+            subscribe(userRecordCache);
+        }
+        if (emailIndex != null) {
+            subscribe(emailIndex);
+        }
+        registeredName = Jmx.register(this, OBJECT_NAME);
+        if (logger.isInfoEnabled()) {
+            logger.info("invalidation bus started" + (peers.isEmpty() ? " without peers" : ", peers: " + peers));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        close();
+        Jmx.unregister(registeredName);
+        registeredName = null;
+    }
+
+    @Override
+    public void publish(Invalidation invalidation) {
+        bus.publish(invalidation);
+    }
+
+    @Override
+    public void subscribe(InvalidationListener listener) {
+        bus.subscribe(listener);
+    }
+
+    @Override
+    public void unsubscribe(InvalidationListener listener) {
+        bus.unsubscribe(listener);
+    }
+
+    @Override
+    public void close() {
+        bus.close();
+    }
+
+    @Override
+    public String getAddress() {
+        return bus instanceof DatagramInvalidationBus ? ((DatagramInvalidationBus) bus).getAddress().toString() : null;
+    }
+
+    @Override
+    public String getPeers() {
+        return peers;
+    }
+
+    @Override
+    public long getPublished() {
+        return bus.getPublished();
+    }
+
+    @Override
+    public long getDropped() {
+        return bus.getDropped();
+    }
+
+    @Override
+    public long getBatches() {
+        return bus.getBatches();
+    }
+
+    @Override
+    public long getReceived() {
+        return bus instanceof DatagramInvalidationBus ? ((DatagramInvalidationBus) bus).getReceived() : 0;
+    }
+
+    @Override
+    public long getRejected() {
+        return bus instanceof DatagramInvalidationBus ? ((DatagramInvalidationBus) bus).getRejected() : 0;
+    }
+}
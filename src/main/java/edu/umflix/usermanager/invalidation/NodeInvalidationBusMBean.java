@@ -0,0 +1,30 @@
+package edu.umflix.usermanager.invalidation;
+
+/**
+ * JMX view of the {@link NodeInvalidationBus}
+ */
+public interface NodeInvalidationBusMBean {
+
+    /**
+     * @return the address other nodes send invalidations to, null without peers
+     */
+    public String getAddress();
+
+    public String getPeers();
+
+    public long getPublished();
+
+    public long getDropped();
+
+    public long getBatches();
+
+    /**
+     * @return datagrams received from the peers
+     */
+    public long getReceived();
+
+    /**
+     * @return datagrams dropped because they did not come from a peer
+     */
+    public long getRejected();
+}
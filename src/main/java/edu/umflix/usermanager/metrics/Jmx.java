@@ -0,0 +1,53 @@
+package edu.umflix.usermanager.metrics;
+
+import org.apache.log4j.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Registers MBeans in the platform MBean server. Failures are logged, monitoring never stops the application
+ */
+public final class Jmx {
+
+    private static final Logger logger = Logger.getLogger(Jmx.class);
+
+    private Jmx() {
+    }
+
+    /**
+     * @param mbean the MBean to register
+     * @param name its object name
+     * @return the registered name, or null if it was not registered
+     */
+    public static ObjectName register(Object mbean, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                logger.warn("MBean " + name + " is already registered");
+                return null;
+            }
+            server.registerMBean(mbean, objectName);
+            return objectName;
+        } catch (Exception e) {
+            logger.warn("MBean " + name + " could not be registered", e);
+            return null;
+        }
+    }
+
+    /**
+     * @param name the name returned by {@link #register(Object, String)}, may be null
+     */
+    public static void unregister(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (Exception e) {
+            logger.warn("MBean " + name + " could not be unregistered", e);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package edu.umflix.usermanager.metrics;
+
+import edu.umflix.authenticationhandler.exceptions.InvalidTokenException;
+import edu.umflix.usermanager.exceptions.*;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and outcome counters of the UserManager operations and of the time spent in their
+ * dependencies, published as the JMX MBean edu.umflix.usermanager:type=UserManagerMetrics.
+ * Recording is lock free and does not allocate.
+ */
+@Singleton(name = "UserManagerMetrics")
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class UserManagerMetrics implements UserManagerMetricsMBean {
+
+    public static final String OBJECT_NAME = "edu.umflix.usermanager:type=UserManagerMetrics";
+
+    public enum Operation {
+        REGISTER, REGISTER_ALL, LOGIN, DELETE, UPDATE, LIST_USERS, SEARCH_USERS
+    }
+
+    /**
+     * Time spent outside of the UserManager. Role lookups are timed through the RoleDirectory, so
+     * they include the lookups served from its cache
+     */
+    public enum Dependency {
+        USER_DAO, ROLE_DAO, AUTHENTICATION_HANDLER, CREDENTIAL_ENGINE
+    }
+
+    /**
+     * Failures are counted by exact class, anything not listed is counted as other
+     */
+    private static final Class<?>[] TRACKED_FAILURES = {
+            InvalidEmailException.class,
+            InvalidPasswordException.class,
+            InvalidRoleException.class,
+            EmailAlreadyTakenException.class,
+            PermissionDeniedException.class,
+            edu.umflix.usermanager.exceptions.InvalidUserException.class,
+            edu.umflix.authenticationhandler.exceptions.InvalidUserException.class,
+            InvalidTokenException.class,
+            IllegalArgumentException.class
+    };
+    private static final int OTHER_FAILURE = TRACKED_FAILURES.length;
+
+    private final LatencyHistogram[] operationLatencies = histograms(Operation.values().length);
+    private final LatencyHistogram[] dependencyLatencies = histograms(Dependency.values().length);
+    private final LongAdder[] successes = adders(Operation.values().length);
+    private final LongAdder[][] failures = new LongAdder[Operation.values().length][];
+
+    private ObjectName registeredName;
+
+    public UserManagerMetrics() {
+        for (int i = 0; i < failures.length; i++) {
+            failures[i] = adders(TRACKED_FAILURES.length + 1);
+        }
+    }
+
+    /**
+     * @return the start time to pass to the record methods
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void success(Operation operation, long start) {
+        operationLatencies[operation.ordinal()].record(System.nanoTime() - start);
+        successes[operation.ordinal()].increment();
+    }
+
+    public void failure(Operation operation, Throwable failure, long start) {
+        operationLatencies[operation.ordinal()].record(System.nanoTime() - start);
+        failures[operation.ordinal()][failureIndex(failure.getClass())].increment();
+    }
+
+    public void dependency(Dependency dependency, long start) {
+        dependencyLatencies[dependency.ordinal()].record(System.nanoTime() - start);
+    }
+
+    public LatencyHistogram getLatency(Operation operation) {
+        return operationLatencies[operation.ordinal()];
+    }
+
+    public LatencyHistogram getLatency(Dependency dependency) {
+        return dependencyLatencies[dependency.ordinal()];
+    }
+
+    public long getSuccesses(Operation operation) {
+        return successes[operation.ordinal()].sum();
+    }
+
+    public long getFailures(Operation operation, Class<? extends Throwable> failure) {
+        return failures[operation.ordinal()][failureIndex(failure)].sum();
+    }
+
+    @PostConstruct
+    public void registerMBean() {
+        registeredName = Jmx.register(this, OBJECT_NAME);
+    }
+
+    @PreDestroy
+    public void unregisterMBean() {
+        Jmx.unregister(registeredName);
+        registeredName = null;
+    }
+
+    @Override
+    public String[] getLatencySummary() {
+        List<String> lines = new ArrayList<String>();
+        for (Operation operation : Operation.values()) {
+            lines.add(summary(operation.name(), operationLatencies[operation.ordinal()]));
+        }
+        for (Dependency dependency : Dependency.values()) {
+            lines.add(summary(dependency.name(), dependencyLatencies[dependency.ordinal()]));
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public String[] getOutcomeSummary() {
+        List<String> lines = new ArrayList<String>();
+        for (Operation operation : Operation.values()) {
+            StringBuilder line = new StringBuilder(operation.name()).append(" success=").append(getSuccesses(operation));
+            LongAdder[] operationFailures = failures[operation.ordinal()];
+            for (int i = 0; i < operationFailures.length; i++) {
+                long failed = operationFailures[i].sum();
+                if (failed > 0) {
+                    line.append(' ').append(i == OTHER_FAILURE ? "Other" : TRACKED_FAILURES[i].getSimpleName()).append('=').append(failed);
+                }
+            }
+            lines.add(line.toString());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public long getCount(String operation) {
+        return histogramNamed(operation).getCount();
+    }
+
+    @Override
+    public double getPercentileMicros(String operation, double percentile) {
+        return histogramNamed(operation).getPercentile(percentile) / 1000.0;
+    }
+
+    @Override
+    public long getFailures(String operation, String exceptionClass) {
+        LongAdder[] operationFailures = failures[Operation.valueOf(operation.toUpperCase(Locale.ROOT)).ordinal()];
+        for (int i = 0; i < TRACKED_FAILURES.length; i++) {
+            if (TRACKED_FAILURES[i].getName().equals(exceptionClass) || TRACKED_FAILURES[i].getSimpleName().equals(exceptionClass)) {
+                return operationFailures[i].sum();
+            }
+        }
+        return operationFailures[OTHER_FAILURE].sum();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : operationLatencies) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : dependencyLatencies) {
+            histogram.reset();
+        }
+        for (LongAdder adder : successes) {
+            adder.reset();
+        }
+        for (LongAdder[] operationFailures : failures) {
+            for (LongAdder adder : operationFailures) {
+                adder.reset();
+            }
+        }
+    }
+
+    private LatencyHistogram histogramNamed(String name) {
+        String upper = name.toUpperCase(Locale.ROOT);
+        for (Operation operation : Operation.values()) {
+            if (operation.name().equals(upper)) {
+                return operationLatencies[operation.ordinal()];
+            }
+        }
+        return dependencyLatencies[Dependency.valueOf(upper).ordinal()];
+    }
+
+    private static int failureIndex(Class<?> failure) {
+        for (int i = 0; i < TRACKED_FAILURES.length; i++) {
+            if (TRACKED_FAILURES[i] == failure) {
+                return i;
+            }
+        }
+        return OTHER_FAILURE;
+    }
+
+    private static String summary(String name, LatencyHistogram histogram) {
+        return String.format(Locale.ROOT, "%s count=%d mean=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+                name, histogram.getCount(), histogram.getMean() / 1000, histogram.getPercentile(50) / 1000.0,
+                histogram.getPercentile(99) / 1000.0, histogram.getPercentile(99.9) / 1000.0, histogram.getMax() / 1000.0);
+    }
+
+    private static LatencyHistogram[] histograms(int size) {
+        LatencyHistogram[] histograms = new LatencyHistogram[size];
+        for (int i = 0; i < size; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    private static LongAdder[] adders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
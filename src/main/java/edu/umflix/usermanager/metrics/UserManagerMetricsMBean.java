@@ -0,0 +1,25 @@
+package edu.umflix.usermanager.metrics;
+
+/**
+ * JMX view of the {@link UserManagerMetrics}. Latencies are reported in microseconds
+ */
+public interface UserManagerMetricsMBean {
+
+    /**
+     * @return one line per operation and dependency with its count and latency percentiles
+     */
+    public String[] getLatencySummary();
+
+    /**
+     * @return one line per operation with its successes and its failures by exception class
+     */
+    public String[] getOutcomeSummary();
+
+    public long getCount(String operation);
+
+    public double getPercentileMicros(String operation, double percentile);
+
+    public long getFailures(String operation, String exceptionClass);
+
+    public void reset();
+}
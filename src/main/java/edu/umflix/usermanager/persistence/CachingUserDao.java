@@ -0,0 +1,234 @@
+package edu.umflix.usermanager.persistence;
+
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.User;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.BulkUserWriter;
+import edu.umflix.usermanager.CredentialStore;
+import edu.umflix.usermanager.CredentialUpdate;
+import edu.umflix.usermanager.PagedUserSource;
+import edu.umflix.usermanager.UserLookup;
+import edu.umflix.usermanager.UserRecordCache;
+
+import java.util.*;
+
+/**
+ * {@link UserDao} that reads users through a {@link UserRecordCache} and writes them through to another dao,
+ * dropping the cached user once the write is done. Existence checks are answered from the cache as well, so
+ * a registration of an email that was just looked up does not reach the store. Returned users are copies,
+ * changing them does not change the cache nor the store until they are written back.
+ * <p>
+ * Lookups and bulk writes are offered on top of any dao, natively when it implements them. Paging and
+ * versioned credentials are only offered when the wrapped dao offers them, {@link #wrap} picks the class.
+ */
+public class CachingUserDao implements UserDao, UserLookup, BulkUserWriter {
+
+    private final UserDao userDao;
+    private final UserRecordCache cache;
+
+    /**
+     * @return a dao that is also a {@link PagedUserSource} or a {@link CredentialStore} when the wrapped dao is
+     */
+    public static CachingUserDao wrap(UserDao userDao, UserRecordCache cache) {
+        boolean paged = userDao instanceof PagedUserSource;
+        boolean versioned = userDao instanceof CredentialStore;
+        if (paged && versioned) {
+            return new PagedVersioned(userDao, cache);
+        }
+        if (versioned) {
+            return new Versioned(userDao, cache);
+        }
+        return paged ? new Paged(userDao, cache) : new CachingUserDao(userDao, cache);
+    }
+
+    private CachingUserDao(UserDao userDao, UserRecordCache cache) {
+        if (userDao == null || cache == null) {
+            throw new IllegalArgumentException("null dependency in CachingUserDao");
+        }
+        this.userDao = userDao;
+        this.cache = cache;
+    }
+
+    public UserRecordCache getCache() {
+        return cache;
+    }
+
+    UserDao getUserDao() {
+        return userDao;
+    }
+
+    @Override
+    public User getUser(String email) throws UserNotFoundException {
+        User cached = cache.get(email);
+        if (cached == UserRecordCache.NOT_FOUND) {
+            throw new UserNotFoundException();
+        }
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = cache.stamp();
+        User user;
+        try {
+            user = userDao.getUser(email);
+        } catch (UserNotFoundException e) {
+            cache.put(email, null, stamp);
+            throw e;
+        }
+        cache.put(email, user, stamp);
+        return user == null ? null : UserRecordCache.copy(user);
+    }
+
+    @Override
+    public boolean exists(String email) {
+        User cached = cache.get(email);
+        if (cached != null) {
+            return cached != UserRecordCache.NOT_FOUND;
+        }
+        if (userDao instanceof UserLookup) {
+            //Existence alone does not fill the cache, only a not found is worth remembering
+            long stamp = cache.stamp();
+            boolean exists = ((UserLookup) userDao).exists(email);
+            if (!exists) {
+                cache.put(email, null, stamp);
+            }
+            return exists;
+        }
+        try {
+            getUser(email);
+            return true;
+        } catch (UserNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Set<String> existing(Collection<String> emails) {
+        Set<String> existing = new HashSet<String>();
+        List<String> unknown = new ArrayList<String>();
+        for (String email : emails) {
+            User cached = cache.get(email);
+            if (cached == null) {
+                unknown.add(email);
+            } else if (cached != UserRecordCache.NOT_FOUND) {
+                existing.add(email);
+            }
+        }
+        if (unknown.isEmpty()) {
+            return existing;
+        }
+        if (userDao instanceof UserLookup) {
+            existing.addAll(((UserLookup) userDao).existing(unknown));
+        } else {
+            for (String email : unknown) {
+                if (exists(email)) {
+                    existing.add(email);
+                }
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public void createUser(User user) {
+        try {
+            userDao.createUser(user);
+        } finally {
+            invalidate(user);
+        }
+    }
+
+    @Override
+    public void createUsers(List<User> users) {
+        try {
+            if (userDao instanceof BulkUserWriter) {
+                ((BulkUserWriter) userDao).createUsers(users);
+            } else {
+                for (User user : users) {
+                    userDao.createUser(user);
+                }
+            }
+        } finally {
+            for (User user : users) {
+                invalidate(user);
+            }
+        }
+    }
+
+    @Override
+    public void deleteUser(String email) throws UserNotFoundException {
+        try {
+            userDao.deleteUser(email);
+        } finally {
+            cache.invalidate(email);
+        }
+    }
+
+    @Override
+    public void updateUser(User user) throws UserNotFoundException {
+        try {
+            userDao.updateUser(user);
+        } finally {
+            invalidate(user);
+        }
+    }
+
+    private void invalidate(User user) {
+        if (user != null) {
+            cache.invalidate(user.getEmail());
+        }
+    }
+
+    /**
+     * Caches a dao that can be listed, pages are read from the dao
+     */
+    private static final class Paged extends CachingUserDao implements PagedUserSource {
+
+        private Paged(UserDao userDao, UserRecordCache cache) {
+            super(userDao, cache);
+        }
+
+        @Override
+        public List<User> page(String afterEmail, int limit) {
+            return ((PagedUserSource) getUserDao()).page(afterEmail, limit);
+        }
+    }
+
+    /**
+     * Caches a dao that versions its users
+     */
+    private static class Versioned extends CachingUserDao implements CredentialStore {
+
+        private Versioned(UserDao userDao, UserRecordCache cache) {
+            super(userDao, cache);
+        }
+
+        @Override
+        public long getVersion(String email) throws UserNotFoundException {
+            return ((CredentialStore) getUserDao()).getVersion(email);
+        }
+
+        @Override
+        public CredentialUpdate updatePassword(String email, String newPassword, long expectedVersion) throws UserNotFoundException {
+            try {
+                return ((CredentialStore) getUserDao()).updatePassword(email, newPassword, expectedVersion);
+            } finally {
+                getCache().invalidate(email);
+            }
+        }
+    }
+
+    /**
+     * Caches a dao that can be listed and versions its users
+     */
+    private static final class PagedVersioned extends Versioned implements PagedUserSource {
+
+        private PagedVersioned(UserDao userDao, UserRecordCache cache) {
+            super(userDao, cache);
+        }
+
+        @Override
+        public List<User> page(String afterEmail, int limit) {
+            return ((PagedUserSource) getUserDao()).page(afterEmail, limit);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package edu.umflix.usermanager.persistence;
+
+import edu.umflix.exceptions.RoleNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.persistence.RoleDao;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link RoleDao} that keeps the roles in memory, for embedded and test deployments
+ */
+public class InMemoryRoleDao implements RoleDao {
+
+    private final ConcurrentMap<Long, Role> roles = new ConcurrentHashMap<Long, Role>();
+
+    public InMemoryRoleDao(Role... roles) {
+        for (Role role : roles) {
+            addRole(role);
+        }
+    }
+
+    @Override
+    public Role getRoleById(Long id) throws RoleNotFoundException {
+        Role role = id == null ? null : roles.get(id);
+        if (role == null) {
+            throw new RoleNotFoundException();
+        }
+        return role;
+    }
+
+    /**
+     * Stores a role, replacing the one with the same id
+     * @param role the role to store
+     */
+    public void addRole(Role role) {
+        if (role == null || role.getId() == null) {
+            throw new IllegalArgumentException("role or its id null in addRole");
+        }
+        roles.put(role.getId(), role);
+    }
+}
@@ -0,0 +1,324 @@
+package edu.umflix.usermanager.persistence;
+
+import edu.umflix.exceptions.RoleNotFoundException;
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.User;
+import edu.umflix.persistence.RoleDao;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.BulkUserWriter;
+import edu.umflix.usermanager.CredentialStore;
+import edu.umflix.usermanager.CredentialUpdate;
+import edu.umflix.usermanager.PagedUserSource;
+import edu.umflix.usermanager.UserLookup;
+import edu.umflix.usermanager.UserRecordCache;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link UserDao} that keeps the users in memory, in a lock free skip list ordered by email, for embedded
+ * and test deployments. Users are stored as given, like a persistence context would keep managed entities,
+ * together with a version that every change replaces. Versions come from one counter of the whole store that
+ * only grows, so a user deleted and created again, or loaded from a snapshot, never gets back a version it had
+ * before. The store can be saved to and loaded from a local snapshot file.
+ */
+public class InMemoryUserDao implements UserDao, UserLookup, BulkUserWriter, PagedUserSource, CredentialStore {
+
+    private static final Logger logger = Logger.getLogger(InMemoryUserDao.class);
+
+    private final ConcurrentNavigableMap<String, Stored> users = new ConcurrentSkipListMap<String, Stored>();
+    private final AtomicLong versions = new AtomicLong();
+    private final RoleDao roleDao;
+
+    /**
+     * @param roleDao used to resolve the roles of the users loaded from a snapshot
+     */
+    public InMemoryUserDao(RoleDao roleDao) {
+        this.roleDao = roleDao;
+    }
+
+    @Override
+    public User getUser(String email) throws UserNotFoundException {
+        return stored(email).user;
+    }
+
+    @Override
+    public void createUser(User user) {
+        checkUser(user);
+        if (users.putIfAbsent(user.getEmail(), new Stored(user, versions.incrementAndGet())) != null) {
+            throw new IllegalStateException("a user with email " + user.getEmail() + " is already stored");
+        }
+    }
+
+    @Override
+    public void deleteUser(String email) throws UserNotFoundException {
+        if (email == null || users.remove(email) == null) {
+            throw new UserNotFoundException();
+        }
+    }
+
+    @Override
+    public void updateUser(User user) throws UserNotFoundException {
+        checkUser(user);
+        while (true) {
+            Stored stored = stored(user.getEmail());
+            if (users.replace(user.getEmail(), stored, new Stored(user, versions.incrementAndGet()))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getVersion(String email) throws UserNotFoundException {
+        return stored(email).version;
+    }
+
+    /**
+     * Replaces the stored user with a copy that has the new password, the instance returned by earlier
+     * lookups is not modified
+     */
+    @Override
+    public CredentialUpdate updatePassword(String email, String newPassword, long expectedVersion) throws UserNotFoundException {
+        while (true) {
+            Stored stored = stored(email);
+            if (expectedVersion != ANY_VERSION && stored.version != expectedVersion) {
+                return CredentialUpdate.conflict(stored.version);
+            }
+            User updated = UserRecordCache.copy(stored.user);
+            updated.setPassword(newPassword);
+            long version = versions.incrementAndGet();
+            if (users.replace(email, stored, new Stored(updated, version))) {
+                return CredentialUpdate.applied(version);
+            }
+        }
+    }
+
+    @Override
+    public boolean exists(String email) {
+        return email != null && users.containsKey(email);
+    }
+
+    @Override
+    public Set<String> existing(Collection<String> emails) {
+        Set<String> existing = new HashSet<String>();
+        for (String email : emails) {
+            if (exists(email)) {
+                existing.add(email);
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public void createUsers(List<User> users) {
+        for (User user : users) {
+            createUser(user);
+        }
+    }
+
+    @Override
+    public List<User> page(String afterEmail, int limit) {
+        Map<String, Stored> tail = afterEmail == null ? users : users.tailMap(afterEmail, false);
+        List<User> page = new ArrayList<User>(Math.min(limit, 1024));
+        for (Stored stored : tail.values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(stored.user);
+        }
+        return page;
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    /**
+     * Writes every stored user to a file. The snapshot is written to a temporary file first and then moved
+     * over the target, so a crash never leaves a partial snapshot behind
+     * @param file the snapshot file
+     * @throws IOException thrown if the snapshot can not be written
+     */
+    public void snapshot(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        File temporary = File.createTempFile(file.getName(), ".tmp", parent);
+        int written = 0;
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8));
+            try {
+                for (Stored stored : users.values()) {
+                    User user = stored.user;
+                    writer.write(escape(user.getEmail()));
+                    writer.write('\t');
+                    writer.write(escape(user.getName()));
+                    writer.write('\t');
+                    writer.write(escape(user.getPassword()));
+                    writer.write('\t');
+                    writer.write(user.getRole() == null || user.getRole().getId() == null ? "" : user.getRole().getId().toString());
+                    writer.write('\t');
+                    writer.write(user.getId() == null ? "" : user.getId().toString());
+                    writer.write('\n');
+                    written++;
+                }
+            } finally {
+                writer.close();
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temporary.delete();
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("snapshot of " + written + " users written to " + file);
+        }
+    }
+
+    /**
+     * Loads the users of a snapshot file, replacing the stored users with the same email. Snapshots written
+     * before the id of the users was stored are still read, their users are loaded without id
+     * @param file the snapshot file
+     * @return the number of users loaded
+     * @throws IOException thrown if the snapshot can not be read or is corrupt
+     */
+    public int restore(File file) throws IOException {
+        int loaded = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 4 && fields.length != 5) {
+                    throw new IOException("corrupt snapshot line " + (loaded + 1) + " in " + file);
+                }
+                User user = new User();
+                if (fields.length == 5 && !fields[4].isEmpty()) {
+                    try {
+                        user.setId(Long.valueOf(fields[4]));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("corrupt id on snapshot line " + (loaded + 1) + " in " + file);
+                    }
+                }
+                user.setEmail(unescape(fields[0]));
+                user.setName(unescape(fields[1]));
+                user.setPassword(unescape(fields[2]));
+                if (!fields[3].isEmpty()) {
+                    try {
+                        user.setRole(roleDao.getRoleById(Long.valueOf(fields[3])));
+                    } catch (RoleNotFoundException e) {
+                        throw new IOException("role " + fields[3] + " of user " + user.getEmail() + " not found");
+                    }
+                }
+                users.put(user.getEmail(), new Stored(user, versions.incrementAndGet()));
+                loaded++;
+            }
+        } finally {
+            reader.close();
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("restored " + loaded + " users from " + file);
+        }
+        return loaded;
+    }
+
+    /**
+     * Writes a snapshot periodically. The executor belongs to the caller, who shuts it down when the store is
+     * no longer used
+     * @param file the snapshot file
+     * @param scheduler runs the snapshots
+     * @param period time between snapshots
+     * @param unit unit of the period
+     * @return the scheduled task, cancel it to stop the snapshots
+     */
+    public ScheduledFuture<?> scheduleSnapshots(final File file, ScheduledExecutorService scheduler, long period, TimeUnit unit) {
+        return scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshot(file);
+                } catch (IOException e) {
+                    logger.error("snapshot to " + file + " failed", e);
+                }
+            }
+        }, period, period, unit);
+    }
+
+    private Stored stored(String email) throws UserNotFoundException {
+        Stored stored = email == null ? null : users.get(email);
+        if (stored == null) {
+            throw new UserNotFoundException();
+        }
+        return stored;
+    }
+
+    private void checkUser(User user) {
+        if (user == null || user.getEmail() == null) {
+            throw new IllegalArgumentException("user or its email null in InMemoryUserDao");
+        }
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "\\0";
+        }
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = c == '\\' ? "\\\\" : c == '\t' ? "\\t" : c == '\n' ? "\\n" : c == '\r' ? "\\r" : null;
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+
+    private static String unescape(String value) throws IOException {
+        if ("\\0".equals(value)) {
+            return null;
+        }
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\') {
+                unescaped.append(c);
+                continue;
+            }
+            if (++i == value.length()) {
+                throw new IOException("corrupt snapshot value " + value);
+            }
+            char escaped = value.charAt(i);
+            unescaped.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+        }
+        return unescaped.toString();
+    }
+
+    /**
+     * A stored user and its version, replaced as a whole on every change
+     */
+    private static final class Stored {
+        private final User user;
+        private final long version;
+
+        private Stored(User user, long version) {
+            this.user = user;
+            this.version = version;
+        }
+    }
+}
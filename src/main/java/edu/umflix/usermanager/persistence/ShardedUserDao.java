@@ -0,0 +1,834 @@
+package edu.umflix.usermanager.persistence;
+
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.User;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.BulkUserWriter;
+import edu.umflix.usermanager.CredentialStore;
+import edu.umflix.usermanager.CredentialUpdate;
+import edu.umflix.usermanager.PagedUserSource;
+import edu.umflix.usermanager.UserLookup;
+import edu.umflix.usermanager.UserValidator;
+import edu.umflix.usermanager.metrics.LatencyHistogram;
+import org.apache.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link UserDao} that spreads the users over several daos, the shards, by consistent hashing of the
+ * normalized email. Every shard owns usermanager.shards.virtualNodes points of a hash ring and a user belongs
+ * to the shard of the first point after the hash of its email, so adding a shard only moves the users that
+ * the new shard takes over.
+ * <p>
+ * {@link #addShard(String, UserDao)} moves those users in the background while the dao keeps serving: reads
+ * fall back to the previous owner of the email, and deletes and updates move the user to its new owner first.
+ * If moving them fails the fallback stays in place until {@link #resumeRebalance()} moves the rest.
+ * Lookups and bulk writes are offered on top of any shards, natively when the shards implement them. Paging
+ * and versioned credentials can not be made up on top of a shard without them, so {@link #of(Map)} only returns
+ * a {@link PagedUserSource} or a {@link CredentialStore} when every shard is one, and {@link #addShard} then
+ * refuses shards that are not.
+ */
+public class ShardedUserDao implements UserDao, UserLookup, BulkUserWriter {
+
+    private static final Logger logger = Logger.getLogger(ShardedUserDao.class);
+
+    public static final int DEFAULT_VIRTUAL_NODES = Integer.getInteger("usermanager.shards.virtualNodes", 128);
+
+    /**
+     * Consecutive failures after which a shard is reported unhealthy
+     */
+    private static final int UNHEALTHY_FAILURES = Integer.getInteger("usermanager.shards.unhealthyFailures", 3);
+    private static final int REBALANCE_PAGE = 500;
+    private static final int STRIPES = 256;
+
+    private final int virtualNodes;
+    private final Object[] stripes = new Object[STRIPES];
+    private volatile Ring ring;
+    //The ring before the last addShard, until all its users were moved
+    private volatile Ring previous;
+    //The last move of the users of previous, guarded by this
+    private Future<Long> rebalancing;
+
+    /**
+     * @param shards the daos by shard name, the names place the shards on the ring so they must not change
+     *               between restarts
+     * @return a dao that is also a {@link PagedUserSource} or a {@link CredentialStore} when every shard is
+     */
+    public static ShardedUserDao of(Map<String, ? extends UserDao> shards) {
+        return of(shards, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public static ShardedUserDao of(Map<String, ? extends UserDao> shards, int virtualNodes) {
+        boolean paged = true;
+        boolean versioned = true;
+        for (UserDao dao : shards == null ? Collections.<UserDao>emptyList() : shards.values()) {
+            paged &= dao instanceof PagedUserSource;
+            versioned &= dao instanceof CredentialStore;
+        }
+        if (paged && versioned) {
+            return new PagedVersioned(shards, virtualNodes);
+        }
+        if (versioned) {
+            return new Versioned(shards, virtualNodes);
+        }
+        return paged ? new Paged(shards, virtualNodes) : new ShardedUserDao(shards, virtualNodes);
+    }
+
+    private ShardedUserDao(Map<String, ? extends UserDao> shards, int virtualNodes) {
+        if (shards == null || shards.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("no shards or virtual nodes in ShardedUserDao");
+        }
+        this.virtualNodes = virtualNodes;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        List<Shard> list = new ArrayList<Shard>(shards.size());
+        for (Map.Entry<String, ? extends UserDao> entry : shards.entrySet()) {
+            list.add(new Shard(entry.getKey(), entry.getValue()));
+        }
+        this.ring = new Ring(list, virtualNodes);
+    }
+
+    /**
+     * Adds a shard and moves to it the users it owns on a background thread. Every current shard must
+     * implement {@link PagedUserSource} so its users can be listed.
+     * @param name the name of the new shard
+     * @param dao the dao of the new shard
+     * @return completes with the number of users moved, or fails with the reason the move stopped, in which case
+     * it is retried with {@link #resumeRebalance()}
+     * @throws IllegalStateException thrown if the users of another added shard were not all moved yet or a shard
+     * can not be listed
+     * @throws IllegalArgumentException thrown if the new shard lacks paging or versions and this dao offers them
+     */
+    public synchronized Future<Long> addShard(String name, UserDao dao) {
+        if (name == null || dao == null) {
+            throw new IllegalArgumentException("null shard in addShard");
+        }
+        if ((this instanceof PagedUserSource && !(dao instanceof PagedUserSource))
+                || (this instanceof CredentialStore && !(dao instanceof CredentialStore))) {
+            throw new IllegalArgumentException("shard " + name + " does not offer what the other shards offer");
+        }
+        if (previous != null) {
+            throw new IllegalStateException("shard added while the previous one is still being filled");
+        }
+        final Ring current = ring;
+        for (Shard shard : current.shards) {
+            if (shard.name.equals(name)) {
+                throw new IllegalArgumentException("shard " + name + " already exists");
+            }
+            if (!(shard.dao instanceof PagedUserSource)) {
+                throw new IllegalStateException("users of shard " + shard.name + " can not be listed to rebalance them");
+            }
+        }
+        List<Shard> shards = new ArrayList<Shard>(current.shards);
+        shards.add(new Shard(name, dao));
+        previous = current;
+        ring = new Ring(shards, virtualNodes);
+        return startRebalance(current, "shard-rebalance-" + name);
+    }
+
+    /**
+     * Moves again the users of the last added shard after the move failed. Users moved already are skipped
+     * @return the move in progress if there is one, otherwise a new one that completes with the number of users
+     * it moved
+     * @throws IllegalStateException thrown if every user of the last added shard was moved already
+     */
+    public synchronized Future<Long> resumeRebalance() {
+        Ring from = previous;
+        if (from == null) {
+            throw new IllegalStateException("no shard is being filled");
+        }
+        if (rebalancing != null && !rebalancing.isDone()) {
+            return rebalancing;
+        }
+        return startRebalance(from, "shard-rebalance-resumed");
+    }
+
+    private Future<Long> startRebalance(final Ring from, String threadName) {
+        FutureTask<Long> rebalance = new FutureTask<Long>(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                long moved;
+                try {
+                    moved = rebalance(from);
+                } catch (RuntimeException e) {
+                    logger.warn("users of the added shard could not all be moved, reads keep falling back until resumeRebalance", e);
+                    throw e;
+                }
+                //Only once every user is on its new owner, until then reads must still find the rest on the old one
+                synchronized (ShardedUserDao.this) {
+                    previous = null;
+                }
+                return moved;
+            }
+        });
+        rebalancing = rebalance;
+        Thread thread = new Thread(rebalance, threadName);
+        thread.setDaemon(true);
+        thread.start();
+        return rebalance;
+    }
+
+    /**
+     * @return true until every user of the last added shard was moved, also after a failed move
+     */
+    public boolean isRebalancing() {
+        return previous != null;
+    }
+
+    /**
+     * @return the name of the shard that owns an email
+     */
+    public String shardOf(String email) {
+        return ring.owner(email).name;
+    }
+
+    /**
+     * @return a snapshot of the statistics of every shard, in the order they were added
+     */
+    public List<ShardStats> getShardStats() {
+        List<ShardStats> stats = new ArrayList<ShardStats>();
+        for (Shard shard : ring.shards) {
+            stats.add(shard.stats());
+        }
+        return stats;
+    }
+
+    @Override
+    public User getUser(String email) throws UserNotFoundException {
+        Shard owner = ring.owner(email);
+        try {
+            return owner.getUser(email);
+        } catch (UserNotFoundException e) {
+            Shard previousOwner = previousOwner(email, owner);
+            if (previousOwner == null) {
+                throw e;
+            }
+            try {
+                return previousOwner.getUser(email);
+            } catch (UserNotFoundException moved) {
+                //it may have been moved between the two reads
+                return owner.getUser(email);
+            }
+        }
+    }
+
+    @Override
+    public void createUser(User user) {
+        checkUser(user);
+        Ring current = ring;
+        current.owner(user.getEmail()).createUser(user);
+        movedSince(current, Collections.singletonList(user));
+    }
+
+    @Override
+    public void createUsers(List<User> users) {
+        Map<Shard, List<User>> byShard = new LinkedHashMap<Shard, List<User>>();
+        Ring current = ring;
+        for (User user : users) {
+            checkUser(user);
+            Shard owner = current.owner(user.getEmail());
+            List<User> shardUsers = byShard.get(owner);
+            if (shardUsers == null) {
+                shardUsers = new ArrayList<User>();
+                byShard.put(owner, shardUsers);
+            }
+            shardUsers.add(user);
+        }
+        for (Map.Entry<Shard, List<User>> entry : byShard.entrySet()) {
+            entry.getKey().createUsers(entry.getValue());
+        }
+        movedSince(current, users);
+    }
+
+    /**
+     * A shard added while users were being created may have been filled without them, they are moved to
+     * their new owner here
+     */
+    private void movedSince(Ring current, List<User> created) {
+        Ring now = ring;
+        if (now == current) {
+            return;
+        }
+        for (User user : created) {
+            synchronized (stripe(user.getEmail())) {
+                move(user.getEmail(), now, current);
+            }
+        }
+    }
+
+    @Override
+    public void deleteUser(String email) throws UserNotFoundException {
+        synchronized (stripe(email)) {
+            owner(email).deleteUser(email);
+        }
+    }
+
+    @Override
+    public void updateUser(User user) throws UserNotFoundException {
+        checkUser(user);
+        synchronized (stripe(user.getEmail())) {
+            owner(user.getEmail()).updateUser(user);
+        }
+    }
+
+    @Override
+    public boolean exists(String email) {
+        Shard owner = ring.owner(email);
+        if (owner.exists(email)) {
+            return true;
+        }
+        Shard previousOwner = previousOwner(email, owner);
+        //checked again in case it was moved between the two reads
+        return previousOwner != null && (previousOwner.exists(email) || owner.exists(email));
+    }
+
+    @Override
+    public Set<String> existing(Collection<String> emails) {
+        Set<String> existing = new HashSet<String>();
+        Map<Shard, List<String>> byShard = byOwner(emails, ring);
+        for (Map.Entry<Shard, List<String>> entry : byShard.entrySet()) {
+            existing.addAll(entry.getKey().existing(entry.getValue()));
+        }
+        Ring previousRing = previous;
+        if (previousRing != null) {
+            List<String> missing = new ArrayList<String>();
+            for (String email : emails) {
+                if (!existing.contains(email) && previousRing.owner(email) != ring.owner(email)) {
+                    missing.add(email);
+                }
+            }
+            for (Map.Entry<Shard, List<String>> entry : byOwner(missing, previousRing).entrySet()) {
+                existing.addAll(entry.getKey().existing(entry.getValue()));
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Merges the pages of every shard, so the users come in email order across shards
+     */
+    List<User> mergedPage(String afterEmail, int limit) {
+        List<List<User>> pages = new ArrayList<List<User>>();
+        for (Shard shard : ring.shards) {
+            pages.add(shard.page(afterEmail, limit));
+        }
+        int[] positions = new int[pages.size()];
+        List<User> merged = new ArrayList<User>(Math.min(limit, 1024));
+        String last = null;
+        while (merged.size() < limit) {
+            int next = -1;
+            for (int i = 0; i < pages.size(); i++) {
+                if (positions[i] < pages.get(i).size() && (next < 0
+                        || pages.get(i).get(positions[i]).getEmail().compareTo(pages.get(next).get(positions[next]).getEmail()) < 0)) {
+                    next = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            User user = pages.get(next).get(positions[next]++);
+            //a user being moved can be on two shards for a moment
+            if (!user.getEmail().equals(last)) {
+                merged.add(user);
+                last = user.getEmail();
+            }
+        }
+        return merged;
+    }
+
+    long version(String email) throws UserNotFoundException {
+        synchronized (stripe(email)) {
+            return owner(email).getVersion(email);
+        }
+    }
+
+    CredentialUpdate versionedPasswordUpdate(String email, String newPassword, long expectedVersion) throws UserNotFoundException {
+        synchronized (stripe(email)) {
+            return owner(email).updatePassword(email, newPassword, expectedVersion);
+        }
+    }
+
+    private long rebalance(Ring from) {
+        long started = System.nanoTime();
+        long moved = 0;
+        for (Shard shard : from.shards) {
+            String after = null;
+            while (true) {
+                List<User> page = shard.page(after, REBALANCE_PAGE);
+                if (page.isEmpty()) {
+                    break;
+                }
+                for (User user : page) {
+                    if (ring.owner(user.getEmail()) != shard) {
+                        synchronized (stripe(user.getEmail())) {
+                            if (move(user.getEmail(), ring, from)) {
+                                moved++;
+                            }
+                        }
+                    }
+                }
+                after = page.get(page.size() - 1).getEmail();
+            }
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("moved " + moved + " users between shards in " + (System.nanoTime() - started) / 1000000 + " ms");
+        }
+        return moved;
+    }
+
+    /**
+     * Moves a user from its owner in the previous ring to its owner in the current one, holding its stripe
+     * @return true if the user was moved
+     */
+    private boolean move(String email, Ring to, Ring from) {
+        Shard target = to.owner(email);
+        Shard source = from.owner(email);
+        if (source == target) {
+            return false;
+        }
+        User user;
+        try {
+            user = source.getUser(email);
+        } catch (UserNotFoundException e) {
+            return false;
+        }
+        //A move that failed after the create left the user on both, the copy on the target is the one kept
+        if (!target.exists(email)) {
+            target.createUser(user);
+        }
+        try {
+            source.deleteUser(email);
+        } catch (UserNotFoundException e) {
+            //deleted by someone else, nothing left to clean
+        }
+        target.moved.increment();
+        return true;
+    }
+
+    /**
+     * Returns the shard to change a user on, holding its stripe. While a shard is being added the user is
+     * moved to its new owner first, so the change can not be lost by a concurrent move
+     */
+    private Shard owner(String email) {
+        //ring is read before previous, addShard writes them in the opposite order
+        Ring current = ring;
+        Ring from = previous;
+        if (from != null) {
+            move(email, current, from);
+        }
+        return current.owner(email);
+    }
+
+    private Shard previousOwner(String email, Shard owner) {
+        Ring previousRing = previous;
+        if (previousRing == null) {
+            return null;
+        }
+        Shard previousOwner = previousRing.owner(email);
+        return previousOwner == owner ? null : previousOwner;
+    }
+
+    private Object stripe(String email) {
+        if (email == null) {
+            throw new IllegalArgumentException("null email in ShardedUserDao");
+        }
+        return stripes[(int) ((hash(email) >>> 1) % STRIPES)];
+    }
+
+    private static Map<Shard, List<String>> byOwner(Collection<String> emails, Ring ring) {
+        Map<Shard, List<String>> byShard = new LinkedHashMap<Shard, List<String>>();
+        for (String email : emails) {
+            Shard owner = ring.owner(email);
+            List<String> shardEmails = byShard.get(owner);
+            if (shardEmails == null) {
+                shardEmails = new ArrayList<String>();
+                byShard.put(owner, shardEmails);
+            }
+            shardEmails.add(email);
+        }
+        return byShard;
+    }
+
+    private void checkUser(User user) {
+        if (user == null || user.getEmail() == null) {
+            throw new IllegalArgumentException("user or its email null in ShardedUserDao");
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a of the normalized email, finished with the murmur3 mixer so close emails spread evenly
+     */
+    static long hash(String value) {
+        String normalized = UserValidator.normalizeEmail(value);
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < normalized.length(); i++) {
+            hash ^= normalized.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Sharded over daos that can all be listed
+     */
+    private static final class Paged extends ShardedUserDao implements PagedUserSource {
+
+        private Paged(Map<String, ? extends UserDao> shards, int virtualNodes) {
+            super(shards, virtualNodes);
+        }
+
+        @Override
+        public List<User> page(String afterEmail, int limit) {
+            return mergedPage(afterEmail, limit);
+        }
+    }
+
+    /**
+     * Sharded over daos that all version their users
+     */
+    private static class Versioned extends ShardedUserDao implements CredentialStore {
+
+        private Versioned(Map<String, ? extends UserDao> shards, int virtualNodes) {
+            super(shards, virtualNodes);
+        }
+
+        @Override
+        public long getVersion(String email) throws UserNotFoundException {
+            return version(email);
+        }
+
+        @Override
+        public CredentialUpdate updatePassword(String email, String newPassword, long expectedVersion) throws UserNotFoundException {
+            return versionedPasswordUpdate(email, newPassword, expectedVersion);
+        }
+    }
+
+    /**
+     * Sharded over daos that can all be listed and all version their users
+     */
+    private static final class PagedVersioned extends Versioned implements PagedUserSource {
+
+        private PagedVersioned(Map<String, ? extends UserDao> shards, int virtualNodes) {
+            super(shards, virtualNodes);
+        }
+
+        @Override
+        public List<User> page(String afterEmail, int limit) {
+            return mergedPage(afterEmail, limit);
+        }
+    }
+
+    /**
+     * Immutable hash ring, replaced as a whole when a shard is added
+     */
+    private static final class Ring {
+        private final List<Shard> shards;
+        private final long[] points;
+        private final Shard[] owners;
+
+        private Ring(List<Shard> shards, int virtualNodes) {
+            this.shards = Collections.unmodifiableList(new ArrayList<Shard>(shards));
+            TreeMap<Long, Shard> ring = new TreeMap<Long, Shard>();
+            for (Shard shard : shards) {
+                for (int i = 0; i < virtualNodes; i++) {
+                    //a collision keeps the first shard, so the ring does not depend on the order of addition
+                    Long point = hash(shard.name + '#' + i);
+                    Shard current = ring.get(point);
+                    if (current == null || current.name.compareTo(shard.name) > 0) {
+                        ring.put(point, shard);
+                    }
+                }
+            }
+            points = new long[ring.size()];
+            owners = new Shard[ring.size()];
+            int i = 0;
+            for (Map.Entry<Long, Shard> entry : ring.entrySet()) {
+                points[i] = entry.getKey();
+                owners[i++] = entry.getValue();
+            }
+        }
+
+        private Shard owner(String email) {
+            if (email == null) {
+                throw new IllegalArgumentException("null email in ShardedUserDao");
+            }
+            int index = Arrays.binarySearch(points, hash(email));
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return owners[index == points.length ? 0 : index];
+        }
+    }
+
+    /**
+     * Statistics of a shard at the moment they were taken
+     */
+    public static final class ShardStats {
+        private final String name;
+        private final long calls;
+        private final long failures;
+        private final long moved;
+        private final boolean healthy;
+        private final double meanLatencyMicros;
+        private final double p99LatencyMicros;
+
+        private ShardStats(String name, long calls, long failures, long moved, boolean healthy, double meanLatencyMicros, double p99LatencyMicros) {
+            this.name = name;
+            this.calls = calls;
+            this.failures = failures;
+            this.moved = moved;
+            this.healthy = healthy;
+            this.meanLatencyMicros = meanLatencyMicros;
+            this.p99LatencyMicros = p99LatencyMicros;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * @return calls that threw something other than UserNotFoundException
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return users moved to this shard by rebalancing
+         */
+        public long getMoved() {
+            return moved;
+        }
+
+        /**
+         * @return false after usermanager.shards.unhealthyFailures consecutive failures, until a call succeeds
+         */
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        public double getMeanLatencyMicros() {
+            return meanLatencyMicros;
+        }
+
+        public double getP99LatencyMicros() {
+            return p99LatencyMicros;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": calls=" + calls + " failures=" + failures + " moved=" + moved + " healthy=" + healthy
+                    + " mean=" + String.format("%.1f", meanLatencyMicros) + "us p99=" + String.format("%.1f", p99LatencyMicros) + "us";
+        }
+    }
+
+    /**
+     * A shard and its statistics, every call to its dao is timed
+     */
+    private static final class Shard {
+        private final String name;
+        private final UserDao dao;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder moved = new LongAdder();
+        private volatile int consecutiveFailures;
+
+        private Shard(String name, UserDao dao) {
+            if (name == null || dao == null) {
+                throw new IllegalArgumentException("null shard in ShardedUserDao");
+            }
+            this.name = name;
+            this.dao = dao;
+        }
+
+        private User getUser(String email) throws UserNotFoundException {
+            long start = System.nanoTime();
+            try {
+                User user = dao.getUser(email);
+                succeeded(start);
+                return user;
+            } catch (UserNotFoundException e) {
+                succeeded(start);
+                throw e;
+            } catch (RuntimeException e) {
+                failed(start);
+                throw e;
+            }
+        }
+
+        private void createUser(User user) {
+            long start = System.nanoTime();
+            try {
+                dao.createUser(user);
+                succeeded(start);
+            } catch (RuntimeException e) {
+                failed(start);
+                throw e;
+            }
+        }
+
+        private void createUsers(List<User> users) {
+            long start = System.nanoTime();
+            try {
+                if (dao instanceof BulkUserWriter) {
+                    ((BulkUserWriter) dao).createUsers(users);
+                } else {
+                    for (User user : users) {
+                        dao.createUser(user);
+                    }
+                }
+                succeeded(start);
+            } catch (RuntimeException e) {
+                failed(start);
+                throw e;
+            }
+        }
+
+        private void deleteUser(String email) throws UserNotFoundException {
+            long start = System.nanoTime();
+            try {
+                dao.deleteUser(email);
+                succeeded(start);
+            } catch (UserNotFoundException e) {
+                succeeded(start);
+                throw e;
+            } catch (RuntimeException e) {
+                failed(start);
+                throw e;
+            }
+        }
+
+        private void updateUser(User user) throws UserNotFoundException {
+            long start = System.nanoTime();
+            try {
+                dao.updateUser(user);
+                succeeded(start);
+            } catch (UserNotFoundException e) {
+                succeeded(start);
+                throw e;
+            } catch (RuntimeException e) {
+                failed(start);
+                throw e;
+            }
+        }
+
+        private boolean exists(String email) {
+            long start = System.nanoTime();
+            try {
+                boolean exists;
+                if (dao instanceof UserLookup) {
+                    exists = ((UserLookup) dao).exists(email);
+                } else {
+                    try {
+                        dao.getUser(email);
+                        exists = true;
+                    } catch (UserNotFoundException e) {
+                        exists = false;
+                    }
+                }
+                succeeded(start);
+                return exists;
+            } catch (RuntimeException e) {
+                failed(start);
+                throw e;
+            }
+        }
+
+        private Set<String> existing(Collection<String> emails) {
+            if (!(dao instanceof UserLookup)) {
+                Set<String> existing = new HashSet<String>();
+                for (String email : emails) {
+                    if (exists(email)) {
+                        existing.add(email);
+                    }
+                }
+                return existing;
+            }
+            long start = System.nanoTime();
+            try {
+                Set<String> existing = ((UserLookup) dao).existing(emails);
+                succeeded(start);
+                return existing;
+            } catch (RuntimeException e) {
+                failed(start);
+                throw e;
+            }
+        }
+
+        private List<User> page(String afterEmail, int limit) {
+            long start = System.nanoTime();
+            try {
+                List<User> page = ((PagedUserSource) dao).page(afterEmail, limit);
+                succeeded(start);
+                return page;
+            } catch (RuntimeException e) {
+                failed(start);
+                throw e;
+            }
+        }
+
+        private long getVersion(String email) throws UserNotFoundException {
+            long start = System.nanoTime();
+            try {
+                long version = ((CredentialStore) dao).getVersion(email);
+                succeeded(start);
+                return version;
+            } catch (UserNotFoundException e) {
+                succeeded(start);
+                throw e;
+            } catch (RuntimeException e) {
+                failed(start);
+                throw e;
+            }
+        }
+
+        private CredentialUpdate updatePassword(String email, String newPassword, long expectedVersion) throws UserNotFoundException {
+            long start = System.nanoTime();
+            try {
+                CredentialUpdate update = ((CredentialStore) dao).updatePassword(email, newPassword, expectedVersion);
+                succeeded(start);
+                return update;
+            } catch (UserNotFoundException e) {
+                succeeded(start);
+                throw e;
+            } catch (RuntimeException e) {
+                failed(start);
+                throw e;
+            }
+        }
+
+        private void succeeded(long start) {
+            latency.record(System.nanoTime() - start);
+            if (consecutiveFailures != 0) {
+                consecutiveFailures = 0;
+            }
+        }
+
+        private void failed(long start) {
+            latency.record(System.nanoTime() - start);
+            failures.increment();
+            if (++consecutiveFailures == UNHEALTHY_FAILURES) {
+                logger.warn("shard " + name + " failed " + UNHEALTHY_FAILURES + " times in a row");
+            }
+        }
+
+        private ShardStats stats() {
+            return new ShardStats(name, latency.getCount(), failures.sum(), moved.sum(), consecutiveFailures < UNHEALTHY_FAILURES,
+                    latency.getMean() / 1000, latency.getPercentile(99) / 1000.0);
+        }
+    }
+}
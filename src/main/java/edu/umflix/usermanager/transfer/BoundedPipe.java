@@ -0,0 +1,87 @@
+package edu.umflix.usermanager.transfer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands items from a producer thread to the consumer through a bounded queue, so the producer can never
+ * run more than capacity items ahead. A failure of the producer, errors included, is rethrown to the consumer.
+ */
+final class BoundedPipe<T> {
+
+    interface Producer<T> {
+        void produce(BoundedPipe<T> pipe) throws Exception;
+    }
+
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> queue;
+    private final Thread thread;
+    private volatile Throwable failure;
+    private volatile boolean cancelled;
+
+    BoundedPipe(String name, int capacity, final Producer<T> producer) {
+        this.queue = new ArrayBlockingQueue<Object>(capacity);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    producer.produce(BoundedPipe.this);
+                } catch (Throwable e) {
+                    failure = e;
+                } finally {
+                    //Queued whatever the producer threw, the consumer would wait forever otherwise
+                    if (!cancelled) {
+                        try {
+                            queue.put(END);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Called by the producer, blocks while the queue is full
+     */
+    void put(T item) throws InterruptedException {
+        queue.put(item);
+    }
+
+    /**
+     * Called by the consumer, blocks until the producer hands an item
+     * @return the next item, null once the producer is done
+     * @throws Exception the failure of the producer, once every item produced before it was taken
+     */
+    @SuppressWarnings("unchecked")
+    T take() throws Exception {
+        Object item = queue.take();
+        if (item == END) {
+            queue.put(END);
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            if (failure != null) {
+                throw (Exception) failure;
+            }
+            return null;
+        }
+        return (T) item;
+    }
+
+    /**
+     * Stops the producer, used when the consumer gives up early
+     */
+    void cancel() {
+        cancelled = true;
+        thread.interrupt();
+        queue.clear();
+    }
+}
@@ -0,0 +1,72 @@
+package edu.umflix.usermanager.transfer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of an export or import, safe to read from another thread while the transfer runs
+ */
+public class TransferProgress {
+
+    /**
+     * Notified after every batch
+     */
+    public interface Listener {
+        public void onProgress(TransferProgress progress);
+    }
+
+    private final long startedAt = System.nanoTime();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile long finishedAt;
+
+    void add(long succeeded, long failed) {
+        this.succeeded.addAndGet(succeeded);
+        this.failed.addAndGet(failed);
+        this.processed.addAndGet(succeeded + failed);
+    }
+
+    void finish() {
+        finishedAt = System.nanoTime();
+    }
+
+    /**
+     * @return the users read or written so far
+     */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public boolean isFinished() {
+        return finishedAt != 0;
+    }
+
+    public long getElapsedMillis() {
+        long end = finishedAt != 0 ? finishedAt : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - startedAt);
+    }
+
+    /**
+     * @return users processed per second since the transfer started
+     */
+    public double getUsersPerSecond() {
+        long end = finishedAt != 0 ? finishedAt : System.nanoTime();
+        double seconds = (end - startedAt) / 1e9;
+        return seconds <= 0 ? 0 : processed.get() / seconds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("processed=%d succeeded=%d failed=%d elapsed=%dms rate=%.1f/s",
+                getProcessed(), getSucceeded(), getFailed(), getElapsedMillis(), getUsersPerSecond());
+    }
+}
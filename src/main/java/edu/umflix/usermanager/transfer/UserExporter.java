@@ -0,0 +1,107 @@
+package edu.umflix.usermanager.transfer;
+
+import edu.umflix.model.User;
+import edu.umflix.usermanager.PagedUserSource;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes every stored user as NDJSON, one {@link UserJson} object per line, in email order.
+ * Pages are read from the {@link PagedUserSource} by a background thread while the previous ones are
+ * written, and at most a few pages are held in memory at any time whatever the number of users.
+ */
+public class UserExporter {
+
+    private static final Logger logger = Logger.getLogger(UserExporter.class);
+
+    public static final int DEFAULT_PAGE_SIZE = Integer.getInteger("usermanager.transfer.pageSize", 1000);
+    private static final int BUFFERED_PAGES = 4;
+
+    private final PagedUserSource source;
+    private final int pageSize;
+
+    public UserExporter(PagedUserSource source) {
+        this(source, DEFAULT_PAGE_SIZE);
+    }
+
+    public UserExporter(PagedUserSource source, int pageSize) {
+        if (source == null) {
+            throw new IllegalArgumentException("null source in UserExporter");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("page size must be positive");
+        }
+        this.source = source;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Exports every user
+     * @param out where the lines are written, it is flushed but not closed
+     * @param listener notified after every page, may be null
+     * @return the final progress of the export
+     * @throws IOException thrown if writing fails
+     */
+    public TransferProgress export(Writer out, TransferProgress.Listener listener) throws IOException {
+        TransferProgress progress = new TransferProgress();
+        BoundedPipe<List<User>> pipe = new BoundedPipe<List<User>>("user-export", BUFFERED_PAGES,
+                new BoundedPipe.Producer<List<User>>() {
+                    @Override
+                    public void produce(BoundedPipe<List<User>> pipe) throws Exception {
+                        String after = null;
+                        while (true) {
+                            List<User> page = source.page(after, pageSize);
+                            if (page.isEmpty()) {
+                                return;
+                            }
+                            pipe.put(page);
+                            if (page.size() < pageSize) {
+                                return;
+                            }
+                            after = page.get(page.size() - 1).getEmail();
+                        }
+                    }
+                });
+        pipe.start();
+        StringBuilder line = new StringBuilder(256);
+        try {
+            List<User> page;
+            while ((page = take(pipe)) != null) {
+                for (User user : page) {
+                    line.setLength(0);
+                    UserJson.write(user, line);
+                    line.append('\n');
+                    out.append(line);
+                }
+                progress.add(page.size(), 0);
+                if (listener != null) {
+                    listener.onProgress(progress);
+                }
+            }
+            out.flush();
+        } finally {
+            pipe.cancel();
+            progress.finish();
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("export finished: " + progress);
+        }
+        return progress;
+    }
+
+    private static List<User> take(BoundedPipe<List<User>> pipe) throws IOException {
+        try {
+            return pipe.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("export interrupted", e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("reading users failed", e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package edu.umflix.usermanager.transfer;
+
+import edu.umflix.model.User;
+import edu.umflix.usermanager.RegistrationResult;
+import edu.umflix.usermanager.UserManager;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registers the users of an NDJSON stream, as written by {@link UserExporter}.
+ * Lines are parsed by a background thread into a bounded buffer and registered in batches with
+ * {@link UserManager#importAll}, so every user goes through the same email, role and duplicate checks as a
+ * single registration and memory stays constant whatever the size of the stream. Exported credentials are
+ * kept as they are, so the stream must come from a trusted node.
+ */
+public class UserImporter {
+
+    private static final Logger logger = Logger.getLogger(UserImporter.class);
+
+    public static final int DEFAULT_BATCH_SIZE = Integer.getInteger("usermanager.transfer.batchSize", 500);
+
+    private final UserManager userManager;
+    private final int batchSize;
+
+    public UserImporter(UserManager userManager) {
+        this(userManager, DEFAULT_BATCH_SIZE);
+    }
+
+    public UserImporter(UserManager userManager, int batchSize) {
+        if (userManager == null) {
+            throw new IllegalArgumentException("null userManager in UserImporter");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.userManager = userManager;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Imports every line of the stream. Malformed lines and users that can not be registered are counted
+     * as failed and logged, they do not stop the import.
+     * @param in the NDJSON stream, it is not closed
+     * @param listener notified after every batch, may be null
+     * @return the final progress of the import
+     * @throws IOException thrown if reading fails
+     */
+    public TransferProgress importUsers(final Reader in, TransferProgress.Listener listener) throws IOException {
+        TransferProgress progress = new TransferProgress();
+        BoundedPipe<Line> pipe = new BoundedPipe<Line>("user-import", batchSize * 2,
+                new BoundedPipe.Producer<Line>() {
+                    @Override
+                    public void produce(BoundedPipe<Line> pipe) throws Exception {
+                        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+                        String text;
+                        long number = 0;
+                        while ((text = reader.readLine()) != null) {
+                            number++;
+                            if (!text.trim().isEmpty()) {
+                                pipe.put(parse(number, text));
+                            }
+                        }
+                    }
+                });
+        pipe.start();
+        List<User> batch = new ArrayList<User>(batchSize);
+        try {
+            Line line;
+            while ((line = take(pipe)) != null) {
+                if (line.user == null) {
+                    progress.add(0, 1);
+                    continue;
+                }
+                batch.add(line.user);
+                if (batch.size() == batchSize) {
+                    commit(batch, progress, listener);
+                }
+            }
+            if (!batch.isEmpty()) {
+                commit(batch, progress, listener);
+            }
+        } finally {
+            pipe.cancel();
+            progress.finish();
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("import finished: " + progress);
+        }
+        return progress;
+    }
+
+    private void commit(List<User> batch, TransferProgress progress, TransferProgress.Listener listener) {
+        int registered = 0;
+        for (RegistrationResult result : userManager.importAll(batch)) {
+            if (result.isRegistered()) {
+                registered++;
+            } else if (logger.isEnabledFor(Level.WARN)) {
+                logger.warn("user not imported, " + result);
+            }
+        }
+        progress.add(registered, batch.size() - registered);
+        batch.clear();
+        if (listener != null) {
+            listener.onProgress(progress);
+        }
+    }
+
+    private static Line parse(long number, String text) {
+        try {
+            return new Line(UserJson.toUser(UserJson.parseObject(text)));
+        } catch (IllegalArgumentException e) {
+            if (logger.isEnabledFor(Level.WARN)) {
+                logger.warn("malformed line " + number + ": " + e.getMessage());
+            }
+            return new Line(null);
+        }
+    }
+
+    private static Line take(BoundedPipe<Line> pipe) throws IOException {
+        try {
+            return pipe.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("import interrupted", e);
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("reading users failed", e);
+        }
+    }
+
+    /**
+     * A parsed line, user is null when the line was malformed
+     */
+    private static final class Line {
+        private final User user;
+
+        private Line(User user) {
+            this.user = user;
+        }
+    }
+}
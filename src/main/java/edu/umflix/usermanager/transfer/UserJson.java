@@ -0,0 +1,290 @@
+package edu.umflix.usermanager.transfer;
+
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes users as flat JSON objects: {"email":...,"name":...,"roleId":...,"password":...}.
+ * Only flat objects of strings, integers, booleans and nulls are supported, which is all the user
+ * records and the requests of the UserManager need.
+ */
+public final class UserJson {
+
+    public static final String EMAIL = "email";
+    public static final String NAME = "name";
+    public static final String ROLE_ID = "roleId";
+    public static final String PASSWORD = "password";
+
+    private UserJson() {
+    }
+
+    /**
+     * Appends a user as one JSON object, without line break
+     * @param user the user to write
+     * @param out where to append it
+     */
+    public static void write(User user, StringBuilder out) {
+        out.append('{');
+        field(EMAIL, user.getEmail(), out).append(',');
+        field(NAME, user.getName(), out).append(',');
+        appendString(ROLE_ID, out).append(':');
+        if (user.getRole() == null || user.getRole().getId() == null) {
+            out.append("null");
+        } else {
+            out.append(user.getRole().getId().longValue());
+        }
+        out.append(',');
+        field(PASSWORD, user.getPassword(), out).append('}');
+    }
+
+    /**
+     * Appends a string field, "name":"value"
+     */
+    public static StringBuilder field(String name, String value, StringBuilder out) {
+        appendString(name, out).append(':');
+        if (value == null) {
+            return out.append("null");
+        }
+        return appendString(value, out);
+    }
+
+    /**
+     * Appends a quoted and escaped JSON string
+     */
+    public static StringBuilder appendString(String value, StringBuilder out) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"');
+    }
+
+    /**
+     * Parses one flat JSON object
+     * @param json the object
+     * @return its fields, values are String, Long, Boolean or null
+     * @throws IllegalArgumentException thrown if the text is not a flat JSON object
+     */
+    public static Map<String, Object> parseObject(CharSequence json) {
+        Parser parser = new Parser(json);
+        Map<String, Object> fields = parser.object();
+        parser.skipWhitespace();
+        if (parser.position != json.length()) {
+            throw parser.error("trailing characters");
+        }
+        return fields;
+    }
+
+    /**
+     * Builds a user from the fields of a parsed object. The role only carries its id, it is up to the
+     * UserManager to check it against the stored roles
+     * @param fields the parsed fields
+     * @return the user, with email, name, password and role set
+     * @throws IllegalArgumentException thrown if a field has the wrong type
+     */
+    public static User toUser(Map<String, Object> fields) {
+        User user = new User();
+        user.setEmail(string(fields, EMAIL));
+        user.setName(string(fields, NAME));
+        user.setPassword(string(fields, PASSWORD));
+        Long roleId = number(fields, ROLE_ID);
+        if (roleId != null) {
+            Role role = new Role();
+            role.setId(roleId);
+            user.setRole(role);
+        }
+        return user;
+    }
+
+    public static String string(Map<String, Object> fields, String name) {
+        Object value = fields.get(name);
+        if (value != null && !(value instanceof String)) {
+            throw new IllegalArgumentException("field " + name + " is not a string");
+        }
+        return (String) value;
+    }
+
+    public static Long number(Map<String, Object> fields, String name) {
+        Object value = fields.get(name);
+        if (value != null && !(value instanceof Long)) {
+            throw new IllegalArgumentException("field " + name + " is not an integer");
+        }
+        return (Long) value;
+    }
+
+    private static final class Parser {
+        private final CharSequence json;
+        private int position;
+
+        private Parser(CharSequence json) {
+            this.json = json;
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> fields = new HashMap<String, Object>();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                position++;
+                return fields;
+            }
+            while (true) {
+                skipWhitespace();
+                String name = string();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                fields.put(name, value());
+                skipWhitespace();
+                char c = next();
+                if (c == '}') {
+                    return fields;
+                }
+                if (c != ',') {
+                    throw error("expected , or }");
+                }
+            }
+        }
+
+        private Object value() {
+            char c = peek();
+            if (c == '"') {
+                return string();
+            }
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                int start = position;
+                if (c == '-') {
+                    position++;
+                }
+                while (position < json.length() && Character.isDigit(json.charAt(position))) {
+                    position++;
+                }
+                try {
+                    return Long.valueOf(json.subSequence(start, position).toString());
+                } catch (NumberFormatException e) {
+                    throw error("invalid integer");
+                }
+            }
+            if (literal("null")) {
+                return null;
+            }
+            if (literal("true")) {
+                return Boolean.TRUE;
+            }
+            if (literal("false")) {
+                return Boolean.FALSE;
+            }
+            throw error("unsupported value");
+        }
+
+        private boolean literal(String literal) {
+            if (position + literal.length() <= json.length()
+                    && json.subSequence(position, position + literal.length()).toString().equals(literal)) {
+                position += literal.length();
+                return true;
+            }
+            return false;
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (position + 4 > json.length()) {
+                            throw error("invalid unicode escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(json.subSequence(position, position + 4).toString(), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("invalid unicode escape");
+                        }
+                        position += 4;
+                        break;
+                    default:
+                        value.append(escaped);
+                }
+            }
+        }
+
+        private void skipWhitespace() {
+            while (position < json.length() && json.charAt(position) <= ' ') {
+                position++;
+            }
+        }
+
+        private char peek() {
+            if (position >= json.length()) {
+                throw error("unexpected end");
+            }
+            return json.charAt(position);
+        }
+
+        private char next() {
+            char c = peek();
+            position++;
+            return c;
+        }
+
+        private void expect(char expected) {
+            if (next() != expected) {
+                throw error("expected " + expected);
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at " + position);
+        }
+    }
+}
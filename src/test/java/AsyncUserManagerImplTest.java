@@ -0,0 +1,150 @@
+import edu.umflix.authenticationhandler.AuthenticationHandler;
+import edu.umflix.authenticationhandler.exceptions.InvalidTokenException;
+import edu.umflix.authenticationhandler.exceptions.InvalidUserException;
+import edu.umflix.exceptions.RoleNotFoundException;
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.persistence.RoleDao;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.AsyncUserManager;
+import edu.umflix.usermanager.exceptions.*;
+import edu.umflix.usermanager.impl.AsyncUserManagerImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import stub.UserManagerToTest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for AsyncUserManagerImpl, the futures must fail with the same exceptions UserManagerImpl throws
+ */
+public class AsyncUserManagerImplTest {
+
+    AsyncUserManagerImpl asyncUserManager;
+    UserDao userDao;
+    AuthenticationHandler authenticationHandler;
+    Role userRole;
+    Role adminRole;
+
+    @Before
+    public void prepare() throws RoleNotFoundException {
+        userDao = mock(UserDao.class);
+        RoleDao roleDao = mock(RoleDao.class);
+        userRole = mockRole(Long.valueOf(3));
+        adminRole = mockRole(Long.valueOf(1));
+        when(roleDao.getRoleById(Long.valueOf(3))).thenReturn(userRole);
+        when(roleDao.getRoleById(Long.valueOf(1))).thenReturn(adminRole);
+        authenticationHandler = mock(AuthenticationHandler.class);
+
+        UserManagerToTest userManager = new UserManagerToTest();
+        userManager.setUserDao(userDao);
+        userManager.setRoleDao(roleDao);
+        userManager.setAuthenticationHandler(authenticationHandler);
+        asyncUserManager = new AsyncUserManagerImpl(userManager);
+    }
+
+    @After
+    public void shutdown() {
+        asyncUserManager.shutdown();
+    }
+
+    private Role mockRole(Long id) {
+        Role role = mock(Role.class);
+        when(role.getId()).thenReturn(id);
+        return role;
+    }
+
+    private User mockUser(String email, String password, String name, Role role) {
+        User user = mock(User.class);
+        when(user.getEmail()).thenReturn(email);
+        when(user.getName()).thenReturn(name);
+        when(user.getPassword()).thenReturn(password);
+        when(user.getRole()).thenReturn(role);
+        return user;
+    }
+
+    private Throwable failureOf(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+            fail();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    @Test
+    public void testRegisterValidUser() throws Exception {
+        User user = mockUser("unregistered@gmail.com", "passwd", "name", userRole);
+        when(userDao.getUser("unregistered@gmail.com")).thenThrow(mock(UserNotFoundException.class));
+        asyncUserManager.register(user).get();
+        verify(userDao, times(1)).createUser(user);
+    }
+
+    @Test
+    public void testRegisterFailures() throws Exception {
+        User taken = mockUser("taken@gmail.com", "passwd", "name", userRole);
+        when(userDao.getUser("taken@gmail.com")).thenReturn(taken);
+        assertTrue(failureOf(asyncUserManager.register(taken)) instanceof EmailAlreadyTakenException);
+        assertTrue(failureOf(asyncUserManager.register(mockUser(null, "passwd", "name", userRole))) instanceof InvalidEmailException);
+        assertTrue(failureOf(asyncUserManager.register(mockUser("a@e.c", null, "name", userRole))) instanceof InvalidPasswordException);
+        assertTrue(failureOf(asyncUserManager.register(mockUser("a@e.c", "passwd", "name", null))) instanceof InvalidRoleException);
+        assertTrue(failureOf(asyncUserManager.register(null)) instanceof IllegalArgumentException);
+        verify(userDao, times(0)).createUser(any(User.class));
+    }
+
+    @Test
+    public void testLogin() throws Exception {
+        User user = mockUser("email@hotmail.com", "passwd", null, null);
+        User invalid = mockUser("invalid@hotmail.com", "passwd", null, null);
+        when(authenticationHandler.authenticate(user)).thenReturn("tokenUser");
+        when(authenticationHandler.authenticate(invalid)).thenThrow(mock(InvalidUserException.class));
+        assertEquals("tokenUser", asyncUserManager.login(user).get());
+        assertTrue(failureOf(asyncUserManager.login(invalid)) instanceof InvalidUserException);
+        assertTrue(failureOf(asyncUserManager.login(null)) instanceof InvalidUserException);
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        User user = mockUser("a@e.c", "123", null, null);
+        User otherUser = mockUser("other@gmail.com", "otherPassword", "otherName", userRole);
+        when(authenticationHandler.getUserOfToken("otherToken")).thenReturn(otherUser);
+        assertTrue(failureOf(asyncUserManager.delete(null, user)) instanceof InvalidTokenException);
+        assertTrue(failureOf(asyncUserManager.delete("otherToken", null)) instanceof InvalidUserException);
+        assertTrue(failureOf(asyncUserManager.delete("otherToken", user)) instanceof PermissionDeniedException);
+        verify(userDao, times(0)).deleteUser(any(String.class));
+
+        User admin = mockUser("admin@gmail.com", "adminPassword", "adminName", adminRole);
+        when(authenticationHandler.getUserOfToken("adminToken")).thenReturn(admin);
+        asyncUserManager.delete("adminToken", user).get();
+        verify(userDao, times(1)).deleteUser("a@e.c");
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        User user = mockUser("user@gmail.com", "password", null, null);
+        User storedUser = mockUser("user@gmail.com", "password", "name", userRole);
+        when(authenticationHandler.getUserOfToken("userToken")).thenReturn(storedUser);
+        assertTrue(failureOf(asyncUserManager.update("userToken", user, null)) instanceof InvalidPasswordException);
+        doThrow(mock(UserNotFoundException.class)).when(userDao).getUser("user@gmail.com");
+        assertTrue(failureOf(asyncUserManager.update("userToken", user, "newPassword")) instanceof InvalidUserException);
+        verify(userDao, times(0)).updateUser(any(User.class));
+    }
+
+    @Test
+    public void testRejectedExecution() throws Exception {
+        Executor rejecting = command -> {
+            throw new RejectedExecutionException();
+        };
+        AsyncUserManager rejectingManager = new AsyncUserManagerImpl(mock(edu.umflix.usermanager.UserManager.class), rejecting);
+        assertTrue(failureOf(rejectingManager.login(mockUser("a@e.c", "123", null, null))) instanceof RejectedExecutionException);
+    }
+}
@@ -0,0 +1,225 @@
+import edu.umflix.authenticationhandler.AuthenticationHandler;
+import edu.umflix.authenticationhandler.exceptions.InvalidTokenException;
+import edu.umflix.authenticationhandler.exceptions.InvalidUserException;
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.usermanager.audit.AuditEvent;
+import edu.umflix.usermanager.audit.AuditLog;
+import edu.umflix.usermanager.audit.AuditReader;
+import edu.umflix.usermanager.exceptions.EmailAlreadyTakenException;
+import edu.umflix.usermanager.impl.EmbeddedUserManager;
+import edu.umflix.usermanager.persistence.InMemoryRoleDao;
+import edu.umflix.usermanager.persistence.InMemoryUserDao;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for AuditLog and AuditReader
+ */
+public class AuditLogTest {
+
+    File directory;
+    AuditLog auditLog;
+
+    @Before
+    public void prepare() throws IOException {
+        directory = File.createTempFile("audit", "");
+        directory.delete();
+        auditLog = new AuditLog(directory, 4096, 10, TimeUnit.MILLISECONDS, 10000);
+        auditLog.start();
+    }
+
+    @After
+    public void cleanup() {
+        auditLog.close();
+        for (File file : AuditLog.segments(directory)) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static AuditEvent event(long time, AuditEvent.Type type, String actor, String subject) {
+        return new AuditEvent(time, type, actor, subject, AuditEvent.OK);
+    }
+
+    @Test
+    public void testEventsAreReadBack() throws IOException {
+        auditLog.record(event(1000, AuditEvent.Type.REGISTER, null, "a@umflix.com"));
+        auditLog.record(new AuditEvent(2000, AuditEvent.Type.DELETE, "admin@umflix.com", "b@umflix.com", "PermissionDeniedException"));
+        auditLog.record(event(3000, AuditEvent.Type.UPDATE, "a@umflix.com", "a@umflix.com"));
+        auditLog.close();
+        List<AuditEvent> events = new AuditReader(directory).read(null, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(3, events.size());
+        assertEquals(AuditEvent.Type.REGISTER, events.get(0).getType());
+        assertNull(events.get(0).getActor());
+        assertEquals("a@umflix.com", events.get(0).getSubject());
+        assertEquals("admin@umflix.com", events.get(1).getActor());
+        assertEquals("PermissionDeniedException", events.get(1).getOutcome());
+        assertFalse(events.get(1).isOk());
+        assertEquals(3000, events.get(2).getTime());
+        assertEquals(3, auditLog.getWritten());
+    }
+
+    @Test
+    public void testFilters() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            auditLog.record(event(1000 + i, i % 2 == 0 ? AuditEvent.Type.REGISTER : AuditEvent.Type.UPDATE,
+                    i % 10 == 0 ? "admin@umflix.com" : null, "user" + (i % 5) + "@umflix.com"));
+        }
+        auditLog.close();
+        AuditReader reader = new AuditReader(directory);
+        assertEquals(20, reader.read("user3@umflix.com", Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(10, reader.read("admin@umflix.com", Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(10, reader.read(null, 1010, 1020).size());
+        assertEquals(2, reader.read("user0@umflix.com", 1010, 1020).size());
+        assertEquals(50, reader.scan(null, Long.MIN_VALUE, Long.MAX_VALUE, AuditEvent.Type.UPDATE, new AuditReader.Visitor() {
+            public void visit(AuditEvent event) {
+                assertEquals(AuditEvent.Type.UPDATE, event.getType());
+            }
+        }));
+    }
+
+    @Test
+    public void testSegmentsRotateAndAreSkippedByTime() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            auditLog.record(event(1000 + i, AuditEvent.Type.REGISTER, null, "user" + i + "@umflix.com"));
+        }
+        auditLog.close();
+        File[] segments = AuditLog.segments(directory);
+        assertTrue(segments.length > 5);
+        for (File segment : segments) {
+            assertEquals(4096, segment.length());
+        }
+        AuditReader reader = new AuditReader(directory);
+        List<AuditEvent> events = reader.read(null, 1990, 2000);
+        assertEquals(10, events.size());
+        assertEquals("user999@umflix.com", events.get(9).getSubject());
+        assertTrue(reader.getSegmentsSkipped() >= segments.length - 2);
+    }
+
+    @Test
+    public void testReopenedLogAppendsAfterTornRecords() throws IOException {
+        auditLog.record(event(1000, AuditEvent.Type.REGISTER, null, "a@umflix.com"));
+        auditLog.record(event(2000, AuditEvent.Type.REGISTER, null, "b@umflix.com"));
+        auditLog.close();
+        File segment = AuditLog.segments(directory)[0];
+        //tear the second record, as a crash in the middle of a write would
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        long second = 24 + 4 + file.getChannel().map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 24, 4).getInt();
+        file.seek(second + 10);
+        file.write(0x7f);
+        file.close();
+        assertEquals(1, new AuditReader(directory).read(null, Long.MIN_VALUE, Long.MAX_VALUE).size());
+
+        auditLog = new AuditLog(directory, 4096, 10, TimeUnit.MILLISECONDS, 10000);
+        auditLog.start();
+        auditLog.record(event(3000, AuditEvent.Type.DELETE, "admin@umflix.com", "c@umflix.com"));
+        auditLog.close();
+        List<AuditEvent> events = new AuditReader(directory).read(null, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(2, events.size());
+        assertEquals("c@umflix.com", events.get(1).getSubject());
+        assertEquals(1, AuditLog.segments(directory).length);
+    }
+
+    @Test
+    public void testNothingIsOpenedBeforeStart() {
+        File missing = new File(directory, "not-started");
+        AuditLog notStarted = new AuditLog(missing, 4096, 10, TimeUnit.MILLISECONDS, 10);
+        assertTrue(notStarted.record(event(1000, AuditEvent.Type.REGISTER, null, "a@umflix.com")));
+        assertFalse(missing.exists());
+        notStarted.close();
+        assertEquals(1, notStarted.getDropped());
+        assertFalse(missing.exists());
+    }
+
+    @Test
+    public void testOnlyTheEventsNotWrittenAreCountedAsDropped() throws Exception {
+        auditLog.record(event(1000, AuditEvent.Type.REGISTER, null, "a@umflix.com"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (auditLog.getWritten() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        //Without its directory the next segment can not be created, the batch fails when the current one fills up
+        for (File file : AuditLog.segments(directory)) {
+            assertTrue(file.delete());
+        }
+        assertTrue(directory.delete());
+        for (int i = 0; i < 200; i++) {
+            auditLog.record(event(2000 + i, AuditEvent.Type.REGISTER, null, "user" + i + "@umflix.com"));
+        }
+        auditLog.close();
+        assertTrue(auditLog.getWritten() > 1);
+        assertTrue(auditLog.getDropped() > 0);
+        assertEquals(201, auditLog.getWritten() + auditLog.getDropped());
+    }
+
+    @Test
+    public void testLongValuesAreCut() throws IOException {
+        StringBuilder email = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            email.append("\u00e9");
+        }
+        auditLog.record(event(1000, AuditEvent.Type.REGISTER, null, email.toString()));
+        auditLog.close();
+        String subject = new AuditReader(directory).read(null, Long.MIN_VALUE, Long.MAX_VALUE).get(0).getSubject();
+        assertEquals(256, subject.length());
+    }
+
+    @Test
+    public void testUserManagerAuditsMutations() throws Exception {
+        Role userRole = new Role();
+        userRole.setId(Long.valueOf(3));
+        InMemoryRoleDao roleDao = new InMemoryRoleDao(userRole);
+        final InMemoryUserDao userDao = new InMemoryUserDao(roleDao);
+        EmbeddedUserManager userManager = new EmbeddedUserManager(userDao, roleDao, new AuthenticationHandler() {
+            public String authenticate(User user) throws InvalidUserException {
+                return "token-" + user.getEmail();
+            }
+
+            public boolean validateToken(String token) {
+                return true;
+            }
+
+            public User getUserOfToken(String token) throws InvalidTokenException {
+                try {
+                    return userDao.getUser(token.substring("token-".length()));
+                } catch (UserNotFoundException e) {
+                    throw new InvalidTokenException();
+                }
+            }
+        });
+        userManager.setAuditLog(auditLog);
+        User user = new User();
+        user.setEmail("a@umflix.com");
+        user.setPassword("password1");
+        user.setRole(userRole);
+        userManager.register(user);
+        try {
+            userManager.register(user);
+            fail();
+        } catch (EmailAlreadyTakenException e) {
+            //expected
+        }
+        userManager.update("token-a@umflix.com", user, "password2");
+        user.setPassword("password2");
+        userManager.delete("token-a@umflix.com", user);
+        auditLog.close();
+        List<AuditEvent> events = new AuditReader(directory).read("a@umflix.com", Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(4, events.size());
+        assertTrue(events.get(0).isOk());
+        assertEquals("EmailAlreadyTakenException", events.get(1).getOutcome());
+        assertEquals(AuditEvent.Type.UPDATE, events.get(2).getType());
+        assertEquals("a@umflix.com", events.get(2).getActor());
+        assertEquals(AuditEvent.Type.DELETE, events.get(3).getType());
+    }
+}
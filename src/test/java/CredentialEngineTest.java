@@ -0,0 +1,301 @@
+import edu.umflix.authenticationhandler.AuthenticationHandler;
+import edu.umflix.authenticationhandler.exceptions.InvalidTokenException;
+import edu.umflix.authenticationhandler.exceptions.InvalidUserException;
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.RegistrationResult;
+import edu.umflix.usermanager.UserRecordCache;
+import edu.umflix.usermanager.credentials.CredentialEngine;
+import edu.umflix.usermanager.credentials.CredentialEngineBusyException;
+import edu.umflix.usermanager.credentials.PasswordHasher;
+import edu.umflix.usermanager.credentials.Pbkdf2Hasher;
+import edu.umflix.usermanager.impl.EmbeddedUserManager;
+import edu.umflix.usermanager.persistence.CachingUserDao;
+import edu.umflix.usermanager.persistence.InMemoryRoleDao;
+import edu.umflix.usermanager.persistence.InMemoryUserDao;
+import edu.umflix.usermanager.persistence.ShardedUserDao;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for CredentialEngine, Pbkdf2Hasher and the hashing of passwords by the UserManager
+ */
+public class CredentialEngineTest {
+
+    CredentialEngine engine;
+    InMemoryRoleDao roleDao;
+    InMemoryUserDao userDao;
+    AuthenticationHandler authenticationHandler;
+    EmbeddedUserManager userManager;
+    Role userRole;
+
+    @Before
+    public void prepare() {
+        engine = new CredentialEngine(new Pbkdf2Hasher(Pbkdf2Hasher.SHA256, 1000), 2, 16, 1, TimeUnit.SECONDS);
+        userRole = new Role();
+        userRole.setId(Long.valueOf(3));
+        roleDao = new InMemoryRoleDao(userRole);
+        userDao = new InMemoryUserDao(roleDao);
+        authenticationHandler = new AuthenticationHandler() {
+            public String authenticate(User user) throws InvalidUserException {
+                try {
+                    if (userDao.getUser(user.getEmail()).getPassword().equals(user.getPassword())) {
+                        return "token-" + user.getEmail();
+                    }
+                } catch (UserNotFoundException e) {
+                    //same answer as a wrong password
+                }
+                throw new InvalidUserException();
+            }
+
+            public boolean validateToken(String token) {
+                return token.startsWith("token-");
+            }
+
+            public User getUserOfToken(String token) throws InvalidTokenException {
+                try {
+                    return userDao.getUser(token.substring("token-".length()));
+                } catch (UserNotFoundException e) {
+                    throw new InvalidTokenException();
+                }
+            }
+        };
+        userManager = new EmbeddedUserManager(userDao, roleDao, authenticationHandler);
+        userManager.setCredentialEngine(engine);
+    }
+
+    @After
+    public void shutdown() {
+        engine.stop();
+    }
+
+    private User user(String email, String password) {
+        User user = new User();
+        user.setEmail(email);
+        user.setPassword(password);
+        user.setName("name");
+        user.setRole(userRole);
+        return user;
+    }
+
+    @Test
+    public void testHashAndVerify() {
+        String credential = engine.hash("password1");
+        assertTrue(credential.startsWith("pbkdf2-sha256$1000$"));
+        assertEquals(4, credential.split("\\$").length);
+        assertTrue(engine.verify("password1", credential));
+        assertFalse(engine.verify("password2", credential));
+        assertFalse(credential.equals(engine.hash("password1")));
+        assertFalse(engine.needsRehash(credential));
+    }
+
+    @Test
+    public void testSha512AndCorruptCredentials() {
+        Pbkdf2Hasher hasher = new Pbkdf2Hasher(Pbkdf2Hasher.SHA512, 10);
+        String credential = hasher.hash("password1");
+        assertTrue(hasher.verify("password1", credential));
+        assertFalse(hasher.verify("password1", "pbkdf2-sha512$10$!!$??"));
+        assertFalse(hasher.verify("password1", "pbkdf2-sha512$10$abc"));
+        assertFalse(hasher.verify("password1", credential.replace("pbkdf2-sha512$10$", "pbkdf2-sha512$0$")));
+    }
+
+    @Test
+    public void testCostChangesAskForARehash() {
+        String credential = engine.hash("password1");
+        engine.setIterations(2000);
+        assertTrue(engine.needsRehash(credential));
+        assertTrue(engine.verify("password1", credential));
+        assertFalse(engine.needsRehash(engine.hash("password1")));
+    }
+
+    @Test
+    public void testPlainTextIsVerifiedAndRehashed() {
+        assertFalse(engine.isHashed("password1"));
+        assertTrue(engine.verify("password1", "password1"));
+        assertFalse(engine.verify("password2", "password1"));
+        assertTrue(engine.needsRehash("password1"));
+    }
+
+    @Test
+    public void testHashAllKeepsTheOrder() {
+        List<String> credentials = engine.hashAll(Arrays.asList("password1", "password2", "password3"));
+        assertTrue(engine.verify("password1", credentials.get(0)));
+        assertTrue(engine.verify("password2", credentials.get(1)));
+        assertTrue(engine.verify("password3", credentials.get(2)));
+    }
+
+    @Test
+    public void testBusyWorkersTurnCallersDown() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        PasswordHasher blocking = new PasswordHasher() {
+            public String getId() {
+                return "blocking";
+            }
+
+            public String hash(String password) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "blocking$" + password;
+            }
+
+            public boolean verify(String password, String credential) {
+                return credential.equals("blocking$" + password);
+            }
+
+            public boolean accepts(String credential) {
+                return true;
+            }
+
+            public boolean needsRehash(String credential) {
+                return false;
+            }
+        };
+        final CredentialEngine small = new CredentialEngine(blocking, 1, 1, 20, TimeUnit.MILLISECONDS);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<String>> running = Arrays.asList(callers.submit(new Callable<String>() {
+                public String call() {
+                    return small.hash("first");
+                }
+            }), callers.submit(new Callable<String>() {
+                public String call() {
+                    return small.hash("second");
+                }
+            }));
+            while (small.getPending() < 2) {
+                Thread.sleep(1);
+            }
+            try {
+                small.hash("third");
+                fail();
+            } catch (CredentialEngineBusyException e) {
+                //expected
+            }
+            assertEquals(1, small.getRejected());
+            release.countDown();
+            assertEquals("blocking$first", running.get(0).get(5, TimeUnit.SECONDS));
+            assertEquals("blocking$second", running.get(1).get(5, TimeUnit.SECONDS));
+            assertEquals("blocking$third", small.hash("third"));
+        } finally {
+            release.countDown();
+            callers.shutdown();
+            small.stop();
+        }
+    }
+
+    @Test
+    public void testPasswordsAreStoredHashed() throws Exception {
+        userManager.register(user("a@umflix.com", "password1"));
+        String stored = userDao.getUser("a@umflix.com").getPassword();
+        assertTrue(engine.isHashed(stored));
+        String token = userManager.login(user("a@umflix.com", "password1"));
+        try {
+            userManager.login(user("a@umflix.com", "password2"));
+            fail();
+        } catch (InvalidUserException e) {
+            //expected
+        }
+        userManager.update(token, user("a@umflix.com", "password1"), "password3");
+        assertTrue(engine.verify("password3", userDao.getUser("a@umflix.com").getPassword()));
+        userManager.registerAll(Arrays.asList(user("b@umflix.com", "password1"), user("c@umflix.com", "password1")));
+        assertTrue(engine.verify("password1", userDao.getUser("c@umflix.com").getPassword()));
+    }
+
+    @Test
+    public void testLoginRehashesPlainTextAndOldCosts() throws Exception {
+        userDao.createUser(user("a@umflix.com", "password1"));
+        userManager.login(user("a@umflix.com", "password1"));
+        String rehashed = userDao.getUser("a@umflix.com").getPassword();
+        assertTrue(engine.isHashed(rehashed));
+        assertEquals(1, engine.getRehashes());
+        userManager.login(user("a@umflix.com", "password1"));
+        assertEquals(rehashed, userDao.getUser("a@umflix.com").getPassword());
+        engine.setIterations(1500);
+        userManager.login(user("a@umflix.com", "password1"));
+        assertTrue(userDao.getUser("a@umflix.com").getPassword().startsWith("pbkdf2-sha256$1500$"));
+        assertEquals(2, engine.getRehashes());
+    }
+
+    @Test
+    public void testRegisterLeavesTheUserOfTheCaller() throws Exception {
+        User user = user(" A@umflix.com", "password1");
+        userManager.register(user);
+        assertEquals(" A@umflix.com", user.getEmail());
+        assertEquals("password1", user.getPassword());
+        assertTrue(engine.verify("password1", userDao.getUser("a@umflix.com").getPassword()));
+    }
+
+    @Test
+    public void testAccountsStoredByAMixedCaseEmail() throws Exception {
+        userDao.createUser(user("Legacy@umflix.com", engine.hash("password1")));
+        String token = userManager.login(user("Legacy@umflix.com", "password1"));
+        assertEquals("token-Legacy@umflix.com", token);
+        userManager.update(token, user("Legacy@umflix.com", "password1"), "password2");
+        assertTrue(engine.verify("password2", userDao.getUser("Legacy@umflix.com").getPassword()));
+        userManager.delete(token, user("Legacy@umflix.com", "password2"));
+        assertEquals(0, userDao.size());
+    }
+
+    @Test
+    public void testImportedCredentialsAreNotHashedAgain() throws Exception {
+        String credential = engine.hash("password1");
+        User imported = user("a@umflix.com", credential);
+        User plain = user("b@umflix.com", "password1");
+        userManager.importAll(Arrays.asList(imported, plain));
+        assertEquals(credential, userDao.getUser("a@umflix.com").getPassword());
+        assertTrue(engine.verify("password1", userDao.getUser("b@umflix.com").getPassword()));
+        assertEquals("password1", plain.getPassword());
+        userManager.login(user("a@umflix.com", "password1"));
+    }
+
+    @Test
+    public void testRegisterAllHashesPasswordsThatLookLikeCredentials() throws Exception {
+        String credential = engine.hash("password1");
+        userManager.registerAll(Collections.singletonList(user("a@umflix.com", credential)));
+        String stored = userDao.getUser("a@umflix.com").getPassword();
+        assertFalse(credential.equals(stored));
+        assertTrue(engine.verify(credential, stored));
+    }
+
+    @Test
+    public void testCredentialsAboveTheMaximumCostAreRefused() throws Exception {
+        String costly = "pbkdf2-sha256$2147483647$c2FsdHNhbHRzYWx0c2FsdA$" + engine.hash("password1").split("\\$")[3];
+        List<RegistrationResult> results = userManager.importAll(Collections.singletonList(user("a@umflix.com", costly)));
+        assertEquals(RegistrationResult.Status.INVALID_PASSWORD, results.get(0).getStatus());
+        assertFalse(new Pbkdf2Hasher(Pbkdf2Hasher.SHA256, 1000).verify("password1", costly));
+        try {
+            new Pbkdf2Hasher(Pbkdf2Hasher.SHA256, 1000, 999);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //expected, the cost of new credentials must be within the maximum
+        }
+    }
+
+    @Test
+    public void testLoginThroughWrappersOfAPlainDao() throws Exception {
+        userDao.createUser(user("a@umflix.com", "password1"));
+        UserDao plain = new ShardedUserDaoTest.PlainDao(userDao);
+        UserRecordCache cache = new UserRecordCache(100, 1, 1, TimeUnit.MINUTES);
+        for (UserDao wrapper : Arrays.asList(CachingUserDao.wrap(plain, cache), ShardedUserDao.of(Collections.singletonMap("only", plain)))) {
+            EmbeddedUserManager wrapped = new EmbeddedUserManager(wrapper, roleDao, authenticationHandler);
+            wrapped.setCredentialEngine(engine);
+            assertEquals("token-a@umflix.com", wrapped.login(user("a@umflix.com", "password1")));
+            //without versions the plain text is rehashed holding the reservation of the email
+            assertTrue(engine.verify("password1", userDao.getUser("a@umflix.com").getPassword()));
+        }
+        assertEquals(1, engine.getRehashes());
+    }
+}
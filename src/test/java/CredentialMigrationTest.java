@@ -0,0 +1,480 @@
+import edu.umflix.authenticationhandler.AuthenticationHandler;
+import edu.umflix.authenticationhandler.exceptions.InvalidTokenException;
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.CredentialStore;
+import edu.umflix.usermanager.CredentialUpdate;
+import edu.umflix.usermanager.EmailIndex;
+import edu.umflix.usermanager.EmailReservations;
+import edu.umflix.usermanager.PagedUserSource;
+import edu.umflix.usermanager.UserRecordCache;
+import edu.umflix.usermanager.credentials.CredentialEngine;
+import edu.umflix.usermanager.credentials.Pbkdf2Hasher;
+import edu.umflix.usermanager.impl.CredentialMigration;
+import edu.umflix.usermanager.impl.EmbeddedUserManager;
+import edu.umflix.usermanager.persistence.CachingUserDao;
+import edu.umflix.usermanager.persistence.InMemoryRoleDao;
+import edu.umflix.usermanager.persistence.InMemoryUserDao;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for CredentialMigration over an in memory store
+ */
+public class CredentialMigrationTest {
+
+    static final int USERS = 200;
+
+    CredentialEngine engine;
+    InMemoryRoleDao roleDao;
+    InMemoryUserDao userDao;
+    Role userRole;
+    File checkpoint;
+
+    @Before
+    public void prepare() throws IOException {
+        engine = new CredentialEngine(new Pbkdf2Hasher(Pbkdf2Hasher.SHA256, 1000), 2, 16, 1, TimeUnit.SECONDS);
+        userRole = new Role();
+        userRole.setId(Long.valueOf(3));
+        roleDao = new InMemoryRoleDao(userRole);
+        userDao = new InMemoryUserDao(roleDao);
+        checkpoint = File.createTempFile("migration", ".checkpoint");
+        checkpoint.delete();
+    }
+
+    @After
+    public void cleanup() {
+        engine.stop();
+        checkpoint.delete();
+    }
+
+    private void store(UserDao dao, String email, String password) {
+        User user = new User();
+        user.setEmail(email);
+        user.setPassword(password);
+        user.setName("name");
+        user.setRole(userRole);
+        dao.createUser(user);
+    }
+
+    private static String email(int i) {
+        return String.format("user%04d@umflix.com", i);
+    }
+
+    private CredentialMigration migration(UserDao dao, EmailReservations reservations) {
+        CredentialMigration migration = new CredentialMigration(dao, engine, reservations, checkpoint);
+        migration.setBatchSize(25);
+        migration.setRates(2000, 2000, 0);
+        return migration;
+    }
+
+    @Test
+    public void testPlainPasswordsAreHashed() throws Exception {
+        for (int i = 0; i < USERS; i++) {
+            store(userDao, email(i), i % 4 == 0 ? engine.hash("password" + i) : "password" + i);
+        }
+        CredentialMigration migration = migration(userDao, null);
+        assertTrue(migration.start());
+        assertTrue(migration.awaitDone(20, TimeUnit.SECONDS));
+        assertEquals(USERS, migration.getScanned());
+        assertEquals(USERS / 4, migration.getSkipped());
+        assertEquals(USERS - USERS / 4, migration.getMigrated());
+        assertEquals(0, migration.getConflicts() + migration.getFailed());
+        for (int i = 0; i < USERS; i++) {
+            String credential = userDao.getUser(email(i)).getPassword();
+            assertTrue(engine.isHashed(credential));
+            assertTrue(engine.verify("password" + i, credential));
+        }
+        assertFalse(migration.start());
+        assertEquals("DONE", migration.getState());
+    }
+
+    @Test
+    public void testResumesFromTheCheckpoint() throws Exception {
+        HookedUserDao dao = new HookedUserDao(roleDao, email(49));
+        for (int i = 0; i < USERS; i++) {
+            store(dao, email(i), "password" + i);
+        }
+        final CredentialMigration first = migration(dao, null);
+        dao.hook = new Runnable() {
+            public void run() {
+                first.pause();
+            }
+        };
+        first.start();
+        dao.awaitWorker();
+        assertEquals("PAUSED", first.getState());
+        //paused while the 50th user was read, it is written before the job stops
+        assertEquals(50, first.getMigrated());
+        assertEquals(email(49), first.getLastEmail());
+        //a node that restarts picks up where the job was
+        CredentialMigration second = migration(dao, null);
+        assertTrue(second.start());
+        assertTrue(second.awaitDone(20, TimeUnit.SECONDS));
+        assertEquals(USERS, second.getScanned());
+        assertEquals(USERS, second.getMigrated());
+        assertEquals(0, second.getSkipped());
+    }
+
+    @Test
+    public void testRunningJobResumesOnStartup() throws Exception {
+        HookedUserDao dao = new HookedUserDao(roleDao, email(99));
+        for (int i = 0; i < USERS; i++) {
+            store(dao, email(i), "password" + i);
+        }
+        final CredentialMigration first = migration(dao, null);
+        dao.hook = new Runnable() {
+            public void run() {
+                //the node stops
+                first.destroy();
+            }
+        };
+        first.start();
+        dao.awaitWorker();
+        assertEquals(100, first.getMigrated());
+        CredentialMigration second = migration(dao, null);
+        second.init();
+        assertEquals("RUNNING", second.getState());
+        assertTrue(second.awaitDone(20, TimeUnit.SECONDS));
+        assertEquals(USERS, second.getMigrated());
+        second.destroy();
+    }
+
+    @Test
+    public void testConcurrentUpdateWinsOverTheVersion() throws Exception {
+        final String racing = email(1);
+        InMemoryUserDao dao = new InMemoryUserDao(roleDao) {
+            boolean raced;
+
+            @Override
+            public User getUser(String email) throws UserNotFoundException {
+                User user = super.getUser(email);
+                if (email.equals(racing) && !raced && Thread.currentThread().getName().equals("credential-migration")) {
+                    //an update of the UserManager lands between the read and the write of the job
+                    raced = true;
+                    updatePassword(email, "updated", CredentialStore.ANY_VERSION);
+                }
+                return user;
+            }
+        };
+        for (int i = 0; i < 3; i++) {
+            store(dao, email(i), "password" + i);
+        }
+        CredentialMigration migration = migration(dao, null);
+        migration.start();
+        assertTrue(migration.awaitDone(20, TimeUnit.SECONDS));
+        assertEquals(2, migration.getMigrated());
+        assertEquals(1, migration.getConflicts());
+        assertEquals("updated", dao.getUser(racing).getPassword());
+    }
+
+    @Test
+    public void testReservedEmailsAreNotWrittenOver() throws Exception {
+        final InMemoryUserDao store = new InMemoryUserDao(roleDao);
+        store(store, email(0), "password0");
+        //a store without versions, the job reads and writes whole users
+        UserDao plain = new PlainPagedDao(store);
+        EmailReservations reservations = new EmailReservations();
+        EmailReservations.Reservation update = reservations.reserve(email(0));
+        CredentialMigration migration = migration(plain, reservations);
+        migration.start();
+        assertFalse(migration.awaitDone(200, TimeUnit.MILLISECONDS));
+        assertEquals("password0", store.getUser(email(0)).getPassword());
+        //the update of the UserManager writes while it holds the email
+        User user = store.getUser(email(0));
+        user.setPassword("updated");
+        store.updateUser(user);
+        update.release();
+        assertTrue(migration.awaitDone(20, TimeUnit.SECONDS));
+        assertEquals(1, migration.getConflicts());
+        assertEquals("updated", store.getUser(email(0)).getPassword());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReservationsAreNeededWithoutVersions() {
+        migration(new PlainPagedDao(userDao), null);
+    }
+
+    @Test
+    public void testStoreWithoutPagingGoesOverTheEmailIndex() throws Exception {
+        UserDao plain = new ShardedUserDaoTest.PlainDao(userDao);
+        //stored before the node started, the index never sees it
+        store(userDao, email(0), "password0");
+        EmailIndex index = new EmailIndex();
+        index.ensureLoaded(null, userDao);
+        for (int i = 1; i < 60; i++) {
+            store(plain, email(i), "password" + i);
+            index.add(email(i));
+        }
+        userDao.deleteUser(email(30));
+        CredentialMigration migration = migration(plain, new EmailReservations());
+        assertFalse(migration.start());
+        migration.setEmailIndex(index);
+        assertTrue(migration.start());
+        assertTrue(migration.awaitDone(20, TimeUnit.SECONDS));
+        assertEquals(58, migration.getMigrated());
+        assertEquals("password0", userDao.getUser(email(0)).getPassword());
+        for (int i = 1; i < 60; i++) {
+            if (i != 30) {
+                assertTrue(engine.verify("password" + i, userDao.getUser(email(i)).getPassword()));
+            }
+        }
+    }
+
+    @Test
+    public void testRateFollowsStoreLatency() throws Exception {
+        //the store takes 3 ms a read, over the target of 1 ms
+        HookedUserDao slow = new HookedUserDao(roleDao, email(60)) {
+            @Override
+            public User getUser(String email) throws UserNotFoundException {
+                try {
+                    Thread.sleep(3);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getUser(email);
+            }
+        };
+        HookedUserDao fast = new HookedUserDao(roleDao, email(60));
+        for (int i = 0; i < USERS; i++) {
+            store(slow, email(i), "password" + i);
+            store(fast, email(i), "password" + i);
+        }
+        final CredentialMigration slowMigration = migration(slow, null);
+        slowMigration.setRates(200, 100000, 1000);
+        slowMigration.setTargetLatencyMillis(1);
+        final double[] observed = new double[3];
+        //read in the third page, after the rate was adjusted twice
+        slow.hook = new Runnable() {
+            public void run() {
+                observed[0] = slowMigration.getRate();
+                observed[1] = slowMigration.getStoreLatencyMillis();
+                slowMigration.pause();
+            }
+        };
+        slowMigration.start();
+        slow.awaitWorker();
+        //every page is over the target, the rate never leaves the minimum
+        assertEquals(200, observed[0], 0.001);
+        assertTrue(observed[1] > 1);
+
+        checkpoint.delete();
+        final CredentialMigration fastMigration = migration(fast, null);
+        fastMigration.setRates(200, 100000, 1000);
+        fastMigration.setTargetLatencyMillis(1000);
+        fast.hook = new Runnable() {
+            public void run() {
+                observed[2] = fastMigration.getRate();
+            }
+        };
+        fastMigration.start();
+        assertTrue(fastMigration.awaitDone(20, TimeUnit.SECONDS));
+        assertEquals(2200, observed[2], 0.001);
+    }
+
+    @Test
+    public void testProgressAndEta() throws Exception {
+        HookedUserDao dao = new HookedUserDao(roleDao, email(30));
+        for (int i = 0; i < 100; i++) {
+            store(dao, email(i), "password" + i);
+        }
+        final CredentialMigration migration = migration(dao, null);
+        //the number of users is unknown until the email index is loaded
+        assertEquals(-1, migration.getProgress(), 0.001);
+        assertEquals(-1, migration.getEtaSeconds());
+        EmailIndex index = new EmailIndex();
+        index.ensureLoaded(dao, dao);
+        migration.setEmailIndex(index);
+        migration.setRates(100, 100, 0);
+        assertEquals(0, migration.getProgress(), 0.001);
+        final double[] observed = new double[2];
+        dao.hook = new Runnable() {
+            public void run() {
+                observed[0] = migration.getProgress();
+                observed[1] = migration.getEtaSeconds();
+            }
+        };
+        migration.start();
+        assertTrue(migration.awaitDone(20, TimeUnit.SECONDS));
+        //30 users gone over, 70 left at 100 a second
+        assertEquals(0.3, observed[0], 0.001);
+        assertEquals(1, observed[1], 0.001);
+        assertEquals(1, migration.getProgress(), 0.001);
+        assertEquals(0, migration.getEtaSeconds());
+    }
+
+    @Test
+    public void testFailedWritesAreRetriedBeforeTheJobIsDone() throws Exception {
+        final String failing = email(3);
+        final int[] failures = {1};
+        InMemoryUserDao dao = new InMemoryUserDao(roleDao) {
+            @Override
+            public CredentialUpdate updatePassword(String email, String newPassword, long expectedVersion) throws UserNotFoundException {
+                if (email.equals(failing) && failures[0]-- > 0) {
+                    throw new IllegalStateException("store down");
+                }
+                return super.updatePassword(email, newPassword, expectedVersion);
+            }
+        };
+        for (int i = 0; i < 10; i++) {
+            store(dao, email(i), "password" + i);
+        }
+        CredentialMigration migration = migration(dao, null);
+        migration.start();
+        assertTrue(migration.awaitDone(20, TimeUnit.SECONDS));
+        assertEquals(10, migration.getMigrated());
+        assertEquals(0, migration.getFailed());
+        assertTrue(engine.isHashed(dao.getUser(failing).getPassword()));
+
+        //a user that keeps failing pauses the job instead of finishing it
+        dao.updatePassword(failing, "password3", CredentialStore.ANY_VERSION);
+        failures[0] = 2;
+        migration.pause();
+        migration.reset();
+        assertTrue(migration.start());
+        assertFalse(migration.awaitDone(20, TimeUnit.SECONDS));
+        assertEquals("PAUSED", migration.getState());
+        assertEquals(1, migration.getFailed());
+        assertEquals("password3", dao.getUser(failing).getPassword());
+        //the failed user survives a restart of the node and is retried on the next start
+        CredentialMigration restarted = migration(dao, null);
+        assertTrue(restarted.start());
+        assertTrue(restarted.awaitDone(20, TimeUnit.SECONDS));
+        assertEquals(0, restarted.getFailed());
+        assertTrue(engine.verify("password3", dao.getUser(failing).getPassword()));
+    }
+
+    @Test
+    public void testUpdatesOfTheUserManagerWaitForTheJob() throws Exception {
+        final HookedUserDao store = new HookedUserDao(roleDao, email(0));
+        store(store, email(0), "password0");
+        //the UserManager caches a store without versions, so it reads and writes whole users too
+        UserDao cached = CachingUserDao.wrap(new PlainPagedDao(store), new UserRecordCache(100, 1, 1, TimeUnit.MINUTES));
+        final EmbeddedUserManager userManager = new EmbeddedUserManager(cached, roleDao, new AuthenticationHandler() {
+            public String authenticate(User user) {
+                return "token";
+            }
+
+            public boolean validateToken(String token) {
+                return true;
+            }
+
+            public User getUserOfToken(String token) throws InvalidTokenException {
+                try {
+                    return store.getUser(email(0));
+                } catch (UserNotFoundException e) {
+                    throw new InvalidTokenException();
+                }
+            }
+        });
+        userManager.setCredentialEngine(engine);
+        CredentialMigration migration = userManager.newCredentialMigration(checkpoint);
+        final CountDownLatch updated = new CountDownLatch(1);
+        final boolean[] waited = new boolean[1];
+        //the job holds the email while it reads the user
+        store.hook = new Runnable() {
+            public void run() {
+                new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            User user = new User();
+                            user.setEmail(email(0));
+                            user.setPassword("password0");
+                            userManager.update("token", user, "newPassword");
+                            updated.countDown();
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }).start();
+                try {
+                    waited[0] = !updated.await(200, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        migration.start();
+        assertTrue(migration.awaitDone(20, TimeUnit.SECONDS));
+        assertTrue(waited[0]);
+        assertTrue(updated.await(20, TimeUnit.SECONDS));
+        assertEquals(1, migration.getMigrated());
+        assertTrue(engine.verify("newPassword", store.getUser(email(0)).getPassword()));
+    }
+
+    /**
+     * In memory store that runs a hook on the thread of the job when the job reads a given user
+     */
+    static class HookedUserDao extends InMemoryUserDao {
+        private final String email;
+        private final CountDownLatch reached = new CountDownLatch(1);
+        private volatile Thread worker;
+        volatile Runnable hook;
+
+        HookedUserDao(InMemoryRoleDao roleDao, String email) {
+            super(roleDao);
+            this.email = email;
+        }
+
+        @Override
+        public User getUser(String email) throws UserNotFoundException {
+            User user = super.getUser(email);
+            if (email.equals(this.email) && Thread.currentThread().getName().equals("credential-migration") && reached.getCount() > 0) {
+                worker = Thread.currentThread();
+                if (hook != null) {
+                    hook.run();
+                }
+                reached.countDown();
+            }
+            return user;
+        }
+
+        //Waits for the job to read the user and, if it was stopped there, for it to stop
+        void awaitWorker() throws InterruptedException {
+            assertTrue(reached.await(20, TimeUnit.SECONDS));
+            worker.join(TimeUnit.SECONDS.toMillis(20));
+        }
+    }
+
+    /**
+     * Only a paged UserDao, without versions
+     */
+    static class PlainPagedDao implements UserDao, PagedUserSource {
+        private final InMemoryUserDao store;
+
+        PlainPagedDao(InMemoryUserDao store) {
+            this.store = store;
+        }
+
+        public User getUser(String email) throws UserNotFoundException {
+            return store.getUser(email);
+        }
+
+        public void createUser(User user) {
+            store.createUser(user);
+        }
+
+        public void deleteUser(String email) throws UserNotFoundException {
+            store.deleteUser(email);
+        }
+
+        public void updateUser(User user) throws UserNotFoundException {
+            store.updateUser(user);
+        }
+
+        public List<User> page(String afterEmail, int limit) {
+            return store.page(afterEmail, limit);
+        }
+    }
+}
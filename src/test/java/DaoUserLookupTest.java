@@ -0,0 +1,39 @@
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.User;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.UserLookup;
+import edu.umflix.usermanager.impl.DaoUserLookup;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for DaoUserLookup
+ */
+public class DaoUserLookupTest {
+
+    interface LookupUserDao extends UserDao, UserLookup {
+    }
+
+    @Test
+    public void testFallbackToGetUser() throws UserNotFoundException {
+        UserDao userDao = mock(UserDao.class);
+        when(userDao.getUser("taken@gmail.com")).thenReturn(mock(User.class));
+        when(userDao.getUser("free@gmail.com")).thenThrow(mock(UserNotFoundException.class));
+        UserLookup userLookup = new DaoUserLookup(userDao);
+        assertTrue(userLookup.exists("taken@gmail.com"));
+        assertFalse(userLookup.exists("free@gmail.com"));
+    }
+
+    @Test
+    public void testNativeLookupIsUsed() throws UserNotFoundException {
+        LookupUserDao userDao = mock(LookupUserDao.class);
+        when(userDao.exists("taken@gmail.com")).thenReturn(true);
+        UserLookup userLookup = new DaoUserLookup(userDao);
+        assertTrue(userLookup.exists("taken@gmail.com"));
+        assertFalse(userLookup.exists("free@gmail.com"));
+        verify(userDao, times(0)).getUser(any(String.class));
+    }
+}
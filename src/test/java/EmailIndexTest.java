@@ -0,0 +1,176 @@
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.usermanager.EmailIndex;
+import edu.umflix.usermanager.UserPage;
+import edu.umflix.usermanager.invalidation.Invalidation;
+import edu.umflix.usermanager.persistence.InMemoryRoleDao;
+import edu.umflix.usermanager.persistence.InMemoryUserDao;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for EmailIndex over an in memory store
+ */
+public class EmailIndexTest {
+
+    Role userRole;
+    InMemoryUserDao userDao;
+    EmailIndex index;
+
+    @Before
+    public void prepare() {
+        userRole = new Role();
+        userRole.setId(Long.valueOf(3));
+        userDao = new InMemoryUserDao(new InMemoryRoleDao(userRole));
+        index = new EmailIndex();
+    }
+
+    private void store(String email) {
+        User user = new User();
+        user.setEmail(email);
+        user.setPassword("password");
+        user.setName("name");
+        user.setRole(userRole);
+        userDao.createUser(user);
+    }
+
+    private static String email(int i) {
+        return String.format("user%05d@umflix.com", i);
+    }
+
+    private List<String> all(String prefix, int limit) {
+        List<String> emails = new ArrayList<String>();
+        String cursor = null;
+        do {
+            UserPage page = index.page(prefix, cursor, limit);
+            assertTrue(page.getEmails().size() <= limit);
+            emails.addAll(page.getEmails());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return emails;
+    }
+
+    @Test
+    public void testPagesCoverEveryEmailInOrder() {
+        List<String> expected = new ArrayList<String>();
+        for (int i = 2500; i > 0; i--) {
+            store(email(i));
+            expected.add(email(i));
+        }
+        Collections.sort(expected);
+        index.ensureLoaded(userDao, userDao);
+        assertEquals(2500, index.getSize());
+        assertEquals(expected, all(null, 300));
+        assertEquals(expected, all(null, 2500));
+        assertTrue(index.page(null, null, 2500).isLast());
+    }
+
+    @Test
+    public void testPrefixSearch() {
+        store("ana@umflix.com");
+        store("andres@umflix.com");
+        store("anibal@umflix.com");
+        store("bruno@umflix.com");
+        store("an@umflix.com");
+        index.ensureLoaded(userDao, userDao);
+        assertEquals(Arrays.asList("an@umflix.com", "ana@umflix.com", "andres@umflix.com", "anibal@umflix.com"), all(" AN", 2));
+        assertEquals(Collections.singletonList("bruno@umflix.com"), all("b", 10));
+        assertEquals(Collections.<String>emptyList(), all("z", 10));
+        //a cursor taken from a listing still works with a prefix after it
+        String cursor = UserPage.cursorAfter("ana@umflix.com");
+        assertEquals(Arrays.asList("andres@umflix.com", "anibal@umflix.com"), index.page("an", cursor, 10).getEmails());
+    }
+
+    @Test
+    public void testPagesAreStableUnderChanges() {
+        for (int i = 0; i < 10; i++) {
+            store(email(i * 10));
+        }
+        index.ensureLoaded(userDao, userDao);
+        UserPage first = index.page(null, null, 5);
+        assertEquals(email(40), first.getEmails().get(4));
+        //changes before the cursor do not shift the next page
+        index.remove(email(0));
+        index.add(email(5));
+        index.add(email(45));
+        UserPage second = index.page(null, first.getNextCursor(), 5);
+        assertEquals(Arrays.asList(email(45), email(50), email(60), email(70), email(80)), second.getEmails());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCursor() {
+        index.ensureLoaded(userDao, userDao);
+        index.page(null, "not a cursor!", 10);
+    }
+
+    @Test
+    public void testChangesBeforeTheFirstLoadAreNotKept() {
+        index.add("a@umflix.com");
+        assertEquals(0, index.getSize());
+        assertFalse(index.isLoaded());
+        store("b@umflix.com");
+        index.ensureLoaded(userDao, userDao);
+        assertEquals(Collections.singletonList("b@umflix.com"), all(null, 10));
+    }
+
+    @Test
+    public void testChangesOfOtherNodesAreChecked() throws UserNotFoundException {
+        store("a@umflix.com");
+        index.ensureLoaded(userDao, userDao);
+        //registered and deleted through other nodes, only the invalidations arrive
+        store("b@umflix.com");
+        userDao.deleteUser("a@umflix.com");
+        index.onInvalidations(Arrays.asList(Invalidation.user("a@umflix.com"), Invalidation.user("b@umflix.com")));
+        assertEquals(2, index.getPending());
+        assertEquals(Collections.singletonList("b@umflix.com"), all(null, 10));
+        assertEquals(0, index.getPending());
+        index.onInvalidations(Collections.singletonList(Invalidation.all()));
+        assertFalse(index.isLoaded());
+        store("c@umflix.com");
+        index.ensureLoaded(userDao, userDao);
+        assertEquals(2, index.getLoads());
+        assertEquals(Arrays.asList("b@umflix.com", "c@umflix.com"), all(null, 10));
+    }
+
+    @Test
+    public void testPartialIndexWithoutPaging() throws UserNotFoundException {
+        store("old@umflix.com");
+        index.ensureLoaded(null, userDao);
+        assertTrue(index.isLoaded());
+        assertFalse(index.isComplete());
+        index.add("a@umflix.com");
+        store("b@umflix.com");
+        index.onInvalidations(Collections.singletonList(Invalidation.user("b@umflix.com")));
+        UserPage page = index.page(null, null, 10);
+        assertEquals(Arrays.asList("a@umflix.com", "b@umflix.com"), page.getEmails());
+        assertFalse(page.isComplete());
+        //a reload can not list the store, it checks the known emails again
+        userDao.deleteUser("b@umflix.com");
+        index.onInvalidations(Collections.singletonList(Invalidation.all()));
+        assertTrue(index.isLoaded());
+        assertEquals(1, index.getLoads());
+        assertEquals(Collections.<String>emptyList(), all(null, 10));
+    }
+
+    @Test
+    public void testMemoryIsEstimated() {
+        index.ensureLoaded(userDao, userDao);
+        assertEquals(0, index.getMemoryBytes());
+        for (int i = 0; i < 1000; i++) {
+            index.add(email(i));
+        }
+        long bytes = index.getMemoryBytes();
+        //at least the characters, at most a few hundred bytes an email
+        assertTrue(bytes > 1000 * email(0).length());
+        assertTrue(bytes < 1000 * 200);
+        for (int i = 0; i < 1000; i++) {
+            index.remove(email(i));
+        }
+        assertEquals(0, index.getMemoryBytes());
+    }
+}
@@ -0,0 +1,225 @@
+import edu.umflix.authenticationhandler.AuthenticationHandler;
+import edu.umflix.authenticationhandler.exceptions.InvalidTokenException;
+import edu.umflix.authenticationhandler.exceptions.InvalidUserException;
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.EmailReservations;
+import edu.umflix.usermanager.RegistrationResult;
+import edu.umflix.usermanager.exceptions.EmailAlreadyTakenException;
+import edu.umflix.usermanager.impl.EmbeddedUserManager;
+import edu.umflix.usermanager.persistence.InMemoryRoleDao;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for EmailReservations, including concurrent registrations against a store with no uniqueness check
+ */
+public class EmailReservationsTest {
+
+    static final int THREADS = 16;
+    static final int EMAILS = 50;
+
+    RacyUserDao userDao;
+    EmbeddedUserManager userManager;
+    Role userRole;
+
+    /**
+     * Store that checks and writes in separate steps and never rejects duplicates, like a table without
+     * a unique constraint. It counts how many times every email was created
+     */
+    static class RacyUserDao implements UserDao {
+        final ConcurrentMap<String, User> users = new ConcurrentHashMap<String, User>();
+        final ConcurrentMap<String, AtomicInteger> creations = new ConcurrentHashMap<String, AtomicInteger>();
+
+        public User getUser(String email) throws UserNotFoundException {
+            User user = users.get(email);
+            if (user == null) {
+                throw new UserNotFoundException();
+            }
+            return user;
+        }
+
+        public void createUser(User user) {
+            //widen the window between the check of register and this write
+            Thread.yield();
+            creations.putIfAbsent(user.getEmail(), new AtomicInteger());
+            creations.get(user.getEmail()).incrementAndGet();
+            users.put(user.getEmail(), user);
+        }
+
+        public void deleteUser(String email) throws UserNotFoundException {
+            if (users.remove(email) == null) {
+                throw new UserNotFoundException();
+            }
+        }
+
+        public void updateUser(User user) throws UserNotFoundException {
+            users.put(user.getEmail(), user);
+        }
+    }
+
+    @Before
+    public void prepare() {
+        userRole = new Role();
+        userRole.setId(Long.valueOf(3));
+        userDao = new RacyUserDao();
+        userManager = new EmbeddedUserManager(userDao, new InMemoryRoleDao(userRole), new AuthenticationHandler() {
+            public String authenticate(User user) throws InvalidUserException {
+                throw new InvalidUserException();
+            }
+
+            public boolean validateToken(String token) {
+                return false;
+            }
+
+            public User getUserOfToken(String token) throws InvalidTokenException {
+                throw new InvalidTokenException();
+            }
+        });
+    }
+
+    private User user(String email) {
+        User user = new User();
+        user.setEmail(email);
+        user.setPassword("password");
+        user.setName("name");
+        user.setRole(userRole);
+        return user;
+    }
+
+    private static String email(int i) {
+        return "user" + i + "@gmail.com";
+    }
+
+    private static void runAll(List<Callable<Void>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks, 60, TimeUnit.SECONDS)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentRegistrationsOfTheSameEmails() throws Exception {
+        final AtomicInteger registered = new AtomicInteger();
+        final AtomicInteger taken = new AtomicInteger();
+        final CyclicBarrier start = new CyclicBarrier(THREADS);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int t = 0; t < THREADS; t++) {
+            tasks.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    List<Integer> order = new ArrayList<Integer>();
+                    for (int i = 0; i < EMAILS; i++) {
+                        order.add(i);
+                    }
+                    Collections.shuffle(order);
+                    start.await();
+                    for (int i : order) {
+                        try {
+                            //differently cased addresses normalize to the same reservation
+                            userManager.register(user(i % 2 == 0 ? email(i) : email(i).toUpperCase(Locale.ROOT)));
+                            registered.incrementAndGet();
+                        } catch (EmailAlreadyTakenException e) {
+                            taken.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(tasks);
+        assertEquals(EMAILS, registered.get());
+        assertEquals((THREADS - 1) * EMAILS, taken.get());
+        assertEquals(EMAILS, userDao.creations.size());
+        for (AtomicInteger creations : userDao.creations.values()) {
+            assertEquals(1, creations.get());
+        }
+    }
+
+    @Test
+    public void testOverlappingBatchesAndSingleRegistrations() throws Exception {
+        final CyclicBarrier start = new CyclicBarrier(THREADS);
+        final AtomicInteger registered = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            tasks.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    start.await();
+                    if (thread % 2 == 0) {
+                        //batches in opposite orders must not wait on each other forever
+                        List<User> batch = new ArrayList<User>();
+                        for (int i = 0; i < EMAILS; i++) {
+                            batch.add(user(email(thread % 4 == 0 ? i : EMAILS - 1 - i)));
+                        }
+                        for (RegistrationResult result : userManager.registerAll(batch)) {
+                            if (result.isRegistered()) {
+                                registered.incrementAndGet();
+                            } else {
+                                assertEquals(RegistrationResult.Status.EMAIL_TAKEN, result.getStatus());
+                            }
+                        }
+                    } else {
+                        for (int i = 0; i < EMAILS; i++) {
+                            try {
+                                userManager.register(user(email(i)));
+                                registered.incrementAndGet();
+                            } catch (EmailAlreadyTakenException e) {
+                                //registered by another thread first
+                            }
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(tasks);
+        assertEquals(EMAILS, registered.get());
+        for (AtomicInteger creations : userDao.creations.values()) {
+            assertEquals(1, creations.get());
+        }
+    }
+
+    @Test
+    public void testOnlyTheSameEmailWaits() throws Exception {
+        final EmailReservations reservations = new EmailReservations();
+        EmailReservations.Reservation held = reservations.reserve("a@gmail.com");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> other = executor.submit(new Runnable() {
+                public void run() {
+                    reservations.reserve("b@gmail.com").release();
+                }
+            });
+            other.get(10, TimeUnit.SECONDS);
+            Future<?> same = executor.submit(new Runnable() {
+                public void run() {
+                    reservations.reserve("a@gmail.com").release();
+                }
+            });
+            try {
+                same.get(100, TimeUnit.MILLISECONDS);
+                fail();
+            } catch (TimeoutException e) {
+                //still held
+            }
+            held.release();
+            same.get(10, TimeUnit.SECONDS);
+            assertEquals(0, reservations.getReserved());
+            assertEquals(1, reservations.getWaits());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
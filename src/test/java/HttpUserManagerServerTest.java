@@ -0,0 +1,167 @@
+import edu.umflix.authenticationhandler.AuthenticationHandler;
+import edu.umflix.authenticationhandler.exceptions.InvalidTokenException;
+import edu.umflix.authenticationhandler.exceptions.InvalidUserException;
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.usermanager.http.HttpUserManagerServer;
+import edu.umflix.usermanager.impl.EmbeddedUserManager;
+import edu.umflix.usermanager.persistence.InMemoryRoleDao;
+import edu.umflix.usermanager.persistence.InMemoryUserDao;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for HttpUserManagerServer, through real HTTP requests on loopback
+ */
+public class HttpUserManagerServerTest {
+
+    InMemoryUserDao userDao;
+    HttpUserManagerServer server;
+    String base;
+    String responseBody;
+
+    @Before
+    public void prepare() throws IOException {
+        Role userRole = new Role();
+        userRole.setId(Long.valueOf(3));
+        Role adminRole = new Role();
+        adminRole.setId(Long.valueOf(1));
+        InMemoryRoleDao roleDao = new InMemoryRoleDao(userRole, adminRole);
+        userDao = new InMemoryUserDao(roleDao);
+        AuthenticationHandler authenticationHandler = new AuthenticationHandler() {
+            public String authenticate(User user) throws InvalidUserException {
+                try {
+                    if (userDao.getUser(user.getEmail()).getPassword().equals(user.getPassword())) {
+                        return "token-" + user.getEmail();
+                    }
+                } catch (UserNotFoundException e) {
+                    //same answer as a wrong password
+                }
+                throw new InvalidUserException();
+            }
+
+            public boolean validateToken(String token) {
+                return token.startsWith("token-");
+            }
+
+            public User getUserOfToken(String token) throws InvalidTokenException {
+                try {
+                    return userDao.getUser(token.substring("token-".length()));
+                } catch (RuntimeException e) {
+                    throw new InvalidTokenException();
+                } catch (UserNotFoundException e) {
+                    throw new InvalidTokenException();
+                }
+            }
+        };
+        server = new HttpUserManagerServer(new EmbeddedUserManager(userDao, roleDao, authenticationHandler),
+                new InetSocketAddress("localhost", 0));
+        server.start();
+        base = "http://localhost:" + server.getAddress().getPort() + HttpUserManagerServer.CONTEXT;
+    }
+
+    @After
+    public void shutdown() {
+        server.stop(0);
+    }
+
+    private int post(String operation, String token, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(base + operation).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        if (token != null) {
+            connection.setRequestProperty("Authorization", "Bearer " + token);
+        }
+        OutputStream out = connection.getOutputStream();
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+        out.close();
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        if (in != null) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                response.write(buffer, 0, read);
+            }
+            in.close();
+        }
+        responseBody = new String(response.toByteArray(), StandardCharsets.UTF_8);
+        return status;
+    }
+
+    private static String user(String email, String password) {
+        return "{\"email\":\"" + email + "\",\"name\":\"name\",\"roleId\":3,\"password\":\"" + password + "\"}";
+    }
+
+    @Test
+    public void testRegisterAndLogin() throws IOException {
+        assertEquals(201, post("register", null, user("user@gmail.com", "password")));
+        assertTrue(userDao.exists("user@gmail.com"));
+        assertEquals(200, post("login", null, "{\"email\":\"user@gmail.com\",\"password\":\"password\"}"));
+        assertEquals("{\"token\":\"token-user@gmail.com\"}", responseBody);
+    }
+
+    @Test
+    public void testErrorMapping() throws IOException {
+        assertEquals(201, post("register", null, user("user@gmail.com", "password")));
+        assertEquals(409, post("register", null, user("user@gmail.com", "password")));
+        assertEquals("{\"error\":\"EMAIL_TAKEN\"}", responseBody);
+        assertEquals(400, post("register", null, user("not an email", "password")));
+        assertEquals("{\"error\":\"INVALID_EMAIL\"}", responseBody);
+        assertEquals(401, post("login", null, "{\"email\":\"user@gmail.com\",\"password\":\"wrong\"}"));
+        assertEquals("{\"error\":\"INVALID_USER\"}", responseBody);
+        assertEquals(401, post("update", null, "{\"email\":\"user@gmail.com\",\"password\":\"password\",\"newPassword\":\"other\"}"));
+        assertEquals("{\"error\":\"INVALID_TOKEN\"}", responseBody);
+        assertEquals(400, post("register", null, "not json"));
+        assertEquals(404, post("unknown", null, "{}"));
+    }
+
+    @Test
+    public void testUpdateAndDelete() throws IOException, UserNotFoundException {
+        post("register", null, user("user@gmail.com", "password"));
+        post("register", null, user("other@gmail.com", "password"));
+        assertEquals(403, post("delete", "token-user@gmail.com", "{\"email\":\"other@gmail.com\",\"password\":\"wrong\"}"));
+        assertEquals("{\"error\":\"PERMISSION_DENIED\"}", responseBody);
+        assertEquals(204, post("update", "token-user@gmail.com",
+                "{\"email\":\"user@gmail.com\",\"password\":\"password\",\"newPassword\":\"newPassword\"}"));
+        assertEquals("newPassword", userDao.getUser("user@gmail.com").getPassword());
+        assertEquals(204, post("delete", "token-user@gmail.com", "{\"email\":\"user@gmail.com\",\"password\":\"newPassword\"}"));
+        assertFalse(userDao.exists("user@gmail.com"));
+    }
+
+    @Test
+    public void testListUsers() throws IOException {
+        post("register", null, "{\"email\":\"admin@gmail.com\",\"name\":\"name\",\"roleId\":1,\"password\":\"password\"}");
+        post("register", null, user("b@gmail.com", "password"));
+        post("register", null, user("c@yahoo.com", "password"));
+        assertEquals(403, post("list", "token-b@gmail.com", "{}"));
+        assertEquals(200, post("list", "token-admin@gmail.com", "{\"limit\":2}"));
+        assertTrue(responseBody, responseBody.startsWith("{\"emails\":[\"admin@gmail.com\",\"b@gmail.com\"],\"nextCursor\":\""));
+        String cursor = responseBody.substring(responseBody.indexOf("\"nextCursor\":\"") + 14, responseBody.indexOf("\",\"complete\""));
+        assertEquals(200, post("list", "token-admin@gmail.com", "{\"limit\":2,\"cursor\":\"" + cursor + "\"}"));
+        assertEquals("{\"emails\":[\"c@yahoo.com\"],\"nextCursor\":null,\"complete\":true}", responseBody);
+        assertEquals(200, post("list", "token-admin@gmail.com", "{\"prefix\":\"C@\"}"));
+        assertEquals("{\"emails\":[\"c@yahoo.com\"],\"nextCursor\":null,\"complete\":true}", responseBody);
+        assertEquals(400, post("list", "token-admin@gmail.com", "{\"limit\":0}"));
+    }
+
+    @Test
+    public void testOnlyPost() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(base + "login").openConnection();
+        assertEquals(405, connection.getResponseCode());
+    }
+}
@@ -0,0 +1,209 @@
+import edu.umflix.exceptions.RoleNotFoundException;
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.usermanager.CredentialStore;
+import edu.umflix.usermanager.CredentialUpdate;
+import edu.umflix.usermanager.persistence.InMemoryRoleDao;
+import edu.umflix.usermanager.persistence.InMemoryUserDao;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for InMemoryUserDao and InMemoryRoleDao
+ */
+public class InMemoryUserDaoTest {
+
+    InMemoryRoleDao roleDao;
+    InMemoryUserDao userDao;
+    Role userRole;
+
+    @Before
+    public void prepare() {
+        userRole = new Role();
+        userRole.setId(Long.valueOf(3));
+        roleDao = new InMemoryRoleDao(userRole);
+        userDao = new InMemoryUserDao(roleDao);
+    }
+
+    private User user(String email, String password, String name) {
+        User user = new User();
+        user.setEmail(email);
+        user.setPassword(password);
+        user.setName(name);
+        user.setRole(userRole);
+        return user;
+    }
+
+    @Test
+    public void testCreateGetUpdateDelete() throws UserNotFoundException {
+        User user = user("user@gmail.com", "password", "name");
+        userDao.createUser(user);
+        assertTrue(userDao.exists("user@gmail.com"));
+        assertSame(user, userDao.getUser("user@gmail.com"));
+        User updated = user("user@gmail.com", "newPassword", "name");
+        userDao.updateUser(updated);
+        assertEquals("newPassword", userDao.getUser("user@gmail.com").getPassword());
+        userDao.deleteUser("user@gmail.com");
+        assertFalse(userDao.exists("user@gmail.com"));
+    }
+
+    @Test(expected = UserNotFoundException.class)
+    public void testGetMissingUser() throws UserNotFoundException {
+        userDao.getUser("missing@gmail.com");
+    }
+
+    @Test(expected = UserNotFoundException.class)
+    public void testDeleteMissingUser() throws UserNotFoundException {
+        userDao.deleteUser("missing@gmail.com");
+    }
+
+    @Test(expected = UserNotFoundException.class)
+    public void testUpdateMissingUser() throws UserNotFoundException {
+        userDao.updateUser(user("missing@gmail.com", "password", "name"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCreateDuplicatedUser() {
+        userDao.createUser(user("user@gmail.com", "password", "name"));
+        userDao.createUser(user("user@gmail.com", "otherPassword", "name"));
+    }
+
+    @Test(expected = RoleNotFoundException.class)
+    public void testMissingRole() throws RoleNotFoundException {
+        roleDao.getRoleById(Long.valueOf(10));
+    }
+
+    @Test
+    public void testSnapshotAndRestore() throws IOException, UserNotFoundException {
+        userDao.createUser(user("user@gmail.com", "pass\tword\\", "first\nname"));
+        userDao.createUser(user("other@gmail.com", "password", null));
+        File snapshot = File.createTempFile("users", ".snapshot");
+        try {
+            userDao.snapshot(snapshot);
+            InMemoryUserDao restored = new InMemoryUserDao(roleDao);
+            assertEquals(2, restored.restore(snapshot));
+            User user = restored.getUser("user@gmail.com");
+            assertEquals("pass\tword\\", user.getPassword());
+            assertEquals("first\nname", user.getName());
+            assertSame(userRole, user.getRole());
+            assertNull(restored.getUser("other@gmail.com").getName());
+        } finally {
+            snapshot.delete();
+        }
+    }
+
+    @Test
+    public void testSnapshotKeepsTheIdOfTheUsers() throws IOException, UserNotFoundException {
+        User user = user("user@gmail.com", "password", "name");
+        user.setId(Long.valueOf(42));
+        userDao.createUser(user);
+        userDao.createUser(user("other@gmail.com", "password", "name"));
+        File snapshot = File.createTempFile("users", ".snapshot");
+        try {
+            userDao.snapshot(snapshot);
+            InMemoryUserDao restored = new InMemoryUserDao(roleDao);
+            assertEquals(2, restored.restore(snapshot));
+            assertEquals(Long.valueOf(42), restored.getUser("user@gmail.com").getId());
+            assertNull(restored.getUser("other@gmail.com").getId());
+        } finally {
+            snapshot.delete();
+        }
+    }
+
+    @Test
+    public void testVersionedPasswordUpdate() throws UserNotFoundException {
+        User user = user("user@gmail.com", "password", "name");
+        userDao.createUser(user);
+        long version = userDao.getVersion("user@gmail.com");
+        CredentialUpdate update = userDao.updatePassword("user@gmail.com", "newPassword", version);
+        assertTrue(update.isApplied());
+        assertEquals(version + 1, update.getVersion());
+        User updated = userDao.getUser("user@gmail.com");
+        assertEquals("newPassword", updated.getPassword());
+        assertEquals("name", updated.getName());
+        assertSame(userRole, updated.getRole());
+        assertEquals("password", user.getPassword());
+
+        CredentialUpdate conflict = userDao.updatePassword("user@gmail.com", "otherPassword", version);
+        assertFalse(conflict.isApplied());
+        assertEquals(version + 1, conflict.getVersion());
+        assertEquals("newPassword", userDao.getUser("user@gmail.com").getPassword());
+        assertTrue(userDao.updatePassword("user@gmail.com", "otherPassword", CredentialStore.ANY_VERSION).isApplied());
+    }
+
+    @Test
+    public void testPasswordUpdateKeepsEveryField() throws UserNotFoundException {
+        User user = user("user@gmail.com", "password", "name");
+        user.setId(Long.valueOf(7));
+        userDao.createUser(user);
+        userDao.updatePassword("user@gmail.com", "newPassword", CredentialStore.ANY_VERSION);
+        User updated = userDao.getUser("user@gmail.com");
+        assertEquals(Long.valueOf(7), updated.getId());
+        assertEquals("name", updated.getName());
+        assertSame(userRole, updated.getRole());
+    }
+
+    @Test
+    public void testVersionsAreNotReused() throws IOException, UserNotFoundException {
+        userDao.createUser(user("user@gmail.com", "password", "name"));
+        long version = userDao.getVersion("user@gmail.com");
+        //deleted and created again, a version read before must not match the new user
+        userDao.deleteUser("user@gmail.com");
+        userDao.createUser(user("user@gmail.com", "otherPassword", "name"));
+        assertTrue(userDao.getVersion("user@gmail.com") > version);
+        assertFalse(userDao.updatePassword("user@gmail.com", "newPassword", version).isApplied());
+        version = userDao.getVersion("user@gmail.com");
+        File snapshot = File.createTempFile("users", ".snapshot");
+        try {
+            userDao.snapshot(snapshot);
+            userDao.restore(snapshot);
+        } finally {
+            snapshot.delete();
+        }
+        assertTrue(userDao.getVersion("user@gmail.com") > version);
+    }
+
+    @Test(expected = UserNotFoundException.class)
+    public void testPasswordUpdateOfMissingUser() throws UserNotFoundException {
+        userDao.updatePassword("missing@gmail.com", "password", CredentialStore.ANY_VERSION);
+    }
+
+    @Test
+    public void testConcurrentPasswordUpdatesAreNotLost() throws Exception {
+        userDao.createUser(user("user@gmail.com", "0", "name"));
+        final int threads = 4;
+        final int updates = 500;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < updates; i++) {
+                            //read, modify and write back the password, retrying on conflicts
+                            while (true) {
+                                long version = userDao.getVersion("user@gmail.com");
+                                int value = Integer.parseInt(userDao.getUser("user@gmail.com").getPassword());
+                                if (userDao.updatePassword("user@gmail.com", String.valueOf(value + 1), version).isApplied()) {
+                                    break;
+                                }
+                            }
+                        }
+                    } catch (UserNotFoundException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(String.valueOf(threads * updates), userDao.getUser("user@gmail.com").getPassword());
+    }
+}
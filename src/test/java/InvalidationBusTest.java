@@ -0,0 +1,254 @@
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.usermanager.TokenCache;
+import edu.umflix.usermanager.invalidation.DatagramInvalidationBus;
+import edu.umflix.usermanager.invalidation.Invalidation;
+import edu.umflix.usermanager.invalidation.InvalidationListener;
+import edu.umflix.usermanager.invalidation.LoopbackInvalidationBus;
+import edu.umflix.usermanager.invalidation.NodeInvalidationBus;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the invalidation buses, the datagram ones talk to each other over the loopback interface
+ */
+public class InvalidationBusTest {
+
+    List<AutoCloseable> toClose = new ArrayList<AutoCloseable>();
+
+    static class RecordingListener implements InvalidationListener {
+        final List<List<Invalidation>> batches = new CopyOnWriteArrayList<List<Invalidation>>();
+
+        public void onInvalidations(List<Invalidation> batch) {
+            batches.add(new ArrayList<Invalidation>(batch));
+        }
+
+        List<Invalidation> received() {
+            List<Invalidation> received = new ArrayList<Invalidation>();
+            for (List<Invalidation> batch : batches) {
+                received.addAll(batch);
+            }
+            return received;
+        }
+
+        boolean await(Invalidation invalidation) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (System.nanoTime() < deadline) {
+                if (received().contains(invalidation)) {
+                    return true;
+                }
+                Thread.sleep(5);
+            }
+            return false;
+        }
+    }
+
+    @After
+    public void close() throws Exception {
+        for (AutoCloseable closeable : toClose) {
+            closeable.close();
+        }
+    }
+
+    LoopbackInvalidationBus loopback(int capacity, int maxBatch, long flushMillis) {
+        final LoopbackInvalidationBus bus = new LoopbackInvalidationBus(capacity, maxBatch, flushMillis, TimeUnit.MILLISECONDS);
+        toClose.add(new AutoCloseable() {
+            public void close() {
+                bus.close();
+            }
+        });
+        return bus;
+    }
+
+    //A free loopback address, so two buses can name each other as peers before either is bound
+    static InetSocketAddress freeAddress() throws Exception {
+        DatagramSocket probe = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        try {
+            return (InetSocketAddress) probe.getLocalSocketAddress();
+        } finally {
+            probe.close();
+        }
+    }
+
+    DatagramInvalidationBus datagram(InetSocketAddress bind, List<InetSocketAddress> peers) throws Exception {
+        final DatagramInvalidationBus bus = new DatagramInvalidationBus(bind, peers);
+        toClose.add(new AutoCloseable() {
+            public void close() {
+                bus.close();
+            }
+        });
+        return bus;
+    }
+
+    @Test
+    public void testLoopbackDeliversInOrderWithoutRepeats() throws Exception {
+        LoopbackInvalidationBus bus = loopback(1000, 100, 50);
+        RecordingListener listener = new RecordingListener();
+        final CountDownLatch delivering = new CountDownLatch(1);
+        final CountDownLatch published = new CountDownLatch(1);
+        //holds the flusher in the first batch, so the next four are queued and drained together
+        bus.subscribe(new InvalidationListener() {
+            public void onInvalidations(List<Invalidation> batch) {
+                if (delivering.getCount() > 0) {
+                    delivering.countDown();
+                    try {
+                        published.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        bus.publish(Invalidation.user("first@umflix.com"));
+        assertTrue(delivering.await(5, TimeUnit.SECONDS));
+        bus.subscribe(listener);
+        bus.publish(Invalidation.user("a@umflix.com"));
+        bus.publish(Invalidation.role(3L));
+        bus.publish(Invalidation.user("a@umflix.com"));
+        bus.publish(Invalidation.user("b@umflix.com"));
+        published.countDown();
+        assertTrue(listener.await(Invalidation.user("b@umflix.com")));
+        assertEquals(Arrays.asList(Invalidation.user("a@umflix.com"), Invalidation.role(3L), Invalidation.user("b@umflix.com")),
+                listener.received());
+        assertEquals(5, bus.getPublished());
+    }
+
+    @Test
+    public void testPublishDoesNotWaitForSlowListeners() throws Exception {
+        LoopbackInvalidationBus bus = loopback(1000, 10, 1);
+        RecordingListener slow = new RecordingListener() {
+            @Override
+            public void onInvalidations(List<Invalidation> batch) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onInvalidations(batch);
+            }
+        };
+        bus.subscribe(slow);
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            bus.publish(Invalidation.user("user" + i + "@umflix.com"));
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(slow.await(Invalidation.user("user99@umflix.com")));
+    }
+
+    @Test
+    public void testOverflowIsReplacedByAll() throws Exception {
+        LoopbackInvalidationBus bus = loopback(2, 10, 1);
+        RecordingListener slow = new RecordingListener() {
+            @Override
+            public void onInvalidations(List<Invalidation> batch) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onInvalidations(batch);
+            }
+        };
+        bus.subscribe(slow);
+        for (int i = 0; i < 50; i++) {
+            bus.publish(Invalidation.user("user" + i + "@umflix.com"));
+        }
+        assertTrue(bus.getDropped() > 0);
+        assertTrue(slow.await(Invalidation.all()));
+    }
+
+    @Test
+    public void testDatagramBusesReachEachOther() throws Exception {
+        InetSocketAddress firstAddress = freeAddress();
+        InetSocketAddress secondAddress = freeAddress();
+        DatagramInvalidationBus first = datagram(firstAddress, Collections.singletonList(secondAddress));
+        DatagramInvalidationBus second = datagram(secondAddress, Collections.singletonList(firstAddress));
+        RecordingListener onFirst = new RecordingListener();
+        RecordingListener onSecond = new RecordingListener();
+        first.subscribe(onFirst);
+        second.subscribe(onSecond);
+
+        second.publish(Invalidation.user("a@umflix.com"));
+        assertTrue(onFirst.await(Invalidation.user("a@umflix.com")));
+        assertTrue(onSecond.await(Invalidation.user("a@umflix.com")));
+        assertEquals(1, onFirst.received().size());
+        assertEquals(1, onSecond.received().size());
+        assertEquals(1, first.getReceived());
+    }
+
+    @Test
+    public void testDatagramBatchesLargerThanADatagramAreSplit() throws Exception {
+        InetSocketAddress firstAddress = freeAddress();
+        InetSocketAddress secondAddress = freeAddress();
+        DatagramInvalidationBus first = datagram(firstAddress, Collections.singletonList(secondAddress));
+        DatagramInvalidationBus second = datagram(secondAddress, Collections.singletonList(firstAddress));
+        RecordingListener onFirst = new RecordingListener();
+        first.subscribe(onFirst);
+        List<Invalidation> published = new ArrayList<Invalidation>();
+        for (int i = 0; i < 200; i++) {
+            Invalidation invalidation = Invalidation.user("a.rather.long.user.name." + i + "@umflix.com");
+            published.add(invalidation);
+            second.publish(invalidation);
+        }
+        assertTrue(onFirst.await(published.get(199)));
+        assertEquals(new HashSet<Invalidation>(published), new HashSet<Invalidation>(onFirst.received()));
+        assertTrue(first.getReceived() > 1);
+    }
+
+    @Test
+    public void testDatagramsFromOtherHostsThanThePeersAreDropped() throws Exception {
+        InetSocketAddress firstAddress = freeAddress();
+        InetSocketAddress peerAddress = freeAddress();
+        DatagramInvalidationBus first = datagram(firstAddress, Collections.singletonList(peerAddress));
+        DatagramInvalidationBus stranger = datagram(freeAddress(), Collections.singletonList(firstAddress));
+        RecordingListener onFirst = new RecordingListener();
+        first.subscribe(onFirst);
+        stranger.publish(Invalidation.all());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (first.getRejected() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, first.getRejected());
+        assertEquals(0, first.getReceived());
+        assertTrue(onFirst.received().isEmpty());
+    }
+
+    @Test
+    public void testTokenCacheDropsTheTokensOfInvalidatedUsers() throws Exception {
+        LoopbackInvalidationBus bus = loopback(1000, 100, 1);
+        TokenCache tokenCache = new TokenCache();
+        bus.subscribe(tokenCache);
+        User user = new User();
+        user.setEmail("a@umflix.com");
+        user.setRole(new Role());
+        tokenCache.put("token", user);
+        RecordingListener listener = new RecordingListener();
+        bus.subscribe(listener);
+        bus.publish(Invalidation.user("a@umflix.com"));
+        assertTrue(listener.await(Invalidation.user("a@umflix.com")));
+        assertNull(tokenCache.get("token"));
+    }
+
+    @Test
+    public void testParsePeers() {
+        assertEquals(Arrays.asList(new InetSocketAddress("localhost", 7600), new InetSocketAddress("10.0.0.2", 7601)),
+                NodeInvalidationBus.parsePeers("localhost:7600, 10.0.0.2:7601,"));
+        assertTrue(NodeInvalidationBus.parsePeers("").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParsePeersWithoutPort() {
+        NodeInvalidationBus.parsePeers("localhost");
+    }
+}
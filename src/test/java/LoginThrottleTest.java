@@ -0,0 +1,57 @@
+import edu.umflix.usermanager.LoginThrottle;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for LoginThrottle
+ */
+public class LoginThrottleTest {
+
+    @Test
+    public void testBurstThenReject() {
+        LoginThrottle loginThrottle = new LoginThrottle(0.001, 3, 10);
+        assertTrue(loginThrottle.tryAcquire("user@gmail.com"));
+        assertTrue(loginThrottle.tryAcquire("user@gmail.com"));
+        assertTrue(loginThrottle.tryAcquire("user@gmail.com"));
+        assertFalse(loginThrottle.tryAcquire("user@gmail.com"));
+        assertTrue(loginThrottle.tryAcquire("other@gmail.com"));
+        assertEquals(4, loginThrottle.getAllowed());
+        assertEquals(1, loginThrottle.getRejected());
+        assertEquals(2, loginThrottle.getTrackedEmails());
+    }
+
+    @Test
+    public void testBucketRefills() throws InterruptedException {
+        LoginThrottle loginThrottle = new LoginThrottle(100, 1, 10);
+        assertTrue(loginThrottle.tryAcquire("user@gmail.com"));
+        assertFalse(loginThrottle.tryAcquire("user@gmail.com"));
+        Thread.sleep(50);
+        assertTrue(loginThrottle.tryAcquire("user@gmail.com"));
+    }
+
+    @Test
+    public void testIdleBucketsAreEvicted() throws InterruptedException {
+        LoginThrottle loginThrottle = new LoginThrottle(1000, 1, 2);
+        loginThrottle.tryAcquire("first@gmail.com");
+        loginThrottle.tryAcquire("second@gmail.com");
+        Thread.sleep(150);
+        assertTrue(loginThrottle.tryAcquire("third@gmail.com"));
+        assertEquals(1, loginThrottle.getTrackedEmails());
+        assertEquals(0, loginThrottle.getUntracked());
+    }
+
+    @Test
+    public void testActiveBucketsAreKeptWhenFull() {
+        LoginThrottle loginThrottle = new LoginThrottle(0.001, 1, 1);
+        loginThrottle.tryAcquire("first@gmail.com");
+        assertTrue(loginThrottle.tryAcquire("second@gmail.com"));
+        assertEquals(1, loginThrottle.getUntracked());
+        assertFalse(loginThrottle.tryAcquire("first@gmail.com"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRate() {
+        new LoginThrottle(0, 1, 1);
+    }
+}
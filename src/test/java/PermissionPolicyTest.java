@@ -0,0 +1,99 @@
+import edu.umflix.model.Role;
+import edu.umflix.usermanager.Permission;
+import edu.umflix.usermanager.PermissionPolicy;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for PermissionPolicy
+ */
+public class PermissionPolicyTest {
+
+    private static Role role(long id) {
+        Role role = new Role();
+        role.setId(Long.valueOf(id));
+        return role;
+    }
+
+    private static void write(File file, String policy) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(policy.getBytes(StandardCharsets.ISO_8859_1));
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testDefaultPolicy() {
+        PermissionPolicy policy = new PermissionPolicy((File) null);
+        assertTrue(policy.canDelete(role(1), false));
+        assertTrue(policy.canUpdate(role(1), false));
+        assertTrue(policy.permits(role(1), Permission.LIST_USERS));
+        assertTrue(policy.canDelete(role(3), true));
+        assertTrue(policy.canUpdate(role(3), true));
+        assertFalse(policy.canDelete(role(3), false));
+        assertFalse(policy.canUpdate(role(3), false));
+        assertFalse(policy.permits(role(3), Permission.LIST_USERS));
+        assertTrue(policy.canUpdate(null, true));
+        assertFalse(policy.canUpdate(null, false));
+    }
+
+    @Test
+    public void testSupportRole() {
+        Properties rules = PermissionPolicy.defaultPolicy();
+        rules.setProperty("role.4", "UPDATE_ANY");
+        rules.setProperty("role.5000000000", "DELETE_ANY");
+        PermissionPolicy policy = new PermissionPolicy(rules);
+        assertTrue(policy.canUpdate(role(4), false));
+        assertTrue(policy.canUpdate(role(4), true));
+        assertFalse(policy.canDelete(role(4), true));
+        assertTrue(policy.canDelete(role(5000000000L), false));
+        assertTrue(policy.canDelete(role(7), true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownPermission() {
+        Properties rules = new Properties();
+        rules.setProperty("role.1", "DELETE_EVERYTHING");
+        new PermissionPolicy(rules);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRoleId() {
+        Properties rules = new Properties();
+        rules.setProperty("role.admin", "DELETE_ANY");
+        new PermissionPolicy(rules);
+    }
+
+    @Test
+    public void testReloadFromFile() throws IOException {
+        File file = File.createTempFile("permissions", ".properties");
+        try {
+            write(file, "role.1=DELETE_ANY\ndefault=UPDATE_SELF\n");
+            PermissionPolicy policy = new PermissionPolicy(file);
+            assertFalse(policy.canDelete(role(3), true));
+            assertFalse(policy.canUpdate(role(1), false));
+
+            write(file, "role.1=DELETE_ANY,UPDATE_ANY\ndefault=UPDATE_SELF,DELETE_SELF\n");
+            assertTrue(policy.reload());
+            assertTrue(policy.canDelete(role(3), true));
+            assertTrue(policy.canUpdate(role(1), false));
+
+            write(file, "role.1=NOTHING\n");
+            assertFalse(policy.reload());
+            assertTrue(policy.canUpdate(role(1), false));
+            assertEquals(1, policy.getReloads());
+            assertEquals(1, policy.getFailedReloads());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import edu.umflix.exceptions.RoleNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.persistence.RoleDao;
+import edu.umflix.usermanager.RoleDirectory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for RoleDirectory
+ */
+public class RoleDirectoryTest {
+
+    RoleDao roleDao;
+    Role userRole;
+    Role adminRole;
+
+    @Before
+    public void prepare() throws RoleNotFoundException {
+        roleDao = mock(RoleDao.class);
+        userRole = mock(Role.class);
+        adminRole = mock(Role.class);
+        when(roleDao.getRoleById(Long.valueOf(3))).thenReturn(userRole);
+        when(roleDao.getRoleById(Long.valueOf(1))).thenReturn(adminRole);
+    }
+
+    @Test
+    public void testRoleIsLoadedOnce() throws RoleNotFoundException {
+        RoleDirectory roleDirectory = new RoleDirectory(roleDao);
+        assertSame(userRole, roleDirectory.getRole(Long.valueOf(3)));
+        assertSame(userRole, roleDirectory.getRole(Long.valueOf(3)));
+        verify(roleDao, times(1)).getRoleById(Long.valueOf(3));
+        assertEquals(1, roleDirectory.getHits());
+        assertEquals(1, roleDirectory.getMisses());
+    }
+
+    @Test
+    public void testIsAdmin() throws RoleNotFoundException {
+        RoleDirectory roleDirectory = new RoleDirectory(roleDao);
+        assertTrue(roleDirectory.isAdmin(adminRole));
+        assertFalse(roleDirectory.isAdmin(userRole));
+        assertFalse(roleDirectory.isAdmin(null));
+        verify(roleDao, times(1)).getRoleById(Long.valueOf(1));
+    }
+
+    @Test
+    public void testInvalidateReloads() throws RoleNotFoundException {
+        RoleDirectory roleDirectory = new RoleDirectory(roleDao);
+        roleDirectory.getRole(Long.valueOf(3));
+        roleDirectory.invalidate(Long.valueOf(3));
+        roleDirectory.getRole(Long.valueOf(3));
+        roleDirectory.invalidateAll();
+        roleDirectory.getRole(Long.valueOf(3));
+        verify(roleDao, times(3)).getRoleById(Long.valueOf(3));
+    }
+
+    @Test
+    public void testExpiredRoleIsReloaded() throws RoleNotFoundException {
+        RoleDirectory roleDirectory = new RoleDirectory(roleDao, 0, TimeUnit.MILLISECONDS);
+        roleDirectory.getRole(Long.valueOf(3));
+        roleDirectory.getRole(Long.valueOf(3));
+        verify(roleDao, times(2)).getRoleById(Long.valueOf(3));
+    }
+
+    @Test(expected = RoleNotFoundException.class)
+    public void testRoleNotFound() throws RoleNotFoundException {
+        when(roleDao.getRoleById(Long.valueOf(10))).thenThrow(mock(RoleNotFoundException.class));
+        new RoleDirectory(roleDao).getRole(Long.valueOf(10));
+    }
+}
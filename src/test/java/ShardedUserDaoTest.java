@@ -0,0 +1,305 @@
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.CredentialStore;
+import edu.umflix.usermanager.CredentialUpdate;
+import edu.umflix.usermanager.PagedUserSource;
+import edu.umflix.usermanager.persistence.InMemoryRoleDao;
+import edu.umflix.usermanager.persistence.InMemoryUserDao;
+import edu.umflix.usermanager.persistence.ShardedUserDao;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ShardedUserDao over in memory shards
+ */
+public class ShardedUserDaoTest {
+
+    static final int USERS = 4000;
+
+    InMemoryRoleDao roleDao;
+    Map<String, InMemoryUserDao> shards;
+    ShardedUserDao userDao;
+    Role userRole;
+
+    @Before
+    public void prepare() {
+        userRole = new Role();
+        userRole.setId(Long.valueOf(3));
+        roleDao = new InMemoryRoleDao(userRole);
+        shards = new LinkedHashMap<String, InMemoryUserDao>();
+        for (int i = 0; i < 3; i++) {
+            shards.put("shard" + i, new InMemoryUserDao(roleDao));
+        }
+        userDao = ShardedUserDao.of(shards);
+    }
+
+    private User user(String email, String password) {
+        User user = new User();
+        user.setEmail(email);
+        user.setPassword(password);
+        user.setName("name");
+        user.setRole(userRole);
+        return user;
+    }
+
+    private static String email(int i) {
+        return "user" + i + "@umflix.com";
+    }
+
+    private int stored() {
+        int stored = 0;
+        for (InMemoryUserDao shard : shards.values()) {
+            stored += shard.size();
+        }
+        return stored;
+    }
+
+    @Test
+    public void testUsersAreSpreadOverTheShards() throws UserNotFoundException {
+        for (int i = 0; i < USERS; i++) {
+            userDao.createUser(user(email(i), "password"));
+        }
+        assertEquals(USERS, stored());
+        for (Map.Entry<String, InMemoryUserDao> shard : shards.entrySet()) {
+            //each of the three shards gets a third, give or take what 128 virtual nodes allow
+            assertTrue(shard.getKey() + " has " + shard.getValue().size(), shard.getValue().size() > USERS / 5);
+        }
+        for (int i = 0; i < USERS; i += 97) {
+            assertTrue(shards.get(userDao.shardOf(email(i))).exists(email(i)));
+            assertEquals(email(i), userDao.getUser(email(i)).getEmail());
+        }
+    }
+
+    @Test
+    public void testCrudThroughTheRouter() throws UserNotFoundException {
+        userDao.createUser(user("a@umflix.com", "password"));
+        assertTrue(userDao.exists("a@umflix.com"));
+        assertEquals(Collections.singleton("a@umflix.com"), userDao.existing(Arrays.asList("a@umflix.com", "b@umflix.com")));
+        userDao.updateUser(user("a@umflix.com", "newPassword"));
+        assertEquals("newPassword", userDao.getUser("a@umflix.com").getPassword());
+        CredentialStore versions = (CredentialStore) userDao;
+        long version = versions.getVersion("a@umflix.com");
+        CredentialUpdate update = versions.updatePassword("a@umflix.com", "thirdPassword", version);
+        assertTrue(update.isApplied());
+        assertFalse(versions.updatePassword("a@umflix.com", "fourthPassword", version).isApplied());
+        userDao.deleteUser("a@umflix.com");
+        assertFalse(userDao.exists("a@umflix.com"));
+        assertEquals(0, stored());
+    }
+
+    @Test(expected = UserNotFoundException.class)
+    public void testDeleteMissingUser() throws UserNotFoundException {
+        userDao.deleteUser("missing@umflix.com");
+    }
+
+    @Test
+    public void testPagesAreMergedInEmailOrder() {
+        List<User> users = new ArrayList<User>();
+        for (int i = 0; i < 300; i++) {
+            users.add(user(email(i), "password"));
+        }
+        userDao.createUsers(users);
+        List<String> emails = new ArrayList<String>();
+        String after = null;
+        List<User> page;
+        while (!(page = ((PagedUserSource) userDao).page(after, 40)).isEmpty()) {
+            for (User user : page) {
+                emails.add(user.getEmail());
+            }
+            after = page.get(page.size() - 1).getEmail();
+        }
+        List<String> expected = new ArrayList<String>();
+        for (User user : users) {
+            expected.add(user.getEmail());
+        }
+        Collections.sort(expected);
+        assertEquals(expected, emails);
+    }
+
+    @Test
+    public void testAddShardMovesOnlyItsUsers() throws Exception {
+        for (int i = 0; i < USERS; i++) {
+            userDao.createUser(user(email(i), "password"));
+        }
+        Map<String, String> before = new HashMap<String, String>();
+        for (int i = 0; i < USERS; i++) {
+            before.put(email(i), userDao.shardOf(email(i)));
+        }
+        InMemoryUserDao added = new InMemoryUserDao(roleDao);
+        long moved = userDao.addShard("shard3", added).get(10, TimeUnit.SECONDS);
+        shards.put("shard3", added);
+        assertFalse(userDao.isRebalancing());
+        assertEquals(added.size(), moved);
+        assertTrue(moved > USERS / 8 && moved < USERS / 2);
+        assertEquals(USERS, stored());
+        for (int i = 0; i < USERS; i++) {
+            String shard = userDao.shardOf(email(i));
+            assertTrue(shard.equals(before.get(email(i))) || shard.equals("shard3"));
+            assertTrue(shards.get(shard).exists(email(i)));
+        }
+    }
+
+    @Test
+    public void testFailedRebalanceKeepsTheUsersReachableAndResumes() throws Exception {
+        for (int i = 0; i < USERS; i++) {
+            userDao.createUser(user(email(i), "password"));
+        }
+        final AtomicBoolean down = new AtomicBoolean();
+        final AtomicInteger created = new AtomicInteger();
+        InMemoryUserDao added = new InMemoryUserDao(roleDao) {
+            @Override
+            public void createUser(User user) {
+                if (created.incrementAndGet() > 100 && down.compareAndSet(false, true)) {
+                    throw new IllegalStateException("shard down");
+                }
+                super.createUser(user);
+            }
+        };
+        try {
+            userDao.addShard("shard3", added).get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("shard down", e.getCause().getMessage());
+        }
+        shards.put("shard3", added);
+        assertTrue(userDao.isRebalancing());
+        assertEquals(100, added.size());
+        for (int i = 0; i < USERS; i++) {
+            assertEquals(email(i), userDao.getUser(email(i)).getEmail());
+        }
+        try {
+            userDao.addShard("shard4", new InMemoryUserDao(roleDao));
+            fail();
+        } catch (IllegalStateException e) {
+            //expected, the users of shard3 are not all moved
+        }
+        long moved = userDao.resumeRebalance().get(10, TimeUnit.SECONDS);
+        assertFalse(userDao.isRebalancing());
+        assertEquals(added.size() - 100, moved);
+        assertEquals(USERS, stored());
+        for (int i = 0; i < USERS; i++) {
+            assertTrue(shards.get(userDao.shardOf(email(i))).exists(email(i)));
+        }
+    }
+
+    @Test
+    public void testWritesDuringRebalanceAreNotLost() throws Exception {
+        for (int i = 0; i < USERS; i++) {
+            userDao.createUser(user(email(i), "password"));
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+        List<Future<Map<String, String>>> results = new ArrayList<Future<Map<String, String>>>();
+        for (int t = 0; t < 4; t++) {
+            final int writer = t;
+            results.add(writers.submit(new Callable<Map<String, String>>() {
+                @Override
+                public Map<String, String> call() throws Exception {
+                    Map<String, String> written = new HashMap<String, String>();
+                    int round = 0;
+                    while (!done.get() || round < 2) {
+                        for (int i = writer; i < USERS; i += 4) {
+                            String password = "password" + round;
+                            ((CredentialStore) userDao).updatePassword(email(i), password, CredentialStore.ANY_VERSION);
+                            written.put(email(i), password);
+                        }
+                        round++;
+                    }
+                    return written;
+                }
+            }));
+        }
+        userDao.addShard("shard3", new InMemoryUserDao(roleDao)).get(10, TimeUnit.SECONDS);
+        done.set(true);
+        for (Future<Map<String, String>> result : results) {
+            for (Map.Entry<String, String> written : result.get(10, TimeUnit.SECONDS).entrySet()) {
+                assertEquals(written.getValue(), userDao.getUser(written.getKey()).getPassword());
+            }
+        }
+        writers.shutdown();
+        assertEquals(USERS, ((PagedUserSource) userDao).page(null, USERS + 1).size());
+    }
+
+    @Test
+    public void testOnlyWhatEveryShardOffersIsOffered() throws UserNotFoundException {
+        Map<String, UserDao> mixed = new LinkedHashMap<String, UserDao>();
+        mixed.put("versioned", new InMemoryUserDao(roleDao));
+        mixed.put("plain", new PlainDao(new InMemoryUserDao(roleDao)));
+        ShardedUserDao dao = ShardedUserDao.of(mixed);
+        assertFalse(dao instanceof CredentialStore);
+        assertFalse(dao instanceof PagedUserSource);
+        for (int i = 0; i < 20; i++) {
+            dao.createUser(user(email(i), "password"));
+        }
+        assertTrue(dao.exists(email(7)));
+        assertEquals("password", dao.getUser(email(7)).getPassword());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShardWithoutVersionsIsRefused() {
+        userDao.addShard("plain", new PlainDao(new InMemoryUserDao(roleDao)));
+    }
+
+    @Test
+    public void testStatsCountFailures() {
+        Map<String, UserDao> failing = new HashMap<String, UserDao>();
+        failing.put("broken", new InMemoryUserDao(roleDao) {
+            @Override
+            public boolean exists(String email) {
+                throw new IllegalStateException("down");
+            }
+        });
+        ShardedUserDao dao = ShardedUserDao.of(failing);
+        for (int i = 0; i < 3; i++) {
+            try {
+                dao.exists(email(i));
+                fail();
+            } catch (IllegalStateException e) {
+                //expected
+            }
+        }
+        ShardedUserDao.ShardStats stats = dao.getShardStats().get(0);
+        assertEquals("broken", stats.getName());
+        assertEquals(3, stats.getCalls());
+        assertEquals(3, stats.getFailures());
+        assertFalse(stats.isHealthy());
+        dao.createUser(user("a@umflix.com", "password"));
+        assertTrue(dao.getShardStats().get(0).isHealthy());
+    }
+
+    /**
+     * A UserDao without any of the capabilities of the UserManager
+     */
+    static class PlainDao implements UserDao {
+        private final UserDao store;
+
+        PlainDao(UserDao store) {
+            this.store = store;
+        }
+
+        public User getUser(String email) throws UserNotFoundException {
+            return store.getUser(email);
+        }
+
+        public void createUser(User user) {
+            store.createUser(user);
+        }
+
+        public void deleteUser(String email) throws UserNotFoundException {
+            store.deleteUser(email);
+        }
+
+        public void updateUser(User user) throws UserNotFoundException {
+            store.updateUser(user);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.usermanager.SingleFlight;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for SingleFlight
+ */
+public class SingleFlightTest {
+
+    static final int CALLERS = 8;
+
+    private List<Future<Object>> callConcurrently(final SingleFlight<String, String> singleFlight, final SingleFlight.Call<String, UserNotFoundException> call, ExecutorService executor) throws InterruptedException {
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(() -> {
+                try {
+                    return singleFlight.execute("user@gmail.com", call, UserNotFoundException.class);
+                } catch (UserNotFoundException e) {
+                    return e;
+                }
+            }));
+        }
+        return results;
+    }
+
+    private void awaitCoalesced(SingleFlight<String, String> singleFlight, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (singleFlight.getCoalesced() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testConcurrentCallsShareResult() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger backendCalls = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<Object>> results = callConcurrently(singleFlight, () -> {
+                backendCalls.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "result";
+            }, executor);
+            awaitCoalesced(singleFlight, CALLERS - 1);
+            release.countDown();
+            for (Future<Object> result : results) {
+                assertEquals("result", result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, backendCalls.get());
+            assertEquals(CALLERS - 1, singleFlight.getCoalesced());
+            assertEquals(0, singleFlight.getInFlight());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentCallsShareException() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        final CountDownLatch release = new CountDownLatch(1);
+        final UserNotFoundException notFound = new UserNotFoundException();
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<Object>> results = callConcurrently(singleFlight, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw notFound;
+            }, executor);
+            awaitCoalesced(singleFlight, CALLERS - 1);
+            release.countDown();
+            for (Future<Object> result : results) {
+                assertSame(notFound, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSequentialCallsAreNotCoalesced() throws UserNotFoundException {
+        SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        final AtomicInteger backendCalls = new AtomicInteger();
+        SingleFlight.Call<String, UserNotFoundException> call = () -> "result" + backendCalls.incrementAndGet();
+        assertEquals("result1", singleFlight.execute("user@gmail.com", call, UserNotFoundException.class));
+        assertEquals("result2", singleFlight.execute("user@gmail.com", call, UserNotFoundException.class));
+        assertEquals(0, singleFlight.getCoalesced());
+        assertEquals(2, singleFlight.getCalls());
+    }
+}
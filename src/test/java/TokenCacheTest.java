@@ -0,0 +1,97 @@
+import edu.umflix.model.User;
+import edu.umflix.usermanager.TokenCache;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for TokenCache
+ */
+public class TokenCacheTest {
+
+    private User mockUser(String email) {
+        User user = mock(User.class);
+        when(user.getEmail()).thenReturn(email);
+        return user;
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        TokenCache tokenCache = new TokenCache();
+        User user = mockUser("user@gmail.com");
+        assertNull(tokenCache.get("userToken"));
+        tokenCache.put("userToken", user);
+        assertSame(user, tokenCache.get("userToken"));
+        assertEquals(1, tokenCache.getHits());
+        assertEquals(1, tokenCache.getMisses());
+    }
+
+    @Test
+    public void testExpireAfterWrite() {
+        TokenCache tokenCache = new TokenCache(10, 0, TimeUnit.MILLISECONDS);
+        tokenCache.put("userToken", mockUser("user@gmail.com"));
+        assertNull(tokenCache.get("userToken"));
+    }
+
+    @Test
+    public void testOldestEntriesAreEvictedWhenFull() {
+        TokenCache tokenCache = new TokenCache(2, 1, TimeUnit.MINUTES);
+        tokenCache.put("first", mockUser("first@gmail.com"));
+        tokenCache.put("second", mockUser("second@gmail.com"));
+        tokenCache.put("third", mockUser("third@gmail.com"));
+        assertEquals(2, tokenCache.size());
+        assertNull(tokenCache.get("first"));
+        assertNotNull(tokenCache.get("second"));
+        assertNotNull(tokenCache.get("third"));
+        assertEquals(1, tokenCache.getEvictions());
+    }
+
+    @Test
+    public void testEvictUser() {
+        TokenCache tokenCache = new TokenCache();
+        tokenCache.put("browserToken", mockUser("user@gmail.com"));
+        tokenCache.put("mobileToken", mockUser("user@gmail.com"));
+        tokenCache.put("otherToken", mockUser("other@gmail.com"));
+        tokenCache.evictUser("user@gmail.com");
+        assertNull(tokenCache.get("browserToken"));
+        assertNull(tokenCache.get("mobileToken"));
+        assertNotNull(tokenCache.get("otherToken"));
+    }
+
+    @Test
+    public void testEvictUserIgnoresEmailCase() {
+        TokenCache tokenCache = new TokenCache();
+        tokenCache.put("userToken", mockUser(" User@Gmail.com"));
+        tokenCache.evictUser("user@gmail.com");
+        assertNull(tokenCache.get("userToken"));
+        assertEquals(1, tokenCache.getEvictions());
+    }
+
+    @Test
+    public void testEvictUserKeepsTokensWrittenForAnotherUser() {
+        TokenCache tokenCache = new TokenCache();
+        User other = mockUser("other@gmail.com");
+        tokenCache.put("sharedToken", mockUser("user@gmail.com"));
+        tokenCache.put("sharedToken", other);
+        tokenCache.evictUser("user@gmail.com");
+        assertSame(other, tokenCache.get("sharedToken"));
+    }
+
+    @Test
+    public void testEvictedTokensDoNotCountAgainstTheSize() {
+        TokenCache tokenCache = new TokenCache(2, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 10; i++) {
+            tokenCache.put("token" + i, mockUser("user" + i + "@gmail.com"));
+            tokenCache.evict("token" + i);
+        }
+        tokenCache.put("first", mockUser("first@gmail.com"));
+        tokenCache.put("second", mockUser("second@gmail.com"));
+        assertNotNull(tokenCache.get("first"));
+        assertNotNull(tokenCache.get("second"));
+        assertEquals(0, tokenCache.getEvictions());
+    }
+}
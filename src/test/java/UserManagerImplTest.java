@@ -7,6 +7,12 @@ import edu.umflix.model.Role;
 import edu.umflix.model.User;
 import edu.umflix.persistence.RoleDao;
 import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.CredentialStore;
+import edu.umflix.usermanager.CredentialUpdate;
+import edu.umflix.usermanager.LoginThrottle;
+import edu.umflix.usermanager.PermissionPolicy;
+import edu.umflix.usermanager.RegistrationResult;
+import edu.umflix.usermanager.RegistrationResult.Status;
 import edu.umflix.usermanager.exceptions.*;
 import edu.umflix.usermanager.impl.UserManagerImpl;
 import org.junit.Before;
@@ -14,6 +20,11 @@ import org.junit.Test;
 import org.mockito.Mockito;
 import stub.UserManagerToTest;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
@@ -149,6 +160,54 @@ public class UserManagerImplTest {
         }
     }
 
+    @Test
+    public void testRegisterMalformedEmailSkipsPersistence() throws UserNotFoundException, RoleNotFoundException {
+        User user = mockUser("not an email", "passwd", "name", userRole);
+        try {
+            userManager.register(user);
+            fail();
+        } catch (InvalidEmailException e) {
+            verify(roleDao, times(0)).getRoleById(any(Long.class));
+            verify(userDao, times(0)).getUser(any(String.class));
+        } catch (InvalidPasswordException e) {
+            fail();
+        } catch (InvalidRoleException e) {
+            fail();
+        } catch (EmailAlreadyTakenException e) {
+            fail();
+        }
+    }
+
+    @Test
+    public void testRegisterEmptyPasswordSkipsPersistence() throws UserNotFoundException, RoleNotFoundException {
+        User user = mockUser("user@gmail.com", "", "name", userRole);
+        try {
+            userManager.register(user);
+            fail();
+        } catch (InvalidPasswordException e) {
+            verify(roleDao, times(0)).getRoleById(any(Long.class));
+            verify(userDao, times(0)).getUser(any(String.class));
+        } catch (InvalidEmailException e) {
+            fail();
+        } catch (InvalidRoleException e) {
+            fail();
+        } catch (EmailAlreadyTakenException e) {
+            fail();
+        }
+    }
+
+    @Test
+    public void testUpdateEmptyPassword() throws InvalidTokenException, InvalidUserException, PermissionDeniedException, UserNotFoundException {
+        User user = mockUser("user@gmail.com", "password", null, null);
+        try {
+            userManager.update("userToken", user, "");
+            fail();
+        } catch (InvalidPasswordException e) {
+            verify(authenticationHandler, times(0)).getUserOfToken(any(String.class));
+            verify(userDao, times(0)).updateUser(any(User.class));
+        }
+    }
+
     @Test
     public void testRegisterNullRole() {
         User user = mockUser("invalid@hotmail.com", "passwd", "name", null);
@@ -234,6 +293,49 @@ public class UserManagerImplTest {
         }
     }
 
+    @Test
+    public void testRegisterAll() throws UserNotFoundException, RoleNotFoundException {
+        User valid = mockUser("valid@gmail.com", "passwd", "name", userRole);
+        User duplicated = mockUser("valid@gmail.com", "passwd", "name", userRole);
+        User taken = mockUser("taken@gmail.com", "passwd", "name", userRole);
+        User invalidRole = mockUser("role@gmail.com", "passwd", "name", mockRole(Long.valueOf(3)));
+        User nullEmail = mockUser(null, "passwd", "name", userRole);
+        User other = mockUser("other@gmail.com", "passwd", "name", userRole);
+        when(userDao.getUser("valid@gmail.com")).thenThrow(userNotFoundException);
+        when(userDao.getUser("other@gmail.com")).thenThrow(userNotFoundException);
+        when(userDao.getUser("taken@gmail.com")).thenReturn(taken);
+
+        List<RegistrationResult> results = userManager.registerAll(Arrays.asList(valid, duplicated, taken, invalidRole, nullEmail, null, other));
+
+        assertEquals(7, results.size());
+        assertEquals(Status.REGISTERED, results.get(0).getStatus());
+        assertEquals(Status.DUPLICATED_IN_BATCH, results.get(1).getStatus());
+        assertEquals(Status.EMAIL_TAKEN, results.get(2).getStatus());
+        assertEquals(Status.INVALID_ROLE, results.get(3).getStatus());
+        assertEquals(Status.INVALID_EMAIL, results.get(4).getStatus());
+        assertEquals(Status.INVALID_USER, results.get(5).getStatus());
+        assertEquals(Status.REGISTERED, results.get(6).getStatus());
+        verify(userDao, times(1)).createUser(valid);
+        verify(userDao, times(1)).createUser(other);
+        verify(userDao, times(0)).createUser(duplicated);
+        verify(userDao, times(0)).createUser(taken);
+        verify(roleDao, times(1)).getRoleById(Long.valueOf(3));
+    }
+
+    @Test
+    public void testRegisterAllCreationFailure() throws UserNotFoundException {
+        User valid = mockUser("valid@gmail.com", "passwd", "name", userRole);
+        User failing = mockUser("failing@gmail.com", "passwd", "name", userRole);
+        when(userDao.getUser("valid@gmail.com")).thenThrow(userNotFoundException);
+        when(userDao.getUser("failing@gmail.com")).thenThrow(userNotFoundException);
+        doThrow(new IllegalStateException()).when(userDao).createUser(failing);
+
+        List<RegistrationResult> results = userManager.registerAll(Arrays.asList(valid, failing));
+
+        assertEquals(Status.REGISTERED, results.get(0).getStatus());
+        assertEquals(Status.FAILED, results.get(1).getStatus());
+    }
+
     @Test
     public void testLoginValidUser() {
         try {
@@ -279,6 +381,36 @@ public class UserManagerImplTest {
         }
     }
 
+    @Test
+    public void testLoginThrottled() throws InvalidUserException {
+        User user = mockUser("email@hotmail.com", "passwd", null, null);
+        when(authenticationHandler.authenticate(user)).thenReturn("tokenUser");
+        ((UserManagerToTest) userManager).setLoginThrottle(new LoginThrottle(0.001, 2, 10));
+        userManager.login(user);
+        userManager.login(user);
+        try {
+            userManager.login(user);
+            fail();
+        } catch (InvalidUserException e) {
+            verify(authenticationHandler, times(2)).authenticate(user);
+        }
+    }
+
+    @Test
+    public void testLoginThrottledWhateverTheCaseOfTheEmail() throws InvalidUserException {
+        User user = mockUser("email@hotmail.com", "passwd", null, null);
+        User upperCaseUser = mockUser(" EMAIL@hotmail.com", "passwd", null, null);
+        when(authenticationHandler.authenticate(user)).thenReturn("tokenUser");
+        ((UserManagerToTest) userManager).setLoginThrottle(new LoginThrottle(0.001, 1, 10));
+        userManager.login(user);
+        try {
+            userManager.login(upperCaseUser);
+            fail();
+        } catch (InvalidUserException e) {
+            verify(authenticationHandler, times(1)).authenticate(any(User.class));
+        }
+    }
+
     @Test
     public void testValidUserDelete() {
         try {
@@ -299,6 +431,15 @@ public class UserManagerImplTest {
         }
     }
 
+    @Test
+    public void testOwnDeleteWithEmailInOtherCase() throws Exception {
+        User user = mockUser(" A@E.c", "123", null, null);
+        User storedUser = mockUser("a@e.c", "123", "name", userRole);
+        when(authenticationHandler.getUserOfToken("userToken")).thenReturn(storedUser);
+        userManager.delete("userToken", user);
+        verify(userDao, times(1)).deleteUser("a@e.c");
+    }
+
     @Test
     public void testValidAdminDelete() {
         try {
@@ -460,6 +601,38 @@ public class UserManagerImplTest {
         }
     }
 
+    @Test
+    public void testOwnUpdateWithEmailInOtherCase() throws Exception {
+        User user = mockUser("User@Gmail.com", "password", null, null);
+        User storedUser = mockUser("user@gmail.com", "password", "name", userRole);
+        when(authenticationHandler.getUserOfToken("userToken")).thenReturn(storedUser);
+        when(userDao.getUser("user@gmail.com")).thenReturn(storedUser);
+        userManager.update("userToken", user, "newPassword");
+        verify(userDao, times(1)).updateUser(storedUser);
+    }
+
+    @Test
+    public void testTokenIsResolvedOnce() throws InvalidTokenException, InvalidUserException, PermissionDeniedException, UserNotFoundException {
+        User user = mockUser("a@e.c", "123", null, null);
+        User admin = mockUser("admin@gmail.com", "adminPassword", "adminName", adminRole);
+        when(authenticationHandler.getUserOfToken("adminToken")).thenReturn(admin);
+        userManager.delete("adminToken", user);
+        userManager.delete("adminToken", user);
+        verify(authenticationHandler, times(1)).getUserOfToken("adminToken");
+        verify(userDao, times(2)).deleteUser("a@e.c");
+    }
+
+    @Test
+    public void testUpdateEvictsCachedTokens() throws Exception {
+        User user = mockUser("user@gmail.com", "password", null, null);
+        User storedUser = mockUser("user@gmail.com", "password", "name", userRole);
+        when(authenticationHandler.getUserOfToken("userToken")).thenReturn(storedUser);
+        when(userDao.getUser("user@gmail.com")).thenReturn(storedUser);
+        userManager.update("userToken", user, "newPassword");
+        userManager.update("userToken", user, "otherPassword");
+        verify(authenticationHandler, times(2)).getUserOfToken("userToken");
+    }
+
     @Test
     public void testAdminRoleNotFoundUpdate(){
         try{
@@ -621,4 +794,56 @@ public class UserManagerImplTest {
             fail();
         }
     }
+
+    interface VersionedUserDao extends UserDao, CredentialStore {
+    }
+
+    @Test
+    public void testUpdateWithCredentialStore() throws Exception {
+        VersionedUserDao versionedUserDao = mock(VersionedUserDao.class);
+        ((UserManagerToTest) userManager).setUserDao(versionedUserDao);
+        User user = mockUser("user@gmail.com", "password", null, null);
+        User storedUser = mockUser("user@gmail.com", "password", "name", userRole);
+        when(authenticationHandler.getUserOfToken("userToken")).thenReturn(storedUser);
+        when(versionedUserDao.getVersion("user@gmail.com")).thenReturn(Long.valueOf(1));
+        when(versionedUserDao.updatePassword("user@gmail.com", "newPassword", 1)).thenReturn(CredentialUpdate.applied(2));
+        userManager.update("userToken", user, "newPassword");
+        verify(versionedUserDao, times(1)).updatePassword("user@gmail.com", "newPassword", 1);
+        verify(versionedUserDao, never()).getUser("user@gmail.com");
+        verify(versionedUserDao, never()).updateUser(any(User.class));
+    }
+
+    @Test(expected = PasswordChangedException.class)
+    public void testUpdateConflictWithCredentialStore() throws Exception {
+        VersionedUserDao versionedUserDao = mock(VersionedUserDao.class);
+        ((UserManagerToTest) userManager).setUserDao(versionedUserDao);
+        User user = mockUser("user@gmail.com", "password", null, null);
+        User storedUser = mockUser("user@gmail.com", "password", "name", userRole);
+        when(authenticationHandler.getUserOfToken("userToken")).thenReturn(storedUser);
+        when(versionedUserDao.getVersion("user@gmail.com")).thenReturn(Long.valueOf(1));
+        when(versionedUserDao.updatePassword("user@gmail.com", "newPassword", 1)).thenReturn(CredentialUpdate.conflict(2));
+        userManager.update("userToken", user, "newPassword");
+    }
+
+    @Test
+    public void testSupportRoleUpdatesOtherUsers() throws Exception {
+        Role supportRole = mockRole(Long.valueOf(4));
+        Properties rules = PermissionPolicy.defaultPolicy();
+        rules.setProperty("role.4", "UPDATE_SELF,UPDATE_ANY");
+        ((UserManagerToTest) userManager).setPermissionPolicy(new PermissionPolicy(rules));
+        User user = mockUser("user@gmail.com", "password", null, null);
+        User storedUser = mockUser("user@gmail.com", "password", "name", userRole);
+        User support = mockUser("support@gmail.com", "supportPassword", "support", supportRole);
+        when(authenticationHandler.getUserOfToken("supportToken")).thenReturn(support);
+        when(userDao.getUser("user@gmail.com")).thenReturn(storedUser);
+        userManager.update("supportToken", user, "newPassword");
+        verify(userDao, times(1)).updateUser(storedUser);
+        try {
+            userManager.delete("supportToken", user);
+            fail();
+        } catch (PermissionDeniedException e) {
+            verify(userDao, never()).deleteUser("user@gmail.com");
+        }
+        verify(roleDao, never()).getRoleById(Long.valueOf(1));
+    }
 }
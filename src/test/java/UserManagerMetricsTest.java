@@ -0,0 +1,60 @@
+import edu.umflix.authenticationhandler.exceptions.InvalidTokenException;
+import edu.umflix.usermanager.exceptions.EmailAlreadyTakenException;
+import edu.umflix.usermanager.metrics.LatencyHistogram;
+import edu.umflix.usermanager.metrics.UserManagerMetrics;
+import edu.umflix.usermanager.metrics.UserManagerMetrics.Dependency;
+import edu.umflix.usermanager.metrics.UserManagerMetrics.Operation;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for UserManagerMetrics and LatencyHistogram
+ */
+public class UserManagerMetricsTest {
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500.0, histogram.getMean(), 0.1);
+        assertTrue(Math.abs(histogram.getPercentile(50) - 500000) <= 500000 / 16);
+        assertTrue(Math.abs(histogram.getPercentile(99) - 990000) <= 990000 / 16);
+        assertEquals(1000000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(7);
+        histogram.record(-3);
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(7, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testOutcomesAreCountedByClass() {
+        UserManagerMetrics metrics = new UserManagerMetrics();
+        metrics.success(Operation.REGISTER, metrics.start());
+        metrics.failure(Operation.REGISTER, new EmailAlreadyTakenException(), metrics.start());
+        metrics.failure(Operation.REGISTER, new EmailAlreadyTakenException(), metrics.start());
+        metrics.failure(Operation.UPDATE, new InvalidTokenException(), metrics.start());
+        metrics.failure(Operation.UPDATE, new IllegalStateException(), metrics.start());
+        metrics.dependency(Dependency.USER_DAO, metrics.start());
+
+        assertEquals(1, metrics.getSuccesses(Operation.REGISTER));
+        assertEquals(2, metrics.getFailures(Operation.REGISTER, EmailAlreadyTakenException.class));
+        assertEquals(2, metrics.getFailures("register", "EmailAlreadyTakenException"));
+        assertEquals(1, metrics.getFailures(Operation.UPDATE, InvalidTokenException.class));
+        assertEquals(1, metrics.getFailures("update", "other"));
+        assertEquals(3, metrics.getCount("register"));
+        assertEquals(1, metrics.getCount("user_dao"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getCount("register"));
+    }
+}
@@ -0,0 +1,187 @@
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.usermanager.CredentialStore;
+import edu.umflix.usermanager.PagedUserSource;
+import edu.umflix.usermanager.UserRecordCache;
+import edu.umflix.usermanager.invalidation.Invalidation;
+import edu.umflix.usermanager.persistence.CachingUserDao;
+import edu.umflix.usermanager.persistence.InMemoryRoleDao;
+import edu.umflix.usermanager.persistence.InMemoryUserDao;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for UserRecordCache and CachingUserDao
+ */
+public class UserRecordCacheTest {
+
+    Role userRole;
+    CountingUserDao store;
+    UserRecordCache cache;
+    CachingUserDao userDao;
+
+    /**
+     * In memory store that counts the reads that reach it
+     */
+    static class CountingUserDao extends InMemoryUserDao {
+        final AtomicInteger reads = new AtomicInteger();
+
+        CountingUserDao(InMemoryRoleDao roleDao) {
+            super(roleDao);
+        }
+
+        @Override
+        public User getUser(String email) throws UserNotFoundException {
+            reads.incrementAndGet();
+            return super.getUser(email);
+        }
+
+        @Override
+        public boolean exists(String email) {
+            reads.incrementAndGet();
+            return super.exists(email);
+        }
+    }
+
+    @Before
+    public void prepare() {
+        userRole = new Role();
+        userRole.setId(Long.valueOf(3));
+        store = new CountingUserDao(new InMemoryRoleDao(userRole));
+        cache = new UserRecordCache(100, 1, 1, TimeUnit.MINUTES);
+        userDao = CachingUserDao.wrap(store, cache);
+    }
+
+    private User user(String email, String password) {
+        User user = new User();
+        user.setEmail(email);
+        user.setPassword(password);
+        user.setName("name");
+        user.setRole(userRole);
+        return user;
+    }
+
+    @Test
+    public void testReadsAreServedFromTheCache() throws UserNotFoundException {
+        userDao.createUser(user("a@umflix.com", "password"));
+        for (int i = 0; i < 10; i++) {
+            assertEquals("password", userDao.getUser("a@umflix.com").getPassword());
+        }
+        assertEquals(1, store.reads.get());
+        assertEquals(9, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.9, cache.getHitRatio(), 0.001);
+        //the key is the normalized email
+        assertEquals("a@umflix.com", userDao.getUser(" A@UMFLIX.COM ").getEmail());
+        assertEquals(1, store.reads.get());
+    }
+
+    @Test
+    public void testReturnedUsersAreCopies() throws UserNotFoundException {
+        userDao.createUser(user("a@umflix.com", "password"));
+        User first = userDao.getUser("a@umflix.com");
+        first.setPassword("corrupted");
+        User second = userDao.getUser("a@umflix.com");
+        assertEquals("password", second.getPassword());
+        assertNotSame(first, second);
+        assertEquals("password", store.getUser("a@umflix.com").getPassword());
+    }
+
+    @Test
+    public void testNotFoundIsCachedUntilTheUserIsCreated() throws UserNotFoundException {
+        assertFalse(userDao.exists("a@umflix.com"));
+        assertFalse(userDao.exists("a@umflix.com"));
+        try {
+            userDao.getUser("a@umflix.com");
+            fail();
+        } catch (UserNotFoundException e) {
+            //expected
+        }
+        assertEquals(1, store.reads.get());
+        assertEquals(2, cache.getNegativeHits());
+        userDao.createUser(user("a@umflix.com", "password"));
+        assertTrue(userDao.exists("a@umflix.com"));
+        assertEquals(Collections.singleton("a@umflix.com"), userDao.existing(Arrays.asList("a@umflix.com", "b@umflix.com")));
+    }
+
+    @Test
+    public void testNotFoundExpiresSooner() throws Exception {
+        UserRecordCache shortCache = new UserRecordCache(100, 60000, 20, TimeUnit.MILLISECONDS);
+        CachingUserDao dao = CachingUserDao.wrap(store, shortCache);
+        assertFalse(dao.exists("a@umflix.com"));
+        //created behind the back of the cache, as another node would
+        store.createUser(user("a@umflix.com", "password"));
+        assertFalse(dao.exists("a@umflix.com"));
+        Thread.sleep(40);
+        assertTrue(dao.exists("a@umflix.com"));
+    }
+
+    @Test
+    public void testWritesDropTheCachedUser() throws UserNotFoundException {
+        userDao.createUser(user("a@umflix.com", "password"));
+        userDao.getUser("a@umflix.com");
+        userDao.updateUser(user("a@umflix.com", "newPassword"));
+        assertEquals("newPassword", userDao.getUser("a@umflix.com").getPassword());
+        ((CredentialStore) userDao).updatePassword("a@umflix.com", "thirdPassword", CredentialStore.ANY_VERSION);
+        assertEquals("thirdPassword", userDao.getUser("a@umflix.com").getPassword());
+        userDao.deleteUser("a@umflix.com");
+        assertFalse(userDao.exists("a@umflix.com"));
+    }
+
+    @Test
+    public void testOnlyWhatTheWrappedDaoOffersIsOffered() throws UserNotFoundException {
+        assertTrue(userDao instanceof CredentialStore);
+        assertTrue(userDao instanceof PagedUserSource);
+        CachingUserDao plain = CachingUserDao.wrap(new ShardedUserDaoTest.PlainDao(store), cache);
+        assertFalse(plain instanceof CredentialStore);
+        assertFalse(plain instanceof PagedUserSource);
+        CachingUserDao paged = CachingUserDao.wrap(new CredentialMigrationTest.PlainPagedDao(store), cache);
+        assertFalse(paged instanceof CredentialStore);
+        assertTrue(paged instanceof PagedUserSource);
+        plain.createUser(user("a@umflix.com", "password"));
+        assertEquals("password", plain.getUser("a@umflix.com").getPassword());
+    }
+
+    @Test
+    public void testSizeIsBounded() throws UserNotFoundException {
+        UserRecordCache small = new UserRecordCache(10, 1, 1, TimeUnit.MINUTES);
+        CachingUserDao dao = CachingUserDao.wrap(store, small);
+        for (int i = 0; i < 50; i++) {
+            dao.createUser(user("user" + i + "@umflix.com", "password"));
+            dao.getUser("user" + i + "@umflix.com");
+        }
+        assertEquals(10, small.getSize());
+        assertEquals(40, small.getEvictions());
+    }
+
+    @Test
+    public void testLoadsRacingAnInvalidationAreNotCached() throws UserNotFoundException {
+        store.createUser(user("a@umflix.com", "password"));
+        long stamp = cache.stamp();
+        User loaded = store.getUser("a@umflix.com");
+        cache.invalidate("a@umflix.com");
+        cache.put("a@umflix.com", loaded, stamp);
+        assertNull(cache.get("a@umflix.com"));
+    }
+
+    @Test
+    public void testBusInvalidationsDropEntries() throws UserNotFoundException {
+        userDao.createUser(user("a@umflix.com", "password"));
+        userDao.createUser(user("b@umflix.com", "password"));
+        userDao.getUser("a@umflix.com");
+        userDao.getUser("b@umflix.com");
+        cache.onInvalidations(Collections.singletonList(Invalidation.user("a@umflix.com")));
+        assertNull(cache.get("a@umflix.com"));
+        assertNotNull(cache.get("b@umflix.com"));
+        cache.onInvalidations(Collections.singletonList(Invalidation.all()));
+        assertEquals(0, cache.getSize());
+    }
+}
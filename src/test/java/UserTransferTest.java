@@ -0,0 +1,144 @@
+import edu.umflix.authenticationhandler.AuthenticationHandler;
+import edu.umflix.authenticationhandler.exceptions.InvalidTokenException;
+import edu.umflix.authenticationhandler.exceptions.InvalidUserException;
+import edu.umflix.exceptions.UserNotFoundException;
+import edu.umflix.model.Role;
+import edu.umflix.model.User;
+import edu.umflix.usermanager.PagedUserSource;
+import edu.umflix.usermanager.impl.EmbeddedUserManager;
+import edu.umflix.usermanager.persistence.InMemoryRoleDao;
+import edu.umflix.usermanager.persistence.InMemoryUserDao;
+import edu.umflix.usermanager.transfer.TransferProgress;
+import edu.umflix.usermanager.transfer.UserExporter;
+import edu.umflix.usermanager.transfer.UserImporter;
+import edu.umflix.usermanager.transfer.UserJson;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for UserExporter, UserImporter and UserJson
+ */
+public class UserTransferTest {
+
+    InMemoryRoleDao roleDao;
+    InMemoryUserDao userDao;
+    Role userRole;
+
+    @Before
+    public void prepare() {
+        userRole = new Role();
+        userRole.setId(Long.valueOf(3));
+        roleDao = new InMemoryRoleDao(userRole);
+        userDao = new InMemoryUserDao(roleDao);
+    }
+
+    private User user(String email, String password, String name) {
+        User user = new User();
+        user.setEmail(email);
+        user.setPassword(password);
+        user.setName(name);
+        user.setRole(userRole);
+        return user;
+    }
+
+    private EmbeddedUserManager userManager(InMemoryUserDao userDao) {
+        return new EmbeddedUserManager(userDao, roleDao, new AuthenticationHandler() {
+            public String authenticate(User user) throws InvalidUserException {
+                throw new InvalidUserException();
+            }
+
+            public boolean validateToken(String token) {
+                return false;
+            }
+
+            public User getUserOfToken(String token) throws InvalidTokenException {
+                throw new InvalidTokenException();
+            }
+        });
+    }
+
+    @Test
+    public void testJsonRoundTrip() {
+        StringBuilder json = new StringBuilder();
+        UserJson.write(user("user@gmail.com", "pa\"ss\\word", "first\nname\u0001"), json);
+        Map<String, Object> fields = UserJson.parseObject(json);
+        assertEquals("user@gmail.com", fields.get(UserJson.EMAIL));
+        assertEquals("pa\"ss\\word", fields.get(UserJson.PASSWORD));
+        assertEquals("first\nname\u0001", fields.get(UserJson.NAME));
+        assertEquals(Long.valueOf(3), fields.get(UserJson.ROLE_ID));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedJson() {
+        UserJson.parseObject("{\"email\":\"user@gmail.com\"");
+    }
+
+    @Test
+    public void testExportThenImport() throws IOException, UserNotFoundException {
+        for (int i = 0; i < 25; i++) {
+            userDao.createUser(user("user" + i + "@gmail.com", "password" + i, "name" + i));
+        }
+        StringWriter out = new StringWriter();
+        final AtomicInteger pages = new AtomicInteger();
+        TransferProgress exported = new UserExporter(userDao, 10).export(out, new TransferProgress.Listener() {
+            public void onProgress(TransferProgress progress) {
+                pages.incrementAndGet();
+            }
+        });
+        assertEquals(25, exported.getProcessed());
+        assertEquals(3, pages.get());
+        assertTrue(exported.isFinished());
+
+        InMemoryUserDao target = new InMemoryUserDao(roleDao);
+        TransferProgress imported = new UserImporter(userManager(target), 7).importUsers(new StringReader(out.toString()), null);
+        assertEquals(25, imported.getSucceeded());
+        assertEquals(0, imported.getFailed());
+        assertEquals(25, target.size());
+        User user = target.getUser("user7@gmail.com");
+        assertEquals("password7", user.getPassword());
+        assertEquals("name7", user.getName());
+        assertEquals(userRole, user.getRole());
+    }
+
+    @Test
+    public void testImportRunsRegistrationChecks() throws IOException {
+        userDao.createUser(user("taken@gmail.com", "password", "name"));
+        String lines = "{\"email\":\"new@gmail.com\",\"name\":\"new\",\"roleId\":3,\"password\":\"password\"}\n"
+                + "{\"email\":\"taken@gmail.com\",\"name\":\"taken\",\"roleId\":3,\"password\":\"password\"}\n"
+                + "{\"email\":\"norole@gmail.com\",\"name\":\"norole\",\"roleId\":10,\"password\":\"password\"}\n"
+                + "{\"email\":\"not an email\",\"name\":\"bad\",\"roleId\":3,\"password\":\"password\"}\n"
+                + "\n"
+                + "not json\n"
+                + "{\"email\":\"new@gmail.com\",\"name\":\"again\",\"roleId\":3,\"password\":\"password\"}\n";
+        TransferProgress progress = new UserImporter(userManager(userDao)).importUsers(new StringReader(lines), null);
+        assertEquals(6, progress.getProcessed());
+        assertEquals(1, progress.getSucceeded());
+        assertEquals(5, progress.getFailed());
+        assertEquals(2, userDao.size());
+    }
+
+    @Test(timeout = 5000)
+    public void testExportRethrowsErrorsOfTheSource() throws IOException {
+        final AssertionError failure = new AssertionError("source broken");
+        UserExporter exporter = new UserExporter(new PagedUserSource() {
+            public List<User> page(String afterEmail, int limit) {
+                throw failure;
+            }
+        });
+        try {
+            exporter.export(new StringWriter(), null);
+            fail();
+        } catch (AssertionError e) {
+            assertSame(failure, e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import edu.umflix.usermanager.UserValidator;
+import edu.umflix.usermanager.exceptions.InvalidEmailException;
+import edu.umflix.usermanager.exceptions.InvalidPasswordException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for UserValidator
+ */
+public class UserValidatorTest {
+
+    UserValidator userValidator = new UserValidator(1, 256, false, false);
+
+    @Test
+    public void testValidEmails() {
+        assertTrue(userValidator.isValidEmail("user@gmail.com"));
+        assertTrue(userValidator.isValidEmail("a@e.c"));
+        assertTrue(userValidator.isValidEmail("first.last+tag@mail.umflix-edu.org"));
+        assertTrue(userValidator.isValidEmail("  User@Gmail.com \n"));
+        assertTrue(userValidator.isValidEmail("o'brien@localhost"));
+    }
+
+    @Test
+    public void testInvalidEmails() {
+        assertFalse(userValidator.isValidEmail(null));
+        assertFalse(userValidator.isValidEmail(""));
+        assertFalse(userValidator.isValidEmail("   "));
+        assertFalse(userValidator.isValidEmail("user"));
+        assertFalse(userValidator.isValidEmail("@gmail.com"));
+        assertFalse(userValidator.isValidEmail("user@"));
+        assertFalse(userValidator.isValidEmail("user@@gmail.com"));
+        assertFalse(userValidator.isValidEmail("us@er@gmail.com"));
+        assertFalse(userValidator.isValidEmail(".user@gmail.com"));
+        assertFalse(userValidator.isValidEmail("user.@gmail.com"));
+        assertFalse(userValidator.isValidEmail("us..er@gmail.com"));
+        assertFalse(userValidator.isValidEmail("user@gmail..com"));
+        assertFalse(userValidator.isValidEmail("user@-gmail.com"));
+        assertFalse(userValidator.isValidEmail("user@gmail-.com"));
+        assertFalse(userValidator.isValidEmail("user@gmail.com."));
+        assertFalse(userValidator.isValidEmail("us er@gmail.com"));
+        assertFalse(userValidator.isValidEmail("us\u00e9r@gmail.com"));
+        assertFalse(userValidator.isValidEmail("user@gmail_com"));
+        StringBuilder longLocalPart = new StringBuilder();
+        for (int i = 0; i < 65; i++) {
+            longLocalPart.append('a');
+        }
+        assertFalse(userValidator.isValidEmail(longLocalPart + "@gmail.com"));
+    }
+
+    @Test
+    public void testNormalizeEmail() {
+        String normalized = "user@gmail.com";
+        assertSame(normalized, UserValidator.normalizeEmail(normalized));
+        assertEquals("user@gmail.com", UserValidator.normalizeEmail("  User@GMAIL.com "));
+        assertEquals("user@gmail.com", UserValidator.normalizeEmail("user@gmail.com\t"));
+        assertNull(UserValidator.normalizeEmail(null));
+    }
+
+    @Test
+    public void testPasswordPolicy() {
+        assertTrue(userValidator.isValidPassword("passwd"));
+        assertFalse(userValidator.isValidPassword(null));
+        assertFalse(userValidator.isValidPassword(""));
+        assertFalse(userValidator.isValidPassword("   "));
+
+        UserValidator strict = new UserValidator(8, 16, true, true);
+        assertTrue(strict.isValidPassword("password1"));
+        assertFalse(strict.isValidPassword("pass1"));
+        assertFalse(strict.isValidPassword("password"));
+        assertFalse(strict.isValidPassword("12345678"));
+        assertFalse(strict.isValidPassword("password123456789"));
+    }
+
+    @Test(expected = InvalidEmailException.class)
+    public void testCheckEmail() throws InvalidEmailException {
+        userValidator.checkEmail("user");
+    }
+
+    @Test(expected = InvalidPasswordException.class)
+    public void testCheckPassword() throws InvalidPasswordException {
+        userValidator.checkPassword("");
+    }
+}
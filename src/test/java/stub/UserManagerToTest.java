@@ -3,7 +3,14 @@ package stub;
 import edu.umflix.authenticationhandler.AuthenticationHandler;
 import edu.umflix.persistence.RoleDao;
 import edu.umflix.persistence.UserDao;
+import edu.umflix.usermanager.LoginThrottle;
+import edu.umflix.usermanager.EmailReservations;
+import edu.umflix.usermanager.PermissionPolicy;
+import edu.umflix.usermanager.RoleDirectory;
+import edu.umflix.usermanager.TokenCache;
+import edu.umflix.usermanager.credentials.CredentialEngine;
 import edu.umflix.usermanager.impl.UserManagerImpl;
+import edu.umflix.usermanager.metrics.UserManagerMetrics;
 
 import javax.ejb.EJB;
 
@@ -12,15 +19,34 @@ import javax.ejb.EJB;
  */
 public class UserManagerToTest extends UserManagerImpl {
 
+    public UserManagerToTest() {
+        super.metrics = new UserManagerMetrics();
+        super.permissionPolicy = new PermissionPolicy();
+        super.emailReservations = new EmailReservations();
+    }
+
     public void setUserDao(UserDao userDao) {
         super.userDao = userDao;
     }
 
     public void setRoleDao(RoleDao roleDao) {
-        super.roleDao = roleDao;
+        super.roleDirectory = new RoleDirectory(roleDao);
     }
 
     public void setAuthenticationHandler(AuthenticationHandler authenticationHandler) {
         super.authenticationHandler = authenticationHandler;
+        super.tokenCache = new TokenCache();
+    }
+
+    public void setPermissionPolicy(PermissionPolicy permissionPolicy) {
+        super.permissionPolicy = permissionPolicy;
+    }
+
+    public void setCredentialEngine(CredentialEngine credentialEngine) {
+        super.credentialEngine = credentialEngine;
+    }
+
+    public void setLoginThrottle(LoginThrottle loginThrottle) {
+        super.loginThrottle = loginThrottle;
     }
 }